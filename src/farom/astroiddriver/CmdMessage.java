@@ -33,34 +33,36 @@ public class CmdMessage {
 	
 	public byte[] getBytes(){
 		ByteBuffer buffer = ByteBuffer.allocate(MESSAGE_SIZE);
-		buffer.order(ByteOrder.BIG_ENDIAN);
-		buffer.putFloat(0, speedHA);
-		buffer.putFloat(4, speedDE);
-		buffer.putFloat(8, powerHA);
-		buffer.putFloat(12, powerDE);
-		buffer.put(16,(byte) ((powerAUX1/256) & 0xFF));
-		buffer.put(17,(byte) (powerAUX1 & 0xFF));
-		buffer.put(18,(byte) ((powerAUX2/256) & 0xFF));
-		buffer.put(19,(byte) (powerAUX2 & 0xFF));
-		buffer.put(20,(byte) ((powerAUX3/256) & 0xFF));
-		buffer.put(21,(byte) (powerAUX3 & 0xFF));
-		buffer.put(22,(byte) (bulbState & 0xFF));
-		buffer.putFloat(23, speedFOCUS);
-		buffer.putFloat(27, powerFOCUS);
+		encode(buffer);
+		return buffer.array();
+	}
+
+	/**
+	 * Encode the message into a frame of MESSAGE_SIZE bytes, without
+	 * allocating, so the same buffer can be used for every command
+	 * @param frame the buffer, written with absolute puts from index 0
+	 */
+	public void encode(ByteBuffer frame){
+		frame.order(ByteOrder.BIG_ENDIAN);
+		frame.putFloat(0, speedHA);
+		frame.putFloat(4, speedDE);
+		frame.putFloat(8, powerHA);
+		frame.putFloat(12, powerDE);
+		frame.put(16,(byte) ((powerAUX1/256) & 0xFF));
+		frame.put(17,(byte) (powerAUX1 & 0xFF));
+		frame.put(18,(byte) ((powerAUX2/256) & 0xFF));
+		frame.put(19,(byte) (powerAUX2 & 0xFF));
+		frame.put(20,(byte) ((powerAUX3/256) & 0xFF));
+		frame.put(21,(byte) (powerAUX3 & 0xFF));
+		frame.put(22,(byte) (bulbState & 0xFF));
+		frame.putFloat(23, speedFOCUS);
+		frame.putFloat(27, powerFOCUS);
 		
-		byte[] array = buffer.array();
 		int sum = 0;
 		for(int i=0; i<MESSAGE_SIZE-1; i++){
-			sum+=array[i];
+			sum+=frame.get(i);
 		}
-		array[MESSAGE_SIZE-1]=(byte) (sum & 0xFF);
-		
-//		System.out.print("send: ");
-//		for(int i =0; i<MESSAGE_SIZE; i++){
-//			System.out.printf("%02X ", array[i]);
-//		}
-//		System.out.println("");
-		return array;
+		frame.put(MESSAGE_SIZE-1, (byte) (sum & 0xFF));
 	}
 
 	/**
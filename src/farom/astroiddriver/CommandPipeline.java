@@ -0,0 +1,296 @@
+package farom.astroiddriver;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Send the command messages to the device from a single writer thread. A
+ * submitted command is encoded at once into a reusable frame, so the callers
+ * never wait for the serial link and can not interleave their frames. The
+ * writer always sends the newest submitted frame: the ones submitted while it
+ * waits are replaced (coalesced). Two frames are separated by at least the
+ * minimum gap (a 32 bytes frame takes about 33ms at 9600 bauds), and a frame
+ * identical to the last one sent is not sent again, unless the last one is
+ * older than the refresh period (in case it has been lost on the line).
+ * An URGENT frame (abort, stop) supersedes the pending NORMAL one and is sent
+ * as soon as the writer is free, without waiting for the gap and even if it
+ * is identical to the last one. The pending frame keeps the URGENT priority
+ * until it is sent, even if NORMAL commands are submitted after it (they
+ * contain the stop too, as the command is the current state of the device).
+ * The latency from the submission to the end of the write is measured for
+ * each priority. It does not depend on the serial library.
+ * @author farom
+ */
+public class CommandPipeline {
+	/**
+	 * The default minimum time between the start of two frames, in ns
+	 */
+	public static final long DEFAULT_MIN_GAP = 35000000L;
+	/**
+	 * The time after which an identical frame is sent again, in ns
+	 */
+	public static final long REFRESH_PERIOD = 1000000000L;
+	private static final long IDLE_PARK = 100000000L; // ns, to check if the thread must stop
+
+	/**
+	 * The priorities of the commands
+	 */
+	public enum Priority {
+		/** routine updates (tracking, slews, settings) */
+		NORMAL,
+		/** abort and stop commands, which must reach the device at once */
+		URGENT
+	}
+
+	/**
+	 * Write the frames to the device
+	 */
+	public interface FrameWriter {
+		/**
+		 * Called by the writer thread for each frame to be sent
+		 * @param frame the CmdMessage bytes, only valid during the call
+		 * @return false if the frame could not be written
+		 */
+		boolean writeFrame(byte[] frame);
+	}
+
+	private FrameWriter writer;
+	private long minGap;
+	private final Object lock = new Object();
+	private ByteBuffer pending; // newest submitted frame, guarded by lock
+	private boolean dirty; // pending not taken by the writer yet, guarded by lock
+	private Priority priority; // of the pending frame, guarded by lock
+	private long pendingSince; // System.nanoTime() of the oldest submission not taken yet, guarded by lock
+	private long urgentSince; // System.nanoTime() of the oldest urgent submission not taken yet, guarded by lock
+	private byte[] out; // frame being written, only used by the writer thread
+	private byte[] last; // last frame written, only used by the writer thread
+	private boolean hasLast;
+	private long lastWrite; // System.nanoTime() of the last write
+	private volatile boolean running;
+	private Thread thread;
+	private volatile long submitted;
+	private volatile long written;
+	private volatile long coalesced;
+	private volatile long suppressed;
+	private volatile long errors;
+	private long[] latencyCount; // by priority, only written by the writer thread
+	private long[] latencyTotal; // ns
+	private long[] latencyMax; // ns
+
+	/**
+	 * @param writer writes the frames to the device
+	 * @param minGap the minimum time between the start of two frames, in ns
+	 */
+	public CommandPipeline(FrameWriter writer, long minGap) {
+		this.writer = writer;
+		this.minGap = minGap;
+		pending = ByteBuffer.allocate(CmdMessage.MESSAGE_SIZE);
+		out = new byte[CmdMessage.MESSAGE_SIZE];
+		last = new byte[CmdMessage.MESSAGE_SIZE];
+		priority = Priority.NORMAL;
+		latencyCount = new long[Priority.values().length];
+		latencyTotal = new long[Priority.values().length];
+		latencyMax = new long[Priority.values().length];
+	}
+
+	/**
+	 * Encode the command and make it the next frame to be sent, with the NORMAL
+	 * priority. It never blocks on the serial link.
+	 * @param command
+	 */
+	public void submit(CmdMessage command) {
+		submit(command, Priority.NORMAL);
+	}
+
+	/**
+	 * Encode the command and make it the next frame to be sent. It never
+	 * blocks on the serial link.
+	 * @param command
+	 * @param p the priority
+	 */
+	public void submit(CmdMessage command, Priority p) {
+		long now = System.nanoTime();
+		synchronized (lock) {
+			command.encode(pending);
+			if (dirty) {
+				coalesced++;
+			} else {
+				priority = Priority.NORMAL;
+				pendingSince = now;
+			}
+			if (p == Priority.URGENT && priority != Priority.URGENT) {
+				priority = Priority.URGENT;
+				urgentSince = now;
+			}
+			dirty = true;
+			submitted++;
+		}
+		Thread t = thread;
+		if (t != null) {
+			LockSupport.unpark(t);
+		}
+	}
+
+	/**
+	 * Start the writer thread. A frame submitted before is sent at once.
+	 * @param name the name of the thread
+	 * @throws IllegalStateException if the writer thread of the previous start is still running
+	 */
+	public void start(String name) {
+		if (thread != null && thread.isAlive()) {
+			throw new IllegalStateException("The command writer is still running");
+		}
+		hasLast = false;
+		lastWrite = System.nanoTime() - minGap;
+		running = true;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop the writer thread and wait until it has exited (a write in progress
+	 * is finished first). The frame not sent yet, if any, is kept.
+	 */
+	public void stop() {
+		Thread t = thread;
+		if (t == null) {
+			return;
+		}
+		running = false;
+		boolean interrupted = false;
+		while (t.isAlive()) {
+			LockSupport.unpark(t);
+			try {
+				t.join(IDLE_PARK / 1000000L);
+			} catch (InterruptedException e) {
+				interrupted = true; // keep waiting, so that two writers never share the port
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+	}
+
+	/**
+	 * Body of the writer thread
+	 */
+	private void writeLoop() {
+		while (running) {
+			boolean ready;
+			boolean urgent;
+			synchronized (lock) {
+				ready = dirty;
+				urgent = priority == Priority.URGENT;
+			}
+			if (!ready) {
+				LockSupport.parkNanos(this, IDLE_PARK);
+				continue;
+			}
+
+			long wait = lastWrite + minGap - System.nanoTime();
+			if (wait > 0 && !urgent) {
+				LockSupport.parkNanos(this, wait); // a newer or urgent frame may be submitted meanwhile
+				continue;
+			}
+
+			Priority p;
+			long since;
+			synchronized (lock) {
+				System.arraycopy(pending.array(), 0, out, 0, CmdMessage.MESSAGE_SIZE);
+				dirty = false;
+				p = priority;
+				since = p == Priority.URGENT ? urgentSince : pendingSince;
+				priority = Priority.NORMAL;
+			}
+
+			long now = System.nanoTime();
+			if (p != Priority.URGENT && hasLast && Arrays.equals(out, last) && now - lastWrite < REFRESH_PERIOD) {
+				suppressed++;
+				continue;
+			}
+
+			if (!writer.writeFrame(out)) {
+				errors++; // the same frame is not suppressed if it is submitted again
+				continue;
+			}
+			System.arraycopy(out, 0, last, 0, CmdMessage.MESSAGE_SIZE);
+			hasLast = true;
+			lastWrite = now;
+			written++;
+
+			long latency = System.nanoTime() - since;
+			int i = p.ordinal();
+			latencyCount[i]++;
+			latencyTotal[i] += latency;
+			latencyMax[i] = Math.max(latencyMax[i], latency);
+		}
+	}
+
+	/**
+	 * @return the number of submitted commands
+	 */
+	public long getSubmitted() {
+		return submitted;
+	}
+
+	/**
+	 * @return the number of frames written
+	 */
+	public long getWritten() {
+		return written;
+	}
+
+	/**
+	 * @return the number of frames replaced by a newer one before being sent
+	 */
+	public long getCoalesced() {
+		return coalesced;
+	}
+
+	/**
+	 * @return the number of frames not sent because identical to the last one
+	 */
+	public long getSuppressed() {
+		return suppressed;
+	}
+
+	/**
+	 * @return the number of frames that could not be written
+	 */
+	public long getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @param p the priority
+	 * @return the number of frames of this priority written
+	 */
+	public long getLatencyCount(Priority p) {
+		return latencyCount[p.ordinal()];
+	}
+
+	/**
+	 * @param p the priority
+	 * @return the mean time from the submission to the end of the write of the frames of this priority, in ns
+	 */
+	public long getMeanLatency(Priority p) {
+		long n = latencyCount[p.ordinal()];
+		return n == 0 ? 0 : latencyTotal[p.ordinal()] / n;
+	}
+
+	/**
+	 * @param p the priority
+	 * @return the maximum time from the submission to the end of the write of the frames of this priority, in ns
+	 */
+	public long getMaxLatency(Priority p) {
+		return latencyMax[p.ordinal()];
+	}
+}
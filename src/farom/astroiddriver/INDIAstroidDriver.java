@@ -35,6 +35,12 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 	 */
 	private static final long CONNECTION_TIMEOUT_ALERT = 1000; // the link
 
+	/**
+	 * maximum rate (Hz) at which the coordinates, rates and focuser position
+	 * are sent to the clients while moving
+	 */
+	private static final double PUBLISH_RATE = 5;
+
 	private static final double GOTO_STOP_DISTANCE = 1. / 60.;
 	private static final double GOTO_SLOW_DISTANCE = 15. / 60.;
 	private static final float MAX_SPEED = 623*2;
@@ -166,7 +172,7 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 	private INDINumberElement powerAux3E;
 
 	
-	protected StatusMessage lastStatusMessage;
+	protected volatile StatusMessage lastStatusMessage;
 	protected CmdMessage command;
 
 	private double syncCoordHA;
@@ -235,6 +241,7 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 				Constants.PropertyStates.IDLE, Constants.PropertyPermissions.RW); // EQUATORIAL_EOD_COORD
 		eqCoordRAE = new INDINumberElement(eqCoordP, "RA", "RA (hh:mm:ss)", 0., 0, 24, 0, "%010.6m"); // RA
 		eqCoordDEE = new INDINumberElement(eqCoordP, "DEC", "DEC (dd:mm:ss)", 0., -180, 180, 0, "%010.6m"); // DEC
+		eqCoordP.setMaxPublishRate(PUBLISH_RATE);
 
 		
 		sideP = new INDISwitchProperty(this, "TELESCOPE_PIER_SIDE", "Telescope side", "Main Control",
@@ -281,6 +288,7 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 				"%7.2f");
 		trackingRateE = new INDINumberElement(currentRateP, "TRACKING_RATE", "Tracking rate (X)", 1, -MAX_SPEED, MAX_SPEED, 0,
 				"%7.2f");
+		currentRateP.setMaxPublishRate(PUBLISH_RATE);
 		
 
 		
@@ -332,6 +340,7 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 		absFocusPosP = new INDINumberProperty(this, "ABS_FOCUS_POSITION", "Absolute position", "Auxiliary",
 				Constants.PropertyStates.IDLE, Constants.PropertyPermissions.RW); // ABS_FOCUS_POSITION
 		absFocusPosE = new INDINumberElement(absFocusPosP, "FOCUS_ABSOLUTE_POSITION", "Abs position", 0, -1e9, 1e9, 0,"%7.2f"); // FOCUS_ABSOLUTE_POSITION
+		absFocusPosP.setMaxPublishRate(PUBLISH_RATE);
 		
 		trackModeP = new INDISwitchProperty(this, "TELESCOPE_TRACK_MODE", "Track mode", "Motion Control",
 				Constants.PropertyStates.IDLE, Constants.PropertyPermissions.RW, Constants.SwitchRules.ONE_OF_MANY); // TELESCOPE_TRACK_RATE
@@ -353,6 +362,7 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 		trackRateP = new INDINumberProperty(this, "TELESCOPE_TRACK_RATE", "Custom track rate", "Motion Control", Constants.PropertyStates.IDLE, Constants.PropertyPermissions.RW);		
 		trackRateRAE = new INDINumberElement(trackRateP, "TRACK_RATE_RA", "RA (arcsecs/sec)", SIDERAL_RATE_ASEC, -7200, 7200, 1,"%9.6f");
 		trackRateDEE = new INDINumberElement(trackRateP, "TRACK_RATE_DE", "DE (arcsecs/sec)", 0, -7200, 7200, 1,"%9.6f");
+		trackRateP.setMaxPublishRate(PUBLISH_RATE);
 		
 
 
@@ -680,11 +690,13 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 					}
 					
 					slewDESpeed = motionSpeed;
-					updateSpeed();
+					updateSpeed(true);
 					
 					TimerTask task = new TimerTask() {					
 						@Override
 						public void run() {
+							slewDESpeed = 0;
+							updateSpeed(true);
 							timedGuideNSP.setState(PropertyStates.OK);
 							motionNE.setValue(SwitchStatus.OFF);
 							try {
@@ -693,8 +705,6 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 							} catch (INDIException e) {
 								e.printStackTrace();
 							}
-							slewDESpeed = 0;
-							updateSpeed();
 						}
 					};
 					Timer timer = new Timer();
@@ -710,10 +720,12 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 						e.printStackTrace();
 					}
 					slewDESpeed = -motionSpeed;
-					updateSpeed();
+					updateSpeed(true);
 					TimerTask task = new TimerTask() {					
 						@Override
 						public void run() {
+							slewDESpeed = 0;
+							updateSpeed(true);
 							timedGuideNSP.setState(PropertyStates.OK);	
 							motionSE.setValue(SwitchStatus.OFF);
 							try {
@@ -722,8 +734,6 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 							} catch (INDIException e) {
 								e.printStackTrace();
 							}
-							slewDESpeed = 0;
-							updateSpeed();
 						}
 					};
 					Timer timer = new Timer();
@@ -767,10 +777,12 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 						e.printStackTrace();
 					}
 					slewRASpeed = -motionSpeed;
-					updateSpeed();
+					updateSpeed(true);
 					TimerTask task = new TimerTask() {					
 						@Override
 						public void run() {
+							slewRASpeed = 0;
+							updateSpeed(true);
 							timedGuideWEP.setState(PropertyStates.OK);
 							motionWE.setValue(SwitchStatus.OFF);
 							try {
@@ -779,8 +791,6 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 							} catch (INDIException e) {
 								e.printStackTrace();
 							}
-							slewRASpeed = 0;
-							updateSpeed();
 						}
 					};
 					Timer timer = new Timer();
@@ -796,10 +806,12 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 						e.printStackTrace();
 					}
 					slewRASpeed = motionSpeed;
-					updateSpeed();
+					updateSpeed(true);
 					TimerTask task = new TimerTask() {					
 						@Override
 						public void run() {
+							slewRASpeed = 0;
+							updateSpeed(true);
 							timedGuideWEP.setState(PropertyStates.OK);	
 							motionEE.setValue(SwitchStatus.OFF);
 							try {
@@ -808,8 +820,6 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 							} catch (INDIException e) {
 								e.printStackTrace();
 							}
-							slewRASpeed = 0;
-							updateSpeed();
 						}
 					};
 					Timer timer = new Timer();
@@ -1056,7 +1066,7 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 					telescopeMotionNSP.setState(PropertyStates.OK);
 				} else {
 					slewDESpeed = 0;
-					updateSpeed();
+					updateSpeed(true); // released: stop the axis without waiting
 					telescopeMotionNSP.setState(PropertyStates.IDLE);
 				}
 				
@@ -1111,7 +1121,7 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 					slewRASpeed = 0;
 					telescopeMotionWEP.setState(PropertyStates.IDLE);
 				}
-				updateSpeed();
+				updateSpeed(slewRASpeed == 0); // released: stop the axis without waiting
 	
 				try {
 					updateProperty(telescopeMotionWEP);
@@ -1168,7 +1178,7 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 						gotoActive = false;
 						slewDESpeed = 0;
 						slewRASpeed = 0;
-						updateSpeed();
+						updateSpeed(true);
 	
 						motionEE.setValue(SwitchStatus.OFF);
 						motionWE.setValue(SwitchStatus.OFF);
@@ -1213,7 +1223,7 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 					if (val == SwitchStatus.ON) {
 						command.setSpeedFOCUS(0.f);
 						command.setPowerFOCUS(0.f);
-						sendCommand();
+						sendUrgentCommand();
 						focusAbortMotionP.setState(PropertyStates.OK);
 					}
 
@@ -1400,6 +1410,15 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 	 */
 	protected abstract void sendCommand();
 
+	/**
+	 * Send the current command message to the device ahead of the routine
+	 * ones: for the aborts, the stops and the guide pulses, whose timing
+	 * matters. By default the same as sendCommand().
+	 */
+	protected void sendUrgentCommand() {
+		sendCommand();
+	}
+
 	/**
 	 * @return the declination in deg (between -90deg and 270deg)
 	 */
@@ -1474,10 +1493,11 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 	 * @param DE
 	 */
 	private void syncCoordinates(double RA, double DE) {
+		StatusMessage status = lastStatusMessage; // both steps from the same message
 		syncCoordDE = DE;
-		syncStepDE = lastStatusMessage.getDE();
+		syncStepDE = status.getDE();
 		syncCoordHA = getSiderealTime() - RA;
-		syncStepHA = lastStatusMessage.getHA();
+		syncStepHA = status.getHA();
 		eqCoordP.setState(PropertyStates.OK);
 		updateStatus();
 	}
@@ -1500,6 +1520,8 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 
 			double dt = ((new Date()).getTime()-lastGotoUpdate.getTime())/1000.;
 			lastGotoUpdate = new Date();
+			double previousRASpeed = slewRASpeed;
+			double previousDESpeed = slewDESpeed;
 
 			
 			// DE
@@ -1539,7 +1561,8 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 //			printMessage("GOTO_STOP_DISTANCE="+GOTO_STOP_DISTANCE);
 
 			
-			updateSpeed();
+			// an axis reaching the target is stopped without waiting
+			updateSpeed((previousRASpeed != 0 && slewRASpeed == 0) || (previousDESpeed != 0 && slewDESpeed == 0));
 
 			if (slewRASpeed == 0 && slewDESpeed == 0) {
 				gotoActive = false;
@@ -1597,7 +1620,7 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 			public void run() {
 				command.setSpeedFOCUS(0.f);
 				command.setPowerFOCUS(0.f);
-				sendCommand();
+				sendUrgentCommand();
 				prop.setState(PropertyStates.OK);
 				try {
 					updateProperty(prop);
@@ -1661,6 +1684,13 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 	 * declination increase when the DE speed is positive
 	 */
 	private void updateSpeed(){
+		updateSpeed(false);
+	}
+
+	/**
+	 * @param urgent true to send the command with sendUrgentCommand()
+	 */
+	private void updateSpeed(boolean urgent){
 		double speedDE, speedHA;
 		
 		speedDE = (trackSpeedDE+slewDESpeed) * (sideEastE.getValue() == SwitchStatus.ON ? 1 : -1);
@@ -1670,7 +1700,11 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 		command.setSpeedHA((float)speedHA);
 		command.setPowerHA((float)powerHA);
 		command.setPowerDE((float)powerDE);
-		sendCommand();
+		if (urgent) {
+			sendUrgentCommand();
+		} else {
+			sendCommand();
+		}
 		
 		currentRARateE.setValue(slewRASpeed);
 		currentDERateE.setValue(slewDESpeed);
@@ -1694,7 +1728,7 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 			currentTask = this;
 			
 			command.enableBulb();
-			sendCommand();
+			sendUrgentCommand(); // the exposure time is measured from here
 
 			intervalometer.schedule(new CompleteTask(), (long)(exposureTimeE.getValue()*1000));
 			
@@ -1714,7 +1748,7 @@ public abstract class INDIAstroidDriver extends INDIDriver implements INDIConnec
 			printMessage("Complete");
 			currentTask = this;
 			command.disableBulb();
-			sendCommand();			
+			sendUrgentCommand();			
 			
 			double n = exposureNumberE.getValue();
 			n=n-1;
@@ -0,0 +1,187 @@
+package farom.astroiddriver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Extract the status frames from the byte stream of the device. A frame is a
+ * start flag (0x55) followed by a StatusMessage of MESSAGE_SIZE bytes ending
+ * with its checksum. The bytes are kept in a ring buffer until they are part
+ * of a valid frame or known to be garbage, so a read of any size (several
+ * frames, or a frame split between reads) is handled without losing frames.
+ * When a checksum is not valid only the start flag is discarded and the
+ * search starts again from the next byte, since 0x55 may appear inside a
+ * frame. It does not depend on the serial library, so it can be fed with
+ * captured byte streams.
+ * @author farom
+ */
+public class StatusFrameSynchronizer {
+	/**
+	 * The first byte of every frame
+	 */
+	public static final byte START_FLAG = 0x55;
+	/**
+	 * The number of bytes of a frame, including the start flag
+	 */
+	public static final int FRAME_SIZE = StatusMessage.MESSAGE_SIZE + 1;
+	private static final int CAPACITY = 256; // a power of two, larger than FRAME_SIZE
+
+	/**
+	 * The synchronization states
+	 */
+	public enum State {
+		/** a start flag is expected at the next byte */
+		SYNCED,
+		/** looking for a start flag, after a garbage byte or a bad checksum */
+		HUNTING
+	}
+
+	/**
+	 * Receive the valid frames
+	 */
+	public interface FrameListener {
+		/**
+		 * Called for each valid frame
+		 * @param frame the StatusMessage bytes (without the start flag), only valid during the call
+		 */
+		void frameReceived(ByteBuffer frame);
+	}
+
+	private FrameListener listener;
+	private byte[] ring;
+	private int head; // index of the first byte kept
+	private int count; // number of bytes kept
+	private ByteBuffer frame;
+	private State state;
+	private long frameCount;
+	private long droppedBytes;
+	private long badChecksums;
+	private long resyncs;
+
+	/**
+	 * @param listener receives the valid frames
+	 */
+	public StatusFrameSynchronizer(FrameListener listener) {
+		this.listener = listener;
+		ring = new byte[CAPACITY];
+		frame = ByteBuffer.allocate(StatusMessage.MESSAGE_SIZE);
+		reset();
+	}
+
+	/**
+	 * Discard the bytes kept and start hunting for a frame (the counters are not reset)
+	 */
+	public void reset() {
+		head = 0;
+		count = 0;
+		state = State.HUNTING;
+	}
+
+	/**
+	 * Feed the bytes read from the device. The listener is called for each
+	 * frame completed by them.
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 */
+	public void feed(byte[] bytes, int offset, int length) {
+		while (length > 0) {
+			// process() always leaves less than FRAME_SIZE bytes, so there is room for the next chunk
+			int n = Math.min(length, CAPACITY - count);
+			for (int i = 0; i < n; i++) {
+				ring[(head + count + i) & (CAPACITY - 1)] = bytes[offset + i];
+			}
+			count += n;
+			offset += n;
+			length -= n;
+			process();
+		}
+	}
+
+	/**
+	 * Extract the frames of the bytes kept, until there are not enough bytes for a frame
+	 */
+	private void process() {
+		while (count > 0) {
+			if (ring[head] != START_FLAG) {
+				lostSync();
+				drop();
+				continue;
+			}
+
+			if (count < FRAME_SIZE) {
+				return; // waiting for the rest of the frame
+			}
+
+			byte[] f = frame.array();
+			for (int i = 0; i < StatusMessage.MESSAGE_SIZE; i++) {
+				f[i] = ring[(head + 1 + i) & (CAPACITY - 1)];
+			}
+
+			if (StatusMessage.verify(frame)) {
+				head = (head + FRAME_SIZE) & (CAPACITY - 1);
+				count -= FRAME_SIZE;
+				state = State.SYNCED;
+				frameCount++;
+				listener.frameReceived(frame);
+			} else {
+				badChecksums++;
+				lostSync();
+				drop(); // only the start flag: the frame may start later
+			}
+		}
+	}
+
+	/**
+	 * Discard the first byte kept
+	 */
+	private void drop() {
+		head = (head + 1) & (CAPACITY - 1);
+		count--;
+		droppedBytes++;
+	}
+
+	/**
+	 * Go to the HUNTING state, counting a resync if the stream was synchronized
+	 */
+	private void lostSync() {
+		if (state == State.SYNCED) {
+			state = State.HUNTING;
+			resyncs++;
+		}
+	}
+
+	/**
+	 * @return the synchronization state
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return the number of valid frames
+	 */
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * @return the number of bytes discarded while hunting for a frame
+	 */
+	public long getDroppedBytes() {
+		return droppedBytes;
+	}
+
+	/**
+	 * @return the number of frames with a bad checksum
+	 */
+	public long getBadChecksums() {
+		return badChecksums;
+	}
+
+	/**
+	 * @return the number of times that the synchronization has been lost
+	 */
+	public long getResyncs() {
+		return resyncs;
+	}
+}
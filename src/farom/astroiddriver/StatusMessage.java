@@ -11,6 +11,7 @@ import java.util.Date;
 public class StatusMessage{
 	public static final int MESSAGE_SIZE = 56;
 	protected long time;
+	protected long arrivalTime;
 	protected int msCount;
 	protected int stepHA;
 	protected int stepDE;
@@ -33,27 +34,78 @@ public class StatusMessage{
 	 * @param buffer
 	 */
 	public StatusMessage(byte buffer[]){
-		time = (new Date()).getTime();
-		msCount = ByteBuffer.wrap(buffer,0,4).order(ByteOrder.BIG_ENDIAN).getInt();
-        stepHA = ByteBuffer.wrap(buffer,4,4).order(ByteOrder.BIG_ENDIAN).getInt();
-        stepDE = ByteBuffer.wrap(buffer,8,4).order(ByteOrder.BIG_ENDIAN).getInt();
-        uStepHA = ByteBuffer.wrap(buffer,12,4).order(ByteOrder.BIG_ENDIAN).getFloat();
-        uStepDE = ByteBuffer.wrap(buffer,16,4).order(ByteOrder.BIG_ENDIAN).getFloat();
-        moveSpeedHA = ByteBuffer.wrap(buffer,20,4).order(ByteOrder.BIG_ENDIAN).getFloat();
-        moveSpeedDE = ByteBuffer.wrap(buffer,24,4).order(ByteOrder.BIG_ENDIAN).getFloat();
-        powerHA = ByteBuffer.wrap(buffer,28,4).order(ByteOrder.BIG_ENDIAN).getFloat();
-        powerDE = ByteBuffer.wrap(buffer,32,4).order(ByteOrder.BIG_ENDIAN).getFloat();
-        powerAUX1 = parseInt(buffer[36],buffer[37]);
-        powerAUX2 = parseInt(buffer[38],buffer[39]);
-        powerAUX3 = parseInt(buffer[40],buffer[41]);
-        bulbState = buffer[42];
-        stepFOCUS = ByteBuffer.wrap(buffer,43,4).order(ByteOrder.BIG_ENDIAN).getInt();
-        uStepFOCUS = ByteBuffer.wrap(buffer,47,4).order(ByteOrder.BIG_ENDIAN).getFloat();
-        moveSpeedFOCUS = ByteBuffer.wrap(buffer,51,4).order(ByteOrder.BIG_ENDIAN).getFloat();
+		decode(ByteBuffer.wrap(buffer));
+	}
+	
+	/**
+	 * Overwrite the fields with the ones of a frame, without allocating
+	 * anything. The fields are read with absolute big endian gets, so the
+	 * position of the frame is not changed and the same frame buffer can be
+	 * reused for every message. Used with the preallocated slots of a
+	 * StatusQueue, so the status path does not create garbage whatever the
+	 * frame rate.
+	 * @param frame the frame (its first MESSAGE_SIZE bytes)
+	 */
+	public void decode(ByteBuffer frame){
+		decode(frame, System.nanoTime());
+	}
+	
+	/**
+	 * Overwrite the fields with the ones of a frame, see decode(ByteBuffer)
+	 * @param frame the frame (its first MESSAGE_SIZE bytes)
+	 * @param arrivalTime the System.nanoTime() when the frame was read
+	 */
+	public void decode(ByteBuffer frame, long arrivalTime){
+		frame.order(ByteOrder.BIG_ENDIAN);
+		time = System.currentTimeMillis();
+		this.arrivalTime = arrivalTime;
+		msCount = frame.getInt(0);
+		stepHA = frame.getInt(4);
+		stepDE = frame.getInt(8);
+		uStepHA = frame.getFloat(12);
+		uStepDE = frame.getFloat(16);
+		moveSpeedHA = frame.getFloat(20);
+		moveSpeedDE = frame.getFloat(24);
+		powerHA = frame.getFloat(28);
+		powerDE = frame.getFloat(32);
+		powerAUX1 = frame.getShort(36) & 0xFFFF;
+		powerAUX2 = frame.getShort(38) & 0xFFFF;
+		powerAUX3 = frame.getShort(40) & 0xFFFF;
+		bulbState = frame.get(42);
+		stepFOCUS = frame.getInt(43);
+		uStepFOCUS = frame.getFloat(47);
+		moveSpeedFOCUS = frame.getFloat(51);
+	}
+	
+	/**
+	 * Overwrite the fields with the ones of another message, without allocating
+	 * anything
+	 * @param m the message to copy
+	 */
+	public void copyFrom(StatusMessage m){
+		time = m.time;
+		arrivalTime = m.arrivalTime;
+		msCount = m.msCount;
+		stepHA = m.stepHA;
+		stepDE = m.stepDE;
+		uStepHA = m.uStepHA;
+		uStepDE = m.uStepDE;
+		moveSpeedHA = m.moveSpeedHA;
+		moveSpeedDE = m.moveSpeedDE;
+		powerHA = m.powerHA;
+		powerDE = m.powerDE;
+		powerAUX1 = m.powerAUX1;
+		powerAUX2 = m.powerAUX2;
+		powerAUX3 = m.powerAUX3;
+		bulbState = m.bulbState;
+		stepFOCUS = m.stepFOCUS;
+		uStepFOCUS = m.uStepFOCUS;
+		moveSpeedFOCUS = m.moveSpeedFOCUS;
 	}
 	
 	public StatusMessage(int ms, int HA, int DE, float uHA, float uDE, float mHA, float mDE, float pHA, float pDE, int pA1, int pA2,  int pA3, byte bulb, int FO, float uFO, float mFO){
-		time = (new Date()).getTime();
+		time = System.currentTimeMillis();
+		arrivalTime = System.nanoTime();
 		msCount = ms;
 		stepHA= HA;
 		stepDE = DE;
@@ -72,26 +124,6 @@ public class StatusMessage{
 		moveSpeedFOCUS = mFO;
 	}
 	
-	/**
-	 * Form a positive integer from two bytes
-	 * @param high most significant byte
-	 * @param low least significant byte
-	 */
-	private int parseInt(byte high, byte low){
-		int result;
-		if(high>=0){
-			result = high * 256;
-		}else{
-			result = (high+256) * 256;
-		}
-		if(low>=0){
-			result += low;
-		}else{
-			result += low + 256;
-		}
-		return result;
-	}
-	
 	/**
 	 * Validate the message according to the checksum 
 	 * @param buffer
@@ -106,10 +138,24 @@ public class StatusMessage{
 		return (sum == buffer[MESSAGE_SIZE-1]);		
 	}
 	
+	/**
+	 * Validate the message according to the checksum, reading the frame with
+	 * absolute gets
+	 * @param frame
+	 * @return true if the checksum is valid
+	 */
+	public static boolean verify(ByteBuffer frame){
+		byte sum=0;
+		for(int i=0; i<MESSAGE_SIZE-1; i++){
+			sum+=frame.get(i);
+		}
+		return (sum == frame.get(MESSAGE_SIZE-1));		
+	}
+	
 	/**
 	 * Empty StatusMessage
 	 */
-	StatusMessage(){
+	public StatusMessage(){
 		time = 0;
 		msCount = 0;
         stepHA = 0;
@@ -135,6 +181,13 @@ public class StatusMessage{
 		return time;
 	}
 
+	/**
+	 * @return the System.nanoTime() when the frame was read from the serial port
+	 */
+	public long getArrivalTime() {
+		return arrivalTime;
+	}
+
 	/**
 	 * @return the msCount
 	 */
@@ -0,0 +1,82 @@
+package farom.astroiddriver;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free single producer / single consumer queue of status messages.
+ * The messages are preallocated slots: the producer (the serial reader
+ * thread) decodes each frame straight into a slot, so nothing is allocated
+ * per frame. The consumer may keep using the last message that it has
+ * polled until it polls the next one: the producer never writes that slot
+ * (one slot is always kept in reserve for it). When the queue is full the
+ * producer does not wait, the frame is dropped.
+ * @author farom
+ */
+public class StatusQueue {
+	private StatusMessage[] slots;
+	private int mask;
+	private AtomicLong head; // next slot to be polled
+	private AtomicLong tail; // next slot to be published
+
+	/**
+	 * @param capacity the number of slots (a power of two, at least 2)
+	 */
+	public StatusQueue(int capacity) {
+		if (capacity < 2 || (capacity & (capacity - 1)) != 0) {
+			throw new IllegalArgumentException("The capacity must be a power of two");
+		}
+		slots = new StatusMessage[capacity];
+		for (int i = 0; i < capacity; i++) {
+			slots[i] = new StatusMessage();
+		}
+		mask = capacity - 1;
+		head = new AtomicLong();
+		tail = new AtomicLong();
+	}
+
+	/**
+	 * Producer side: get the slot where the next message must be written
+	 * @return the slot, or null if the queue is full
+	 */
+	public StatusMessage claim() {
+		long t = tail.get();
+		if (t - head.get() >= slots.length - 1) {
+			return null;
+		}
+		return slots[(int) t & mask];
+	}
+
+	/**
+	 * Producer side: publish the message written in the slot given by claim()
+	 */
+	public void publish() {
+		tail.lazySet(tail.get() + 1);
+	}
+
+	/**
+	 * Consumer side: take the oldest published message
+	 * @return the message, or null if the queue is empty
+	 */
+	public StatusMessage poll() {
+		long h = head.get();
+		if (h == tail.get()) {
+			return null;
+		}
+		StatusMessage m = slots[(int) h & mask];
+		head.lazySet(h + 1);
+		return m;
+	}
+
+	/**
+	 * Consumer side: take the newest published message, skipping the older ones
+	 * @return the message, or null if the queue is empty
+	 */
+	public StatusMessage pollLatest() {
+		StatusMessage latest = null;
+		StatusMessage m;
+		while ((m = poll()) != null) {
+			latest = m;
+		}
+		return latest;
+	}
+}
@@ -3,16 +3,16 @@ package farom.astroiddriver.jssc;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.text.DateFormat;
 import java.util.Date;
+import java.util.concurrent.locks.LockSupport;
 import java.util.regex.Pattern;
 
-import farom.astroiddriver.CmdMessage;
+import farom.astroiddriver.CommandPipeline;
 import farom.astroiddriver.INDIAstroidDriver;
+import farom.astroiddriver.StatusFrameSynchronizer;
 import farom.astroiddriver.StatusMessage;
+import farom.astroiddriver.StatusQueue;
 import jssc.SerialPort;
-import jssc.SerialPortEvent;
-import jssc.SerialPortEventListener;
 import jssc.SerialPortException;
 import jssc.SerialPortList;
 import jssc.SerialPortTimeoutException;
@@ -27,12 +27,23 @@ import laazotea.indi.driver.INDITextProperty;
  * @author farom
  *
  */
-public class INDIAstroidDriverJSSC extends INDIAstroidDriver implements SerialPortEventListener {
+public class INDIAstroidDriverJSSC extends INDIAstroidDriver implements StatusFrameSynchronizer.FrameListener, CommandPipeline.FrameWriter {
+	private static final int READ_TIMEOUT = 100; // ms
+	private static final int STATUS_QUEUE_SIZE = 16;
 
 	private SerialPort serialPort;
 	private INDITextProperty devicePortP; // DEVICE_PORT
 	private INDITextElement devicePortE; // PORT
-	private ByteBuffer buffer;
+	private StatusFrameSynchronizer synchronizer;
+	private StatusQueue statusQueue; // from the reader thread to the status thread
+	private volatile boolean reading;
+	private Thread readerThread;
+	private Thread statusThread;
+	private long readArrivalTime; // System.nanoTime() of the last read, only used by the reader thread
+	private StatusMessage[] published; // copies published as lastStatusMessage, only written by the status thread
+	private int nextPublished; // index of the copy that is not lastStatusMessage
+	private volatile long droppedFrames;
+	private CommandPipeline commandPipeline; // single writer of the commands
 	
 	/**
 	 * @param inputStream
@@ -60,7 +71,10 @@ public class INDIAstroidDriverJSSC extends INDIAstroidDriver implements SerialPo
 		}
 		
 		addProperty(devicePortP);
-		buffer=ByteBuffer.allocate(255);
+		synchronizer = new StatusFrameSynchronizer(this);
+		statusQueue = new StatusQueue(STATUS_QUEUE_SIZE);
+		published = new StatusMessage[] { new StatusMessage(), new StatusMessage() };
+		commandPipeline = new CommandPipeline(this, CommandPipeline.DEFAULT_MIN_GAP);
 	}
 	
 	/**
@@ -98,8 +112,8 @@ public class INDIAstroidDriverJSSC extends INDIAstroidDriver implements SerialPo
 			serialPort = new SerialPort(devicePortE.getValue());
 			serialPort.openPort();
 			serialPort.setParams(9600, 8, 1, 0);
-			serialPort.setEventsMask(SerialPort.MASK_RXCHAR);
-			serialPort.addEventListener(this);
+			synchronizer.reset();
+			startThreads();
 
 			onConnected();
 
@@ -110,12 +124,78 @@ public class INDIAstroidDriverJSSC extends INDIAstroidDriver implements SerialPo
 		}		
 	}
 	
+	/**
+	 * Start the reader, status and command writer threads
+	 */
+	private void startThreads() {
+		reading = true;
+		statusThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				statusLoop();
+			}
+		}, "Astroid status");
+		statusThread.setDaemon(true);
+		statusThread.start();
+		readerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readLoop();
+			}
+		}, "Astroid serial reader");
+		readerThread.setDaemon(true);
+		readerThread.setPriority(Thread.MAX_PRIORITY);
+		readerThread.start();
+		commandPipeline.start("Astroid command writer");
+	}
+
+	/**
+	 * Stop the reader, status and command writer threads and wait until they
+	 * have exited, so that the threads of a new connection never share the
+	 * port with them
+	 */
+	private void stopThreads() {
+		if (readerThread == null) {
+			return;
+		}
+		commandPipeline.stop();
+		reading = false;
+		boolean interrupted = false;
+		Thread[] threads = { readerThread, statusThread };
+		for (Thread t : threads) {
+			while (t.isAlive() && t != Thread.currentThread()) {
+				LockSupport.unpark(t);
+				try {
+					t.join(2 * READ_TIMEOUT);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		readerThread = null;
+		statusThread = null;
+	}
+	
 	@Override
 	public void driverDisconnect(Date timestamp) throws INDIException {
 		try {
+			stopThreads();
 			serialPort.closePort();
 			
 			onDisconnected();
+			printMessage("Serial link: " + synchronizer.getFrameCount() + " frames, " + synchronizer.getBadChecksums()
+					+ " bad checksums, " + synchronizer.getResyncs() + " resyncs, " + synchronizer.getDroppedBytes() + " bytes dropped, "
+					+ droppedFrames + " frames skipped");
+			printMessage("Commands: " + commandPipeline.getSubmitted() + " submitted, " + commandPipeline.getWritten() + " sent, "
+					+ commandPipeline.getCoalesced() + " coalesced, " + commandPipeline.getSuppressed() + " unchanged, "
+					+ commandPipeline.getErrors() + " errors");
+			for (CommandPipeline.Priority p : CommandPipeline.Priority.values()) {
+				printMessage("Commands " + p + ": " + commandPipeline.getLatencyCount(p) + " sent, latency mean "
+						+ commandPipeline.getMeanLatency(p) / 1000 + "us, max " + commandPipeline.getMaxLatency(p) / 1000 + "us");
+			}
 			
 		} catch (SerialPortException e) {
 			e.printStackTrace();
@@ -123,154 +203,112 @@ public class INDIAstroidDriverJSSC extends INDIAstroidDriver implements SerialPo
 	}
 
 	/**
-	 * Send the current command message to the device
+	 * Send the current command message to the device: it is encoded at once
+	 * and written by the command writer thread
 	 */
 	@Override
 	protected void sendCommand() {
+		commandPipeline.submit(command);
+	}
+
+	/**
+	 * Send the current command message to the device ahead of the routine ones
+	 */
+	@Override
+	protected void sendUrgentCommand() {
+		commandPipeline.submit(command, CommandPipeline.Priority.URGENT);
+	}
+
+	/**
+	 * Called by the command pipeline (in the writer thread) for each frame
+	 */
+	@Override
+	public boolean writeFrame(byte[] frame) {
 		try {
-			if (!serialPort.writeBytes(command.getBytes())) {
-				printMessage("error while sending data to the device");
-			}
-			System.out.println(DateFormat.getTimeInstance().format(new Date())+" - Sent command:");
-			for (int i = 0; i < CmdMessage.MESSAGE_SIZE; i++) {
-				byte[] array = command.getBytes();
-				System.out.printf("%02X ", array[i]);
+			if (serialPort.writeBytes(frame)) {
+				return true;
 			}
-			System.out.println("");
+			printMessage("error while sending data to the device");
 		} catch (SerialPortException e) {
 			printMessage("error while sending data to the device");
 			e.printStackTrace();
 		}
+		return false;
 	}
 	
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see jssc.SerialPortEventListener#serialEvent(jssc.SerialPortEvent)
+	/**
+	 * Called by the synchronizer (in the reader thread) for each valid status
+	 * frame: decode it into a slot of the queue and wake up the status thread
 	 */
 	@Override
-	public void serialEvent(SerialPortEvent event) {
-		if (event.isRXCHAR()) {
+	public void frameReceived(ByteBuffer frame) {
+		StatusMessage slot = statusQueue.claim();
+		if (slot == null) {
+			droppedFrames++; // the status thread does not keep up
+			return;
+		}
+		slot.decode(frame, readArrivalTime);
+		statusQueue.publish();
+		LockSupport.unpark(statusThread);
+	}
 
-			byte[] localBuffer;
-			byte[] localBuffer2 = new byte[StatusMessage.MESSAGE_SIZE];
-			
+	/**
+	 * Body of the reader thread: blocking reads (with a timeout, so that it
+	 * stops soon after disconnecting), stamped with System.nanoTime() as soon
+	 * as they return. It does nothing else, so the processing of the status
+	 * never delays the next read.
+	 */
+	private void readLoop() {
+		while (reading) {
 			try {
-				localBuffer = serialPort.readBytes();
-
-				//System.out.println("Read " + localBuffer.length + "bytes");
-				if(localBuffer.length>buffer.remaining()) {
-					//System.out.println(""+localBuffer.length+"bytes droped");
-					return;
-				}
-				buffer.put(localBuffer);
-				//System.out.println("buffer.position() = " + buffer.position());
-				if(buffer.position()>StatusMessage.MESSAGE_SIZE) {
-					buffer.flip();
-					byte startFlag;
-					startFlag = buffer.get();
-					while(startFlag!=0x55) { 
-						if(buffer.remaining()>StatusMessage.MESSAGE_SIZE) {
-							System.out.print("1 byte droped");
-							System.out.printf("0x%02X ",startFlag);
-							System.out.println("");
-							startFlag = buffer.get();
-						}else{
-							System.out.print("1 byte droped");
-							System.out.printf("0x%02X ",startFlag);
-							System.out.println(", waiting for data");
-							buffer.compact();
-							return;
-						}
-					}
-
-					buffer.get(localBuffer2, 0, StatusMessage.MESSAGE_SIZE);
-					buffer.compact();
-					if (StatusMessage.verify(localBuffer2)) {						
-						lastStatusMessage = new StatusMessage(localBuffer2);
-//						System.out.println("Valid message:");
-//						for (int i = 0; i < StatusMessage.MESSAGE_SIZE; i++) {
-//							System.out.printf("%02X ", localBuffer2[i]);
-//						}
-//						System.out.println("");
-//						System.out.println(lastStatusMessage);
-//						System.out.println("/n");
-						updateStatus();
-					}else {
-						System.out.println("Invalid message:");
-						for (int i = 0; i < StatusMessage.MESSAGE_SIZE; i++) {
-							System.out.printf("%02X ", localBuffer2[i]);
-						}
-						System.out.println("");
-					}
+				byte[] first = serialPort.readBytes(1, READ_TIMEOUT);
+				readArrivalTime = System.nanoTime();
+				synchronizer.feed(first, 0, first.length);
+				byte[] rest = serialPort.readBytes();
+				if (rest != null) { // null if no more bytes are available
+					readArrivalTime = System.nanoTime(); // the frames completed by these bytes arrived with them
+					synchronizer.feed(rest, 0, rest.length);
 				}
+			} catch (SerialPortTimeoutException e) {
+				// no data, check if the thread must stop
 			} catch (SerialPortException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}catch (NullPointerException e) {
-				
-			}
-
-
-		}
-
-
-		
-		/*System.out.println("SerialPortEvent type="+event.getEventType());
-		if (event.isRXCHAR()) {// If data is available
-			System.out.println("=RXCHAR");
-			System.out.println("size="+event.getEventValue());
-			//if (event.getEventValue() == StatusMessage.MESSAGE_SIZE) {
-				try {
-					byte buffer[] = serialPort.readBytes(StatusMessage.MESSAGE_SIZE, 100);
-					//serialPort.readBytes(event.getEventValue() - StatusMessage.MESSAGE_SIZE);
-
-					if (StatusMessage.verify(buffer)) {
-						
-						lastStatusMessage = new StatusMessage(buffer);
-						System.out.println("valid message (" + event.getEventValue() + "/"
-								+ StatusMessage.MESSAGE_SIZE + " bytes):");
-						for (int i = 0; i < StatusMessage.MESSAGE_SIZE; i++) {
-							System.out.printf("%02X ", buffer[i]);
-						}
-						System.out.println("");
-						System.out.println(lastStatusMessage);
-						
-						
-						updateStatus();
-					} else {
-						printMessage(DateFormat.getTimeInstance().format(new Date())+" - invalid message");
-						System.out.println(DateFormat.getTimeInstance().format(new Date())+" - invalid message (" + event.getEventValue() + "/"
-								+ StatusMessage.MESSAGE_SIZE + " bytes):");
-						for (int i = 0; i < StatusMessage.MESSAGE_SIZE; i++) {
-							System.out.printf("%02X ", buffer[i]);
-						}
-						System.out.println("");
-						
-					}
-				} catch (SerialPortException e) {
+				if (reading) {
+					printMessage("error while reading data from the device");
 					e.printStackTrace();
-				} catch (SerialPortTimeoutException e) {
-					System.out.println("timed out");
-					try {
-						serialPort.purgePort(SerialPort.PURGE_RXCLEAR);
-					} catch (SerialPortException e1) {
-						// TODO Auto-generated catch block
-						e1.printStackTrace();
-					}
 				}
-
-			//}else{
-			//	System.out.println("event: " + event.getEventValue());
-			//	try {
-			//		serialPort.readBytes(event.getEventValue());
-			//	} catch (SerialPortException e) {
-			//		e.printStackTrace();
-			//	}
-			//}
-
-		}*/
+				return;
+			}
+		}
 	}
 
+	/**
+	 * Body of the status thread: publish the newest status message and update
+	 * the properties. If it is slower than the serial link the older messages
+	 * are skipped. The slot of the queue may be decoded again by the reader
+	 * thread, so the message is published as a copy: the two copies are used
+	 * in turn, so the published one is never written, and the other threads
+	 * (which read lastStatusMessage once and use it at once) never see it
+	 * half written.
+	 */
+	private void statusLoop() {
+		while (reading) {
+			StatusMessage m = statusQueue.pollLatest();
+			if (m == null) {
+				LockSupport.parkNanos(this, READ_TIMEOUT * 1000000L);
+				continue;
+			}
+			StatusMessage copy = published[nextPublished];
+			copy.copyFrom(m);
+			nextPublished = 1 - nextPublished;
+			lastStatusMessage = copy;
+			updateStatus();
+		}
+	}
 
+	/**
+	 * @return the number of valid frames dropped because the status thread did not keep up
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
 }
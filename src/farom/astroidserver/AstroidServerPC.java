@@ -3,6 +3,8 @@
  */
 package farom.astroidserver;
 
+import java.io.IOException;
+
 import farom.astroiddriver.INDIAstroidDriverSimulator;
 import farom.astroiddriver.jssc.INDIAstroidDriverJSSC;
 import laazotea.indi.INDIException;
@@ -28,12 +30,23 @@ public class AstroidServerPC extends DefaultINDIServer {
     }
 
 	  /**
-	   * Just creates one instance of this server.
+	   * Just creates one instance of this server. With the argument
+	   * <code>-unix=path</code> it also listens to a Unix domain socket, so
+	   * that local clients do not go through the TCP loopback stack.
 	   * @param args 
 	   */
 	  public static void main(String[] args) {
-	    @SuppressWarnings("unused")
 		AstroidServerPC s = new AstroidServerPC();  
+
+		for (String arg : args) {
+			if (arg.startsWith("-unix=")) {
+				try {
+					s.listenUnixSocket(arg.substring(6));
+				} catch (IOException e) {
+					System.err.println("Could not listen to the Unix socket: " + e.getMessage());
+				}
+			}
+		}
 	  }
 
 }
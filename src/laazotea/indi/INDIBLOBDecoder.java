@@ -0,0 +1,385 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes the base64 text of a <code>oneBLOB</code> element while it is being
+ * read, without keeping the text. The decoded bytes are inflated if the format
+ * ends with <code>.z</code> and stored in an array of the declared size or,
+ * if the BLOB is larger than the spill threshold, in a temporary file (see
+ * <code>INDIBLOBValue.getBLOBBuffer()</code>). So a BLOB is never held in
+ * memory more than once, and large ones are not held in memory at all.
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDIBLOBDecoder {
+
+  /**
+   * The default size over which BLOBs are stored in a temporary file.
+   */
+  public static final int DEFAULT_SPILL_THRESHOLD = 4 * 1024 * 1024;
+  /**
+   * The size of the chunks in which the bytes are decoded and inflated.
+   */
+  private static final int CHUNK_SIZE = 8192;
+  /**
+   * The value of each base64 character (-1 for the not valid ones).
+   */
+  private static final byte[] DECODABET = new byte[128];
+
+  static {
+    String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    for (int i = 0 ; i < DECODABET.length ; i++) {
+      DECODABET[i] = -1;
+    }
+
+    for (int i = 0 ; i < alphabet.length() ; i++) {
+      DECODABET[alphabet.charAt(i)] = (byte)i;
+    }
+  }
+  /**
+   * The format of the data (without the <code>.z</code> suffix).
+   */
+  private String format;
+  /**
+   * The declared (uncompressed) size of the data.
+   */
+  private int size;
+  /**
+   * The size over which the data is stored in a temporary file.
+   */
+  private int spillThreshold;
+  /**
+   * Used to inflate the data (<code>null</code> if it is not compressed).
+   */
+  private Inflater inflater;
+  /**
+   * The decoded bytes waiting to be inflated or stored.
+   */
+  private byte[] decoded;
+  /**
+   * The number of bytes in <code>decoded</code>.
+   */
+  private int decodedLength;
+  /**
+   * Used to inflate the data.
+   */
+  private byte[] inflated;
+  /**
+   * The bits of the base64 characters not decoded yet.
+   */
+  private int quantum;
+  /**
+   * The number of base64 characters in <code>quantum</code>.
+   */
+  private int quantumLength;
+  /**
+   * <code>true</code> once the padding has been read.
+   */
+  private boolean padded;
+  /**
+   * The error found while decoding (<code>null</code> if none).
+   */
+  private String error;
+  /**
+   * The data, if it is stored in memory.
+   */
+  private byte[] data;
+  /**
+   * The temporary file where the data is stored (<code>null</code> if it is
+   * stored in memory).
+   */
+  private File file;
+  /**
+   * The stream to write the temporary file.
+   */
+  private OutputStream fileOut;
+  /**
+   * The number of bytes stored.
+   */
+  private int stored;
+
+  /**
+   * Constructs a decoder for a BLOB.
+   *
+   * @param format The format of the BLOB (ending with <code>.z</code> if it
+   * is compressed).
+   * @param size The (uncompressed) size of the BLOB.
+   * @param spillThreshold The size over which the BLOB is stored in a
+   * temporary file.
+   */
+  public INDIBLOBDecoder(String format, int size, int spillThreshold) {
+    this.size = size;
+    this.spillThreshold = spillThreshold;
+
+    if (format.endsWith(".z")) {
+      this.format = format.substring(0, format.length() - 2);
+
+      inflater = new Inflater();
+      inflated = new byte[CHUNK_SIZE];
+    } else {
+      this.format = format;
+    }
+
+    decoded = new byte[CHUNK_SIZE];
+    decodedLength = 0;
+    quantum = 0;
+    quantumLength = 0;
+    padded = false;
+    stored = 0;
+
+    if (size < 0) {
+      error = "Size number not correct";
+    }
+  }
+
+  /**
+   * Decodes some base64 characters. Whitespace is ignored.
+   *
+   * @param ch The characters.
+   * @param start The first character to be decoded.
+   * @param length The number of characters to be decoded.
+   */
+  public void append(char[] ch, int start, int length) {
+    int end = start + length;
+
+    for (int i = start ; i < end ; i++) {
+      if (error != null) {
+        return;
+      }
+
+      char c = ch[i];
+
+      if ((c == ' ') || (c == '\n') || (c == '\r') || (c == '\t')) {
+        continue;
+      }
+
+      if (c == '=') {
+        padded = true;
+
+        continue;
+      }
+
+      if ((c >= 128) || (DECODABET[c] < 0) || padded) {
+        error = "Not BASE64 coded data";
+
+        return;
+      }
+
+      quantum = (quantum << 6) | DECODABET[c];
+      quantumLength++;
+
+      if (quantumLength == 4) {
+        appendDecoded((byte)(quantum >> 16));
+        appendDecoded((byte)(quantum >> 8));
+        appendDecoded((byte)quantum);
+
+        quantum = 0;
+        quantumLength = 0;
+      }
+    }
+  }
+
+  /**
+   * Finishes the decoding.
+   *
+   * @return The decoded BLOB value.
+   * @throws IllegalArgumentException if the data is not correct.
+   */
+  public INDIBLOBValue finish() throws IllegalArgumentException {
+    if (quantumLength == 2) {  // The last bytes, with padding
+      appendDecoded((byte)(quantum >> 4));
+    } else if (quantumLength == 3) {
+      appendDecoded((byte)(quantum >> 10));
+      appendDecoded((byte)(quantum >> 2));
+    } else if (quantumLength != 0) {
+      fail("Not BASE64 coded data");
+    }
+
+    flushDecoded();
+
+    if (inflater != null) {
+      inflater.end();
+    }
+
+    if (fileOut != null) {
+      try {
+        fileOut.close();
+      } catch (IOException e) {
+        fail("Could not store the BLOB: " + e.getMessage());
+      }
+    }
+
+    if ((error == null) && (stored != size)) {
+      fail("Size of BLOB not correct");
+    }
+
+    if (error != null) {
+      abort();
+
+      throw new IllegalArgumentException(error);
+    }
+
+    if (file != null) {
+      return new INDIBLOBValue(file, size, format);
+    }
+
+    if (data == null) {
+      data = new byte[0];
+    }
+
+    return new INDIBLOBValue(data, format);
+  }
+
+  /**
+   * Discards the decoded data (and its temporary file, if any).
+   */
+  public void abort() {
+    if (inflater != null) {
+      inflater.end();
+    }
+
+    if (fileOut != null) {
+      try {
+        fileOut.close();
+      } catch (IOException e) {
+      }
+    }
+
+    if (file != null) {
+      file.delete();
+      file = null;
+    }
+
+    data = null;
+  }
+
+  /**
+   * Appends a decoded byte.
+   *
+   * @param b The byte.
+   */
+  private void appendDecoded(byte b) {
+    if (decodedLength == decoded.length) {
+      flushDecoded();
+    }
+
+    decoded[decodedLength++] = b;
+  }
+
+  /**
+   * Inflates (if needed) and stores the decoded bytes.
+   */
+  private void flushDecoded() {
+    if ((decodedLength == 0) || (error != null)) {
+      decodedLength = 0;
+
+      return;
+    }
+
+    if (inflater == null) {
+      store(decoded, 0, decodedLength);
+    } else {
+      inflater.setInput(decoded, 0, decodedLength);
+
+      try {
+        while ((!inflater.needsInput()) && (!inflater.finished()) && (error == null)) {
+          int n = inflater.inflate(inflated);
+
+          if ((n == 0) && inflater.needsDictionary()) {
+            fail("Not correctly GZIPped");
+          }
+
+          store(inflated, 0, n);
+        }
+      } catch (DataFormatException e) {
+        fail("Not correctly GZIPped");
+      }
+    }
+
+    decodedLength = 0;
+  }
+
+  /**
+   * Stores some bytes of the BLOB.
+   *
+   * @param b The bytes.
+   * @param off The first byte to be stored.
+   * @param len The number of bytes to be stored.
+   */
+  private void store(byte[] b, int off, int len) {
+    if ((len == 0) || (error != null)) {
+      return;
+    }
+
+    if (len > size - stored) {
+      fail("Size of BLOB not correct");
+
+      return;
+    }
+
+    try {
+      if ((fileOut == null) && (size > spillThreshold) && (stored + len > spillThreshold)) {
+        file = File.createTempFile("indiblob", ".tmp");
+        file.deleteOnExit();
+
+        fileOut = new BufferedOutputStream(new FileOutputStream(file), 65536);
+
+        if (stored > 0) {
+          fileOut.write(data, 0, stored);
+        }
+
+        data = null;
+      }
+
+      if (fileOut != null) {
+        fileOut.write(b, off, len);
+      } else {
+        if (data == null) {
+          data = new byte[Math.min(size, spillThreshold)];
+        }
+
+        System.arraycopy(b, off, data, stored, len);
+      }
+
+      stored += len;
+    } catch (IOException e) {
+      fail("Could not store the BLOB: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Records an error (only the first one is kept).
+   *
+   * @param message The error message.
+   */
+  private void fail(String message) {
+    if (error == null) {
+      error = message;
+    }
+  }
+}
@@ -17,25 +17,44 @@
  */
 package laazotea.indi;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
-import org.w3c.dom.Element;
 
 
 /**
- * A class representing a INDI BLOB Value (some bytes and a format).
+ * A class representing a INDI BLOB Value (some bytes and a format). The bytes
+ * may be held in memory or, for large BLOBs decoded with
+ * <code>INDIBLOBDecoder</code>, in a temporary file. In the latter case
+ * <code>getBLOBBuffer()</code>, <code>getInputStream()</code> and
+ * <code>saveBLOBData()</code> access the data without loading it in memory.
  *
  * @author S. Alonso (Zerjillo) [zerjioi at ugr.es]
- * @version 1.10, March 19, 2012
+ * @version 1.36, October 17, 2026
  */
 public class INDIBLOBValue {
   /**
-   * The BLOB data
+   * The BLOB data (<code>null</code> if it is only in the temporary file and
+   * it has not been loaded)
    */
   private byte[] BLOBData;
+  /**
+   * The temporary file with the BLOB data (<code>null</code> if the data is
+   * in memory)
+   */
+  private File file;
+  /**
+   * The size of the BLOB data
+   */
+  private int size;
   /**
    * The format of the data
    */
@@ -54,7 +73,26 @@ public class INDIBLOBValue {
   public INDIBLOBValue(byte[] BLOBData, String format) {
     this.format = format;
     this.BLOBData = BLOBData;
+    this.size = BLOBData.length;
+    this.base64EncodedData = null;
+  }
+
+  /**
+   * Constructs a new BLOB Value whose data is in a temporary file. The file
+   * is deleted when the value is disposed by its owner (see
+   * <code>dispose()</code>), or else when the virtual machine exits.
+   *
+   * @param file the temporary file with the data for the BLOB
+   * @param size the size of the data
+   * @param format the format of the data
+   */
+  INDIBLOBValue(File file, int size, String format) {
+    this.format = format;
+    this.file = file;
+    this.size = size;
     this.base64EncodedData = null;
+
+    file.deleteOnExit();
   }
 
   /**
@@ -62,12 +100,25 @@ public class INDIBLOBValue {
    * @param xml the &lt;oneBLOB&gt; XML element
    * @throws IllegalArgumentException if the XML element is not correct.
    */
-  public INDIBLOBValue(Element xml) throws IllegalArgumentException {
+  public INDIBLOBValue(INDIMessage xml) throws IllegalArgumentException {
+    INDIBLOBValue decoded = xml.getBLOBValue();
+
+    if (decoded != null) {  // Already decoded while it was read
+      format = decoded.format;
+      BLOBData = decoded.BLOBData;
+      file = decoded.file;
+      size = decoded.size;
+
+      decoded.file = null;  // This value owns the temporary file now
+
+      return;
+    }
+
     int size = 0;
     String f;
  
     try {
-      String s = xml.getAttribute("size").trim();
+      String s = xml.getAttribute("size");
       size = Integer.parseInt(s);
     } catch (NumberFormatException e) {
       throw new IllegalArgumentException("Size number not correct");
@@ -77,11 +128,11 @@ public class INDIBLOBValue {
       throw new IllegalArgumentException("No format attribute");
     }
 
-    f = xml.getAttribute("format").trim();
+    f = xml.getAttribute("format");
 
     byte[] val;
 
-    base64EncodedData = xml.getTextContent().trim();
+    base64EncodedData = xml.getText().trim();
     
     try {
       val = Base64.decode(base64EncodedData);
@@ -115,15 +166,89 @@ public class INDIBLOBValue {
 
     format = f;
     BLOBData = val;
+    this.size = size;
   }
   /**
-   * Gets the BLOB data
+   * Gets the BLOB data. If the data is in a temporary file it is loaded in
+   * memory (use <code>getBLOBBuffer()</code> or <code>getInputStream()</code>
+   * to avoid it).
    * @return the BLOB data
    */
-  public byte[] getBLOBData() {
+  public synchronized byte[] getBLOBData() {
+    if (BLOBData == null) {
+      byte[] b = new byte[size];
+
+      try {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+          raf.readFully(b);
+        } finally {
+          raf.close();
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException("BLOB data not available: " + e.getMessage());
+      }
+
+      BLOBData = b;
+    }
+
     return BLOBData;
   }
 
+  /**
+   * Gets the BLOB data as a read only buffer. If the data is in a temporary
+   * file, the file is mapped in memory instead of being read.
+   * @return the BLOB data
+   * @throws IOException if the temporary file cannot be mapped.
+   */
+  public synchronized ByteBuffer getBLOBBuffer() throws IOException {
+    if (BLOBData != null) {
+      return ByteBuffer.wrap(BLOBData).asReadOnlyBuffer();
+    }
+
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+    try {
+      return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Gets a stream to read the BLOB data.
+   * @return a stream with the BLOB data
+   * @throws IOException if the temporary file cannot be opened.
+   */
+  public synchronized InputStream getInputStream() throws IOException {
+    if (BLOBData != null) {
+      return new ByteArrayInputStream(BLOBData);
+    }
+
+    return new FileInputStream(file);
+  }
+
+  /**
+   * Checks if the BLOB data is held in a temporary file.
+   * @return <code>true</code> if the data is in a temporary file
+   */
+  public boolean isStoredInFile() {
+    return file != null;
+  }
+
+  /**
+   * Deletes the temporary file with the BLOB data (if any). The data is not
+   * available afterwards unless it was loaded with <code>getBLOBData()</code>.
+   * It must be called by the owner of the value when it is no longer used (an
+   * <code>INDIBLOBElement</code> disposes its value when it is replaced).
+   */
+  public synchronized void dispose() {
+    if (file != null) {
+      file.delete();
+    }
+  }
+
   /**
    * Gets the BLOB data in base64
    * @return the BLOB data
@@ -149,7 +274,7 @@ public class INDIBLOBValue {
    * @return the size of the BLOB data
    */
   public int getSize() {
-    return BLOBData.length; 
+    return size; 
   }
   
   /**
@@ -160,8 +285,25 @@ public class INDIBLOBValue {
   public void saveBLOBData(File file) throws IOException {
     FileOutputStream fos = new FileOutputStream(file);
 
-    fos.write(BLOBData);
+    try {
+      if (isStoredInFile() && (BLOBData == null)) {  // Copy the file without loading it
+        FileInputStream fis = new FileInputStream(this.file);
+
+        try {
+          FileChannel in = fis.getChannel();
+          long pos = 0;
 
-    fos.close();
+          while (pos < size) {
+            pos += in.transferTo(pos, size - pos, fos.getChannel());
+          }
+        } finally {
+          fis.close();
+        }
+      } else {
+        fos.write(getBLOBData());
+      }
+    } finally {
+      fos.close();
+    }
   }  
 }
@@ -0,0 +1,386 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A thread that writes messages to an output stream on behalf of other
+ * threads. Messages are copied to a pending buffer and the caller returns
+ * inmediately. The writer thread takes every message pending at once and
+ * writes them with a single write and flush, so a slow consumer does not
+ * block the threads that produce the messages. The pending and the written
+ * buffers are swapped on each batch, so no memory is allocated once they are
+ * large enough. A buffer that has grown over <code>MAX_KEPT_CAPACITY</code>
+ * (because of a large BLOB) is given back after its batch is written.
+ * <p>
+ * The pending messages are bounded by a high water mark: a message that does
+ * not fit under it waits until the writer takes the pending ones (a single
+ * message larger than the mark is accepted when nothing else is pending). So
+ * a consumer slower than the producers makes them wait (back-pressure)
+ * instead of growing the memory without limit.
+ * <p>
+ * The writes are synchronized on the output stream, so several writers (for
+ * example those of a driver and its subdrivers) may share it: each batch only
+ * contains complete messages.
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDIBatchingWriter extends Thread {
+
+  /**
+   * The initial capacity of the buffers.
+   */
+  private static final int DEFAULT_CAPACITY = 4096;
+  /**
+   * The capacity over which a buffer is given back after its batch has been
+   * written.
+   */
+  public static final int MAX_KEPT_CAPACITY = 65536;
+  /**
+   * The default high water mark (in bytes) of the pending messages.
+   */
+  public static final int DEFAULT_HIGH_WATER_MARK = 8 * 1024 * 1024;
+
+  /**
+   * The stream to which the messages are written.
+   */
+  private OutputStream out;
+  /**
+   * The buffer where the messages wait to be written.
+   */
+  private byte[] pending;
+  /**
+   * The number of bytes in the pending buffer.
+   */
+  private int pendingLength;
+  /**
+   * The number of messages in the pending buffer.
+   */
+  private int pendingMessages;
+  /**
+   * The moment (<code>System.nanoTime()</code>) in which the oldest message in
+   * the pending buffer was queued.
+   */
+  private long pendingSince;
+  /**
+   * The buffer being written by the writer thread.
+   */
+  private byte[] writing;
+  /**
+   * The number of pending bytes over which the producers wait.
+   */
+  private int highWaterMark;
+  /**
+   * The number of writes that have waited because of the high water mark.
+   */
+  private long blockedWrites;
+  /**
+   * Used to friendly stop the writer.
+   */
+  private boolean stop;
+  /**
+   * The number of queued messages.
+   */
+  private long messageCount;
+  /**
+   * The number of writes (and flushes) done.
+   */
+  private long flushCount;
+  /**
+   * The number of bytes written.
+   */
+  private long bytesWritten;
+  /**
+   * The maximum number of messages waiting to be written at the same time.
+   */
+  private int maxQueueDepth;
+  /**
+   * The sum of the time (in nanoseconds) that the oldest message of each
+   * batch waited until it was flushed.
+   */
+  private long totalFlushLatency;
+  /**
+   * The maximum time (in nanoseconds) that a message waited until it was
+   * flushed.
+   */
+  private long maxFlushLatency;
+
+  /**
+   * Creates the writer. It must be started before messages are written.
+   *
+   * @param out The stream to which the messages will be written.
+   * @param name The name of the writer thread.
+   */
+  public INDIBatchingWriter(OutputStream out, String name) {
+    super(name);
+
+    this.out = out;
+
+    pending = new byte[DEFAULT_CAPACITY];
+    writing = new byte[DEFAULT_CAPACITY];
+    highWaterMark = DEFAULT_HIGH_WATER_MARK;
+    pendingLength = 0;
+    pendingMessages = 0;
+    stop = false;
+
+    setDaemon(true);
+  }
+
+  /**
+   * Sets the number of pending bytes over which the producers wait until the
+   * writer takes the pending messages.
+   *
+   * @param highWaterMark The high water mark (in bytes).
+   */
+  public synchronized void setHighWaterMark(int highWaterMark) {
+    this.highWaterMark = highWaterMark;
+
+    notifyAll();
+  }
+
+  /**
+   * Queues a message to be written. The bytes are copied, so the caller may
+   * reuse its buffer as soon as this method returns. If the message does not
+   * fit under the high water mark, it waits until the writer takes the
+   * pending messages.
+   *
+   * @param buffer The buffer with the message.
+   * @param offset The position of the first byte of the message.
+   * @param length The length of the message.
+   */
+  public synchronized void write(byte[] buffer, int offset, int length) {
+    if ((!stop) && (pendingLength > 0) && (pendingLength + length > highWaterMark)) {
+      blockedWrites++;
+
+      boolean interrupted = false;
+
+      while ((!stop) && (pendingLength > 0) && (pendingLength + length > highWaterMark)) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;  // The message is not lost: keep waiting
+        }
+      }
+
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    if (stop) {
+      return;
+    }
+
+    if (pendingLength + length > pending.length) {
+      int newLength = pending.length * 2;
+
+      while (newLength < pendingLength + length) {
+        newLength *= 2;
+      }
+
+      byte[] newPending = new byte[newLength];
+      System.arraycopy(pending, 0, newPending, 0, pendingLength);
+      pending = newPending;
+    }
+
+    System.arraycopy(buffer, offset, pending, pendingLength, length);
+
+    if (pendingMessages == 0) {
+      pendingSince = System.nanoTime();
+      notifyAll();
+    }
+
+    pendingLength += length;
+    pendingMessages++;
+    messageCount++;
+
+    if (pendingMessages > maxQueueDepth) {
+      maxQueueDepth = pendingMessages;
+    }
+  }
+
+  /**
+   * Queues the message of an encoder to be written.
+   *
+   * @param xml The encoder with the message.
+   */
+  public void write(INDIXMLEncoder xml) {
+    write(xml.getBuffer(), 0, xml.getLength());
+  }
+
+  /**
+   * The main body of the writer.
+   */
+  @Override
+  public void run() {
+    while (true) {
+      int length;
+      long since;
+
+      synchronized (this) {
+        while ((pendingMessages == 0) && (!stop)) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+          }
+        }
+
+        if (pendingMessages == 0) {  // Stopped and nothing else to write
+          return;
+        }
+
+        byte[] aux = writing;
+        writing = pending;
+        pending = aux;
+
+        length = pendingLength;
+        since = pendingSince;
+
+        pendingLength = 0;
+        pendingMessages = 0;
+
+        notifyAll();  // The producers waiting for room
+      }
+
+      try {
+        synchronized (out) {
+          out.write(writing, 0, length);
+          out.flush();
+        }
+      } catch (IOException e) {
+        writeFailed(e);
+      }
+
+      if (writing.length > MAX_KEPT_CAPACITY) {  // Only the writer thread uses it now
+        writing = new byte[DEFAULT_CAPACITY];
+      }
+
+      long latency = System.nanoTime() - since;
+
+      synchronized (this) {
+        flushCount++;
+        bytesWritten += length;
+        totalFlushLatency += latency;
+
+        if (latency > maxFlushLatency) {
+          maxFlushLatency = latency;
+        }
+      }
+    }
+  }
+
+  /**
+   * Called by the writer thread when a batch can not be written. By default
+   * the error is ignored and the writer goes on with the next batch.
+   *
+   * @param e The error.
+   */
+  protected void writeFailed(IOException e) {
+  }
+
+  /**
+   * Stops the writer once the messages already queued have been written.
+   * Messages queued afterwards are discarded.
+   */
+  public synchronized void finish() {
+    stop = true;
+
+    notifyAll();
+  }
+
+  /**
+   * Gets the number of messages waiting to be written.
+   *
+   * @return The number of messages waiting to be written.
+   */
+  public synchronized int getQueueDepth() {
+    return pendingMessages;
+  }
+
+  /**
+   * Gets the maximum number of messages that have been waiting to be written
+   * at the same time.
+   *
+   * @return The maximum queue depth.
+   */
+  public synchronized int getMaxQueueDepth() {
+    return maxQueueDepth;
+  }
+
+  /**
+   * Gets the number of writes that have waited because the pending messages
+   * were over the high water mark.
+   *
+   * @return The number of blocked writes.
+   */
+  public synchronized long getBlockedWrites() {
+    return blockedWrites;
+  }
+
+  /**
+   * Gets the number of messages queued since the writer was created.
+   *
+   * @return The number of messages queued.
+   */
+  public synchronized long getMessageCount() {
+    return messageCount;
+  }
+
+  /**
+   * Gets the number of writes (each one followed by a flush) done.
+   *
+   * @return The number of flushes.
+   */
+  public synchronized long getFlushCount() {
+    return flushCount;
+  }
+
+  /**
+   * Gets the number of bytes written.
+   *
+   * @return The number of bytes written.
+   */
+  public synchronized long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * Gets the average time that the oldest message of each batch waited until
+   * it was flushed.
+   *
+   * @return The average flush latency in nanoseconds.
+   */
+  public synchronized long getAverageFlushLatency() {
+    if (flushCount == 0) {
+      return 0;
+    }
+
+    return totalFlushLatency / flushCount;
+  }
+
+  /**
+   * Gets the maximum time that a message waited until it was flushed.
+   *
+   * @return The maximum flush latency in nanoseconds.
+   */
+  public synchronized long getMaxFlushLatency() {
+    return maxFlushLatency;
+  }
+}
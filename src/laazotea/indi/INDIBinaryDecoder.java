@@ -0,0 +1,406 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Decodes the binary frames written by an <code>INDIBinaryEncoder</code> into
+ * <code>INDIMessage</code>s, which are sent to a parser as the ones decoded
+ * from XML. Numbers are converted to text with the representation of
+ * <code>Double.toString(double)</code>. The messages have no raw bytes, so
+ * they are serialized to XML only if they are sent to a XML stream. The XML
+ * frames are decoded by an internal <code>INDIMessageDecoder</code>. The
+ * elements nested more than <code>INDIBinaryEncoder.MAX_DEPTH</code> levels
+ * are not correct frames, and the table of interned Strings is bounded as in
+ * the encoder, so a broken or hostile stream can not exhaust the stack or the
+ * memory. It is not thread safe.
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDIBinaryDecoder {
+
+  /**
+   * The UTF-8 charset.
+   */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  /**
+   * The maximum capacity kept by the buffer after a long frame.
+   */
+  private static final int MAX_KEPT_CAPACITY = 65536;
+  /**
+   * The parser to which the messages are sent.
+   */
+  private INDIProtocolParser parser;
+  /**
+   * The decoder of the XML frames.
+   */
+  private INDIMessageDecoder xmlDecoder;
+  /**
+   * The interned Strings (the one with id <code>i</code> is at
+   * <code>i - 1</code>).
+   */
+  private ArrayList<String> strings;
+  /**
+   * The bytes of the frame being read.
+   */
+  private byte[] pending;
+  /**
+   * The number of valid bytes in <code>pending</code>.
+   */
+  private int pendingLength;
+  /**
+   * The position of the next byte to be decoded in <code>pending</code>.
+   */
+  private int pos;
+  /**
+   * The maximum length of a frame (0 for no limit).
+   */
+  private int maxMessageLength;
+  /**
+   * <code>true</code> if a too long or not correct frame has been fed.
+   */
+  private boolean overflowed;
+
+  /**
+   * Constructs a new decoder.
+   *
+   * @param parser The parser to which the messages are sent.
+   */
+  public INDIBinaryDecoder(INDIProtocolParser parser) {
+    this.parser = parser;
+
+    xmlDecoder = new INDIMessageDecoder(parser, true);
+    strings = new ArrayList<String>();
+    pending = new byte[1024];
+    pendingLength = 0;
+    overflowed = false;
+  }
+
+  /**
+   * Sets the maximum length of a frame. If a longer one is fed the decoder
+   * overflows (see <code>isOverflowed</code>).
+   *
+   * @param maxMessageLength The maximum length (0 for no limit).
+   */
+  public void setMaxMessageLength(int maxMessageLength) {
+    this.maxMessageLength = maxMessageLength;
+
+    xmlDecoder.setMaxMessageLength(maxMessageLength);
+  }
+
+  /**
+   * Sets if the text of the <code>oneBLOB</code> elements of the XML frames is
+   * kept (see <code>INDIMessageDecoder.setKeepBLOBText</code>).
+   *
+   * @param keepBLOBText <code>true</code> to keep the text.
+   */
+  public void setKeepBLOBText(boolean keepBLOBText) {
+    xmlDecoder.setKeepBLOBText(keepBLOBText);
+  }
+
+  /**
+   * Checks if a too long or a not correct frame has been fed. The stream can
+   * not be decoded any further.
+   *
+   * @return <code>true</code> if the decoder has overflowed.
+   */
+  public boolean isOverflowed() {
+    return overflowed || xmlDecoder.isOverflowed();
+  }
+
+  /**
+   * Feeds some bytes to the decoder. The messages completed by them are sent
+   * to the parser. All the bytes are consumed: the ones of an incomplete frame
+   * are kept until the rest of the frame is fed.
+   *
+   * @param bytes The bytes (between its position and its limit).
+   */
+  public void feed(ByteBuffer bytes) {
+    while (bytes.hasRemaining() && (!isOverflowed())) {
+      int frameLength = getFrameLength();
+
+      if (frameLength < 0) {  // The header is incomplete
+        append(bytes, INDIBinaryEncoder.HEADER_LENGTH - pendingLength);
+
+        continue;
+      }
+
+      if ((frameLength < 1) || ((maxMessageLength > 0) && (frameLength > maxMessageLength))) {
+        overflowed = true;
+
+        return;
+      }
+
+      int total = frameLength + 4;
+
+      append(bytes, total - pendingLength);
+
+      if (pendingLength == total) {
+        decodeFrame();
+
+        pendingLength = 0;
+
+        if (pending.length > MAX_KEPT_CAPACITY) {
+          pending = new byte[1024];
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the length of the frame being read.
+   *
+   * @return The length after the length field (-1 if the header has not been
+   * completely read).
+   */
+  private int getFrameLength() {
+    if (pendingLength < INDIBinaryEncoder.HEADER_LENGTH) {
+      return -1;
+    }
+
+    return ((pending[0] & 0xFF) << 24) | ((pending[1] & 0xFF) << 16) | ((pending[2] & 0xFF) << 8) | (pending[3] & 0xFF);
+  }
+
+  /**
+   * Appends bytes to the frame being read.
+   *
+   * @param bytes The bytes.
+   * @param max The maximum number of bytes to append.
+   */
+  private void append(ByteBuffer bytes, int max) {
+    int n = Math.min(max, bytes.remaining());
+
+    if (pendingLength + n > pending.length) {
+      byte[] b = new byte[Math.max(pending.length * 2, pendingLength + n)];
+
+      System.arraycopy(pending, 0, b, 0, pendingLength);
+
+      pending = b;
+    }
+
+    bytes.get(pending, pendingLength, n);
+
+    pendingLength += n;
+  }
+
+  /**
+   * Decodes a complete frame and sends its messages to the parser.
+   */
+  private void decodeFrame() {
+    int type = pending[4];
+
+    if (type == INDIBinaryEncoder.XML_FRAME) {
+      xmlDecoder.feed(ByteBuffer.wrap(pending, INDIBinaryEncoder.HEADER_LENGTH, pendingLength - INDIBinaryEncoder.HEADER_LENGTH));
+
+      return;
+    }
+
+    if (type != INDIBinaryEncoder.ELEMENT_FRAME) {
+      overflowed = true;
+
+      return;
+    }
+
+    pos = INDIBinaryEncoder.HEADER_LENGTH;
+
+    INDIMessage message;
+
+    try {
+      message = element(1);
+    } catch (IllegalArgumentException e) {
+      overflowed = true;  // Not correct frame
+
+      return;
+    }
+
+    if (pos != pendingLength) {
+      overflowed = true;
+
+      return;
+    }
+
+    parser.parseMessage(message);
+  }
+
+  /**
+   * Decodes an element.
+   *
+   * @param depth The nesting level of the element (1 for a message).
+   * @return The element.
+   */
+  private INDIMessage element(int depth) {
+    if (depth > INDIBinaryEncoder.MAX_DEPTH) {
+      throw new IllegalArgumentException("Elements nested too deeply");
+    }
+
+    String tagName = ref();
+    int n = count();
+
+    String[] names = new String[n];
+    String[] values = new String[n];
+
+    for (int i = 0 ; i < n ; i++) {
+      names[i] = ref();
+      values[i] = value();
+    }
+
+    INDIMessage message = new INDIMessage(tagName, names, values, n);
+
+    message.setText(value());
+
+    int childCount = count();
+
+    if (childCount > 0) {
+      INDIMessage[] children = new INDIMessage[childCount];
+
+      for (int i = 0 ; i < childCount ; i++) {
+        children[i] = element(depth + 1);
+      }
+
+      message.setChildren(children);
+    }
+
+    return message;
+  }
+
+  /**
+   * Decodes a value.
+   *
+   * @return The value as a String.
+   */
+  private String value() {
+    int type = nextByte();
+
+    switch (type) {
+      case INDIBinaryEncoder.EMPTY_VALUE:
+        return "";
+      case INDIBinaryEncoder.STRING_VALUE:
+        return utf8();
+      case INDIBinaryEncoder.REF_VALUE:
+        return ref();
+      case INDIBinaryEncoder.DOUBLE_VALUE:
+        long bits = 0;
+
+        for (int i = 0 ; i < 8 ; i++) {
+          bits = (bits << 8) | (nextByte() & 0xFF);
+        }
+
+        return Double.toString(Double.longBitsToDouble(bits));
+      default:
+        throw new IllegalArgumentException("Unknown value type");
+    }
+  }
+
+  /**
+   * Decodes a reference to an interned String, defining it if needed (and if
+   * it can be interned, see <code>INDIBinaryEncoder.canIntern</code>).
+   *
+   * @return The String.
+   */
+  private String ref() {
+    int id = varint();
+
+    if (id == 0) {
+      int len = count();
+      String s = new String(pending, pos, len, UTF8);
+
+      pos += len;
+
+      if (INDIBinaryEncoder.canIntern(len, strings.size())) {
+        strings.add(s);
+      }
+
+      return s;
+    }
+
+    if (id > strings.size()) {
+      throw new IllegalArgumentException("Unknown String id");
+    }
+
+    return strings.get(id - 1);
+  }
+
+  /**
+   * Decodes the length and UTF-8 bytes of a String.
+   *
+   * @return The String.
+   */
+  private String utf8() {
+    int len = count();
+
+    String s = new String(pending, pos, len, UTF8);
+
+    pos += len;
+
+    return s;
+  }
+
+  /**
+   * Decodes a varint.
+   *
+   * @return The value.
+   */
+  private int varint() {
+    int value = 0;
+
+    for (int shift = 0 ; shift < 35 ; shift += 7) {
+      int b = nextByte();
+
+      value |= (b & 0x7F) << shift;
+
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+
+    throw new IllegalArgumentException("Not correct varint");
+  }
+
+  /**
+   * Decodes a varint that counts things that follow it in the frame (as
+   * each of them takes at least a byte, it can not exceed the remaining
+   * bytes).
+   *
+   * @return The value.
+   */
+  private int count() {
+    int n = varint();
+
+    if ((n < 0) || (n > pendingLength - pos)) {
+      throw new IllegalArgumentException("Not correct count");
+    }
+
+    return n;
+  }
+
+  /**
+   * Gets the next byte of the frame.
+   *
+   * @return The byte.
+   */
+  private int nextByte() {
+    if (pos >= pendingLength) {
+      throw new IllegalArgumentException("Truncated frame");
+    }
+
+    return pending[pos++];
+  }
+}
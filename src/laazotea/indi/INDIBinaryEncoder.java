@@ -0,0 +1,493 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+/**
+ * Encodes INDI messages in a compact binary form, with the same semantics as
+ * the XML one. Each message is a frame:
+ *
+ * <pre>
+ * frame   := length (int32, bytes after it) type (byte) body
+ * type    := 0 (an element) | 1 (the UTF-8 XML code of one or more messages)
+ * element := name:ref attributeCount:varint (name:ref value)*
+ *            text:value childCount:varint element*
+ * ref     := id:varint                  (a previously defined String)
+ *          | 0 length:varint UTF-8      (defines the next id: 1, 2, ..., if it
+ *                                        can be interned)
+ * value   := 0                          (empty)
+ *          | 1 length:varint UTF-8      (a String)
+ *          | 2 ref                      (an interned String)
+ *          | 3 double (8 bytes)         (a number)
+ * </pre>
+ *
+ * Integers are big endian and varints use 7 bits per byte, the least
+ * significant ones first (the high bit is set in all but the last byte). Tag
+ * names, attribute names and the values of the attributes that name things
+ * (devices, properties, groups, ...) are interned: they are sent once,
+ * usually in the <code>defXXXVector</code> messages, and then as small
+ * integers. A String is interned only if its UTF-8 form is at most
+ * <code>MAX_INTERNED_LENGTH</code> bytes long and the table has less than
+ * <code>MAX_INTERNED</code> Strings, otherwise it is sent in full each time,
+ * so the table of a stream is bounded. Elements can be nested at most
+ * <code>MAX_DEPTH</code> levels. The values of numbers are sent as
+ * raw doubles. Each direction of a connection has its own table of interned
+ * Strings, so an encoder must be used for a single stream and the frames
+ * must be sent in the order in which they are encoded. It is not thread
+ * safe. See <code>INDIBinaryDecoder</code>.
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDIBinaryEncoder {
+
+  /**
+   * The type of the frames that contain an element.
+   */
+  public static final int ELEMENT_FRAME = 0;
+  /**
+   * The type of the frames that contain XML code.
+   */
+  public static final int XML_FRAME = 1;
+  /**
+   * The length of the header of a frame.
+   */
+  public static final int HEADER_LENGTH = 5;
+  /**
+   * The maximum number of interned Strings of a stream.
+   */
+  public static final int MAX_INTERNED = 4096;
+  /**
+   * The maximum length (in UTF-8 bytes) of an interned String.
+   */
+  public static final int MAX_INTERNED_LENGTH = 256;
+  /**
+   * The maximum nesting of the elements (a vector, its elements and, for
+   * some unknown messages, one more level).
+   */
+  public static final int MAX_DEPTH = 4;
+  /**
+   * An empty value.
+   */
+  static final int EMPTY_VALUE = 0;
+  /**
+   * A String value.
+   */
+  static final int STRING_VALUE = 1;
+  /**
+   * An interned String value.
+   */
+  static final int REF_VALUE = 2;
+  /**
+   * A double value.
+   */
+  static final int DOUBLE_VALUE = 3;
+  /**
+   * The UTF-8 charset.
+   */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  /**
+   * The ids of the interned Strings.
+   */
+  private HashMap<String, Integer> ids;
+  /**
+   * The encoded bytes.
+   */
+  private byte[] buffer;
+  /**
+   * The number of valid bytes in <code>buffer</code>.
+   */
+  private int length;
+
+  /**
+   * Constructs a new encoder with an empty table of interned Strings.
+   */
+  public INDIBinaryEncoder() {
+    ids = new HashMap<String, Integer>();
+    buffer = new byte[1024];
+  }
+
+  /**
+   * Encodes a message as an element frame.
+   *
+   * @param message The message.
+   * @return The frame.
+   * @throws IllegalArgumentException if the message can not be encoded (see
+   * <code>canEncode</code>). The encoder is not modified.
+   */
+  public byte[] encode(INDIMessage message) {
+    if (!canEncode(message)) {
+      throw new IllegalArgumentException("Elements nested too deeply");
+    }
+
+    length = HEADER_LENGTH;
+
+    element(message);
+
+    writeHeader(buffer, length - 4, ELEMENT_FRAME);
+
+    byte[] res = new byte[length];
+
+    System.arraycopy(buffer, 0, res, 0, length);
+
+    if (buffer.length > 65536) {
+      buffer = new byte[1024];  // Do not keep the memory of long messages
+    }
+
+    return res;
+  }
+
+  /**
+   * Checks if a message can be encoded as an element frame: its elements must
+   * not be nested more than <code>MAX_DEPTH</code> levels. The other messages
+   * can be sent in a XML frame.
+   *
+   * @param message The message.
+   * @return <code>true</code> if it can be encoded.
+   */
+  public static boolean canEncode(INDIMessage message) {
+    return getDepth(message, MAX_DEPTH + 1) <= MAX_DEPTH;
+  }
+
+  /**
+   * Gets the nesting depth of an element.
+   *
+   * @param message The element.
+   * @param limit The depth at which the search stops.
+   * @return The depth (1 for an element without children), at most
+   * <code>limit</code>.
+   */
+  private static int getDepth(INDIMessage message, int limit) {
+    if (limit <= 1) {
+      return 1;
+    }
+
+    INDIMessage[] children = message.getChildren();
+    int depth = 1;
+
+    for (int i = 0 ; i < children.length ; i++) {
+      depth = Math.max(depth, 1 + getDepth(children[i], limit - 1));
+    }
+
+    return depth;
+  }
+
+  /**
+   * Gets the header of a frame with some XML code. The header must be
+   * followed by the UTF-8 XML code.
+   *
+   * @param xmlLength The length of the XML code.
+   * @return The header.
+   */
+  public static byte[] getXMLFrameHeader(int xmlLength) {
+    byte[] header = new byte[HEADER_LENGTH];
+
+    writeHeader(header, xmlLength + 1, XML_FRAME);
+
+    return header;
+  }
+
+  /**
+   * Gets the number of Strings interned by the encoder.
+   *
+   * @return The number of interned Strings.
+   */
+  public int getInternedCount() {
+    return ids.size();
+  }
+
+  /**
+   * Checks if the value of an attribute is interned.
+   *
+   * @param attributeName The name of the attribute.
+   * @return <code>true</code> if its values are interned.
+   */
+  static boolean isInterned(String attributeName) {
+    return attributeName.equals("device") || attributeName.equals("name") || attributeName.equals("label") || attributeName.equals("group") || attributeName.equals("state") || attributeName.equals("perm") || attributeName.equals("rule") || attributeName.equals("format");
+  }
+
+  /**
+   * Checks if the value of an attribute is a number.
+   *
+   * @param kind The kind of the element.
+   * @param attributeName The name of the attribute.
+   * @return <code>true</code> if its values are numbers.
+   */
+  static boolean isNumber(INDIMessage.Kind kind, String attributeName) {
+    return (kind == INDIMessage.Kind.DEF_NUMBER) && (attributeName.equals("min") || attributeName.equals("max") || attributeName.equals("step"));
+  }
+
+  /**
+   * Checks if the text of an element is a number.
+   *
+   * @param kind The kind of the element.
+   * @return <code>true</code> if its text is a number.
+   */
+  static boolean isNumber(INDIMessage.Kind kind) {
+    return (kind == INDIMessage.Kind.DEF_NUMBER) || (kind == INDIMessage.Kind.ONE_NUMBER);
+  }
+
+  /**
+   * Writes the header of a frame.
+   *
+   * @param b The buffer.
+   * @param frameLength The length of the frame after the length field.
+   * @param type The type of the frame.
+   */
+  private static void writeHeader(byte[] b, int frameLength, int type) {
+    b[0] = (byte)(frameLength >>> 24);
+    b[1] = (byte)(frameLength >>> 16);
+    b[2] = (byte)(frameLength >>> 8);
+    b[3] = (byte)frameLength;
+    b[4] = (byte)type;
+  }
+
+  /**
+   * Checks if a String can be interned, given the length of its UTF-8 form and
+   * the number of Strings already interned.
+   *
+   * @param utf8Length The length of the UTF-8 form of the String.
+   * @param internedCount The number of Strings already interned.
+   * @return <code>true</code> if it can be interned.
+   */
+  static boolean canIntern(int utf8Length, int internedCount) {
+    return (utf8Length <= MAX_INTERNED_LENGTH) && (internedCount < MAX_INTERNED);
+  }
+
+  /**
+   * Writes an element.
+   *
+   * @param message The element.
+   */
+  private void element(INDIMessage message) {
+    INDIMessage.Kind kind = message.getKind();
+
+    ref(message.getTagName());
+
+    int n = message.getAttributeCount();
+
+    varint(n);
+
+    for (int i = 0 ; i < n ; i++) {
+      String name = message.getAttributeName(i);
+      String value = message.getAttributeValue(i);
+
+      ref(name);
+
+      if (isNumber(kind, name)) {
+        number(value);
+      } else if (isInterned(name)) {
+        interned(value);
+      } else {
+        string(value);
+      }
+    }
+
+    if (isNumber(kind)) {
+      number(message.getText().trim());
+    } else {
+      string(message.getText());
+    }
+
+    INDIMessage[] children = message.getChildren();
+
+    varint(children.length);
+
+    for (int i = 0 ; i < children.length ; i++) {
+      element(children[i]);
+    }
+  }
+
+  /**
+   * Writes a value that should be a number. If it is not a plain decimal
+   * number (for example, a sexagesimal one) it is written as a String.
+   *
+   * @param value The value.
+   */
+  private void number(String value) {
+    if (!isDecimal(value)) {
+      string(value);
+
+      return;
+    }
+
+    long bits = Double.doubleToLongBits(Double.parseDouble(value));
+
+    ensureCapacity(9);
+
+    buffer[length++] = DOUBLE_VALUE;
+
+    for (int shift = 56 ; shift >= 0 ; shift -= 8) {
+      buffer[length++] = (byte)(bits >>> shift);
+    }
+  }
+
+  /**
+   * Checks if a String is a plain decimal number.
+   *
+   * @param value The String.
+   * @return <code>true</code> if it is a plain decimal number.
+   */
+  private static boolean isDecimal(String value) {
+    int len = value.length();
+    boolean digits = false;
+
+    for (int i = 0 ; i < len ; i++) {
+      char c = value.charAt(i);
+
+      if ((c >= '0') && (c <= '9')) {
+        digits = true;
+      } else if ((c != '.') && (c != '-') && (c != '+') && (c != 'e') && (c != 'E')) {
+        return false;
+      }
+    }
+
+    if (!digits) {
+      return false;
+    }
+
+    try {
+      Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Writes a value that is interned.
+   *
+   * @param value The value.
+   */
+  private void interned(String value) {
+    if (value.length() == 0) {
+      byteValue(EMPTY_VALUE);
+    } else {
+      byteValue(REF_VALUE);
+      ref(value);
+    }
+  }
+
+  /**
+   * Writes a String value.
+   *
+   * @param value The value.
+   */
+  private void string(String value) {
+    if (value.length() == 0) {
+      byteValue(EMPTY_VALUE);
+    } else {
+      byteValue(STRING_VALUE);
+      utf8(value);
+    }
+  }
+
+  /**
+   * Writes a reference to an interned String, defining it if it is the first
+   * time that it is written (if it can not be interned it is defined each
+   * time).
+   *
+   * @param s The String.
+   */
+  private void ref(String s) {
+    Integer id = ids.get(s);
+
+    if (id != null) {
+      varint(id);
+
+      return;
+    }
+
+    byte[] b = s.getBytes(UTF8);
+
+    if (canIntern(b.length, ids.size())) {
+      ids.put(s, ids.size() + 1);
+    }
+
+    varint(0);
+    utf8(b);
+  }
+
+  /**
+   * Writes the length and the UTF-8 bytes of a String.
+   *
+   * @param s The String.
+   */
+  private void utf8(String s) {
+    utf8(s.getBytes(UTF8));
+  }
+
+  /**
+   * Writes the length and the UTF-8 bytes of a String.
+   *
+   * @param b The UTF-8 bytes.
+   */
+  private void utf8(byte[] b) {
+    varint(b.length);
+
+    ensureCapacity(b.length);
+
+    System.arraycopy(b, 0, buffer, length, b.length);
+
+    length += b.length;
+  }
+
+  /**
+   * Writes a non negative integer as a varint.
+   *
+   * @param value The integer.
+   */
+  private void varint(int value) {
+    ensureCapacity(5);
+
+    while ((value & ~0x7F) != 0) {
+      buffer[length++] = (byte)((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+
+    buffer[length++] = (byte)value;
+  }
+
+  /**
+   * Writes a single byte.
+   *
+   * @param b The byte.
+   */
+  private void byteValue(int b) {
+    ensureCapacity(1);
+
+    buffer[length++] = (byte)b;
+  }
+
+  /**
+   * Makes sure that the buffer can hold some more bytes.
+   *
+   * @param extra The number of bytes to be added.
+   */
+  private void ensureCapacity(int extra) {
+    if (length + extra > buffer.length) {
+      byte[] b = new byte[Math.max(buffer.length * 2, length + extra)];
+
+      System.arraycopy(buffer, 0, b, 0, length);
+
+      buffer = b;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of direct <code>ByteBuffer</code>s of the same size. Connections take
+ * a buffer only while they have bytes to read and give it back afterwards, so
+ * idle connections do not hold any. The number of buffers kept in the pool is
+ * limited: buffers released when the pool is full are left to the garbage
+ * collector. Some counters are kept to check the use of the pool.
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDIBufferPool {
+
+  /**
+   * The pool shared by default.
+   */
+  private static final INDIBufferPool DEFAULT_POOL = new INDIBufferPool(16384, 64);
+  /**
+   * The size of the buffers.
+   */
+  private int bufferSize;
+  /**
+   * The maximum number of buffers kept in the pool.
+   */
+  private int maxPooled;
+  /**
+   * The buffers ready to be used.
+   */
+  private ArrayDeque<ByteBuffer> pool;
+  /**
+   * The number of buffers given and not released yet.
+   */
+  private int inUse;
+  /**
+   * The maximum number of buffers used at the same time.
+   */
+  private int maxInUse;
+  /**
+   * The number of buffers allocated.
+   */
+  private long allocatedCount;
+  /**
+   * The number of buffers given.
+   */
+  private long acquireCount;
+
+  /**
+   * Constructs a pool.
+   *
+   * @param bufferSize The size of the buffers.
+   * @param maxPooled The maximum number of buffers kept in the pool.
+   */
+  public INDIBufferPool(int bufferSize, int maxPooled) {
+    this.bufferSize = bufferSize;
+    this.maxPooled = maxPooled;
+
+    pool = new ArrayDeque<ByteBuffer>();
+  }
+
+  /**
+   * Gets the pool shared by default (with 16 KB buffers).
+   *
+   * @return The default pool.
+   */
+  public static INDIBufferPool getDefault() {
+    return DEFAULT_POOL;
+  }
+
+  /**
+   * Takes a (cleared) buffer from the pool, allocating a new one if the pool
+   * is empty.
+   *
+   * @return The buffer.
+   */
+  public synchronized ByteBuffer acquire() {
+    ByteBuffer b = pool.pollFirst();
+
+    if (b == null) {
+      b = ByteBuffer.allocateDirect(bufferSize);
+      allocatedCount++;
+    }
+
+    inUse++;
+    acquireCount++;
+
+    if (inUse > maxInUse) {
+      maxInUse = inUse;
+    }
+
+    return b;
+  }
+
+  /**
+   * Gives a buffer back to the pool. It must not be used afterwards.
+   *
+   * @param b The buffer.
+   */
+  public synchronized void release(ByteBuffer b) {
+    inUse--;
+
+    if ((pool.size() < maxPooled) && (b.capacity() == bufferSize)) {
+      b.clear();
+
+      pool.addFirst(b);
+    }
+  }
+
+  /**
+   * Gets the size of the buffers.
+   *
+   * @return The size of the buffers.
+   */
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * Gets the number of buffers ready to be used.
+   *
+   * @return The number of buffers in the pool.
+   */
+  public synchronized int getPooledCount() {
+    return pool.size();
+  }
+
+  /**
+   * Gets the number of buffers given and not released yet.
+   *
+   * @return The number of buffers in use.
+   */
+  public synchronized int getInUseCount() {
+    return inUse;
+  }
+
+  /**
+   * Gets the maximum number of buffers used at the same time.
+   *
+   * @return The maximum number of buffers in use.
+   */
+  public synchronized int getMaxInUseCount() {
+    return maxInUse;
+  }
+
+  /**
+   * Gets the number of buffers allocated by the pool.
+   *
+   * @return The number of buffers allocated.
+   */
+  public synchronized long getAllocatedCount() {
+    return allocatedCount;
+  }
+
+  /**
+   * Gets the number of times that a buffer has been taken from the pool.
+   *
+   * @return The number of buffers given.
+   */
+  public synchronized long getAcquireCount() {
+    return acquireCount;
+  }
+}
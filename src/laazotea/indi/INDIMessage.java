@@ -0,0 +1,462 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.util.HashMap;
+
+/**
+ * A compact representation of an INDI message (or of one of its child
+ * elements) as decoded from the stream. The kind of the message is resolved
+ * once when it is read, so that it can be dispatched with a
+ * <code>switch</code>. Attribute values are already trimmed.
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDIMessage {
+
+  /**
+   * The kinds of INDI messages and child elements.
+   */
+  public enum Kind {
+
+    GET_PROPERTIES("getProperties"),
+    ENABLE_BLOB("enableBLOB"),
+    NEW_TEXT_VECTOR("newTextVector"),
+    NEW_NUMBER_VECTOR("newNumberVector"),
+    NEW_SWITCH_VECTOR("newSwitchVector"),
+    NEW_BLOB_VECTOR("newBLOBVector"),
+    DEF_TEXT_VECTOR("defTextVector"),
+    DEF_NUMBER_VECTOR("defNumberVector"),
+    DEF_SWITCH_VECTOR("defSwitchVector"),
+    DEF_LIGHT_VECTOR("defLightVector"),
+    DEF_BLOB_VECTOR("defBLOBVector"),
+    SET_TEXT_VECTOR("setTextVector"),
+    SET_NUMBER_VECTOR("setNumberVector"),
+    SET_SWITCH_VECTOR("setSwitchVector"),
+    SET_LIGHT_VECTOR("setLightVector"),
+    SET_BLOB_VECTOR("setBLOBVector"),
+    MESSAGE("message"),
+    DEL_PROPERTY("delProperty"),
+    DEF_TEXT("defText"),
+    DEF_NUMBER("defNumber"),
+    DEF_SWITCH("defSwitch"),
+    DEF_LIGHT("defLight"),
+    DEF_BLOB("defBLOB"),
+    ONE_TEXT("oneText"),
+    ONE_NUMBER("oneNumber"),
+    ONE_SWITCH("oneSwitch"),
+    ONE_LIGHT("oneLight"),
+    ONE_BLOB("oneBLOB"),
+    UNKNOWN(null);
+    /**
+     * The XML tag name of the kind.
+     */
+    private final String tagName;
+
+    private Kind(String tagName) {
+      this.tagName = tagName;
+    }
+
+    /**
+     * Gets the XML tag name of the kind.
+     *
+     * @return The XML tag name of the kind (<code>null</code> for
+     * <code>UNKNOWN</code>).
+     */
+    public String getTagName() {
+      return tagName;
+    }
+  }
+  /**
+   * Used to resolve the kinds from their tag names.
+   */
+  private static final HashMap<String, Kind> KINDS = new HashMap<String, Kind>();
+
+  static {
+    for (Kind k : Kind.values()) {
+      if (k.tagName != null) {
+        KINDS.put(k.tagName, k);
+      }
+    }
+  }
+  /**
+   * An empty array of children.
+   */
+  private static final INDIMessage[] NO_CHILDREN = new INDIMessage[0];
+  /**
+   * The kind of the message.
+   */
+  private Kind kind;
+  /**
+   * The XML tag name of the message.
+   */
+  private String tagName;
+  /**
+   * The names of the attributes.
+   */
+  private String[] attributeNames;
+  /**
+   * The (trimmed) values of the attributes.
+   */
+  private String[] attributeValues;
+  /**
+   * The text contents of the message.
+   */
+  private String text;
+  /**
+   * The child elements of the message.
+   */
+  private INDIMessage[] children;
+  /**
+   * The UTF-8 XML code of the message: the bytes as they were read or, if
+   * they are not available, its serialization (made when first needed).
+   */
+  private volatile byte[] bytes;
+  /**
+   * The BLOB value of a <code>oneBLOB</code> element decoded while it was
+   * read (<code>null</code> if it has not been decoded).
+   */
+  private INDIBLOBValue blobValue;
+
+  /**
+   * Constructs a new message. The attribute arrays are copied.
+   *
+   * @param tagName The XML tag name of the message.
+   * @param attributeNames The names of the attributes.
+   * @param attributeValues The values of the attributes (they will be
+   * trimmed).
+   * @param attributeCount The number of attributes in the arrays.
+   */
+  public INDIMessage(String tagName, String[] attributeNames, String[] attributeValues, int attributeCount) {
+    this.tagName = tagName;
+    this.kind = getKind(tagName);
+
+    this.attributeNames = new String[attributeCount];
+    this.attributeValues = new String[attributeCount];
+
+    for (int i = 0 ; i < attributeCount ; i++) {
+      this.attributeNames[i] = attributeNames[i];
+      this.attributeValues[i] = attributeValues[i].trim();
+    }
+
+    this.text = "";
+    this.children = NO_CHILDREN;
+  }
+
+  /**
+   * Gets the kind that corresponds to a XML tag name.
+   *
+   * @param tagName The XML tag name
+   * @return The kind (<code>UNKNOWN</code> if the tag name is not an INDI
+   * one).
+   */
+  public static Kind getKind(String tagName) {
+    Kind k = KINDS.get(tagName);
+
+    if (k == null) {
+      return Kind.UNKNOWN;
+    }
+
+    return k;
+  }
+
+  /**
+   * Gets the kind of the message.
+   *
+   * @return The kind of the message.
+   */
+  public Kind getKind() {
+    return kind;
+  }
+
+  /**
+   * Gets the XML tag name of the message.
+   *
+   * @return The XML tag name of the message.
+   */
+  public String getTagName() {
+    return tagName;
+  }
+
+  /**
+   * Checks if the message has a particular attribute.
+   *
+   * @param name The name of the attribute.
+   * @return <code>true</code> if the attribute is present.
+   */
+  public boolean hasAttribute(String name) {
+    for (int i = 0 ; i < attributeNames.length ; i++) {
+      if (attributeNames[i].equals(name)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Gets the (trimmed) value of an attribute.
+   *
+   * @param name The name of the attribute.
+   * @return The value of the attribute or an empty String if it is not
+   * present.
+   */
+  public String getAttribute(String name) {
+    for (int i = 0 ; i < attributeNames.length ; i++) {
+      if (attributeNames[i].equals(name)) {
+        return attributeValues[i];
+      }
+    }
+
+    return "";
+  }
+
+  /**
+   * Gets the value of the <code>device</code> attribute.
+   *
+   * @return The value of the <code>device</code> attribute or an empty String
+   * if it is not present.
+   */
+  public String getDevice() {
+    return getAttribute("device");
+  }
+
+  /**
+   * Gets the value of the <code>name</code> attribute.
+   *
+   * @return The value of the <code>name</code> attribute or an empty String if
+   * it is not present.
+   */
+  public String getName() {
+    return getAttribute("name");
+  }
+
+  /**
+   * Gets the number of attributes.
+   *
+   * @return The number of attributes.
+   */
+  public int getAttributeCount() {
+    return attributeNames.length;
+  }
+
+  /**
+   * Gets the name of the <code>i</code>-th attribute.
+   *
+   * @param i The index of the attribute.
+   * @return The name of the attribute.
+   */
+  public String getAttributeName(int i) {
+    return attributeNames[i];
+  }
+
+  /**
+   * Gets the value of the <code>i</code>-th attribute.
+   *
+   * @param i The index of the attribute.
+   * @return The value of the attribute.
+   */
+  public String getAttributeValue(int i) {
+    return attributeValues[i];
+  }
+
+  /**
+   * Gets the (untrimmed) text contents of the message.
+   *
+   * @return The text contents of the message.
+   */
+  public String getText() {
+    return text;
+  }
+
+  /**
+   * Sets the text contents of the message.
+   *
+   * @param text The text contents of the message.
+   */
+  public void setText(String text) {
+    this.text = text;
+    this.bytes = null;
+  }
+
+  /**
+   * Gets the child elements of the message.
+   *
+   * @return The child elements of the message.
+   */
+  public INDIMessage[] getChildren() {
+    return children;
+  }
+
+  /**
+   * Sets the child elements of the message.
+   *
+   * @param children The child elements of the message.
+   */
+  public void setChildren(INDIMessage[] children) {
+    this.children = children;
+    this.bytes = null;
+  }
+
+  /**
+   * Gets the UTF-8 XML code of the message. If the message was read from a
+   * stream these are the original bytes. Otherwise the message is serialized
+   * the first time this method is called and the same bytes are returned
+   * afterwards. The returned array is shared and must not be modified.
+   *
+   * @return The UTF-8 XML code of the message.
+   */
+  public byte[] getBytes() {
+    byte[] b = bytes;
+
+    if (b == null) {
+      INDIXMLEncoder xml = new INDIXMLEncoder();
+      xml.raw(toXML());
+
+      b = xml.toByteArray();
+      bytes = b;
+    }
+
+    return b;
+  }
+
+  /**
+   * Sets the original UTF-8 XML code of the message, as read from a stream.
+   * The array is not copied.
+   *
+   * @param bytes The UTF-8 XML code of the message.
+   */
+  public void setBytes(byte[] bytes) {
+    this.bytes = bytes;
+  }
+
+  /**
+   * Gets the BLOB value of a <code>oneBLOB</code> element decoded while it
+   * was read (see <code>INDIMessageDecoder.setDecodeBLOBs</code>).
+   *
+   * @return The BLOB value or <code>null</code> if it has not been decoded.
+   */
+  INDIBLOBValue getBLOBValue() {
+    return blobValue;
+  }
+
+  /**
+   * Sets the BLOB value of a <code>oneBLOB</code> element decoded while it
+   * was read.
+   *
+   * @param blobValue The BLOB value.
+   */
+  void setBLOBValue(INDIBLOBValue blobValue) {
+    this.blobValue = blobValue;
+  }
+
+  /**
+   * Disposes the BLOB values of the message and its children decoded while it
+   * was read that have not been taken by an <code>INDIBLOBValue</code> (see
+   * <code>INDIBLOBValue.dispose()</code>).
+   */
+  public void disposeBLOBValues() {
+    if (blobValue != null) {
+      blobValue.dispose();
+    }
+
+    INDIMessage[] children = getChildren();
+
+    for (int i = 0 ; i < children.length ; i++) {
+      children[i].disposeBLOBValues();
+    }
+  }
+
+  /**
+   * Gets a XML representation of the message.
+   *
+   * @return A XML representation of the message.
+   */
+  public String toXML() {
+    StringBuilder sb = new StringBuilder(128);
+
+    appendXML(sb);
+
+    return sb.toString();
+  }
+
+  /**
+   * Appends a XML representation of the message.
+   *
+   * @param sb The StringBuilder to which the XML representation is appended.
+   */
+  public void appendXML(StringBuilder sb) {
+    sb.append('<').append(tagName);
+
+    for (int i = 0 ; i < attributeNames.length ; i++) {
+      sb.append(' ').append(attributeNames[i]).append("=\"");
+      appendEscaped(sb, attributeValues[i]);
+      sb.append('"');
+    }
+
+    if ((text.length() == 0) && (children.length == 0)) {
+      sb.append(" />");
+
+      return;
+    }
+
+    sb.append('>');
+
+    for (int i = 0 ; i < children.length ; i++) {
+      children[i].appendXML(sb);
+    }
+
+    appendEscaped(sb, text);
+
+    sb.append("</").append(tagName).append('>');
+  }
+
+  /**
+   * Appends a text escaping the XML special characters.
+   *
+   * @param sb The StringBuilder to which the text is appended.
+   * @param s The text.
+   */
+  public static void appendEscaped(StringBuilder sb, String s) {
+    int len = s.length();
+
+    for (int i = 0 ; i < len ; i++) {
+      char c = s.charAt(i);
+
+      switch (c) {
+        case '<':
+          sb.append("&lt;");
+          break;
+        case '>':
+          sb.append("&gt;");
+          break;
+        case '&':
+          sb.append("&amp;");
+          break;
+        case '"':
+          sb.append("&quot;");
+          break;
+        case '\'':
+          sb.append("&apos;");
+          break;
+        default:
+          sb.append(c);
+      }
+    }
+  }
+}
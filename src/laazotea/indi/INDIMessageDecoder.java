@@ -0,0 +1,476 @@
+/*
+ *  This file is part of INDI for Java.
+ * 
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation, either version 3 of 
+ *  the License, or (at your option) any later version.
+ * 
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see 
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Decodes a stream of INDI messages that is fed in chunks of any size (as
+ * characters or as UTF-8 bytes). An <code>INDIMessage</code> is built for each
+ * top level message reported by the tokenizer and it is sent to the parser as
+ * soon as it is complete. It is used both by the blocking
+ * <code>INDIProtocolReader</code> and by non blocking connections.
+ * <p>
+ * The text of the elements is never held whole by the tokenizer, and the one
+ * of the <code>oneBLOB</code> elements is decoded as it arrives (or
+ * discarded). But when the messages are kept raw (to be relayed), each one is
+ * held as its UTF-8 bytes until it ends, and then copied once into the
+ * message: the memory used by a relayed message is only bounded by the
+ * maximum message length (see <code>setMaxMessageLength</code>).
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDIMessageDecoder implements INDIProtocolTokenizer.Listener {
+
+  /**
+   * The capacity (in characters) over which the buffers are given back after
+   * a long message.
+   */
+  private static final int MAX_KEPT_CAPACITY = 65536;
+
+  /**
+   * The parser to which the messages will be sent.
+   */
+  private INDIProtocolParser parser;
+  /**
+   * If <code>true</code> each message keeps the bytes as they were read.
+   */
+  private boolean keepRawMessages;
+  /**
+   * The tokenizer that feeds this decoder.
+   */
+  private INDIProtocolTokenizer tokenizer;
+  /**
+   * The messages being built (the outermost first).
+   */
+  private ArrayList<INDIMessage> open;
+  /**
+   * The children of each message being built.
+   */
+  private ArrayList<ArrayList<INDIMessage>> openChildren;
+  /**
+   * The text of each message being built.
+   */
+  private ArrayList<StringBuilder> openText;
+  /**
+   * Used to decode the UTF-8 bytes fed to the decoder.
+   */
+  private CharsetDecoder utf8Decoder;
+  /**
+   * The characters decoded from the bytes fed to the decoder.
+   */
+  private CharBuffer chars;
+  /**
+   * The maximum length (in characters) of a message (0 for no limit).
+   */
+  private int maxMessageLength;
+  /**
+   * The number of characters fed since the end of the last complete top level
+   * message (in the previous chunks, while a chunk is being fed).
+   */
+  private long messageLength;
+  /**
+   * The first character of the chunk being fed.
+   */
+  private int chunkStart;
+  /**
+   * <code>true</code> if a message longer than the maximum length has been
+   * fed.
+   */
+  private boolean overflowed;
+  /**
+   * <code>true</code> if a message longer than <code>MAX_KEPT_CAPACITY</code>
+   * has been read, so the buffers may have to be given back.
+   */
+  private boolean trimPending;
+  /**
+   * If <code>false</code> the text of the <code>oneBLOB</code> elements is
+   * discarded.
+   */
+  private boolean keepBLOBText;
+  /**
+   * <code>true</code> while the text of the innermost open element is being
+   * discarded.
+   */
+  private boolean discardingText;
+  /**
+   * If <code>true</code> the text of the <code>oneBLOB</code> elements is
+   * decoded while it is read.
+   */
+  private boolean decodeBLOBs;
+  /**
+   * The size over which the decoded BLOBs are stored in a temporary file.
+   */
+  private int blobSpillThreshold;
+  /**
+   * The decoder of the BLOB being read (<code>null</code> if none).
+   */
+  private INDIBLOBDecoder blobDecoder;
+
+  /**
+   * Constructs a decoder.
+   *
+   * @param parser The parser to which the decoded messages will be sent.
+   * @param keepRawMessages If <code>true</code> each message keeps the bytes
+   * as they were read (see <code>INDIMessage.getBytes()</code>), so that it
+   * can be relayed without serializing it again.
+   */
+  public INDIMessageDecoder(INDIProtocolParser parser, boolean keepRawMessages) {
+    this.parser = parser;
+    this.keepRawMessages = keepRawMessages;
+
+    tokenizer = new INDIProtocolTokenizer(this);
+    maxMessageLength = 0;
+    messageLength = 0;
+    overflowed = false;
+    trimPending = false;
+    keepBLOBText = true;
+    discardingText = false;
+    decodeBLOBs = false;
+    blobSpillThreshold = INDIBLOBDecoder.DEFAULT_SPILL_THRESHOLD;
+    open = new ArrayList<INDIMessage>();
+    openChildren = new ArrayList<ArrayList<INDIMessage>>();
+    openText = new ArrayList<StringBuilder>();
+
+    if (keepRawMessages) {
+      tokenizer.setCaptureRaw(true);
+    }
+  }
+
+  /**
+   * Sets the maximum length (in characters) of a message. If a longer message
+   * is fed, it is discarded and the decoder is marked as overflowed (see
+   * <code>isOverflowed</code>): the connection should be closed, as the rest
+   * of the stream can not be trusted.
+   *
+   * @param maxMessageLength The maximum length of a message (0 for no limit).
+   */
+  public void setMaxMessageLength(int maxMessageLength) {
+    this.maxMessageLength = maxMessageLength;
+  }
+
+  /**
+   * Sets if the text (the base64 encoded data) of the <code>oneBLOB</code>
+   * elements must be kept in the messages. A Server that just relays the
+   * messages (keeping their raw bytes) does not need it, and discarding it
+   * avoids holding several copies of each BLOB while it is read.
+   *
+   * @param keepBLOBText <code>false</code> to discard the BLOB data.
+   */
+  public void setKeepBLOBText(boolean keepBLOBText) {
+    this.keepBLOBText = keepBLOBText;
+  }
+
+  /**
+   * Sets if the text of the <code>oneBLOB</code> elements must be decoded
+   * while it is read, instead of being kept as text. The decoded value is
+   * got with <code>new INDIBLOBValue(oneBLOBMessage)</code>. Large BLOBs are
+   * stored in a temporary file (see <code>setBLOBSpillThreshold</code>).
+   *
+   * @param decodeBLOBs <code>true</code> to decode the BLOBs.
+   */
+  public void setDecodeBLOBs(boolean decodeBLOBs) {
+    this.decodeBLOBs = decodeBLOBs;
+  }
+
+  /**
+   * Sets the size over which the decoded BLOBs are stored in a temporary
+   * file instead of in memory. By default it is
+   * <code>INDIBLOBDecoder.DEFAULT_SPILL_THRESHOLD</code>.
+   *
+   * @param blobSpillThreshold The size (in bytes).
+   */
+  public void setBLOBSpillThreshold(int blobSpillThreshold) {
+    this.blobSpillThreshold = blobSpillThreshold;
+  }
+
+  /**
+   * Checks if a message longer than the maximum length has been fed.
+   *
+   * @return <code>true</code> if a too long message has been fed.
+   */
+  public boolean isOverflowed() {
+    return overflowed;
+  }
+
+  /**
+   * Feeds some characters to the decoder. The messages completed by them are
+   * sent to the parser. Once the decoder has overflowed any further character
+   * is ignored.
+   * <p>
+   * The length of each top level message is counted from the end of the
+   * previous one, whatever the boundaries of the chunks, so a partial message
+   * can not exceed the maximum length by more than a chunk.
+   *
+   * @param ch The characters.
+   * @param start The first character to be read.
+   * @param length The number of characters to be read.
+   */
+  public void feed(char[] ch, int start, int length) {
+    if (overflowed) {
+      return;
+    }
+
+    chunkStart = start;
+
+    tokenizer.feed(ch, start, length);
+
+    messageLength += length;  // Made relative to the end of the last message in endElement
+
+    if ((maxMessageLength > 0) && (messageLength > maxMessageLength)) {
+      overflowed = true;
+    }
+
+    if (overflowed) {
+      reset();
+
+      return;
+    }
+
+    if (messageLength > MAX_KEPT_CAPACITY) {
+      trimPending = true;
+    }
+
+    if (tokenizer.isBetweenMessages()) {
+      messageLength = 0;
+
+      if (trimPending) {
+        trimBuffers();
+      }
+    }
+  }
+
+  /**
+   * Gives back the memory of the buffers that have grown because of a long
+   * message.
+   */
+  private void trimBuffers() {
+    tokenizer.trimBuffers(MAX_KEPT_CAPACITY);
+
+    for (int i = 0 ; i < openText.size() ; i++) {
+      if (openText.get(i).capacity() > MAX_KEPT_CAPACITY) {
+        openText.set(i, new StringBuilder());
+      }
+    }
+
+    trimPending = false;
+  }
+
+  /**
+   * Feeds some UTF-8 bytes to the decoder. The messages completed by them are
+   * sent to the parser. The bytes of an incomplete UTF-8 sequence at the end
+   * are left in the buffer: the caller should compact it and append more
+   * bytes before feeding it again.
+   *
+   * @param bytes The bytes (between its position and its limit).
+   */
+  public void feed(ByteBuffer bytes) {
+    if (utf8Decoder == null) {
+      utf8Decoder = Charset.forName("UTF-8").newDecoder();
+      utf8Decoder.onMalformedInput(CodingErrorAction.REPLACE);
+      utf8Decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+      chars = CharBuffer.allocate(16384);
+    }
+
+    while (true) {
+      chars.clear();
+
+      CoderResult result = utf8Decoder.decode(bytes, chars, false);
+
+      if (chars.position() > 0) {
+        feed(chars.array(), 0, chars.position());
+      }
+
+      if (result.isUnderflow()) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Discards any partially read message.
+   */
+  public void reset() {
+    tokenizer.reset();
+
+    if (blobDecoder != null) {
+      blobDecoder.abort();
+      blobDecoder = null;
+    }
+
+    messageLength = 0;
+
+    open.clear();
+
+    for (int i = 0 ; i < openText.size() ; i++) {
+      openChildren.get(i).clear();
+      openText.get(i).setLength(0);
+    }
+
+    if (utf8Decoder != null) {
+      utf8Decoder.reset();
+    }
+  }
+
+  @Override
+  public void startElement(String name, String[] attributeNames, String[] attributeValues, int attributeCount) {
+    if (overflowed) {  // The rest of the chunk is ignored
+      return;
+    }
+
+    int level = open.size();
+
+    open.add(new INDIMessage(name, attributeNames, attributeValues, attributeCount));
+
+    discardingText = (!keepBLOBText) && name.equals("oneBLOB");
+
+    if (decodeBLOBs && name.equals("oneBLOB")) {
+      startBLOB(open.get(level));
+    }
+
+    if (openChildren.size() == level) {
+      openChildren.add(new ArrayList<INDIMessage>());
+      openText.add(new StringBuilder());
+    }
+  }
+
+  /**
+   * Starts decoding the text of a <code>oneBLOB</code> element. If its
+   * attributes are not correct the text is kept, so that the error is found
+   * when the value is parsed.
+   *
+   * @param xml The element.
+   */
+  private void startBLOB(INDIMessage xml) {
+    if (!xml.hasAttribute("format")) {
+      return;
+    }
+
+    int size;
+
+    try {
+      size = Integer.parseInt(xml.getAttribute("size"));
+    } catch (NumberFormatException e) {
+      return;
+    }
+
+    blobDecoder = new INDIBLOBDecoder(xml.getAttribute("format"), size, blobSpillThreshold);
+    discardingText = true;
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) {
+    if (overflowed) {
+      return;
+    }
+
+    if (blobDecoder != null) {
+      blobDecoder.append(ch, start, length);
+
+      return;
+    }
+
+    if ((!open.isEmpty()) && (!discardingText)) {
+      openText.get(open.size() - 1).append(ch, start, length);
+    }
+  }
+
+  @Override
+  public void endElement(String name) {
+    if (overflowed || open.isEmpty()) {
+      return;
+    }
+
+    int level = open.size() - 1;
+
+    INDIMessage message = open.remove(level);
+    ArrayList<INDIMessage> children = openChildren.get(level);
+    StringBuilder text = openText.get(level);
+
+    discardingText = false;
+
+    if (blobDecoder != null) {
+      try {
+        message.setBLOBValue(blobDecoder.finish());
+      } catch (IllegalArgumentException e) {  // Leave it without value: it will be rejected when parsed
+      }
+
+      blobDecoder = null;
+    }
+
+    if (!children.isEmpty()) {
+      message.setChildren(children.toArray(new INDIMessage[children.size()]));
+      children.clear();
+
+      if (isBlank(text)) { // Just the indentation between children
+        text.setLength(0);
+      }
+    }
+
+    if (text.length() > 0) {
+      message.setText(text.toString());
+      text.setLength(0);
+    }
+
+    if (level > 0) {
+      openChildren.get(level - 1).add(message);
+    } else {  // A whole message has been read
+      int consumed = tokenizer.getMessageEnd() + 1 - chunkStart;  // Of the chunk being fed
+
+      if ((maxMessageLength > 0) && (messageLength + consumed > maxMessageLength)) {
+        overflowed = true;
+
+        message.disposeBLOBValues();
+
+        return;
+      }
+
+      messageLength = -consumed;  // The next message starts after it
+
+      if (keepRawMessages) {
+        message.setBytes(Arrays.copyOf(tokenizer.getRawBytes(), tokenizer.getRawLength()));
+      }
+
+      parser.parseMessage(message);
+    }
+  }
+
+  /**
+   * Checks if a text consists only of whitespace.
+   *
+   * @param text The text
+   * @return <code>true</code> if the text consists only of whitespace.
+   */
+  private boolean isBlank(StringBuilder text) {
+    for (int i = 0 ; i < text.length() ; i++) {
+      if (!Character.isWhitespace(text.charAt(i))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
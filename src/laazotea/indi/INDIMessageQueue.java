@@ -0,0 +1,234 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+
+/**
+ * A bounded queue of INDI messages used to pass the messages of a Driver to a
+ * Server in the same JVM without a byte stream in between. Each message is
+ * queued with its encoded bytes and, if the encoder built it, its
+ * <code>INDIMessage</code> tree, so the Server does not parse it. When the
+ * queue is full the producer waits (back pressure), except for messages that
+ * supersede a queued one: a message put with the same
+ * <code>supersedeKey</code> as a message that has not been taken yet drops it
+ * and is queued at the end, so a consumer that falls behind only gets the
+ * latest values, and never before the messages sent before them.
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDIMessageQueue {
+
+  /**
+   * The queued frames.
+   */
+  private ArrayDeque<Frame> frames;
+  /**
+   * The queued frames that may be superseded, by their key.
+   */
+  private IdentityHashMap<Object, Frame> supersedable;
+  /**
+   * The maximum number of queued frames.
+   */
+  private int capacity;
+  /**
+   * <code>true</code> once the queue has been closed.
+   */
+  private boolean closed;
+  /**
+   * The number of frames that have been replaced by newer ones.
+   */
+  private long supersededCount;
+
+  /**
+   * Constructs a queue.
+   *
+   * @param capacity The maximum number of queued messages.
+   */
+  public INDIMessageQueue(int capacity) {
+    this.capacity = capacity;
+
+    frames = new ArrayDeque<Frame>(capacity);
+    supersedable = new IdentityHashMap<Object, Frame>();
+    closed = false;
+  }
+
+  /**
+   * Queues the message of an encoder, which must have built it (see
+   * <code>INDIXMLEncoder.setBuildMessages</code>). The bytes are copied. If
+   * the queue is full the calling thread waits until there is room for it,
+   * unless it supersedes a queued message.
+   *
+   * @param xml The encoder with the message.
+   * @param supersedeKey A key that identifies the messages that this one
+   * supersedes (for example the Property whose values it sends).
+   * <code>null</code> if it does not supersede any other message.
+   * @throws IllegalArgumentException If the encoder has not built a whole
+   * message.
+   */
+  public void put(INDIXMLEncoder xml, Object supersedeKey) {
+    byte[] bytes = xml.toByteArray();
+    INDIMessage message = xml.getMessage();
+
+    if (message == null) {
+      throw new IllegalArgumentException("The encoder has not built the message");
+    }
+
+    message.setBytes(bytes);
+
+    put(message, supersedeKey);
+  }
+
+  /**
+   * Queues a message. If the queue is full the calling thread waits until
+   * there is room for it, unless it supersedes a queued message.
+   *
+   * @param message The message.
+   * @param supersedeKey A key that identifies the messages that this one
+   * supersedes. <code>null</code> if it does not supersede any other message.
+   */
+  public synchronized void put(INDIMessage message, Object supersedeKey) {
+    Frame f = null;
+
+    if (supersedeKey != null) {
+      f = supersedable.remove(supersedeKey);
+    }
+
+    if (f != null) {  // Drop the queued message: there is room for this one
+      frames.removeFirstOccurrence(f);
+      supersededCount++;
+    } else {
+      boolean interrupted = false;
+
+      while ((frames.size() >= capacity) && (!closed)) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    if (closed) {
+      return;
+    }
+
+    f = new Frame(message, supersedeKey);
+
+    frames.addLast(f);
+
+    if (supersedeKey != null) {
+      supersedable.put(supersedeKey, f);
+    }
+
+    notifyAll();
+  }
+
+  /**
+   * Takes the oldest message of the queue, waiting until there is one.
+   *
+   * @return The message (with its bytes), or <code>null</code> if the queue
+   * has been closed.
+   */
+  public synchronized INDIMessage take() {
+    while (frames.isEmpty() && (!closed)) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+      }
+    }
+
+    if (frames.isEmpty()) {
+      return null;
+    }
+
+    Frame f = frames.removeFirst();
+
+    if (f.supersedeKey != null) {
+      supersedable.remove(f.supersedeKey);
+    }
+
+    notifyAll();
+
+    return f.message;
+  }
+
+  /**
+   * Closes the queue. Waiting producers and consumers are released and any
+   * further message is discarded.
+   */
+  public synchronized void close() {
+    closed = true;
+
+    frames.clear();
+    supersedable.clear();
+
+    notifyAll();
+  }
+
+  /**
+   * Gets the number of queued messages.
+   *
+   * @return The number of queued messages.
+   */
+  public synchronized int size() {
+    return frames.size();
+  }
+
+  /**
+   * Gets the number of messages that have been replaced by newer ones before
+   * being taken.
+   *
+   * @return The number of superseded messages.
+   */
+  public synchronized long getSupersededCount() {
+    return supersededCount;
+  }
+
+  /**
+   * A queued message.
+   */
+  private static class Frame {
+
+    /**
+     * The message.
+     */
+    private INDIMessage message;
+    /**
+     * The key of the messages that supersede this one (<code>null</code> if
+     * none).
+     */
+    private Object supersedeKey;
+
+    /**
+     * Constructs a frame.
+     *
+     * @param message The message.
+     * @param supersedeKey The key of the messages that supersede this one.
+     */
+    Frame(INDIMessage message, Object supersedeKey) {
+      this.message = message;
+      this.supersedeKey = supersedeKey;
+    }
+  }
+}
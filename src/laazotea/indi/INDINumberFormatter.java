@@ -0,0 +1,485 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.util.Formatter;
+import java.util.Locale;
+
+/**
+ * A precompiled formatter for INDI number formats. The format is parsed once
+ * when the formatter is constructed. Numbers are appended to a caller
+ * supplied <code>StringBuilder</code> producing the same text as
+ * <code>String.format(Locale.US, format, number)</code> (or the
+ * <code>INDISexagesimalFormatter</code> for <code>m</code> formats).
+ * <code>f</code> and <code>e</code> conversions with the <code>-</code>,
+ * <code>+</code>, space and <code>0</code> flags are written directly; any
+ * other case (<code>g</code> conversions, other flags, very large or small
+ * magnitudes, NaN and infinities) is delegated to a reused
+ * <code>java.util.Formatter</code>.
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDINumberFormatter {
+
+  /**
+   * The format.
+   */
+  private String format;
+  /**
+   * The sexagesimal formatter for <code>m</code> formats (<code>null</code>
+   * otherwise).
+   */
+  private INDISexagesimalFormatter sFormatter;
+  /**
+   * The conversion character (<code>f</code>, <code>e</code>,
+   * <code>E</code>, <code>g</code>, <code>G</code> or <code>m</code>).
+   */
+  private char conversion;
+  /**
+   * The minimum width (-1 if not specified).
+   */
+  private int width;
+  /**
+   * The precision.
+   */
+  private int precision;
+  private boolean leftJustify;
+  private boolean plusSign;
+  private boolean leadingSpace;
+  private boolean zeroPad;
+  /**
+   * <code>true</code> if the numbers cannot be directly written and must be
+   * formatted with <code>fallback</code>.
+   */
+  private boolean useFallback;
+  /**
+   * The buffer of the fallback formatter.
+   */
+  private StringBuilder fallbackBuffer;
+  /**
+   * The fallback formatter.
+   */
+  private Formatter fallback;
+  /**
+   * Used to get the decimal digits of the numbers.
+   */
+  private StringBuilder scratch;
+  /**
+   * The significant decimal digits of the number being formatted.
+   */
+  private char[] digits;
+  /**
+   * The number of significant digits in <code>digits</code>.
+   */
+  private int nDigits;
+  /**
+   * The decimal exponent of the number being formatted: the number is
+   * 0.<code>digits</code> x 10^<code>decExp</code>.
+   */
+  private int decExp;
+
+  /**
+   * Constructs a formatter for a particular format.
+   *
+   * @param format The format (for example <code>%7.2f</code> or
+   * <code>%010.6m</code>).
+   * @throws IllegalArgumentException if the format is not correct.
+   */
+  public INDINumberFormatter(String format) throws IllegalArgumentException {
+    this.format = format;
+
+    if (!format.startsWith("%")) {
+      throw new IllegalArgumentException("Number format not starting with %");
+    }
+
+    if (format.length() < 2) {
+      throw new IllegalArgumentException("Number format not recognized");
+    }
+
+    conversion = format.charAt(format.length() - 1);
+
+    if ((conversion != 'f') && (conversion != 'e') && (conversion != 'E') && (conversion != 'g') && (conversion != 'G') && (conversion != 'm')) {
+      throw new IllegalArgumentException("Number format not recognized");
+    }
+
+    if (conversion == 'm') {
+      sFormatter = new INDISexagesimalFormatter(format);
+
+      return;
+    }
+
+    scratch = new StringBuilder(32);
+    digits = new char[32];
+
+    parseFormat();
+
+    if (useFallback) {
+      fallbackBuffer = new StringBuilder(32);
+      fallback = new Formatter(fallbackBuffer, Locale.US);
+    }
+  }
+
+  /**
+   * Parses the flags, width and precision of a printf style format. Sets
+   * <code>useFallback</code> if the format cannot be directly written.
+   */
+  private void parseFormat() {
+    int pos = 1;
+    int end = format.length() - 1;
+
+    while (pos < end) {
+      char c = format.charAt(pos);
+
+      if (c == '-') {
+        leftJustify = true;
+      } else if (c == '+') {
+        plusSign = true;
+      } else if (c == ' ') {
+        leadingSpace = true;
+      } else if (c == '0') {
+        zeroPad = true;
+      } else {
+        break;
+      }
+
+      pos++;
+    }
+
+    width = -1;
+    int w = 0;
+    boolean hasWidth = false;
+
+    while ((pos < end) && Character.isDigit(format.charAt(pos))) {
+      w = w * 10 + (format.charAt(pos) - '0');
+      hasWidth = true;
+      pos++;
+    }
+
+    if (hasWidth) {
+      width = w;
+    }
+
+    precision = 6;
+
+    if ((pos < end) && (format.charAt(pos) == '.')) {
+      pos++;
+
+      int p = 0;
+      boolean hasPrecision = false;
+
+      while ((pos < end) && Character.isDigit(format.charAt(pos))) {
+        p = p * 10 + (format.charAt(pos) - '0');
+        hasPrecision = true;
+        pos++;
+      }
+
+      if (!hasPrecision) {
+        useFallback = true;
+      }
+
+      precision = p;
+    }
+
+    if ((pos != end) || (conversion == 'g') || (conversion == 'G') || (precision > 20)) {
+      useFallback = true;
+    }
+
+    // Invalid flag combinations: let java.util.Formatter report them
+    if ((leftJustify && (zeroPad || (width == -1))) || (plusSign && leadingSpace) || (zeroPad && (width == -1))) {
+      useFallback = true;
+    }
+  }
+
+  /**
+   * Gets the format of this formatter.
+   *
+   * @return The format of this formatter.
+   */
+  public String getFormat() {
+    return format;
+  }
+
+  /**
+   * Gets the sexagesimal formatter used for <code>m</code> formats.
+   *
+   * @return The sexagesimal formatter or <code>null</code> if the format is
+   * not a sexagesimal one.
+   */
+  public INDISexagesimalFormatter getSexagesimalFormatter() {
+    return sFormatter;
+  }
+
+  /**
+   * Formats a number.
+   *
+   * @param number The number to be formatted.
+   * @return The formatted number.
+   */
+  public String format(double number) {
+    StringBuilder sb = new StringBuilder(24);
+
+    format(number, sb);
+
+    return sb.toString();
+  }
+
+  /**
+   * Formats a number appending it to a <code>StringBuilder</code>.
+   *
+   * @param number The number to be formatted.
+   * @param sb The <code>StringBuilder</code> to which the formatted number is
+   * appended.
+   */
+  public synchronized void format(double number, StringBuilder sb) {
+    if (sFormatter != null) {
+      sFormatter.format(number, sb);
+
+      return;
+    }
+
+    boolean neg = Double.compare(number, 0.0) < 0;
+
+    if (useFallback || Double.isNaN(number) || Double.isInfinite(number) || !decompose(Math.abs(number))) {
+      if (fallback == null) {
+        fallbackBuffer = new StringBuilder(32);
+        fallback = new Formatter(fallbackBuffer, Locale.US);
+      }
+
+      fallbackBuffer.setLength(0);
+      fallback.format(format, number);
+      sb.append(fallbackBuffer);
+
+      return;
+    }
+
+    int magnitudeLength;
+    int exponent = 0;
+
+    if (conversion == 'f') {
+      round(decExp + precision);
+
+      magnitudeLength = (decExp > 0 ? decExp : 1) + (precision > 0 ? precision + 1 : 0);
+    } else {
+      round(precision + 1);
+
+      if (nDigits > 0) {
+        exponent = decExp - 1;
+      }
+
+      int absExp = Math.abs(exponent);
+
+      magnitudeLength = 1 + (precision > 0 ? precision + 1 : 0) + 2 + (absExp >= 100 ? 3 : 2);
+    }
+
+    char sign = 0;
+
+    if (neg) {
+      sign = '-';
+    } else if (plusSign) {
+      sign = '+';
+    } else if (leadingSpace) {
+      sign = ' ';
+    }
+
+    int padding = width - magnitudeLength - (sign != 0 ? 1 : 0);
+
+    if ((padding > 0) && (!leftJustify) && (!zeroPad)) {
+      appendRepeated(sb, ' ', padding);
+    }
+
+    if (sign != 0) {
+      sb.append(sign);
+    }
+
+    if ((padding > 0) && zeroPad) {
+      appendRepeated(sb, '0', padding);
+    }
+
+    if (conversion == 'f') {
+      appendFixed(sb);
+    } else {
+      appendScientific(sb, exponent);
+    }
+
+    if ((padding > 0) && leftJustify) {
+      appendRepeated(sb, ' ', padding);
+    }
+  }
+
+  /**
+   * Gets the shortest decimal digits that represent a non negative number
+   * (the same ones used by <code>java.util.Formatter</code>).
+   *
+   * @param number The number (finite and non negative).
+   * @return <code>false</code> if the number is too large or small to be
+   * written directly.
+   */
+  private boolean decompose(double number) {
+    scratch.setLength(0);
+    scratch.append(number);
+
+    nDigits = 0;
+
+    int intDigits = 0;
+    int leadingZeros = 0;
+    boolean afterPoint = false;
+
+    for (int i = 0 ; i < scratch.length() ; i++) {
+      char c = scratch.charAt(i);
+
+      if (c == '.') {
+        afterPoint = true;
+      } else if ((c >= '0') && (c <= '9')) {
+        if ((nDigits == 0) && (c == '0')) {
+          if (afterPoint) {
+            leadingZeros++;
+          }
+        } else {
+          digits[nDigits++] = c;
+
+          if (!afterPoint) {
+            intDigits++;
+          }
+        }
+      } else {  // Exponential notation
+        return false;
+      }
+    }
+
+    while ((nDigits > 0) && (digits[nDigits - 1] == '0')) {
+      nDigits--;
+    }
+
+    if (nDigits == 0) {
+      decExp = 0;
+    } else if (intDigits > 0) {
+      decExp = intDigits;
+    } else {
+      decExp = -leadingZeros;
+    }
+
+    return true;
+  }
+
+  /**
+   * Rounds (half up) the digits of the number to a number of significant
+   * digits.
+   *
+   * @param keep The number of significant digits to keep.
+   */
+  private void round(int keep) {
+    if ((keep < 0) || (keep >= nDigits)) {
+      if (keep < 0) {
+        nDigits = 0;
+      }
+
+      return;
+    }
+
+    boolean up = digits[keep] >= '5';
+
+    nDigits = keep;
+
+    if (!up) {
+      return;
+    }
+
+    int i = keep - 1;
+
+    while ((i >= 0) && (digits[i] == '9')) {
+      digits[i] = '0';
+      i--;
+    }
+
+    if (i >= 0) {
+      digits[i]++;
+    } else {
+      System.arraycopy(digits, 0, digits, 1, keep);
+      digits[0] = '1';
+      nDigits = keep + 1;
+      decExp++;
+    }
+  }
+
+  /**
+   * Appends the rounded digits in fixed point notation.
+   *
+   * @param sb The <code>StringBuilder</code> to which the number is appended.
+   */
+  private void appendFixed(StringBuilder sb) {
+    if ((decExp <= 0) || (nDigits == 0)) {
+      sb.append('0');
+    } else {
+      for (int i = 0 ; i < decExp ; i++) {
+        sb.append(i < nDigits ? digits[i] : '0');
+      }
+    }
+
+    if (precision > 0) {
+      sb.append('.');
+
+      for (int i = 0 ; i < precision ; i++) {
+        int idx = decExp + i;
+
+        sb.append(((idx >= 0) && (idx < nDigits)) ? digits[idx] : '0');
+      }
+    }
+  }
+
+  /**
+   * Appends the rounded digits in scientific notation.
+   *
+   * @param sb The <code>StringBuilder</code> to which the number is appended.
+   * @param exponent The decimal exponent.
+   */
+  private void appendScientific(StringBuilder sb, int exponent) {
+    sb.append(nDigits > 0 ? digits[0] : '0');
+
+    if (precision > 0) {
+      sb.append('.');
+
+      for (int i = 1 ; i <= precision ; i++) {
+        sb.append(i < nDigits ? digits[i] : '0');
+      }
+    }
+
+    sb.append(conversion == 'E' ? 'E' : 'e');
+    sb.append(exponent < 0 ? '-' : '+');
+
+    int absExp = Math.abs(exponent);
+
+    if (absExp < 10) {
+      sb.append('0');
+    }
+
+    sb.append(absExp);
+  }
+
+  /**
+   * Appends a character several times.
+   *
+   * @param sb The <code>StringBuilder</code>.
+   * @param c The character.
+   * @param n The number of times.
+   */
+  private static void appendRepeated(StringBuilder sb, char c, int n) {
+    for (int i = 0 ; i < n ; i++) {
+      sb.append(c);
+    }
+  }
+}
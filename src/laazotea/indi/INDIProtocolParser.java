@@ -18,23 +18,21 @@
 package laazotea.indi;
 
 import java.io.InputStream;
-import org.w3c.dom.Document;
 
 /**
  * A interface representing a generic INDI Protocol Parser
  *
  * @author S. Alonso (Zerjillo) [zerjioi at ugr.es]
- * @version 1.2, April 1, 2012
+ * @version 1.36, October 17, 2026
  */
 public interface INDIProtocolParser {
 
   /**
-   * Parses a XML Document.
+   * Parses an INDI Protocol message.
    *
-   * @param doc The XML document to parse. It presumably consists on INDI
-   * Protocol messages.
+   * @param message The message to parse.
    */
-  public void parseXML(Document doc);
+  public void parseMessage(INDIMessage message);
 
   /**
    * Gets the input stream from where the messages will be read.
@@ -17,23 +17,21 @@
  */
 package laazotea.indi;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.StringReader;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import org.w3c.dom.Document;
-import org.xml.sax.ErrorHandler;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-import org.xml.sax.SAXParseException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * A class that reads from a input stream and sends the read messages to a parser.
+ * The input is tokenized incrementally (see <code>INDIMessageDecoder</code>):
+ * each top level INDI message is handed to the parser as soon as its closing
+ * tag is read, without reparsing previously read data. The stream is read as
+ * UTF-8 bytes into a small buffer, so the memory used by the reader only
+ * depends on the length of the messages (which may be limited with
+ * <code>setMaxMessageLength</code>).
  *
  * @author S. Alonso (Zerjillo) [zerjioi at ugr.es]
- * @version 1.2, April 1, 2012
+ * @version 1.36, October 17, 2026
  */
 public class INDIProtocolReader extends Thread {
   /**
@@ -44,80 +42,111 @@ public class INDIProtocolReader extends Thread {
    * Used to friendly stop the reader.
    */
   private boolean stop;
+  /**
+   * If <code>true</code> each message keeps the bytes as they were read.
+   */
+  private boolean keepRawMessages;
+  /**
+   * The maximum length (in characters) of a message (0 for no limit).
+   */
+  private int maxMessageLength;
+  /**
+   * If <code>false</code> the text of the <code>oneBLOB</code> elements is
+   * discarded.
+   */
+  private boolean keepBLOBText;
+  /**
+   * If <code>true</code> the text of the <code>oneBLOB</code> elements is
+   * decoded while it is read.
+   */
+  private boolean decodeBLOBs;
   
   /**
    * Creates the reader.
    * @param parser The parser to which the readed messages will be sent.
    */
   public INDIProtocolReader(INDIProtocolParser parser) {
+    this(parser, false);
+  }
+
+  /**
+   * Creates the reader.
+   * @param parser The parser to which the readed messages will be sent.
+   * @param keepRawMessages If <code>true</code> each message keeps the bytes
+   * as they were read (see <code>INDIMessage.getBytes()</code>), so that it
+   * can be relayed without serializing it again.
+   */
+  public INDIProtocolReader(INDIProtocolParser parser, boolean keepRawMessages) {
     this.parser = parser;
+    this.keepRawMessages = keepRawMessages;
+
+    maxMessageLength = 0;
+    keepBLOBText = true;
+    decodeBLOBs = false;
+  }
+
+  /**
+   * Sets the maximum length (in characters) of a message. If a longer message
+   * is read the reader stops. Must be called before starting the reader.
+   *
+   * @param maxMessageLength The maximum length of a message (0 for no limit).
+   */
+  public void setMaxMessageLength(int maxMessageLength) {
+    this.maxMessageLength = maxMessageLength;
   }
   
+  /**
+   * Sets if the text of the <code>oneBLOB</code> elements must be kept in the
+   * messages (see <code>INDIMessageDecoder.setKeepBLOBText</code>). Must be
+   * called before starting the reader.
+   *
+   * @param keepBLOBText <code>false</code> to discard the BLOB data.
+   */
+  public void setKeepBLOBText(boolean keepBLOBText) {
+    this.keepBLOBText = keepBLOBText;
+  }
+
+  /**
+   * Sets if the text of the <code>oneBLOB</code> elements must be decoded
+   * while it is read (see <code>INDIMessageDecoder.setDecodeBLOBs</code>).
+   * Must be called before starting the reader.
+   *
+   * @param decodeBLOBs <code>true</code> to decode the BLOBs.
+   */
+  public void setDecodeBLOBs(boolean decodeBLOBs) {
+    this.decodeBLOBs = decodeBLOBs;
+  }
+
   /**
    * The main body of the reader.
    */
   @Override
   public void run() {
-    DocumentBuilderFactory docBuilderFactory;
-
-    DocumentBuilder docBuilder;
-    try {
-      docBuilderFactory = DocumentBuilderFactory.newInstance();
-      docBuilder = docBuilderFactory.newDocumentBuilder();
-      docBuilder.setErrorHandler(new ErrorHandler() {
-
-        @Override
-        public void warning(SAXParseException e) throws SAXException {
-        }
-
-        @Override
-        public void fatalError(SAXParseException e) throws SAXException {
-        }
+    int BUFFER_SIZE = 8192;
 
-        @Override
-        public void error(SAXParseException e) throws SAXException {
-        }
-      });
-    } catch (Exception e) {
-      e.printStackTrace();
-      return;
-    }
-
-    int BUFFER_SIZE = 1000000;
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
 
-    StringBuffer bufferedInput = new StringBuffer();
-
-    char[] buffer = new char[BUFFER_SIZE];
+    INDIMessageDecoder decoder = new INDIMessageDecoder(parser, keepRawMessages);
+    decoder.setMaxMessageLength(maxMessageLength);
+    decoder.setKeepBLOBText(keepBLOBText);
+    decoder.setDecodeBLOBs(decodeBLOBs);
 
     stop = false;
 
-    BufferedReader in = new BufferedReader(new InputStreamReader(parser.getInputStream()));
+    InputStream in = parser.getInputStream();
 
     try {
       while (!stop) {
-        int nReaded = in.read(buffer, 0, BUFFER_SIZE);
+        int nReaded = in.read(buffer.array(), buffer.position(), buffer.remaining());
 
         if (nReaded != -1) {
-          bufferedInput.append(buffer, 0, nReaded);  // Appending to the buffer
-
-          boolean errorParsing = false;
-
-          try {
-            String d = "<INDI>" + bufferedInput + "</INDI>";
-            //System.err.println(d);
-            d = d.replaceAll("\\<\\?xml version='...'\\?\\>", "");
-            d = d.replaceAll("\\<\\?xml version=\"...\"\\?\\>", "");
-            //    System.err.println(d);
+          buffer.position(buffer.position() + nReaded);
+          buffer.flip();
+          decoder.feed(buffer);
+          buffer.compact();
 
-            Document doc = docBuilder.parse(new InputSource(new StringReader(d)));
-
-            parser.parseXML(doc);
-          } catch (SAXException e) {
-            errorParsing = true;
-          }
-
-          if (!errorParsing) {
-            bufferedInput.setLength(0);  // Empty the buffer because it has been already parsed
+          if (decoder.isOverflowed()) {
+            stop = true;
           }
         } else {  // If -1 readed, end
           stop = true;
@@ -129,7 +158,7 @@ public class INDIProtocolReader extends Thread {
 
     parser.finishReader();
   }
-  
+
   /**
    * Sets the stop parameter. If set to <code>true</code> the reader will gracefully stop after the next read.
    * @param stop
@@ -0,0 +1,819 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.nio.CharBuffer;
+
+/**
+ * An incremental (push) tokenizer for the INDI XML stream. Characters are fed
+ * as they arrive and every character is examined exactly once, so the cost of
+ * reading a stream is linear in its length no matter how it is fragmented.
+ * Start tags, character data and end tags are reported to a
+ * <code>Listener</code>. XML declarations, processing instructions, comments
+ * and DOCTYPE declarations are skipped. Text outside any element is ignored.
+ * The character data read so far is reported at the end of each fed buffer
+ * (and every few thousand characters), so a long text like a BLOB is never
+ * held whole by the tokenizer.
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDIProtocolTokenizer {
+
+  /**
+   * Receives the tokens found in the stream.
+   */
+  public interface Listener {
+
+    /**
+     * Called when a start tag is found. The attribute arrays are reused by the
+     * tokenizer and must be copied if needed after the call.
+     *
+     * @param name The name of the element.
+     * @param attributeNames The names of the attributes.
+     * @param attributeValues The (unescaped) values of the attributes.
+     * @param attributeCount The number of valid attributes in the arrays.
+     */
+    public void startElement(String name, String[] attributeNames, String[] attributeValues, int attributeCount);
+
+    /**
+     * Called with (unescaped) character data inside an element. It may be
+     * called several times for the same text node.
+     *
+     * @param ch The characters.
+     * @param start The start position in <code>ch</code>.
+     * @param length The number of characters.
+     */
+    public void characters(char[] ch, int start, int length);
+
+    /**
+     * Called when an element is closed. If <code>getDepth()</code> is 0 after
+     * this call a whole top level INDI message has been read.
+     *
+     * @param name The name of the element.
+     */
+    public void endElement(String name);
+  }
+
+  /**
+   * The number of characters of text over which they are reported even if the
+   * text goes on, so that long texts (BLOBs) are never held whole.
+   */
+  private static final int MAX_TEXT_CHUNK = 8192;
+
+  private static final int TEXT = 0;
+  private static final int TAG_OPEN = 1;
+  private static final int START_TAG_NAME = 2;
+  private static final int ATTRIBUTES = 3;
+  private static final int ATTRIBUTE_NAME = 4;
+  private static final int AFTER_ATTRIBUTE_NAME = 5;
+  private static final int BEFORE_ATTRIBUTE_VALUE = 6;
+  private static final int ATTRIBUTE_VALUE = 7;
+  private static final int EMPTY_TAG_CLOSE = 8;
+  private static final int END_TAG_NAME = 9;
+  private static final int PROCESSING_INSTRUCTION = 10;
+  private static final int BANG = 11;
+  private static final int COMMENT = 12;
+  private static final int CDATA = 13;
+  private static final int DECLARATION = 14;
+  private static final int ENTITY = 15;
+  /**
+   * Maximum length of an entity name (longer ones are not entities).
+   */
+  private static final int MAX_ENTITY_LENGTH = 10;
+  /**
+   * The listener to which the tokens are reported.
+   */
+  private Listener listener;
+  /**
+   * The current state of the tokenizer.
+   */
+  private int state;
+  /**
+   * The state to which return after parsing an entity.
+   */
+  private int entityReturnState;
+  /**
+   * The current nesting depth.
+   */
+  private int depth;
+  /**
+   * Accumulates names, attribute values and markup.
+   */
+  private StringBuilder token;
+  /**
+   * Accumulates the name of an entity.
+   */
+  private StringBuilder entity;
+  /**
+   * Accumulates character data.
+   */
+  private char[] text;
+  /**
+   * The number of characters in <code>text</code>.
+   */
+  private int textLength;
+  /**
+   * The name of the element being read.
+   */
+  private String elementName;
+  /**
+   * The name of the attribute being read.
+   */
+  private String attributeName;
+  /**
+   * The quote character that delimits the attribute being read (0 if not
+   * quoted).
+   */
+  private char quote;
+  private String[] attributeNames;
+  private String[] attributeValues;
+  private int attributeCount;
+  /**
+   * Counts the trailing characters of the end sequence of comments, CDATA
+   * sections and processing instructions.
+   */
+  private int endMatch;
+  /**
+   * A cache to reuse the Strings of names and short attribute values.
+   */
+  private INDIStringCache cache;
+  /**
+   * If <code>true</code> the characters of each top level message are kept.
+   */
+  private boolean captureRaw;
+  /**
+   * <code>true</code> while the characters of a top level message are being
+   * kept.
+   */
+  private boolean capturing;
+  /**
+   * The first character of the buffer being fed that has not been kept yet.
+   */
+  private int captureFrom;
+  /**
+   * The UTF-8 bytes of the current (or last) top level message, encoded as
+   * its characters are fed.
+   */
+  private INDIXMLEncoder raw;
+  /**
+   * The high surrogate at the end of the last kept characters, which is
+   * encoded with the low one at the beginning of the next buffer (0 if none).
+   */
+  private char rawHighSurrogate;
+  /**
+   * The position, in the buffer being fed, of the character that closes the
+   * top level message that has just ended.
+   */
+  private int messageEnd;
+
+  /**
+   * Constructs a new tokenizer.
+   *
+   * @param listener The listener to which the tokens will be reported.
+   */
+  public INDIProtocolTokenizer(Listener listener) {
+    this.listener = listener;
+
+    token = new StringBuilder();
+    entity = new StringBuilder();
+    text = new char[256];
+    attributeNames = new String[8];
+    attributeValues = new String[8];
+    cache = new INDIStringCache();
+
+    reset();
+  }
+
+  /**
+   * Resets the tokenizer to its initial state, discarding any partially read
+   * message.
+   */
+  public void reset() {
+    state = TEXT;
+    depth = 0;
+    textLength = 0;
+    attributeCount = 0;
+    token.setLength(0);
+    capturing = false;
+    rawHighSurrogate = 0;
+
+    if (raw != null) {
+      raw.reset();
+    }
+  }
+
+  /**
+   * Sets if the UTF-8 bytes of each top level message must be kept, so that
+   * the listener can get them with <code>getRawBytes</code> when the message
+   * ends. They are encoded as the characters are fed, so the characters are
+   * not kept.
+   *
+   * @param captureRaw <code>true</code> to keep the bytes.
+   */
+  public void setCaptureRaw(boolean captureRaw) {
+    this.captureRaw = captureRaw;
+
+    if (raw == null) {
+      raw = new INDIXMLEncoder();
+    }
+  }
+
+  /**
+   * Gets the kept UTF-8 bytes of the top level message that has just ended.
+   * Only valid during the call to <code>endElement</code> of the top level
+   * element. The array is reused.
+   *
+   * @return The bytes of the message (see <code>getRawLength</code>).
+   */
+  public byte[] getRawBytes() {
+    return raw.getBuffer();
+  }
+
+  /**
+   * Gets the number of kept bytes of the top level message that has just
+   * ended.
+   *
+   * @return The number of bytes.
+   */
+  public int getRawLength() {
+    return raw.getLength();
+  }
+
+  /**
+   * Gets the position, in the buffer being fed, of the character that closes
+   * the top level message that has just ended. Only valid during the call to
+   * <code>endElement</code> of the top level element.
+   *
+   * @return The position of the last character of the message.
+   */
+  public int getMessageEnd() {
+    return messageEnd;
+  }
+
+  /**
+   * Checks if the tokenizer is between top level messages (not inside any
+   * element nor any tag).
+   *
+   * @return <code>true</code> if the tokenizer is between top level messages.
+   */
+  public boolean isBetweenMessages() {
+    return (depth == 0) && (state == TEXT);
+  }
+
+  /**
+   * Gives back the memory of the internal buffers that have grown over a
+   * given capacity (because of a long message). Must be called between top
+   * level messages.
+   *
+   * @param maxCapacity The maximum capacity (in characters) kept for each
+   * buffer.
+   */
+  public void trimBuffers(int maxCapacity) {
+    if (text.length > maxCapacity) {
+      text = new char[256];
+    }
+
+    if ((raw != null) && (raw.getBuffer().length > maxCapacity)) {
+      raw = new INDIXMLEncoder();
+    }
+
+    if (token.capacity() > maxCapacity) {
+      token = new StringBuilder();
+    }
+  }
+
+  /**
+   * Gets the current nesting depth (0 when between top level messages).
+   *
+   * @return The current nesting depth.
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Feeds some characters to the tokenizer.
+   *
+   * @param ch The characters.
+   * @param start The first character to be read.
+   * @param length The number of characters to be read.
+   */
+  public void feed(char[] ch, int start, int length) {
+    int end = start + length;
+
+    captureFrom = start;
+
+    for (int i = start ; i < end ; i++) {
+      char c = ch[i];
+
+      switch (state) {
+        case TEXT:
+          if (c == '<') {
+            flushText();
+
+            if (captureRaw && (depth == 0)) {  // A top level message may start here
+              capturing = true;
+              raw.reset();
+              rawHighSurrogate = 0;
+              captureFrom = i;
+            }
+
+            state = TAG_OPEN;
+          } else if (depth > 0) {
+            if (c == '&') {
+              entity.setLength(0);
+              entityReturnState = TEXT;
+              state = ENTITY;
+            } else {
+              appendText(c);
+            }
+          }
+          break;
+
+        case TAG_OPEN:
+          token.setLength(0);
+          if (c == '/') {
+            state = END_TAG_NAME;
+          } else if (c == '?') {
+            endMatch = 0;
+            state = PROCESSING_INSTRUCTION;
+          } else if (c == '!') {
+            state = BANG;
+          } else if (isWhitespace(c) || (c == '>')) {
+            state = TEXT;  // Not a tag, ignore it
+          } else {
+            token.append(c);
+            state = START_TAG_NAME;
+          }
+          break;
+
+        case START_TAG_NAME:
+          if (isWhitespace(c)) {
+            beginAttributes();
+            state = ATTRIBUTES;
+          } else if (c == '/') {
+            beginAttributes();
+            state = EMPTY_TAG_CLOSE;
+          } else if (c == '>') {
+            beginAttributes();
+            openElement();
+          } else {
+            token.append(c);
+          }
+          break;
+
+        case ATTRIBUTES:
+          if (c == '/') {
+            state = EMPTY_TAG_CLOSE;
+          } else if (c == '>') {
+            openElement();
+          } else if (!isWhitespace(c)) {
+            token.setLength(0);
+            token.append(c);
+            state = ATTRIBUTE_NAME;
+          }
+          break;
+
+        case ATTRIBUTE_NAME:
+          if (c == '=') {
+            attributeName = cache.get(token);
+            state = BEFORE_ATTRIBUTE_VALUE;
+          } else if (isWhitespace(c)) {
+            attributeName = cache.get(token);
+            state = AFTER_ATTRIBUTE_NAME;
+          } else if ((c == '>') || (c == '/')) { // Attribute without value: ignored
+            state = ATTRIBUTES;
+            i--;
+          } else {
+            token.append(c);
+          }
+          break;
+
+        case AFTER_ATTRIBUTE_NAME:
+          if (c == '=') {
+            state = BEFORE_ATTRIBUTE_VALUE;
+          } else if (!isWhitespace(c)) { // Attribute without value: ignored
+            state = ATTRIBUTES;
+            i--;
+          }
+          break;
+
+        case BEFORE_ATTRIBUTE_VALUE:
+          if (!isWhitespace(c)) {
+            token.setLength(0);
+
+            if ((c == '"') || (c == '\'')) {
+              quote = c;
+            } else {
+              quote = 0;
+              i--;
+            }
+
+            state = ATTRIBUTE_VALUE;
+          }
+          break;
+
+        case ATTRIBUTE_VALUE:
+          if ((quote != 0) && (c == quote)) {
+            addAttribute();
+            state = ATTRIBUTES;
+          } else if ((quote == 0) && (isWhitespace(c) || (c == '>') || (c == '/'))) {
+            addAttribute();
+            state = ATTRIBUTES;
+            i--;
+          } else if (c == '&') {
+            entity.setLength(0);
+            entityReturnState = ATTRIBUTE_VALUE;
+            state = ENTITY;
+          } else {
+            token.append(c);
+          }
+          break;
+
+        case EMPTY_TAG_CLOSE:
+          if (c == '>') {
+            if (depth == 0) {
+              endCapture(ch, i);
+              messageEnd = i;
+            }
+
+            openElement();
+            closeElement(elementName);
+          } else {
+            state = ATTRIBUTES;
+            i--;
+          }
+          break;
+
+        case END_TAG_NAME:
+          if (c == '>') {
+            if (depth == 1) {
+              endCapture(ch, i);
+              messageEnd = i;
+            }
+
+            closeElement(cache.get(trim(token)));
+            state = TEXT;
+          } else {
+            token.append(c);
+          }
+          break;
+
+        case PROCESSING_INSTRUCTION:
+          if (c == '?') {
+            endMatch = 1;
+          } else if ((c == '>') && (endMatch == 1)) {
+            state = TEXT;
+          } else {
+            endMatch = 0;
+          }
+          break;
+
+        case BANG:
+          token.append(c);
+          if (matchesSoFar("--")) {
+            if (token.length() == 2) {
+              endMatch = 0;
+              state = COMMENT;
+            }
+          } else if (matchesSoFar("[CDATA[")) {
+            if (token.length() == 7) {
+              endMatch = 0;
+              state = CDATA;
+            }
+          } else {
+            state = DECLARATION;
+            i--;
+          }
+          break;
+
+        case COMMENT:
+          if (c == '-') {
+            endMatch = Math.min(endMatch + 1, 2);
+          } else if ((c == '>') && (endMatch == 2)) {
+            state = TEXT;
+          } else {
+            endMatch = 0;
+          }
+          break;
+
+        case CDATA:
+          if (c == ']') {
+            if (endMatch == 2) {
+              appendText(']');
+            } else {
+              endMatch++;
+            }
+          } else if ((c == '>') && (endMatch == 2)) {
+            state = TEXT;
+          } else {
+            for (int j = 0 ; j < endMatch ; j++) {
+              appendText(']');
+            }
+            endMatch = 0;
+            appendText(c);
+          }
+          break;
+
+        case DECLARATION:
+          if (c == '>') {
+            state = TEXT;
+          }
+          break;
+
+        case ENTITY:
+          if (c == ';') {
+            appendEntity(decodeEntity(entity));
+            state = entityReturnState;
+          } else if ((entity.length() >= MAX_ENTITY_LENGTH) || (c == '<') || (c == '&') || (c == quote && entityReturnState == ATTRIBUTE_VALUE)) {
+            appendEntity('&');  // Not an entity, keep the characters as they were
+            for (int j = 0 ; j < entity.length() ; j++) {
+              appendEntity(entity.charAt(j));
+            }
+            state = entityReturnState;
+            i--;
+          } else {
+            entity.append(c);
+          }
+          break;
+      }
+    }
+
+    if (capturing) {
+      keepRaw(ch, captureFrom, end - captureFrom);
+    }
+
+    if (depth > 0) {  // The text read so far, so that it is not held until the next tag
+      flushText();
+    }
+  }
+
+  /**
+   * Keeps the characters of the top level message up to the one that closes
+   * it, which is being read.
+   *
+   * @param ch The characters being fed.
+   * @param i The position of the character that closes the message.
+   */
+  private void endCapture(char[] ch, int i) {
+    if (capturing) {
+      keepRaw(ch, captureFrom, i + 1 - captureFrom);
+
+      if (rawHighSurrogate != 0) {  // Not followed by a low one
+        raw.raw(String.valueOf(rawHighSurrogate));
+        rawHighSurrogate = 0;
+      }
+
+      capturing = false;
+    }
+  }
+
+  /**
+   * Appends some characters to the kept ones.
+   *
+   * @param ch The characters.
+   * @param start The first character to be kept.
+   * @param length The number of characters to be kept.
+   */
+  private void keepRaw(char[] ch, int start, int length) {
+    if (length == 0) {
+      return;
+    }
+
+    if (rawHighSurrogate != 0) {  // Split between two buffers
+      raw.raw(new String(new char[]{rawHighSurrogate, ch[start]}));
+      rawHighSurrogate = 0;
+      start++;
+      length--;
+    }
+
+    if ((length > 0) && Character.isHighSurrogate(ch[start + length - 1])) {
+      rawHighSurrogate = ch[start + length - 1];
+      length--;
+    }
+
+    raw.raw(CharBuffer.wrap(ch, start, length));
+  }
+
+  /**
+   * Appends a character coming from an entity to the current text or attribute
+   * value.
+   *
+   * @param c The character.
+   */
+  private void appendEntity(char c) {
+    if (entityReturnState == TEXT) {
+      appendText(c);
+    } else {
+      token.append(c);
+    }
+  }
+
+  /**
+   * Decodes an entity name.
+   *
+   * @param name The name of the entity (without &amp; and ;)
+   * @return The character that the entity represents.
+   */
+  private static char decodeEntity(StringBuilder name) {
+    int len = name.length();
+
+    if ((len > 1) && (name.charAt(0) == '#')) {
+      try {
+        if ((name.charAt(1) == 'x') || (name.charAt(1) == 'X')) {
+          return (char)Integer.parseInt(name.substring(2), 16);
+        }
+
+        return (char)Integer.parseInt(name.substring(1));
+      } catch (NumberFormatException e) {
+        return '?';
+      }
+    }
+
+    if (equals(name, "lt")) {
+      return '<';
+    } else if (equals(name, "gt")) {
+      return '>';
+    } else if (equals(name, "amp")) {
+      return '&';
+    } else if (equals(name, "quot")) {
+      return '"';
+    } else if (equals(name, "apos")) {
+      return '\'';
+    }
+
+    return '?';
+  }
+
+  /**
+   * Compares the contents of a <code>StringBuilder</code> with a
+   * <code>String</code> without creating new objects.
+   *
+   * @param sb The StringBuilder
+   * @param s The String
+   * @return <code>true</code> if both have the same characters.
+   */
+  private static boolean equals(StringBuilder sb, String s) {
+    if (sb.length() != s.length()) {
+      return false;
+    }
+
+    for (int i = 0 ; i < s.length() ; i++) {
+      if (sb.charAt(i) != s.charAt(i)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Checks if the markup read after &lt;! is a prefix of a particular
+   * sequence.
+   *
+   * @param s The sequence
+   * @return <code>true</code> if the markup read so far is a prefix of
+   * <code>s</code>.
+   */
+  private boolean matchesSoFar(String s) {
+    if (token.length() > s.length()) {
+      return false;
+    }
+
+    for (int i = 0 ; i < token.length() ; i++) {
+      if (token.charAt(i) != s.charAt(i)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Stores the element name and prepares to read its attributes.
+   */
+  private void beginAttributes() {
+    elementName = cache.get(token);
+    attributeCount = 0;
+  }
+
+  /**
+   * Adds the attribute that has just been read.
+   */
+  private void addAttribute() {
+    if (attributeCount == attributeNames.length) {
+      String[] newNames = new String[attributeCount * 2];
+      String[] newValues = new String[attributeCount * 2];
+
+      System.arraycopy(attributeNames, 0, newNames, 0, attributeCount);
+      System.arraycopy(attributeValues, 0, newValues, 0, attributeCount);
+
+      attributeNames = newNames;
+      attributeValues = newValues;
+    }
+
+    attributeNames[attributeCount] = attributeName;
+    attributeValues[attributeCount] = cache.get(token);
+    attributeCount++;
+  }
+
+  /**
+   * Reports a start tag.
+   */
+  private void openElement() {
+    listener.startElement(elementName, attributeNames, attributeValues, attributeCount);
+
+    depth++;
+    state = TEXT;
+  }
+
+  /**
+   * Reports an end tag. Unbalanced end tags are ignored.
+   *
+   * @param name The name of the element
+   */
+  private void closeElement(String name) {
+    if (depth > 0) {
+      depth--;
+
+      listener.endElement(name);
+    }
+
+    state = TEXT;
+  }
+
+  /**
+   * Appends a character to the current character data.
+   *
+   * @param c The character
+   */
+  private void appendText(char c) {
+    if (textLength == MAX_TEXT_CHUNK) {
+      flushText();
+    }
+
+    if (textLength == text.length) {
+      char[] newText = new char[text.length * 2];
+
+      System.arraycopy(text, 0, newText, 0, textLength);
+
+      text = newText;
+    }
+
+    text[textLength++] = c;
+  }
+
+  /**
+   * Reports the accumulated character data (if any).
+   */
+  private void flushText() {
+    if ((textLength > 0) && (depth > 0)) {
+      listener.characters(text, 0, textLength);
+    }
+
+    textLength = 0;
+  }
+
+  /**
+   * Removes the trailing whitespace of a token.
+   *
+   * @param sb The token.
+   * @return The same token.
+   */
+  private static StringBuilder trim(StringBuilder sb) {
+    int len = sb.length();
+
+    while ((len > 0) && isWhitespace(sb.charAt(len - 1))) {
+      len--;
+    }
+
+    sb.setLength(len);
+
+    return sb;
+  }
+
+  /**
+   * Checks if a character is XML whitespace.
+   *
+   * @param c The character
+   * @return <code>true</code> if the character is whitespace.
+   */
+  private static boolean isWhitespace(char c) {
+    return (c == ' ') || (c == '\n') || (c == '\r') || (c == '\t');
+  }
+}
@@ -17,8 +17,6 @@
  */
 package laazotea.indi;
 
-import java.util.Formatter;
-import java.util.Locale;
 import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
 
@@ -33,6 +31,22 @@ public class INDISexagesimalFormatter {
   private String format;
   private int length;
   private int fractionLength;
+  /**
+   * Formats the minutes when they are the last component.
+   */
+  private INDINumberFormatter minutesFormatter;
+  /**
+   * Formats the seconds.
+   */
+  private INDINumberFormatter secondsFormatter;
+  /**
+   * Formats the minutes when followed by the seconds.
+   */
+  private INDINumberFormatter twoDigitsFormatter;
+  /**
+   * Used to build the minutes and seconds part of the formatted numbers.
+   */
+  private StringBuilder fractionalPart;
 
   /**
    * Constructs an instance of
@@ -48,6 +62,23 @@ public class INDISexagesimalFormatter {
     this.format = format;
 
     checkFormat();
+
+    String form = "%02.0f";
+    if ((fractionLength == 5) || (fractionLength == 8)) {
+      form = "%04.1f";
+    } else if (fractionLength == 9) {
+      form = "%05.2f";
+    }
+
+    twoDigitsFormatter = new INDINumberFormatter("%02.0f");
+
+    if (fractionLength < 6) {
+      minutesFormatter = new INDINumberFormatter(form);
+    } else {
+      secondsFormatter = new INDINumberFormatter(form);
+    }
+
+    fractionalPart = new StringBuilder(16);
   }
 
   /**
@@ -255,39 +286,43 @@ public class INDISexagesimalFormatter {
    * @return The formatted number as a <code>String</code>.
    */
   public String format(Double number) {
-    int sign = 1;
-    if (number < 0) {
-      sign = -1;
-    }
+    StringBuilder sb = new StringBuilder(length + 4);
 
-    number = Math.abs(number);
+    format(number, sb);
 
-    String fractionalPart = ":";
+    return sb.toString();
+  }
 
-    int integerPart;
+  /**
+   * Fomats a number according to the number format os this formatter
+   * appending it to a <code>StringBuilder</code>.
+   *
+   * @param number the number to be formatted.
+   * @param sb The <code>StringBuilder</code> to which the formatted number is
+   * appended.
+   */
+  public synchronized void format(double number, StringBuilder sb) {
+    boolean negative = number < 0;
 
-    integerPart = ((int)Math.floor(number));
+    number = Math.abs(number);
+
+    int integerPart = ((int)Math.floor(number));
 
     double fractional = Math.abs(number - integerPart);
 
+    fractionalPart.setLength(0);
+
     if (fractionLength < 6) {
       double minutes = fractional * 60;
 
-      String form = "%02.0f";
-      if (fractionLength == 5) {
-        form = "%04.1f";
-      }
-
-      Formatter formatter = new Formatter(Locale.US);
-      String newMinutes = formatter.format(form, minutes).toString();
+      minutesFormatter.format(minutes, fractionalPart);
 
-      if (Double.parseDouble(newMinutes) >= 60.0) {
-        minutes = 0.0;
+      if (reachesSixty(fractionalPart)) {
         integerPart++;
-      }
 
-      formatter = new Formatter(Locale.US);
-      fractionalPart += formatter.format(form, minutes);
+        fractionalPart.setLength(0);
+        minutesFormatter.format(0.0, fractionalPart);
+      }
     } else {
       double minutes = Math.floor(fractional * 60);
 
@@ -295,61 +330,78 @@ public class INDISexagesimalFormatter {
 
       double seconds = rest * 3600;
 
-      String form = "%02.0f";
-      if (fractionLength == 8) {
-        form = "%04.1f";
-      } else if (fractionLength == 9) {
-        form = "%05.2f";
-      }
-
-      Formatter formatter = new Formatter(Locale.US);
-      String newSeconds = formatter.format(form, seconds).toString();
+      secondsFormatter.format(seconds, fractionalPart);
 
-      if (Double.parseDouble(newSeconds) >= 60.0) {
+      if (reachesSixty(fractionalPart)) {
         seconds = 0.0;
         minutes++;
       }
 
-      formatter = new Formatter(Locale.US);
-      String newMinutes = formatter.format("%02.0f", minutes).toString();
+      fractionalPart.setLength(0);
+      twoDigitsFormatter.format(minutes, fractionalPart);
 
-      if (Double.parseDouble(newMinutes) >= 60.0) {
+      if (reachesSixty(fractionalPart)) {
         minutes = 0.0;
         integerPart++;
       }
 
-      formatter = new Formatter(Locale.US);
-      fractionalPart += formatter.format("%02.0f:" + form, minutes, seconds);
+      fractionalPart.setLength(0);
+      twoDigitsFormatter.format(minutes, fractionalPart);
+      fractionalPart.append(':');
+      secondsFormatter.format(seconds, fractionalPart);
     }
 
-    String res = integerPart + fractionalPart;
+    int integerLength = 1;
 
-    if (sign < 0) {
-      res = "-" + res;
+    for (int i = integerPart / 10 ; i != 0 ; i /= 10) {
+      integerLength++;
     }
 
-    res = padLeft(res, length);
+    if (integerPart < 0) {
+      integerLength++;
+    }
 
-    return res;
+    int size = (negative ? 1 : 0) + integerLength + 1 + fractionalPart.length();
+
+    for (int i = size ; i < length ; i++) {  // Pads to the left with spaces
+      sb.append(' ');
+    }
+
+    if (negative) {
+      sb.append('-');
+    }
+
+    sb.append(integerPart);
+    sb.append(':');
+    sb.append(fractionalPart);
   }
 
   /**
-   * Pads a String to the left with spaces.
+   * Checks if a formatted number of minutes or seconds has been rounded up to
+   * 60 (or more).
    *
-   * @param s The <code>String</code> to be padded.
-   * @param n The maximum size of the padded <code>String</code>.
-   * @return The padded <code>String</code>
+   * @param s The formatted number.
+   * @return <code>true</code> if the formatted number is 60 or more.
    */
-  private String padLeft(String s, int n) {
-    if (s.length() >= n) {
-      return s;
-    }
-    String spaces = "";
+  private static boolean reachesSixty(CharSequence s) {
+    int v = 0;
+
+    for (int i = 0 ; i < s.length() ; i++) {
+      char c = s.charAt(i);
 
-    for (int i = 0 ; i < n - s.length() ; i++) {
-      spaces += " ";
+      if (c == '.') {
+        break;
+      }
+
+      if (c == 'I') {  // Infinity
+        return true;
+      }
+
+      if ((c >= '0') && (c <= '9')) {
+        v = v * 10 + (c - '0');
+      }
     }
 
-    return spaces + s;
+    return v >= 60;
   }
 }
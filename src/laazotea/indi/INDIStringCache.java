@@ -0,0 +1,94 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+/**
+ * A small direct mapped cache of Strings. INDI streams repeat the same element
+ * names, attribute names, device and property names over and over, so reusing
+ * the same String objects avoids most of the allocations made by the
+ * tokenizer. Long strings are never cached.
+ *
+ * @version 1.36, October 17, 2026
+ */
+class INDIStringCache {
+
+  /**
+   * The number of slots of the cache (a power of two).
+   */
+  private static final int SIZE = 512;
+  /**
+   * The maximum length of a cached String.
+   */
+  private static final int MAX_LENGTH = 48;
+  /**
+   * The cached Strings.
+   */
+  private String[] slots;
+
+  /**
+   * Constructs an empty cache.
+   */
+  INDIStringCache() {
+    slots = new String[SIZE];
+  }
+
+  /**
+   * Gets a String with the contents of a character sequence, reusing a
+   * previously created one if possible.
+   *
+   * @param cs The characters
+   * @return A String with the same characters.
+   */
+  String get(CharSequence cs) {
+    int len = cs.length();
+
+    if (len > MAX_LENGTH) {
+      return cs.toString();
+    }
+
+    int hash = 0;
+
+    for (int i = 0 ; i < len ; i++) {
+      hash = 31 * hash + cs.charAt(i);
+    }
+
+    int slot = (hash ^ (hash >>> 16)) & (SIZE - 1);
+
+    String s = slots[slot];
+
+    if ((s != null) && (s.hashCode() == hash) && (s.length() == len)) {
+      boolean same = true;
+
+      for (int i = 0 ; i < len ; i++) {
+        if (s.charAt(i) != cs.charAt(i)) {
+          same = false;
+          break;
+        }
+      }
+
+      if (same) {
+        return s;
+      }
+    }
+
+    s = cs.toString();
+    slots[slot] = s;
+
+    return s;
+  }
+}
@@ -0,0 +1,691 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+
+/**
+ * A reusable encoder that writes INDI XML messages as UTF-8 bytes into an
+ * internal growable buffer. Attribute values and texts are escaped. Once the
+ * buffer has grown to the size of the usual messages, encoding a message does
+ * not create any new objects, so a driver can keep one encoder and reuse it
+ * for every message it sends. It is not thread safe.
+ * <p>
+ * The encoder can also build the <code>INDIMessage</code> tree of the message
+ * while it encodes it (see <code>setBuildMessages</code>), so that a Server
+ * in the same JVM gets it without parsing the bytes. As with a parsed
+ * message, the text of the <code>oneBLOB</code> elements is not kept.
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDIXMLEncoder {
+
+  /**
+   * The UTF-8 charset.
+   */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  /**
+   * The encoded bytes.
+   */
+  private byte[] buffer;
+  /**
+   * The number of valid bytes in <code>buffer</code>.
+   */
+  private int length;
+  /**
+   * Used to convert doubles to text.
+   */
+  private StringBuilder scratch;
+  /**
+   * Used to compute the timestamps.
+   */
+  private Calendar calendar;
+  /**
+   * <code>true</code> if the <code>INDIMessage</code> tree is built.
+   */
+  private boolean buildMessages;
+  /**
+   * The built message (<code>null</code> until its end tag is written).
+   */
+  private INDIMessage message;
+  /**
+   * The tag name of the start tag being written.
+   */
+  private String tagName;
+  /**
+   * The names of the attributes of the start tag being written.
+   */
+  private String[] attributeNames;
+  /**
+   * The values of the attributes of the start tag being written.
+   */
+  private String[] attributeValues;
+  /**
+   * The number of attributes of the start tag being written.
+   */
+  private int attributeCount;
+  /**
+   * The position of the value of the attribute being written.
+   */
+  private int valueStart;
+  /**
+   * The elements whose end tag has not been written yet.
+   */
+  private ArrayList<INDIMessage> open;
+  /**
+   * The children of each open element.
+   */
+  private ArrayList<ArrayList<INDIMessage>> openChildren;
+  /**
+   * The position of the contents of each open element.
+   */
+  private int[] openContentStart;
+
+  /**
+   * Constructs a new encoder.
+   */
+  public INDIXMLEncoder() {
+    this(1024);
+  }
+
+  /**
+   * Constructs a new encoder with a particular initial capacity.
+   *
+   * @param capacity The initial capacity (in bytes).
+   */
+  public INDIXMLEncoder(int capacity) {
+    buffer = new byte[Math.max(capacity, 16)];
+    length = 0;
+    scratch = new StringBuilder(32);
+    calendar = Calendar.getInstance();
+    buildMessages = false;
+    attributeNames = new String[8];
+    attributeValues = new String[8];
+    open = new ArrayList<INDIMessage>();
+    openChildren = new ArrayList<ArrayList<INDIMessage>>();
+    openContentStart = new int[8];
+  }
+
+  /**
+   * Sets if the <code>INDIMessage</code> tree of the encoded message is built
+   * while it is encoded.
+   *
+   * @param buildMessages <code>true</code> to build the messages.
+   */
+  public void setBuildMessages(boolean buildMessages) {
+    this.buildMessages = buildMessages;
+
+    reset();
+  }
+
+  /**
+   * Gets the <code>INDIMessage</code> tree of the encoded message. Its bytes
+   * are not set.
+   *
+   * @return The message, or <code>null</code> if the messages are not built
+   * or the message is not complete.
+   */
+  public INDIMessage getMessage() {
+    return message;
+  }
+
+  /**
+   * Discards the encoded bytes so that the encoder can be reused.
+   */
+  public void reset() {
+    length = 0;
+
+    message = null;
+    attributeCount = 0;
+    open.clear();
+
+    for (int i = 0 ; i < openChildren.size() ; i++) {
+      openChildren.get(i).clear();
+    }
+  }
+
+  /**
+   * Gets the buffer with the encoded bytes. Only the first
+   * <code>getLength()</code> bytes are valid.
+   *
+   * @return The buffer with the encoded bytes.
+   */
+  public byte[] getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * Gets the number of encoded bytes.
+   *
+   * @return The number of encoded bytes.
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Writes the encoded bytes to a stream.
+   *
+   * @param os The stream.
+   * @throws IOException If there is an error writing to the stream.
+   */
+  public void writeTo(OutputStream os) throws IOException {
+    os.write(buffer, 0, length);
+  }
+
+  /**
+   * Gets a copy of the encoded bytes.
+   *
+   * @return A copy of the encoded bytes.
+   */
+  public byte[] toByteArray() {
+    byte[] res = new byte[length];
+
+    System.arraycopy(buffer, 0, res, 0, length);
+
+    return res;
+  }
+
+  /**
+   * Gets the encoded message as a String.
+   *
+   * @return The encoded message.
+   */
+  @Override
+  public String toString() {
+    return new String(buffer, 0, length, UTF8);
+  }
+
+  /**
+   * Makes sure that the buffer can hold <code>extra</code> more bytes.
+   *
+   * @param extra The number of bytes that will be appended.
+   */
+  public void ensureCapacity(int extra) {
+    if (length + extra > buffer.length) {
+      byte[] newBuffer = new byte[Math.max(buffer.length * 2, length + extra)];
+
+      System.arraycopy(buffer, 0, newBuffer, 0, length);
+
+      buffer = newBuffer;
+    }
+  }
+
+  /**
+   * Writes the beginning of a start tag (<code>&lt;name</code>).
+   *
+   * @param name The name of the tag.
+   */
+  public void startTag(String name) {
+    appendByte('<');
+    raw(name);
+
+    if (buildMessages) {
+      tagName = name;
+      attributeCount = 0;
+    }
+  }
+
+  /**
+   * Closes a start tag (<code>&gt;</code>).
+   */
+  public void closeStartTag() {
+    appendByte('>');
+
+    if (buildMessages) {
+      int level = open.size();
+
+      open.add(new INDIMessage(tagName, attributeNames, attributeValues, attributeCount));
+
+      if (openChildren.size() == level) {
+        openChildren.add(new ArrayList<INDIMessage>());
+      }
+
+      if (level == openContentStart.length) {
+        int[] newStart = new int[level * 2];
+
+        System.arraycopy(openContentStart, 0, newStart, 0, level);
+
+        openContentStart = newStart;
+      }
+
+      openContentStart[level] = length;
+    }
+  }
+
+  /**
+   * Closes an empty tag (<code> /&gt;</code>).
+   */
+  public void closeEmptyTag() {
+    appendByte(' ');
+    appendByte('/');
+    appendByte('>');
+
+    if (buildMessages) {
+      built(new INDIMessage(tagName, attributeNames, attributeValues, attributeCount));
+    }
+  }
+
+  /**
+   * Writes an end tag (<code>&lt;/name&gt;</code>).
+   *
+   * @param name The name of the tag.
+   */
+  public void endTag(String name) {
+    int contentEnd = length;
+
+    appendByte('<');
+    appendByte('/');
+    raw(name);
+    appendByte('>');
+
+    if (buildMessages && (!open.isEmpty())) {
+      int level = open.size() - 1;
+
+      INDIMessage element = open.remove(level);
+      ArrayList<INDIMessage> children = openChildren.get(level);
+
+      if (!children.isEmpty()) {
+        element.setChildren(children.toArray(new INDIMessage[children.size()]));
+        children.clear();
+      } else if ((contentEnd > openContentStart[level]) && (!name.equals("oneBLOB"))) {
+        element.setText(unescape(new String(buffer, openContentStart[level], contentEnd - openContentStart[level], UTF8)));
+      }
+
+      built(element);
+    }
+  }
+
+  /**
+   * Adds a built element to its parent or, if it is the root, makes it the
+   * built message.
+   *
+   * @param element The element.
+   */
+  private void built(INDIMessage element) {
+    if (open.isEmpty()) {
+      message = element;
+    } else {
+      openChildren.get(open.size() - 1).add(element);
+    }
+  }
+
+  /**
+   * Replaces the entities written by <code>text</code> by their characters.
+   *
+   * @param s The escaped text.
+   * @return The text.
+   */
+  private static String unescape(String s) {
+    if (s.indexOf('&') < 0) {
+      return s;
+    }
+
+    return s.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&amp;", "&");
+  }
+
+  /**
+   * Writes an attribute. The value is escaped.
+   *
+   * @param name The name of the attribute.
+   * @param value The value of the attribute.
+   */
+  public void attribute(String name, String value) {
+    attributeStart(name);
+    escaped(value, true);
+    attributeEnd(name, value);
+  }
+
+  /**
+   * Writes an attribute with an integer value.
+   *
+   * @param name The name of the attribute.
+   * @param value The value of the attribute.
+   */
+  public void attribute(String name, int value) {
+    attributeStart(name);
+    number(value);
+    attributeEnd(name, null);
+  }
+
+  /**
+   * Writes an attribute with a double value.
+   *
+   * @param name The name of the attribute.
+   * @param value The value of the attribute.
+   */
+  public void attribute(String name, double value) {
+    attributeStart(name);
+    number(value);
+    attributeEnd(name, null);
+  }
+
+  /**
+   * Writes a <code>timestamp</code> attribute with the current time in the
+   * INDI format (<code>yyyy-MM-ddTHH:mm:ss.SSS</code>).
+   */
+  public void timestampAttribute() {
+    attributeStart("timestamp");
+    timestamp(System.currentTimeMillis());
+    attributeEnd("timestamp", null);
+  }
+
+  /**
+   * Writes a time in the INDI timestamp format
+   * (<code>yyyy-MM-ddTHH:mm:ss.SSS</code>).
+   *
+   * @param millis The time in milliseconds since the epoch.
+   */
+  public void timestamp(long millis) {
+    calendar.setTimeInMillis(millis);
+
+    digits(calendar.get(Calendar.YEAR), 4);
+    appendByte('-');
+    digits(calendar.get(Calendar.MONTH) + 1, 2);
+    appendByte('-');
+    digits(calendar.get(Calendar.DAY_OF_MONTH), 2);
+    appendByte('T');
+    digits(calendar.get(Calendar.HOUR_OF_DAY), 2);
+    appendByte(':');
+    digits(calendar.get(Calendar.MINUTE), 2);
+    appendByte(':');
+    digits(calendar.get(Calendar.SECOND), 2);
+    appendByte('.');
+    digits(calendar.get(Calendar.MILLISECOND), 3);
+  }
+
+  /**
+   * Writes a text. The special XML characters are escaped.
+   *
+   * @param text The text.
+   */
+  public void text(String text) {
+    escaped(text, false);
+  }
+
+  /**
+   * Writes an integer number.
+   *
+   * @param value The number.
+   */
+  public void number(int value) {
+    if (value < 0) {
+      if (value == Integer.MIN_VALUE) {
+        raw(Integer.toString(value));
+
+        return;
+      }
+
+      appendByte('-');
+      value = -value;
+    }
+
+    int n = 1;
+
+    for (int v = value / 10 ; v > 0 ; v /= 10) {
+      n++;
+    }
+
+    digits(value, n);
+  }
+
+  /**
+   * Writes a double number with the same representation as
+   * <code>Double.toString(double)</code>.
+   *
+   * @param value The number.
+   */
+  public void number(double value) {
+    scratch.setLength(0);
+    scratch.append(value);
+
+    raw(scratch);
+  }
+
+  /**
+   * Writes a sequence of characters without escaping it. The characters are
+   * encoded as UTF-8.
+   *
+   * @param cs The characters.
+   */
+  public void raw(CharSequence cs) {
+    int len = cs.length();
+
+    ensureCapacity(len);
+
+    for (int i = 0 ; i < len ; i++) {
+      char c = cs.charAt(i);
+
+      if (c < 0x80) {
+        buffer[length++] = (byte)c;
+      } else {
+        i += appendChar(cs, i, c) - 1;
+
+        ensureCapacity(len - i);
+      }
+    }
+  }
+
+  /**
+   * Writes some bytes encoded in base64 (without line breaks). The bytes are
+   * encoded straight into the buffer, so no intermediate <code>String</code>
+   * is built (which for large BLOBs would need more than twice the memory of
+   * the encoded data).
+   *
+   * @param b The bytes.
+   * @param off The first byte to encode.
+   * @param len The number of bytes to encode.
+   */
+  public void base64(byte[] b, int off, int len) {
+    int encodedLength = ((len + 2) / 3) * 4;
+
+    ensureCapacity(encodedLength);
+
+    Base64.encode(ByteBuffer.wrap(b, off, len), ByteBuffer.wrap(buffer, length, encodedLength));
+
+    length += encodedLength;
+  }
+
+  /**
+   * Writes the remaining bytes of a buffer encoded in base64 (without line
+   * breaks). The buffer may be a direct or a mapped one.
+   *
+   * @param b The bytes (between the position and the limit of the buffer,
+   * which are not changed).
+   */
+  public void base64(ByteBuffer b) {
+    int encodedLength = ((b.remaining() + 2) / 3) * 4;
+
+    ensureCapacity(encodedLength);
+
+    Base64.encode(b.duplicate(), ByteBuffer.wrap(buffer, length, encodedLength));
+
+    length += encodedLength;
+  }
+
+  /**
+   * Writes some bytes as they are.
+   *
+   * @param b The bytes.
+   * @param off The first byte to write.
+   * @param len The number of bytes to write.
+   */
+  public void raw(byte[] b, int off, int len) {
+    ensureCapacity(len);
+
+    System.arraycopy(b, off, buffer, length, len);
+
+    length += len;
+  }
+
+  /**
+   * Writes a single ASCII character.
+   *
+   * @param c The character.
+   */
+  public void appendByte(char c) {
+    ensureCapacity(1);
+
+    buffer[length++] = (byte)c;
+  }
+
+  /**
+   * Writes the beginning of an attribute (<code> name="</code>).
+   *
+   * @param name The name of the attribute.
+   */
+  private void attributeStart(String name) {
+    appendByte(' ');
+    raw(name);
+    appendByte('=');
+    appendByte('"');
+
+    valueStart = length;
+  }
+
+  /**
+   * Writes the end of an attribute (<code>"</code>).
+   *
+   * @param name The name of the attribute.
+   * @param value The value of the attribute (<code>null</code> if it is the
+   * ASCII text written since its beginning).
+   */
+  private void attributeEnd(String name, String value) {
+    if (buildMessages) {
+      if (value == null) {
+        value = new String(buffer, valueStart, length - valueStart, UTF8);
+      }
+
+      if (attributeCount == attributeNames.length) {
+        String[] newNames = new String[attributeCount * 2];
+        String[] newValues = new String[attributeCount * 2];
+
+        System.arraycopy(attributeNames, 0, newNames, 0, attributeCount);
+        System.arraycopy(attributeValues, 0, newValues, 0, attributeCount);
+
+        attributeNames = newNames;
+        attributeValues = newValues;
+      }
+
+      attributeNames[attributeCount] = name;
+      attributeValues[attributeCount] = value;
+      attributeCount++;
+    }
+
+    appendByte('"');
+  }
+
+  /**
+   * Writes a non negative integer with a fixed number of digits (padded with
+   * zeros).
+   *
+   * @param value The number.
+   * @param n The number of digits.
+   */
+  private void digits(int value, int n) {
+    ensureCapacity(n);
+
+    for (int i = length + n - 1 ; i >= length ; i--) {
+      buffer[i] = (byte)('0' + (value % 10));
+      value /= 10;
+    }
+
+    length += n;
+  }
+
+  /**
+   * Writes a text escaping the special XML characters.
+   *
+   * @param s The text.
+   * @param attribute <code>true</code> if the text is the value of an
+   * attribute (double quotes are then also escaped).
+   */
+  private void escaped(String s, boolean attribute) {
+    int len = s.length();
+
+    ensureCapacity(len);
+
+    for (int i = 0 ; i < len ; i++) {
+      char c = s.charAt(i);
+
+      switch (c) {
+        case '<':
+          raw("&lt;");
+          break;
+        case '>':
+          raw("&gt;");
+          break;
+        case '&':
+          raw("&amp;");
+          break;
+        case '"':
+          if (attribute) {
+            raw("&quot;");
+          } else {
+            appendByte(c);
+          }
+          break;
+        default:
+          if (c < 0x80) {
+            appendByte(c);
+          } else {
+            i += appendChar(s, i, c) - 1;
+          }
+      }
+    }
+  }
+
+  /**
+   * Writes a non ASCII character as UTF-8.
+   *
+   * @param cs The sequence in which the character is.
+   * @param i The position of the character.
+   * @param c The character.
+   * @return The number of chars consumed (2 for surrogate pairs).
+   */
+  private int appendChar(CharSequence cs, int i, char c) {
+    ensureCapacity(4);
+
+    if (c < 0x800) {
+      buffer[length++] = (byte)(0xC0 | (c >> 6));
+      buffer[length++] = (byte)(0x80 | (c & 0x3F));
+    } else if (Character.isHighSurrogate(c) && (i + 1 < cs.length()) && Character.isLowSurrogate(cs.charAt(i + 1))) {
+      int cp = Character.toCodePoint(c, cs.charAt(i + 1));
+
+      buffer[length++] = (byte)(0xF0 | (cp >> 18));
+      buffer[length++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+      buffer[length++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+      buffer[length++] = (byte)(0x80 | (cp & 0x3F));
+
+      return 2;
+    } else if (Character.isSurrogate(c)) {
+      buffer[length++] = (byte)'?';
+    } else {
+      buffer[length++] = (byte)(0xE0 | (c >> 12));
+      buffer[length++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+      buffer[length++] = (byte)(0x80 | (c & 0x3F));
+    }
+
+    return 1;
+  }
+}
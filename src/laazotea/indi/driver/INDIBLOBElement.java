@@ -17,14 +17,16 @@
  */
 package laazotea.indi.driver;
 
+import java.io.IOException;
 import laazotea.indi.INDIBLOBValue;
-import org.w3c.dom.Element;
+import laazotea.indi.INDIMessage;
+import laazotea.indi.INDIXMLEncoder;
 
 /**
  * A class representing a INDI BLOB Element.
  *
  * @author S. Alonso (Zerjillo) [zerjioi at ugr.es]
- * @version 1.11, March 26, 2012
+ * @version 1.36, October 17, 2026
  */
 public class INDIBLOBElement extends INDIElement {
 
@@ -84,18 +86,37 @@ public class INDIBLOBElement extends INDIElement {
       throw new IllegalArgumentException("Value for a BLOB Element must be a INDIBLOBValue");
     }
 
+    if ((value != null) && (value != b)) {
+      value.dispose();  // Its temporary file, if any, is no longer used
+    }
+
     this.value = b;
   }
 
   @Override
-  public String getXMLOneElement() {
-    int size = value.getSize();
-
-    String data = value.getBase64BLOBData();
+  protected void encodeXMLOneElement(INDIXMLEncoder xml) {
+    xml.startTag("oneBLOB");
+    xml.attribute("name", getName());
+    xml.attribute("size", value.getSize());
+    xml.attribute("format", value.getFormat());
+    xml.closeStartTag();
+
+    if (value.isStoredInFile()) {
+      try {
+        xml.base64(value.getBLOBBuffer());
+      } catch (IOException e) {
+        xml.base64(value.getBLOBData(), 0, value.getSize());
+      }
+    } else {
+      xml.base64(value.getBLOBData(), 0, value.getSize());
+    }
 
-    String xml = "<oneBLOB name=\"" + this.getName() + "\" size=\"" + size + "\" format=\"" + value.getFormat() + "\">" + data + "</oneBLOB>";
+    xml.endTag("oneBLOB");
+  }
 
-    return xml;
+  @Override
+  public String getXMLOneElement() {
+    return super.getXMLOneElement();
   }
 
   @Override
@@ -104,14 +125,20 @@ public class INDIBLOBElement extends INDIElement {
   }
 
   @Override
-  protected String getXMLDefElement() {
-    String xml = "<defBLOB name=\"" + this.getName() + "\" label=\"" + getLabel() + "\" />";
+  protected void encodeXMLDefElement(INDIXMLEncoder xml) {
+    xml.startTag("defBLOB");
+    xml.attribute("name", getName());
+    xml.attribute("label", getLabel());
+    xml.closeEmptyTag();
+  }
 
-    return xml;
+  @Override
+  protected String getXMLDefElement() {
+    return super.getXMLDefElement();
   }
 
   @Override
-  public Object parseOneValue(Element xml) {
+  public Object parseOneValue(INDIMessage xml) {
     return new INDIBLOBValue(xml);
   }
 }
@@ -23,15 +23,14 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.Timer;
+import java.util.TimerTask;
 import laazotea.indi.Constants.PropertyPermissions;
 import laazotea.indi.Constants.PropertyStates;
 import laazotea.indi.Constants.SwitchRules;
 import laazotea.indi.Constants.SwitchStatus;
 import laazotea.indi.*;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import laazotea.indi.INDIMessage.Kind;
 
 /**
  * A class representing a Driver in the INDI Protocol. INDI Drivers should
@@ -39,7 +38,7 @@ import org.w3c.dom.NodeList;
  * clients and parsing / formating any incoming / leaving messages.
  *
  * @author S. Alonso (Zerjillo) [zerjioi at ugr.es]
- * @version 1.34, November 6, 2013
+ * @version 1.36, October 17, 2026
  */
 public abstract class INDIDriver implements INDIProtocolParser {
 
@@ -47,6 +46,24 @@ public abstract class INDIDriver implements INDIProtocolParser {
   private OutputStream outputStream;
   private PrintWriter out;
   private INDIProtocolReader reader;
+  /**
+   * The encoder reused for all the messages sent by this Driver
+   */
+  private INDIXMLEncoder xmlEncoder;
+  /**
+   * The thread that writes the messages of this Driver to the output stream
+   */
+  private INDIBatchingWriter writer;
+  /**
+   * The queue to which the messages are sent instead of the writer when the
+   * Driver runs inside a Server in the same JVM (<code>null</code> if not).
+   */
+  private INDIMessageQueue messageQueue;
+  /**
+   * The timer that sends the updates delayed by the publish rate limit of the
+   * properties (created when first needed).
+   */
+  private Timer publishTimer;
   /**
    * A list of subdrivers
    */
@@ -71,6 +88,11 @@ public abstract class INDIDriver implements INDIProtocolParser {
    * To know if the driver has already been started or not.
    */
   private boolean started;
+  /**
+   * To know if the driver is being destroyed (no more delayed updates are
+   * scheduled). Guarded by the lock of the encoder.
+   */
+  private boolean destroyed;
 
   /**
    * Constructs a INDIDriver with a particular
@@ -84,6 +106,8 @@ public abstract class INDIDriver implements INDIProtocolParser {
     this.out = new PrintWriter(outputStream);
     this.inputStream = inputStream;
     this.outputStream = outputStream;
+    this.xmlEncoder = new INDIXMLEncoder();
+    this.writer = new INDIBatchingWriter(outputStream, "INDI driver writer");  // Started when first used
     this.subdrivers = new ArrayList<INDIDriver>();
 
     started = false;
@@ -153,6 +177,7 @@ public abstract class INDIDriver implements INDIProtocolParser {
     started = true;
 
     reader = new INDIProtocolReader(this);
+    reader.setDecodeBLOBs(true);  // Large BLOBs are never held as text
     reader.start();
   }
 
@@ -264,54 +289,34 @@ public abstract class INDIDriver implements INDIProtocolParser {
   }
 
   /**
-   * Parses the XML messages. Should not be called by particular Drivers.
+   * Parses the INDI messages. Should not be called by particular Drivers.
    *
-   * @param doc the messages to be parsed.
+   * @param message the message to be parsed.
    */
   @Override
-  public void parseXML(Document doc) {
-    Element el = doc.getDocumentElement();
-
-    if (el.getNodeName().compareTo("INDI") != 0) {
-      return;
-    }
-
-    NodeList nodes = el.getChildNodes();
-
-    for (int i = 0 ; i < nodes.getLength() ; i++) {
-      Node n = nodes.item(i);
-
-      if (n instanceof Element) {
-        Element child = (Element)n;
-
-        parseXMLElement(child);
-      }
-    }
-  }
-
-  /**
-   * Parses a particular XML Element.
-   *
-   * @param xml The XML element to be parsed.
-   */
-  private void parseXMLElement(Element xml) {
-    INDIDriver subd = getSubdriver(xml);
+  public void parseMessage(INDIMessage message) {
+    INDIDriver subd = getSubdriver(message);
 
     if (subd != null) {
-      subd.parseXMLElement(xml);
+      subd.parseMessage(message);
     } else {
-      String name = xml.getNodeName();
-
-      if (name.equals("getProperties")) {
-        processGetProperties(xml);
-      } else if (name.equals("newTextVector")) {
-        processNewTextVector(xml);
-      } else if (name.equals("newSwitchVector")) {
-        processNewSwitchVector(xml);
-      } else if (name.equals("newNumberVector")) {
-        processNewNumberVector(xml);
-      } else if (name.equals("newBLOBVector")) {
-        processNewBLOBVector(xml);
+      switch (message.getKind()) {
+        case GET_PROPERTIES:
+          processGetProperties(message);
+          break;
+        case NEW_TEXT_VECTOR:
+          processNewTextVector(message);
+          break;
+        case NEW_SWITCH_VECTOR:
+          processNewSwitchVector(message);
+          break;
+        case NEW_NUMBER_VECTOR:
+          processNewNumberVector(message);
+          break;
+        case NEW_BLOB_VECTOR:
+          processNewBLOBVector(message);
+          break;
+        default:
       }
     }
   }
@@ -321,7 +326,7 @@ public abstract class INDIDriver implements INDIProtocolParser {
    *
    * @param xml The &lt;newTextVector&gt; XML message to be parsed.
    */
-  private void processNewTextVector(Element xml) {
+  private void processNewTextVector(INDIMessage xml) {
     INDIProperty prop = processNewXXXVector(xml);
 
     if (prop == null) {
@@ -368,7 +373,7 @@ public abstract class INDIDriver implements INDIProtocolParser {
    * @param xml The &lt;newSwitchVector&gt; XML message to be parsed.
    * @see INDIConnectionHandler
    */
-  private void processNewSwitchVector(Element xml) {
+  private void processNewSwitchVector(INDIMessage xml) {
     INDIProperty prop = processNewXXXVector(xml);
 
     if (prop == null) {
@@ -459,7 +464,7 @@ public abstract class INDIDriver implements INDIProtocolParser {
    *
    * @param xml The &lt;newNumberVector&gt; XML message to be parsed.
    */
-  private void processNewNumberVector(Element xml) {
+  private void processNewNumberVector(INDIMessage xml) {
     INDIProperty prop = processNewXXXVector(xml);
 
     if (prop == null) {
@@ -502,28 +507,32 @@ public abstract class INDIDriver implements INDIProtocolParser {
    *
    * @param xml The &lt;newBLOBVector&gt; XML message to be parsed.
    */
-  private void processNewBLOBVector(Element xml) {
-    INDIProperty prop = processNewXXXVector(xml);
+  private void processNewBLOBVector(INDIMessage xml) {
+    try {
+      INDIProperty prop = processNewXXXVector(xml);
 
-    if (prop == null) {
-      return;
-    }
+      if (prop == null) {
+        return;
+      }
 
-    if (!(prop instanceof INDIBLOBProperty)) {
-      return;
-    }
+      if (!(prop instanceof INDIBLOBProperty)) {
+        return;
+      }
 
-    INDIElementAndValue[] evs = processINDIElements(prop, xml);
+      INDIElementAndValue[] evs = processINDIElements(prop, xml);
 
-    Date timestamp = INDIDateFormat.parseTimestamp(xml.getAttribute("timestamp"));
+      Date timestamp = INDIDateFormat.parseTimestamp(xml.getAttribute("timestamp"));
 
-    INDIBLOBElementAndValue[] newEvs = new INDIBLOBElementAndValue[evs.length];
+      INDIBLOBElementAndValue[] newEvs = new INDIBLOBElementAndValue[evs.length];
 
-    for (int i = 0 ; i < newEvs.length ; i++) {
-      newEvs[i] = (INDIBLOBElementAndValue)evs[i];
-    }
+      for (int i = 0 ; i < newEvs.length ; i++) {
+        newEvs[i] = (INDIBLOBElementAndValue)evs[i];
+      }
 
-    processNewBLOBValue((INDIBLOBProperty)prop, timestamp, newEvs);
+      processNewBLOBValue((INDIBLOBProperty)prop, timestamp, newEvs);
+    } finally {
+      xml.disposeBLOBValues();  // The ones not passed to the Driver
+    }
   }
 
   /**
@@ -531,6 +540,9 @@ public abstract class INDIDriver implements INDIProtocolParser {
    * be implemented in Drivers to take care of the new values sent by clients.
    * It will be called with correct Properties and Elements. Any incorrect BLOB
    * Message received will be discarded and this method will not be called.
+   * The values may be stored in temporary files: the Driver owns them, and
+   * must dispose the ones that it does not set in an Element when it no longer
+   * uses them (see <code>INDIBLOBValue.dispose()</code>).
    *
    * @param property The BLOB Property asked to change.
    * @param timestamp The timestamp of the received message
@@ -547,39 +559,31 @@ public abstract class INDIDriver implements INDIProtocolParser {
    * @param xml The XML message
    * @return An array of Elements and its corresponding requested values
    */
-  private INDIElementAndValue[] processINDIElements(INDIProperty property, Element xml) {
+  private INDIElementAndValue[] processINDIElements(INDIProperty property, INDIMessage xml) {
 
-    String oneType;
+    Kind oneKind;
     if (property instanceof INDITextProperty) {
-      oneType = "oneText";
+      oneKind = Kind.ONE_TEXT;
     } else if (property instanceof INDIBLOBProperty) {
-      oneType = "oneBLOB";
+      oneKind = Kind.ONE_BLOB;
     } else if (property instanceof INDINumberProperty) {
-      oneType = "oneNumber";
+      oneKind = Kind.ONE_NUMBER;
     } else if (property instanceof INDISwitchProperty) {
-      oneType = "oneSwitch";
+      oneKind = Kind.ONE_SWITCH;
     } else {
       return new INDIElementAndValue[0];
     }
 
     ArrayList<INDIElementAndValue> list = new ArrayList<INDIElementAndValue>();
 
-    NodeList nodes = xml.getChildNodes();
-
-    for (int i = 0 ; i < nodes.getLength() ; i++) {
-      Node n = nodes.item(i);
-
-      if (n instanceof Element) {
-        Element child = (Element)n;
+    INDIMessage[] children = xml.getChildren();
 
-        String name = child.getNodeName();
+    for (int i = 0 ; i < children.length ; i++) {
+      if (children[i].getKind() == oneKind) {
+        INDIElementAndValue ev = processOneXXX(property, children[i]);
 
-        if (name.equals(oneType)) {
-          INDIElementAndValue ev = processOneXXX(property, child);
-
-          if (ev != null) {
-            list.add(ev);
-          }
+        if (ev != null) {
+          list.add(ev);
         }
       }
     }
@@ -594,12 +598,12 @@ public abstract class INDIDriver implements INDIProtocolParser {
    * @param xml The &lt;oneXXX&gt; XML message
    * @return A Element and its corresponding requested value
    */
-  private INDIElementAndValue processOneXXX(INDIProperty property, Element xml) {
+  private INDIElementAndValue processOneXXX(INDIProperty property, INDIMessage xml) {
     if (!xml.hasAttribute("name")) {
       return null;
     }
 
-    String elName = xml.getAttribute("name");
+    String elName = xml.getName();
 
     INDIElement el = property.getElement(elName);
 
@@ -635,14 +639,12 @@ public abstract class INDIDriver implements INDIProtocolParser {
    * @param xml The XML message
    * @return The subdriver to which the message is directed.
    */
-  private INDIDriver getSubdriver(Element xml) {
+  private INDIDriver getSubdriver(INDIMessage xml) {
     if (!xml.hasAttribute("device")) {
       return null;
     }
 
-    String deviceName = xml.getAttribute("device").trim();
-
-    return getSubdriver(deviceName);
+    return getSubdriver(xml.getDevice());
   }
 
   /**
@@ -651,13 +653,13 @@ public abstract class INDIDriver implements INDIProtocolParser {
    * @param xml The XML message
    * @return The INDI Property to which the <code>xml</code> message refers.
    */
-  private INDIProperty processNewXXXVector(Element xml) {
+  private INDIProperty processNewXXXVector(INDIMessage xml) {
     if ((!xml.hasAttribute("device")) || (!xml.hasAttribute("name"))) {
       return null;
     }
 
-    String devName = xml.getAttribute("device");
-    String propName = xml.getAttribute("name");
+    String devName = xml.getDevice();
+    String propName = xml.getName();
 
     if (devName.compareTo(getName()) != 0) {  // If the message is not for this device
       return null;
@@ -665,6 +667,12 @@ public abstract class INDIDriver implements INDIProtocolParser {
 
     INDIProperty prop = getProperty(propName);
 
+    if (prop != null) {
+      synchronized (xmlEncoder) {
+        prop.clearPublished();
+      }
+    }
+
     return prop;
   }
 
@@ -673,7 +681,7 @@ public abstract class INDIDriver implements INDIProtocolParser {
    *
    * @param xml The XML message
    */
-  private void processGetProperties(Element xml) {
+  private void processGetProperties(INDIMessage xml) {
     if (!xml.hasAttribute("version")) {
       printMessage("getProperties: no version specified\n");
 
@@ -681,7 +689,7 @@ public abstract class INDIDriver implements INDIProtocolParser {
     }
 
     if (xml.hasAttribute("device")) {
-      String deviceName = xml.getAttribute("device").trim();
+      String deviceName = xml.getDevice();
 
       if (deviceName.compareTo(deviceName) != 0) {  // not asking for this driver
         return;
@@ -689,7 +697,7 @@ public abstract class INDIDriver implements INDIProtocolParser {
     }
 
     if (xml.hasAttribute("name")) {
-      String propertyName = xml.getAttribute("name");
+      String propertyName = xml.getName();
       INDIProperty p = getProperty(propertyName);
 
       if (p != null) {
@@ -765,7 +773,13 @@ public abstract class INDIDriver implements INDIProtocolParser {
   /**
    * Notifies the clients about the property and its values with an additional
    * <code>message</code>. Drivres must call this method when the values of the
-   * Elements of the property are updated in order to notify the clients.
+   * Elements of the property are updated in order to notify the clients. If
+   * there is no <code>message</code> and neither the State nor the
+   * (formatted) values have changed since the last notification nothing is
+   * sent, unless the Property has been told not to suppress unchanged
+   * updates. Updates without a message that keep the State and come sooner
+   * than the maximum publish rate of the Property allows are delayed: only the
+   * latest values are sent when the rate allows it.
    *
    * @param property The Property whose values have change and about which the
    * clients must be notified.
@@ -782,14 +796,113 @@ public abstract class INDIDriver implements INDIProtocolParser {
         }
       }
 
-      String msg = property.getXMLPropertySet(message);
+      synchronized (xmlEncoder) {
+        if (message == null) {
+          if (property.isSuppressUnchangedUpdates() && !property.isChangedSincePublished()) {
+            return; // Nothing new to tell the clients
+          }
+
+          if (!property.isStateChangedSincePublished()) {
+            long delay = property.getPublishDelay();
 
-      sendXML(msg);
+            if (delay > 0) {  // Too early: send the latest values later
+              schedulePendingUpdate(property, delay);
+
+              return;
+            }
+          }
+        }
+
+        sendXMLPropertySet(property, message);
+      }
     } else {
       throw new INDIException("The Property is not from this driver. Maybe you forgot to add it?");
     }
   }
 
+  /**
+   * Sends a &lt;setXXXVector&gt; message for a property. Must be called with
+   * the lock of the encoder held.
+   *
+   * @param property The Property to be sent.
+   * @param message The message to be sended (can be <code>null</code>).
+   */
+  private void sendXMLPropertySet(INDIProperty property, String message) {
+    xmlEncoder.reset();
+    property.encodeXMLPropertySet(xmlEncoder, message);
+
+    Object supersedeKey = null;
+
+    if ((message == null) && (property instanceof INDINumberProperty) && (!property.isSendOnlyChangedElements())) {
+      supersedeKey = property;  // A newer update of all the values makes this one useless
+    }
+
+    sendXML(xmlEncoder, supersedeKey);
+  }
+
+  /**
+   * Schedules the sending of a property update that has been delayed by its
+   * publish rate limit. If there is already one scheduled for the property
+   * nothing is done: it will send the latest values when it runs. Must be
+   * called with the lock of the encoder held.
+   *
+   * @param property The Property to be sent later.
+   * @param delay The delay in milliseconds.
+   */
+  private void schedulePendingUpdate(final INDIProperty property, long delay) {
+    if (property.isPublishPending() || destroyed) {
+      return;
+    }
+
+    if (publishTimer == null) {
+      publishTimer = new Timer("INDI publish timer (" + getName() + ")", true);
+    }
+
+    property.setPublishPending(true);
+
+    publishTimer.schedule(new TimerTask() {
+      @Override
+      public void run() {
+        synchronized (xmlEncoder) {
+          if (!property.isPublishPending()) {
+            return; // Already sent by a later update
+          }
+
+          property.setPublishPending(false);
+
+          if (!properties.containsValue(property)) {
+            return;
+          }
+
+          if (property.isSuppressUnchangedUpdates() && !property.isChangedSincePublished()) {
+            return;
+          }
+
+          sendXMLPropertySet(property, null);
+        }
+      }
+    }, delay);
+  }
+
+  /**
+   * Cancels the publish timer and drops the updates delayed by the publish
+   * rate limit that have not been sent yet. No update is delayed afterwards.
+   */
+  private void cancelPendingUpdates() {
+    synchronized (xmlEncoder) {
+      destroyed = true;
+
+      if (publishTimer != null) {
+        publishTimer.cancel();
+        publishTimer = null;
+      }
+
+      for (INDIProperty property : properties.values()) {
+        property.setPublishPending(false);
+      }
+    }
+  }
+
   /**
    * Notifies the clients about a new property with a
    * <code>message</code>. The
@@ -800,22 +913,86 @@ public abstract class INDIDriver implements INDIProtocolParser {
    * @param message
    */
   private void sendDefXXXVectorMessage(INDIProperty property, String message) {
-    String msg = property.getXMLPropertyDefinition(message);
+    synchronized (xmlEncoder) {
+      xmlEncoder.reset();
+      property.encodeXMLPropertyDefinition(xmlEncoder, message);
+
+      sendXML(xmlEncoder);
+    }
+  }
 
-    sendXML(msg);
+  /**
+   * Sends a XML message to the clients. The message is queued in the writer of
+   * the Driver (or in its message queue, if it has one), so the calling thread
+   * never waits for the clients.
+   *
+   * @param xml The encoder with the message to be sended.
+   */
+  private void sendXML(INDIXMLEncoder xml) {
+    sendXML(xml, null);
   }
 
   /**
    * Sends a XML message to the clients.
    *
-   * @param XML The message to be sended.
+   * @param xml The encoder with the message to be sended.
+   * @param supersedeKey If not <code>null</code> and the Driver has a message
+   * queue, a message sent with the same key that is still queued is replaced
+   * by this one.
    */
-  private void sendXML(String XML) {
+  private void sendXML(INDIXMLEncoder xml, Object supersedeKey) {
     /*
-     * if (XML.length() < 500) { printMessage(XML); }
+     * if (xml.getLength() < 500) { printMessage(xml.toString()); }
      */
-    out.print(XML);
-    out.flush();
+    INDIMessageQueue queue = messageQueue;
+
+    if (queue != null) {
+      queue.put(xml, supersedeKey);
+    } else {
+      startWriter();
+
+      writer.write(xml);
+    }
+  }
+
+  /**
+   * Starts the writer of the Driver if it has not been started yet. It is not
+   * started in the constructor because the Drivers that send their messages
+   * to a queue do not need it.
+   */
+  private void startWriter() {
+    synchronized (writer) {
+      if (writer.getState() == Thread.State.NEW) {
+        writer.start();
+      }
+    }
+  }
+
+  /**
+   * Makes the Driver send its messages to a queue instead of its output
+   * stream. Used by Servers that run the Driver in the same JVM, which take
+   * the messages from the queue without parsing a byte stream. Must be called
+   * before the Driver starts listening.
+   *
+   * @param messageQueue The queue.
+   */
+  public void setMessageQueue(INDIMessageQueue messageQueue) {
+    synchronized (xmlEncoder) {
+      xmlEncoder.setBuildMessages(messageQueue != null);  // The queue takes the message trees, not just their bytes
+
+      this.messageQueue = messageQueue;
+    }
+  }
+
+  /**
+   * Gets the writer that sends the messages of the Driver to the clients. It
+   * may be used to check its queue depth and flush latency counters. It is
+   * only started once the Driver writes to its output stream.
+   *
+   * @return The writer of the Driver.
+   */
+  public INDIBatchingWriter getWriter() {
+    return writer;
   }
 
   /**
@@ -869,34 +1046,37 @@ public abstract class INDIDriver implements INDIProtocolParser {
    * @param message A optional message (can be <code>null</code>).
    */
   private void sendDelPropertyMessage(String message) {
-    String mm = "";
-
-    if (message != null) {
-      mm = " message=\"" + message + "\"";
-    }
-
-    String msg = "<delProperty device=\"" + this.getName() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\"" + mm + " />";
-
-    sendXML(msg);
+    sendDelPropertyMessage(null, message);
   }
 
   /**
    * Sends a message to the client to remove a Property with a
    * <code>message</code>.
    *
-   * @param property The property that is being removed.
+   * @param property The property that is being removed (<code>null</code> to
+   * remove the entire device).
    * @param message The optional message (can be <code>null</code>).
    */
   private void sendDelPropertyMessage(INDIProperty property, String message) {
-    String mm = "";
+    synchronized (xmlEncoder) {
+      xmlEncoder.reset();
+      xmlEncoder.startTag("delProperty");
+      xmlEncoder.attribute("device", getName());
 
-    if (message != null) {
-      mm = " message=\"" + message + "\"";
-    }
+      if (property != null) {
+        xmlEncoder.attribute("name", property.getName());
+      }
 
-    String msg = "<delProperty device=\"" + this.getName() + "\" name=\"" + property.getName() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\"" + mm + " />";
+      xmlEncoder.timestampAttribute();
 
-    sendXML(msg);
+      if (message != null) {
+        xmlEncoder.attribute("message", message);
+      }
+
+      xmlEncoder.closeEmptyTag();
+
+      sendXML(xmlEncoder);
+    }
   }
 
   /**
@@ -961,13 +1141,15 @@ public abstract class INDIDriver implements INDIProtocolParser {
 
   /**
    * A method that should be implemented when the driver is being destroyed to
-   * stop threads, kill sub-drivers, etc. By default it calls
-   * <code>removeDevice</code>.
+   * stop threads, kill sub-drivers, etc. By default it drops the updates
+   * delayed by the publish rate limit and calls <code>removeDevice</code>.
    *
    * @see #removeDevice
    */
   public void isBeingDestroyed() {
     finishReader();
+    cancelPendingUpdates();
     removeDevice("Removing " + getName());
+    writer.finish();
   }
 }
@@ -18,7 +18,8 @@
 package laazotea.indi.driver;
 
 import java.io.Serializable;
-import org.w3c.dom.Element;
+import laazotea.indi.INDIMessage;
+import laazotea.indi.INDIXMLEncoder;
 
 /**
  * A class representing a INDI Element. The subclasses
@@ -46,6 +47,10 @@ public abstract class INDIElement implements Serializable {
    * The Property to which this Element belongs.
    */
   private INDIProperty property;
+  /**
+   * The last value sent to the clients (<code>null</code> if never sent).
+   */
+  private transient Object publishedValue;
 
   /**
    * Constructs an instance of
@@ -156,7 +161,7 @@ public abstract class INDIElement implements Serializable {
    * @param xml The XML element to be parsed.
    * @return The value of the element described in the <code>XML</code> element.
    */
-  public abstract Object parseOneValue(Element xml);
+  public abstract Object parseOneValue(INDIMessage xml);
 
   /**
    * Sets the value of the Element to
@@ -175,7 +180,21 @@ public abstract class INDIElement implements Serializable {
    * @return the &lt;oneXXX&gt; XML string describing the current value of the
    * Element.
    */
-  protected abstract String getXMLOneElement();
+  protected String getXMLOneElement() {
+    INDIXMLEncoder xml = new INDIXMLEncoder();
+
+    encodeXMLOneElement(xml);
+
+    return xml.toString();
+  }
+
+  /**
+   * Writes a &lt;oneXXX&gt; XML element describing the current value of the
+   * Element.
+   *
+   * @param xml The encoder to which the XML element is written.
+   */
+  protected abstract void encodeXMLOneElement(INDIXMLEncoder xml);
 
   /**
    * Gets a &lt;defXXX&gt; XML string describing the current value and
@@ -184,7 +203,52 @@ public abstract class INDIElement implements Serializable {
    * @return The &lt;defXXX&gt; XML string describing the current value and
    * properties of the Element.
    */
-  protected abstract String getXMLDefElement();
+  protected String getXMLDefElement() {
+    INDIXMLEncoder xml = new INDIXMLEncoder();
+
+    encodeXMLDefElement(xml);
+
+    return xml.toString();
+  }
+
+  /**
+   * Writes a &lt;defXXX&gt; XML element describing the current value and
+   * properties of the Element.
+   *
+   * @param xml The encoder to which the XML element is written.
+   */
+  protected abstract void encodeXMLDefElement(INDIXMLEncoder xml);
+
+  /**
+   * Checks if the value of the Element has changed since it was last sent to
+   * the clients.
+   *
+   * @return <code>true</code> if the value has changed or it has never been
+   * sent.
+   */
+  protected boolean isChangedSincePublished() {
+    if (publishedValue == null) {
+      return true;
+    }
+
+    return !publishedValue.equals(getValue());
+  }
+
+  /**
+   * Records the current value of the Element as the last one sent to the
+   * clients.
+   */
+  protected void markPublished() {
+    publishedValue = getValue();
+  }
+
+  /**
+   * Forgets the last value sent to the clients, so that the next update is
+   * considered a change.
+   */
+  protected void clearPublished() {
+    publishedValue = null;
+  }
 
   /**
    * Gets the name of the element and its current value
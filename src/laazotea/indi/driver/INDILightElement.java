@@ -19,7 +19,8 @@ package laazotea.indi.driver;
 
 import laazotea.indi.Constants;
 import laazotea.indi.Constants.LightStates;
-import org.w3c.dom.Element;
+import laazotea.indi.INDIMessage;
+import laazotea.indi.INDIXMLEncoder;
 
 /**
  * A class representing a INDI Light Element.
@@ -93,12 +94,17 @@ public class INDILightElement extends INDIElement {
   }
 
   @Override
-  public String getXMLOneElement() {
-    String v = Constants.getLightStateAsString(state);
-
-    String xml = "<oneLight name=\"" + this.getName() + "\">" + v + "</oneLight>";
+  protected void encodeXMLOneElement(INDIXMLEncoder xml) {
+    xml.startTag("oneLight");
+    xml.attribute("name", getName());
+    xml.closeStartTag();
+    xml.raw(Constants.getLightStateAsString(state));
+    xml.endTag("oneLight");
+  }
 
-    return xml;
+  @Override
+  public String getXMLOneElement() {
+    return super.getXMLOneElement();
   }
 
   @Override
@@ -107,16 +113,22 @@ public class INDILightElement extends INDIElement {
   }
 
   @Override
-  protected String getXMLDefElement() {
-    String v = Constants.getLightStateAsString(state);
-
-    String xml = "<defLight name=\"" + this.getName() + "\" label=\"" + getLabel() + "\">" + v + "</defLight>";
+  protected void encodeXMLDefElement(INDIXMLEncoder xml) {
+    xml.startTag("defLight");
+    xml.attribute("name", getName());
+    xml.attribute("label", getLabel());
+    xml.closeStartTag();
+    xml.raw(Constants.getLightStateAsString(state));
+    xml.endTag("defLight");
+  }
 
-    return xml;
+  @Override
+  protected String getXMLDefElement() {
+    return super.getXMLDefElement();
   }
 
   @Override
-  public Object parseOneValue(Element xml) {
-    return Constants.parseLightState(xml.getTextContent().trim());
+  public Object parseOneValue(INDIMessage xml) {
+    return Constants.parseLightState(xml.getText().trim());
   }
 }
@@ -20,8 +20,8 @@ package laazotea.indi.driver;
 import laazotea.indi.Constants;
 import laazotea.indi.Constants.PropertyPermissions;
 import laazotea.indi.Constants.PropertyStates;
-import laazotea.indi.INDIDateFormat;
 import laazotea.indi.INDIException;
+import laazotea.indi.INDIXMLEncoder;
 
 /**
  * A class representing a INDI Light Property.
@@ -213,44 +213,44 @@ public class INDILightProperty extends INDIProperty {
   }
 
   @Override
-  protected String getXMLPropertyDefinitionInit() {
-    String xml = "<defLightVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" label=\"" + getLabel() + "\" group=\"" + getGroup() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\">";
+  protected void encodeXMLPropertyDefinitionInit(INDIXMLEncoder xml, String message) {
+    xml.startTag("defLightVector");
+    xml.attribute("device", getDriver().getName());
+    xml.attribute("name", getName());
+    xml.attribute("label", getLabel());
+    xml.attribute("group", getGroup());
+    xml.attribute("state", Constants.getPropertyStateAsString(getState()));
+    xml.timestampAttribute();
 
-    return xml;
-  }
-
-  @Override
-  protected String getXMLPropertyDefinitionInit(String message) {
-    String xml = "<defLightVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" label=\"" + getLabel() + "\" group=\"" + getGroup() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\" message=\"" + message + "\">";
+    if (message != null) {
+      xml.attribute("message", message);
+    }
 
-    return xml;
+    xml.closeStartTag();
   }
 
   @Override
-  protected String getXMLPropertyDefinitionEnd() {
-    String xml = "</defLightVector>";
-
-    return xml;
+  protected void encodeXMLPropertyDefinitionEnd(INDIXMLEncoder xml) {
+    xml.endTag("defLightVector");
   }
 
   @Override
-  protected String getXMLPropertySetInit() {
-    String xml = "<setLightVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\">";
+  protected void encodeXMLPropertySetInit(INDIXMLEncoder xml, String message) {
+    xml.startTag("setLightVector");
+    xml.attribute("device", getDriver().getName());
+    xml.attribute("name", getName());
+    xml.attribute("state", Constants.getPropertyStateAsString(getState()));
+    xml.timestampAttribute();
 
-    return xml;
-  }
-
-  @Override
-  protected String getXMLPropertySetInit(String message) {
-    String xml = "<setLightVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\" message=\"" + message + "\">";
+    if (message != null) {
+      xml.attribute("message", message);
+    }
 
-    return xml;
+    xml.closeStartTag();
   }
 
   @Override
-  protected String getXMLPropertySetEnd() {
-    String xml = "</setLightVector>";
-
-    return xml;
+  protected void encodeXMLPropertySetEnd(INDIXMLEncoder xml) {
+    xml.endTag("setLightVector");
   }
 }
@@ -17,10 +17,10 @@
  */
 package laazotea.indi.driver;
 
-import java.util.Formatter;
-import java.util.Locale;
+import laazotea.indi.INDIMessage;
+import laazotea.indi.INDINumberFormatter;
 import laazotea.indi.INDISexagesimalFormatter;
-import org.w3c.dom.Element;
+import laazotea.indi.INDIXMLEncoder;
 
 /**
  * A class representing a INDI Number Element.
@@ -54,6 +54,20 @@ public class INDINumberElement extends INDIElement {
    * A formatter used to parse and format the values.
    */
   private INDISexagesimalFormatter sFormatter;
+  /**
+   * The precompiled formatter for the number format (rebuilt when needed after
+   * deserialization).
+   */
+  private transient INDINumberFormatter formatter;
+  /**
+   * The current value formatted (used to detect changes).
+   */
+  private transient StringBuilder formattedValue;
+  /**
+   * The last value sent to the clients formatted (<code>null</code> if never
+   * sent).
+   */
+  private transient StringBuilder publishedFormattedValue;
 
   /**
    * Constructs an instance of a
@@ -221,8 +235,10 @@ public class INDINumberElement extends INDIElement {
       throw new IllegalArgumentException("Number format not recognized%\n");
     }
 
+    formatter = new INDINumberFormatter(newNumberFormat);
+
     if (newNumberFormat.endsWith("m")) {
-      sFormatter = new INDISexagesimalFormatter(newNumberFormat);
+      sFormatter = formatter.getSexagesimalFormatter();
     }
 
     this.numberFormat = newNumberFormat;
@@ -313,16 +329,83 @@ public class INDINumberElement extends INDIElement {
    * Element.
    */
   private String getNumberAsString(double number) {
-    String aux;
+    StringBuilder sb = new StringBuilder(24);
 
-    if (numberFormat.endsWith("m")) {
-      aux = sFormatter.format(number);
-    } else {
-      Formatter formatter = new Formatter(Locale.US);
-      aux = formatter.format(getNumberFormat(), number).toString();
+    getFormatter().format(number, sb);
+
+    return sb.toString();
+  }
+
+  /**
+   * Appends the value of this Number Element formatted according to its
+   * number format to a <code>StringBuilder</code>.
+   *
+   * @param sb The <code>StringBuilder</code> to which the value is appended.
+   */
+  public void appendValueAsString(StringBuilder sb) {
+    getFormatter().format(value, sb);
+  }
+
+  /**
+   * Checks if the formatted value of the Element has changed since it was last
+   * sent to the clients. Changes below the precision of the number format are
+   * not considered.
+   *
+   * @return <code>true</code> if the formatted value has changed or it has
+   * never been sent.
+   */
+  @Override
+  protected boolean isChangedSincePublished() {
+    if (publishedFormattedValue == null) {
+      return true;
+    }
+
+    if (formattedValue == null) {
+      formattedValue = new StringBuilder(24);
+    }
+
+    formattedValue.setLength(0);
+    appendValueAsString(formattedValue);
+
+    if (formattedValue.length() != publishedFormattedValue.length()) {
+      return true;
     }
 
-    return aux;
+    for (int i = 0 ; i < formattedValue.length() ; i++) {
+      if (formattedValue.charAt(i) != publishedFormattedValue.charAt(i)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  @Override
+  protected void markPublished() {
+    if (publishedFormattedValue == null) {
+      publishedFormattedValue = new StringBuilder(24);
+    }
+
+    publishedFormattedValue.setLength(0);
+    appendValueAsString(publishedFormattedValue);
+  }
+
+  @Override
+  protected void clearPublished() {
+    publishedFormattedValue = null;
+  }
+
+  /**
+   * Gets the precompiled formatter for the number format of this Element.
+   *
+   * @return The formatter for the number format of this Element.
+   */
+  private INDINumberFormatter getFormatter() {
+    if (formatter == null) {
+      formatter = new INDINumberFormatter(numberFormat);
+    }
+
+    return formatter;
   }
 
   @Override
@@ -419,10 +502,17 @@ public class INDINumberElement extends INDIElement {
   }
 
   @Override
-  public String getXMLOneElement() {
-    String xml = "<oneNumber name=\"" + this.getName() + "\">" + value + "</oneNumber>";
+  protected void encodeXMLOneElement(INDIXMLEncoder xml) {
+    xml.startTag("oneNumber");
+    xml.attribute("name", getName());
+    xml.closeStartTag();
+    xml.number(value);
+    xml.endTag("oneNumber");
+  }
 
-    return xml;
+  @Override
+  public String getXMLOneElement() {
+    return super.getXMLOneElement();
   }
 
   @Override
@@ -431,15 +521,27 @@ public class INDINumberElement extends INDIElement {
   }
 
   @Override
-  protected String getXMLDefElement() {
-    String xml = "<defNumber name=\"" + this.getName() + "\" label=\"" + getLabel() + "\" format=\"" + numberFormat + "\" min=\"" + min + "\" max=\"" + max + "\" step=\"" + step + "\">" + value + "</defNumber>";
+  protected void encodeXMLDefElement(INDIXMLEncoder xml) {
+    xml.startTag("defNumber");
+    xml.attribute("name", getName());
+    xml.attribute("label", getLabel());
+    xml.attribute("format", numberFormat);
+    xml.attribute("min", min);
+    xml.attribute("max", max);
+    xml.attribute("step", step);
+    xml.closeStartTag();
+    xml.number(value);
+    xml.endTag("defNumber");
+  }
 
-    return xml;
+  @Override
+  protected String getXMLDefElement() {
+    return super.getXMLDefElement();
   }
 
   @Override
-  public Object parseOneValue(Element xml) {
-    double v = parseNumber(xml.getTextContent().trim());
+  public Object parseOneValue(INDIMessage xml) {
+    double v = parseNumber(xml.getText().trim());
 
     if ((v < min) || (v > max)) {
       throw new IllegalArgumentException(getName() + " ; " + "Number (" + v + ") not in range [" + min + ", " + max + "]");
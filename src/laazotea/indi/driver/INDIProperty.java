@@ -30,6 +30,7 @@ import java.util.List;
 import laazotea.indi.Constants.PropertyPermissions;
 import laazotea.indi.Constants.PropertyStates;
 import laazotea.indi.INDIException;
+import laazotea.indi.INDIXMLEncoder;
 
 /**
  * A class representing a INDI Property. The subclasses
@@ -41,7 +42,7 @@ import laazotea.indi.INDIException;
  * may contain according to the INDI protocol.
  *
  * @author S. Alonso (Zerjillo) [zerjioi at ugr.es]
- * @version 1.35, November 11, 2013
+ * @version 1.36, October 17, 2026
  */
 public abstract class INDIProperty implements Serializable {
 
@@ -89,6 +90,35 @@ public abstract class INDIProperty implements Serializable {
    * It marks if the property should be saved each time that it is changed.
    */
   private boolean saveable;
+  /**
+   * If <code>true</code> updates whose state and (formatted) values have not
+   * changed since the last one sent are not sent again.
+   */
+  private boolean suppressUnchangedUpdates;
+  /**
+   * If <code>true</code> the &lt;setXXXVector&gt; messages only include the
+   * Elements whose values have changed since the last message.
+   */
+  private boolean sendOnlyChangedElements;
+  /**
+   * The last State sent to the clients (<code>null</code> if never sent).
+   */
+  private transient PropertyStates publishedState;
+  /**
+   * The minimum time between two consecutive &lt;setXXXVector&gt; messages
+   * (in nanoseconds). <code>0</code> if there is no limit.
+   */
+  private long minPublishInterval;
+  /**
+   * The moment (<code>System.nanoTime()</code>) in which the Property was last
+   * sent to the clients.
+   */
+  private transient long lastPublishTime;
+  /**
+   * If <code>true</code> an update has been delayed by the publish rate limit
+   * and must be sent when the limit allows it.
+   */
+  private transient boolean publishPending;
 
   /**
    * Constructs an instance of a
@@ -165,9 +195,172 @@ public abstract class INDIProperty implements Serializable {
 
     this.saveable = false;
 
+    this.suppressUnchangedUpdates = true;
+    this.sendOnlyChangedElements = false;
+    this.minPublishInterval = 0;
+
     isInit = false;
   }
 
+  /**
+   * Sets if updates whose State and (formatted) values are the same ones
+   * that were last sent to the clients must be skipped. By default they are
+   * skipped. Updates with a message are always sent.
+   *
+   * @param suppressUnchangedUpdates <code>true</code> to skip unchanged
+   * updates.
+   */
+  public void setSuppressUnchangedUpdates(boolean suppressUnchangedUpdates) {
+    this.suppressUnchangedUpdates = suppressUnchangedUpdates;
+  }
+
+  /**
+   * Checks if unchanged updates are skipped.
+   *
+   * @return <code>true</code> if unchanged updates are skipped.
+   */
+  public boolean isSuppressUnchangedUpdates() {
+    return suppressUnchangedUpdates;
+  }
+
+  /**
+   * Sets if the &lt;setXXXVector&gt; messages must only include the Elements
+   * whose values have changed since the last message sent. By default all the
+   * Elements are included.
+   *
+   * @param sendOnlyChangedElements <code>true</code> to only send the changed
+   * Elements.
+   */
+  public void setSendOnlyChangedElements(boolean sendOnlyChangedElements) {
+    this.sendOnlyChangedElements = sendOnlyChangedElements;
+  }
+
+  /**
+   * Checks if the &lt;setXXXVector&gt; messages only include the changed
+   * Elements.
+   *
+   * @return <code>true</code> if only the changed Elements are sent.
+   */
+  public boolean isSendOnlyChangedElements() {
+    return sendOnlyChangedElements;
+  }
+
+  /**
+   * Sets the maximum number of &lt;setXXXVector&gt; messages per second sent
+   * for this Property. Updates that come too early are not sent: the latest
+   * values are sent as soon as the limit allows it, so the clients always end
+   * up with the last ones. Updates with a message or a new State are always
+   * sent inmediately. By default there is no limit.
+   *
+   * @param maxPublishRate The maximum rate (in Hz). <code>0</code> or less for
+   * no limit.
+   */
+  public void setMaxPublishRate(double maxPublishRate) {
+    if (maxPublishRate <= 0) {
+      this.minPublishInterval = 0;
+    } else {
+      this.minPublishInterval = (long)(1000000000.0 / maxPublishRate);
+    }
+  }
+
+  /**
+   * Gets the maximum number of &lt;setXXXVector&gt; messages per second sent
+   * for this Property.
+   *
+   * @return The maximum rate (in Hz). <code>0</code> if there is no limit.
+   */
+  public double getMaxPublishRate() {
+    if (minPublishInterval == 0) {
+      return 0;
+    }
+
+    return 1000000000.0 / minPublishInterval;
+  }
+
+  /**
+   * Gets the time that must pass before the Property can be sent again
+   * according to its maximum publish rate.
+   *
+   * @return The delay in milliseconds (<code>0</code> if it can be sent now).
+   */
+  protected long getPublishDelay() {
+    if ((minPublishInterval == 0) || (publishedState == null)) {
+      return 0;
+    }
+
+    long remaining = lastPublishTime + minPublishInterval - System.nanoTime();
+
+    if (remaining <= 0) {
+      return 0;
+    }
+
+    return (remaining + 999999) / 1000000;
+  }
+
+  /**
+   * Checks if an update has been delayed by the publish rate limit and has not
+   * been sent yet.
+   *
+   * @return <code>true</code> if there is a delayed update.
+   */
+  protected boolean isPublishPending() {
+    return publishPending;
+  }
+
+  /**
+   * Marks that an update has been delayed by the publish rate limit.
+   *
+   * @param publishPending <code>true</code> if there is a delayed update.
+   */
+  protected void setPublishPending(boolean publishPending) {
+    this.publishPending = publishPending;
+  }
+
+  /**
+   * Checks if the State has changed since it was last sent to the clients.
+   *
+   * @return <code>true</code> if the State has changed or it has never been
+   * sent.
+   */
+  protected boolean isStateChangedSincePublished() {
+    return publishedState != getState();
+  }
+
+  /**
+   * Checks if the State or any of the (formatted) values of the Elements have
+   * changed since they were last sent to the clients.
+   *
+   * @return <code>true</code> if the Property has changed or it has never been
+   * sent.
+   */
+  protected boolean isChangedSincePublished() {
+    if (publishedState != getState()) {
+      return true;
+    }
+
+    for (INDIElement e : elements.values()) {
+      if (e.isChangedSincePublished()) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Forgets the State and values last sent to the clients, so that the next
+   * update is completely sent even if nothing has changed. Called when a
+   * client asks to change the Property: the Driver answer must reach it even
+   * if it leaves the Property as it was.
+   */
+  protected void clearPublished() {
+    publishedState = null;
+
+    for (INDIElement e : elements.values()) {
+      e.clearPublished();
+    }
+  }
+
   /**
    * Set the property to be saveable. Should only be called by property
    * factories.
@@ -391,25 +584,36 @@ public abstract class INDIProperty implements Serializable {
    * @return The XML code to define the property.
    */
   protected String getXMLPropertyDefinition(String message) {
-    String xml;
+    INDIXMLEncoder xml = new INDIXMLEncoder();
 
-    if (message == null) {
-      xml = getXMLPropertyDefinitionInit();
-    } else {
-      xml = getXMLPropertyDefinitionInit(message);
-    }
+    encodeXMLPropertyDefinition(xml, message);
+
+    return xml.toString();
+  }
 
-    List<INDIElement> elem = getElementsAsList();
+  /**
+   * Writes the XML code to define the property with a <code>message</code>
+   * into an encoder. Should not usually be called by the Drivers.
+   *
+   * @param xml The encoder to which the XML code is written.
+   * @param message An message to be sent to the client when defining the
+   * property (can be <code>null</code>).
+   */
+  protected void encodeXMLPropertyDefinition(INDIXMLEncoder xml, String message) {
+    encodeXMLPropertyDefinitionInit(xml, message);
 
-    for (int i = 0 ; i < elements.size() ; i++) {
-      xml += elem.get(i).getXMLDefElement();
+    for (INDIElement e : elements.values()) {
+      e.encodeXMLDefElement(xml);
+      e.markPublished();
     }
 
-    xml += getXMLPropertyDefinitionEnd();
+    encodeXMLPropertyDefinitionEnd(xml);
+
+    publishedState = getState();
+    lastPublishTime = System.nanoTime();
+    publishPending = false;
 
     isInit = true; // The property now is initialized. No further changes allowed
-    
-    return xml;
   }
 
   /**
@@ -431,6 +635,25 @@ public abstract class INDIProperty implements Serializable {
    * @return The XML code to set the values of the property.
    */
   protected String getXMLPropertySet(String message) {
+    INDIXMLEncoder xml = new INDIXMLEncoder();
+
+    encodeXMLPropertySet(xml, message);
+
+    return xml.toString();
+  }
+
+  /**
+   * Writes the XML code to set the values of the property with a
+   * <code>message</code> into an encoder. If the property only sends its
+   * changed Elements the unchanged ones are omitted. The written values are
+   * recorded as the last ones sent. Should not usually be called by the
+   * Drivers.
+   *
+   * @param xml The encoder to which the XML code is written.
+   * @param message An message to be sent to the client when setting the values
+   * of the property (can be <code>null</code>).
+   */
+  protected void encodeXMLPropertySet(INDIXMLEncoder xml, String message) {
     if (saveable) {
       try {
         saveToFile();
@@ -438,70 +661,55 @@ public abstract class INDIProperty implements Serializable {
       }
     }
 
-    String xml;
-
-    if (message == null) {
-      xml = getXMLPropertySetInit();
-    } else {
-      xml = getXMLPropertySetInit(message);
-    }
+    encodeXMLPropertySetInit(xml, message);
 
-    List<INDIElement> elem = getElementsAsList();
-
-    for (int i = 0 ; i < elem.size() ; i++) {
-      xml += elem.get(i).getXMLOneElement();
+    for (INDIElement e : elements.values()) {
+      if ((!sendOnlyChangedElements) || e.isChangedSincePublished()) {
+        e.encodeXMLOneElement(xml);
+        e.markPublished();
+      }
     }
 
-    xml += getXMLPropertySetEnd();
+    encodeXMLPropertySetEnd(xml);
 
-    return xml;
+    publishedState = getState();
+    lastPublishTime = System.nanoTime();
+    publishPending = false;
   }
 
   /**
-   * Gets the opening XML Element &lt;defXXXVector&gt; for this Property.
-   *
-   * @return the opening XML Element &lt;defXXXVector&gt; for this Property.
-   */
-  protected abstract String getXMLPropertyDefinitionInit();
-
-  /**
-   * Gets the opening XML Element &lt;defXXXVector&gt; for this Property with a
-   * <code>message</code> to the client.
-   *
-   * @param message A message to be sent to the client.
-   * @return the opening XML Element &lt;defXXXVector&gt; for this Property.
-   */
-  protected abstract String getXMLPropertyDefinitionInit(String message);
-
-  /**
-   * Gets the closing XML Element &lt;/defXXXVector&gt; for this Property.
+   * Writes the opening XML Element &lt;defXXXVector&gt; for this Property with
+   * an optional <code>message</code> to the client.
    *
-   * @return the closing XML Element &lt;/defXXXVector&gt; for this Property.
+   * @param xml The encoder to which the XML code is written.
+   * @param message A message to be sent to the client (can be
+   * <code>null</code>).
    */
-  protected abstract String getXMLPropertyDefinitionEnd();
+  protected abstract void encodeXMLPropertyDefinitionInit(INDIXMLEncoder xml, String message);
 
   /**
-   * Gets the opening XML Element &lt;setXXXVector&gt; for this Property.
+   * Writes the closing XML Element &lt;/defXXXVector&gt; for this Property.
    *
-   * @return the opening XML Element &lt;setXXXVector&gt; for this Property.
+   * @param xml The encoder to which the XML code is written.
    */
-  protected abstract String getXMLPropertySetInit();
+  protected abstract void encodeXMLPropertyDefinitionEnd(INDIXMLEncoder xml);
 
   /**
-   * Gets the opening XML Element &lt;setXXXVector&gt; for this Property with a
-   * <code>message</code> to the client.
+   * Writes the opening XML Element &lt;setXXXVector&gt; for this Property with
+   * an optional <code>message</code> to the client.
    *
-   * @param message A message to be sent to the client.
-   * @return the opening XML Element &lt;setXXXVector&gt; for this Property.
+   * @param xml The encoder to which the XML code is written.
+   * @param message A message to be sent to the client (can be
+   * <code>null</code>).
    */
-  protected abstract String getXMLPropertySetInit(String message);
+  protected abstract void encodeXMLPropertySetInit(INDIXMLEncoder xml, String message);
 
   /**
-   * Gets the closing XML Element &lt;/setXXXVector&gt; for this Property.
+   * Writes the closing XML Element &lt;/setXXXVector&gt; for this Property.
    *
-   * @return the closing XML Element &lt;/setXXXVector&gt; for this Property.
+   * @param xml The encoder to which the XML code is written.
    */
-  protected abstract String getXMLPropertySetEnd();
+  protected abstract void encodeXMLPropertySetEnd(INDIXMLEncoder xml);
 
   /**
    * Saves the property and its elements to a file. Ideal to later restore it on
@@ -20,7 +20,8 @@ package laazotea.indi.driver;
 import laazotea.indi.Constants;
 import laazotea.indi.Constants.SwitchRules;
 import laazotea.indi.Constants.SwitchStatus;
-import org.w3c.dom.Element;
+import laazotea.indi.INDIMessage;
+import laazotea.indi.INDIXMLEncoder;
 
 /**
  * A class representing a INDI Switch Element.
@@ -116,12 +117,17 @@ public class INDISwitchElement extends INDIElement {
   }
 
   @Override
-  public String getXMLOneElement() {
-    String stat = Constants.getSwitchStatusAsString(status);
-
-    String xml = "<oneSwitch name=\"" + this.getName() + "\">" + stat + "</oneSwitch>";
+  protected void encodeXMLOneElement(INDIXMLEncoder xml) {
+    xml.startTag("oneSwitch");
+    xml.attribute("name", getName());
+    xml.closeStartTag();
+    xml.raw(Constants.getSwitchStatusAsString(status));
+    xml.endTag("oneSwitch");
+  }
 
-    return xml;
+  @Override
+  public String getXMLOneElement() {
+    return super.getXMLOneElement();
   }
 
   @Override
@@ -130,16 +136,22 @@ public class INDISwitchElement extends INDIElement {
   }
 
   @Override
-  protected String getXMLDefElement() {
-    String stat = Constants.getSwitchStatusAsString(status);
-
-    String xml = "<defSwitch name=\"" + this.getName() + "\" label=\"" + getLabel() + "\">" + stat + "</defSwitch>";
+  protected void encodeXMLDefElement(INDIXMLEncoder xml) {
+    xml.startTag("defSwitch");
+    xml.attribute("name", getName());
+    xml.attribute("label", getLabel());
+    xml.closeStartTag();
+    xml.raw(Constants.getSwitchStatusAsString(status));
+    xml.endTag("defSwitch");
+  }
 
-    return xml;
+  @Override
+  protected String getXMLDefElement() {
+    return super.getXMLDefElement();
   }
 
   @Override
-  public Object parseOneValue(Element xml) {
-    return Constants.parseSwitchStatus(xml.getTextContent().trim());
+  public Object parseOneValue(INDIMessage xml) {
+    return Constants.parseSwitchStatus(xml.getText().trim());
   }
 }
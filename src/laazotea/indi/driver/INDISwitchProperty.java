@@ -24,8 +24,8 @@ import laazotea.indi.Constants.PropertyPermissions;
 import laazotea.indi.Constants.PropertyStates;
 import laazotea.indi.Constants.SwitchRules;
 import laazotea.indi.Constants.SwitchStatus;
-import laazotea.indi.INDIDateFormat;
 import laazotea.indi.INDIException;
+import laazotea.indi.INDIXMLEncoder;
 
 /**
  * A class representing a INDI Switch Property.
@@ -427,44 +427,48 @@ public class INDISwitchProperty extends INDIProperty {
   }
 
   @Override
-  protected String getXMLPropertyDefinitionInit() {
-    String xml = "<defSwitchVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" label=\"" + getLabel() + "\" group=\"" + getGroup() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" perm=\"" + Constants.getPropertyPermissionAsString(getPermission()) + "\" rule=\"" + Constants.getSwitchRuleAsString(getRule()) + "\" timeout=\"" + getTimeout() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\">";
-
-    return xml;
-  }
-
-  @Override
-  protected String getXMLPropertyDefinitionInit(String message) {
-    String xml = "<defSwitchVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" label=\"" + getLabel() + "\" group=\"" + getGroup() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" perm=\"" + Constants.getPropertyPermissionAsString(getPermission()) + "\" rule=\"" + Constants.getSwitchRuleAsString(getRule()) + "\" timeout=\"" + getTimeout() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\" message=\"" + message + "\">";
-
-    return xml;
-  }
-
-  @Override
-  protected String getXMLPropertyDefinitionEnd() {
-    String xml = "</defSwitchVector>";
+  protected void encodeXMLPropertyDefinitionInit(INDIXMLEncoder xml, String message) {
+    xml.startTag("defSwitchVector");
+    xml.attribute("device", getDriver().getName());
+    xml.attribute("name", getName());
+    xml.attribute("label", getLabel());
+    xml.attribute("group", getGroup());
+    xml.attribute("state", Constants.getPropertyStateAsString(getState()));
+    xml.attribute("perm", Constants.getPropertyPermissionAsString(getPermission()));
+    xml.attribute("rule", Constants.getSwitchRuleAsString(getRule()));
+    xml.attribute("timeout", getTimeout());
+    xml.timestampAttribute();
+
+    if (message != null) {
+      xml.attribute("message", message);
+    }
 
-    return xml;
+    xml.closeStartTag();
   }
 
   @Override
-  protected String getXMLPropertySetInit() {
-    String xml = "<setSwitchVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" timeout=\"" + getTimeout() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\">";
-
-    return xml;
+  protected void encodeXMLPropertyDefinitionEnd(INDIXMLEncoder xml) {
+    xml.endTag("defSwitchVector");
   }
 
   @Override
-  protected String getXMLPropertySetInit(String message) {
-    String xml = "<setSwitchVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" timeout=\"" + getTimeout() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\" message=\"" + message + "\">";
+  protected void encodeXMLPropertySetInit(INDIXMLEncoder xml, String message) {
+    xml.startTag("setSwitchVector");
+    xml.attribute("device", getDriver().getName());
+    xml.attribute("name", getName());
+    xml.attribute("state", Constants.getPropertyStateAsString(getState()));
+    xml.attribute("timeout", getTimeout());
+    xml.timestampAttribute();
+
+    if (message != null) {
+      xml.attribute("message", message);
+    }
 
-    return xml;
+    xml.closeStartTag();
   }
 
   @Override
-  protected String getXMLPropertySetEnd() {
-    String xml = "</setSwitchVector>";
-
-    return xml;
+  protected void encodeXMLPropertySetEnd(INDIXMLEncoder xml) {
+    xml.endTag("setSwitchVector");
   }
 }
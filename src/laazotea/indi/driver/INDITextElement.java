@@ -17,7 +17,8 @@
  */
 package laazotea.indi.driver;
 
-import org.w3c.dom.Element;
+import laazotea.indi.INDIMessage;
+import laazotea.indi.INDIXMLEncoder;
 
 /**
  * A class representing a INDI Text Element.
@@ -92,10 +93,17 @@ public class INDITextElement extends INDIElement {
   }
 
   @Override
-  public String getXMLOneElement() {
-    String xml = "<oneText name=\"" + this.getName() + "\">" + value + "</oneText>";
+  protected void encodeXMLOneElement(INDIXMLEncoder xml) {
+    xml.startTag("oneText");
+    xml.attribute("name", getName());
+    xml.closeStartTag();
+    xml.text(value);
+    xml.endTag("oneText");
+  }
 
-    return xml;
+  @Override
+  public String getXMLOneElement() {
+    return super.getXMLOneElement();
   }
 
   @Override
@@ -104,14 +112,22 @@ public class INDITextElement extends INDIElement {
   }
 
   @Override
-  protected String getXMLDefElement() {
-    String xml = "<defText name=\"" + this.getName() + "\" label=\"" + getLabel() + "\">" + value + "</defText>";
+  protected void encodeXMLDefElement(INDIXMLEncoder xml) {
+    xml.startTag("defText");
+    xml.attribute("name", getName());
+    xml.attribute("label", getLabel());
+    xml.closeStartTag();
+    xml.text(value);
+    xml.endTag("defText");
+  }
 
-    return xml;
+  @Override
+  protected String getXMLDefElement() {
+    return super.getXMLDefElement();
   }
 
   @Override
-  public String parseOneValue(Element xml) {
-    return xml.getTextContent().trim();
+  public String parseOneValue(INDIMessage xml) {
+    return xml.getText().trim();
   }
 }
@@ -20,8 +20,8 @@ package laazotea.indi.driver;
 import laazotea.indi.Constants;
 import laazotea.indi.Constants.PropertyPermissions;
 import laazotea.indi.Constants.PropertyStates;
-import laazotea.indi.INDIDateFormat;
 import laazotea.indi.INDIException;
+import laazotea.indi.INDIXMLEncoder;
 
 /**
  * A class representing a INDI Text Property.
@@ -281,44 +281,47 @@ public class INDITextProperty extends INDIProperty {
   }
 
   @Override
-  protected String getXMLPropertyDefinitionInit() {
-    String xml = "<defTextVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" label=\"" + getLabel() + "\" group=\"" + getGroup() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" perm=\"" + Constants.getPropertyPermissionAsString(getPermission()) + "\" timeout=\"" + getTimeout() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\">";
-
-    return xml;
-  }
-
-  @Override
-  protected String getXMLPropertyDefinitionInit(String message) {
-    String xml = "<defTextVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" label=\"" + getLabel() + "\" group=\"" + getGroup() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" perm=\"" + Constants.getPropertyPermissionAsString(getPermission()) + "\" timeout=\"" + getTimeout() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\" message=\"" + message + "\">";
-
-    return xml;
-  }
-
-  @Override
-  protected String getXMLPropertyDefinitionEnd() {
-    String xml = "</defTextVector>";
+  protected void encodeXMLPropertyDefinitionInit(INDIXMLEncoder xml, String message) {
+    xml.startTag("defTextVector");
+    xml.attribute("device", getDriver().getName());
+    xml.attribute("name", getName());
+    xml.attribute("label", getLabel());
+    xml.attribute("group", getGroup());
+    xml.attribute("state", Constants.getPropertyStateAsString(getState()));
+    xml.attribute("perm", Constants.getPropertyPermissionAsString(getPermission()));
+    xml.attribute("timeout", getTimeout());
+    xml.timestampAttribute();
+
+    if (message != null) {
+      xml.attribute("message", message);
+    }
 
-    return xml;
+    xml.closeStartTag();
   }
 
   @Override
-  protected String getXMLPropertySetInit() {
-    String xml = "<setTextVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" timeout=\"" + getTimeout() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\">";
-
-    return xml;
+  protected void encodeXMLPropertyDefinitionEnd(INDIXMLEncoder xml) {
+    xml.endTag("defTextVector");
   }
 
   @Override
-  protected String getXMLPropertySetInit(String message) {
-    String xml = "<setTextVector device=\"" + getDriver().getName() + "\" name=\"" + getName() + "\" state=\"" + Constants.getPropertyStateAsString(getState()) + "\" timeout=\"" + getTimeout() + "\" timestamp=\"" + INDIDateFormat.getCurrentTimestamp() + "\" message=\"" + message + "\">";
+  protected void encodeXMLPropertySetInit(INDIXMLEncoder xml, String message) {
+    xml.startTag("setTextVector");
+    xml.attribute("device", getDriver().getName());
+    xml.attribute("name", getName());
+    xml.attribute("state", Constants.getPropertyStateAsString(getState()));
+    xml.attribute("timeout", getTimeout());
+    xml.timestampAttribute();
+
+    if (message != null) {
+      xml.attribute("message", message);
+    }
 
-    return xml;
+    xml.closeStartTag();
   }
 
   @Override
-  protected String getXMLPropertySetEnd() {
-    String xml = "</setTextVector>";
-
-    return xml;
+  protected void encodeXMLPropertySetEnd(INDIXMLEncoder xml) {
+    xml.endTag("setTextVector");
   }
 }
@@ -20,14 +20,27 @@ package laazotea.indi.server;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.net.*;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
+import laazotea.indi.INDIBufferPool;
 import laazotea.indi.INDIException;
+import laazotea.indi.INDIMessage;
 import laazotea.indi.driver.INDIDriver;
 import laazotea.indi.driver.INDINotLoadableDriver;
-import org.w3c.dom.Element;
 
 /**
  * A class representing a INDI Server. It is in charge of dealing with several
@@ -43,27 +56,73 @@ import org.w3c.dom.Element;
  * this class.
  *
  * @author S. Alonso (Zerjillo) [zerjioi at ugr.es]
- * @version 1.34, October 13, 2012
+ * @version 1.36, October 17, 2026
  */
 public abstract class AbstractINDIServer implements Runnable {
 
   /**
    * A list of Devices loaded by the server.
    */
-  private ArrayList<INDIDevice> devices;
+  private CopyOnWriteArrayList<INDIDevice> devices;
   /**
-   * A list of clients (and devices if they are snooping) connected to the
-   * server.
+   * The clients (and devices if they are snooping) connected to the server and
+   * the routes of the messages to them.
    */
-  private ArrayList<INDIDeviceListener> clients;
+  private INDIRoutingTable clients;
   /**
    * The port to which the Server listens.
    */
   private int listeningPort;
   /**
-   * The socket to which the Server listens.
+   * The channel to which the Server listens.
    */
-  private ServerSocket socket;
+  private ServerSocketChannel socket;
+  /**
+   * The selector that serves the listening channel and the Clients.
+   */
+  private volatile Selector selector;
+  /**
+   * The additional ports to which the Server listens for Clients that use a
+   * compressed stream or the binary protocol.
+   */
+  private CopyOnWriteArrayList<ExtraPort> extraPorts;
+  /**
+   * The additional ports not registered in the selector yet.
+   */
+  private ConcurrentLinkedQueue<ExtraPort> pendingExtraPorts;
+  /**
+   * The Clients that have bytes waiting to be written (their channels must be
+   * also selected for writing).
+   */
+  private ConcurrentLinkedQueue<INDIClient> writeInterests;
+  /**
+   * The maximum number of bytes that may wait to be written to a Client. If it
+   * is exceeded the Client is disconnected.
+   */
+  private long clientHighWaterMark;
+  /**
+   * The maximum number of bytes that may wait to be written to all the
+   * Clients together.
+   */
+  private long globalOutboundBudget;
+  /**
+   * The number of bytes waiting to be written to all the Clients.
+   */
+  private AtomicLong queuedBytesTotal;
+  /**
+   * The maximum length (in characters) of a message sent by a Client.
+   */
+  private int maxClientMessageLength;
+  /**
+   * The pool of the buffers used to read from the Clients.
+   */
+  private INDIBufferPool bufferPool;
+  /**
+   * If <code>true</code> the <code>getProperties</code> messages of the
+   * Clients are answered with the last definitions and values sent by the
+   * Devices instead of asking the Devices.
+   */
+  private boolean propertySnapshotsEnabled;
   /**
    * If
    * <code>true</code> the mainThread will continue running.
@@ -95,8 +154,17 @@ public abstract class AbstractINDIServer implements Runnable {
    */
   private void initServer() {
     mainThreadRunning = false;
-    devices = new ArrayList<INDIDevice>();
-    clients = new ArrayList<INDIDeviceListener>();
+    devices = new CopyOnWriteArrayList<INDIDevice>();
+    clients = new INDIRoutingTable();
+    writeInterests = new ConcurrentLinkedQueue<INDIClient>();
+    extraPorts = new CopyOnWriteArrayList<ExtraPort>();
+    pendingExtraPorts = new ConcurrentLinkedQueue<ExtraPort>();
+    clientHighWaterMark = 32 * 1024 * 1024;
+    globalOutboundBudget = 256 * 1024 * 1024;
+    queuedBytesTotal = new AtomicLong();
+    maxClientMessageLength = 16 * 1024 * 1024;
+    bufferPool = INDIBufferPool.getDefault();
+    propertySnapshotsEnabled = true;
 
     startListeningToClients();
   }
@@ -122,13 +190,298 @@ public abstract class AbstractINDIServer implements Runnable {
   }
 
   /**
-   * The thread listens to the server socket and when a client connects, it is
-   * added to the list of clients.
+   * Gets the maximum number of bytes that may wait to be written to a Client.
+   *
+   * @return The high water mark (in bytes).
+   */
+  public long getClientHighWaterMark() {
+    return clientHighWaterMark;
+  }
+
+  /**
+   * Sets the maximum number of bytes that may wait to be written to a Client.
+   * A Client that does not keep up with the messages and exceeds it is
+   * disconnected, so that it does not hold an unbounded amount of memory. By
+   * default it is 32 MB.
+   *
+   * @param clientHighWaterMark The high water mark (in bytes).
+   */
+  public void setClientHighWaterMark(long clientHighWaterMark) {
+    this.clientHighWaterMark = clientHighWaterMark;
+  }
+
+  /**
+   * Gets the maximum number of bytes that may wait to be written to all the
+   * Clients together.
+   *
+   * @return The global outbound budget (in bytes).
+   */
+  public long getGlobalOutboundBudget() {
+    return globalOutboundBudget;
+  }
+
+  /**
+   * Sets the maximum number of bytes that may wait to be written to all the
+   * Clients together. When it would be exceeded, the Clients that already
+   * have bytes waiting (the ones that do not keep up) are disconnected
+   * instead of queueing more bytes. By default it is 256 MB.
+   *
+   * @param globalOutboundBudget The global outbound budget (in bytes).
+   */
+  public void setGlobalOutboundBudget(long globalOutboundBudget) {
+    this.globalOutboundBudget = globalOutboundBudget;
+  }
+
+  /**
+   * Gets the number of bytes waiting to be written to all the Clients.
+   *
+   * @return The number of bytes waiting to be written.
+   */
+  public long getQueuedBytesTotal() {
+    return queuedBytesTotal.get();
+  }
+
+  /**
+   * Updates the number of bytes waiting to be written to all the Clients.
+   *
+   * @param delta The number of bytes queued (positive) or written or
+   * discarded (negative).
+   * @return The new number of bytes waiting to be written.
+   */
+  long addQueuedBytes(long delta) {
+    return queuedBytesTotal.addAndGet(delta);
+  }
+
+  /**
+   * Gets the maximum length (in characters) of a message sent by a Client.
+   *
+   * @return The maximum length of a message.
+   */
+  public int getMaxClientMessageLength() {
+    return maxClientMessageLength;
+  }
+
+  /**
+   * Sets the maximum length (in characters) of a message sent by a Client. A
+   * Client that sends a longer message is disconnected, so that it does not
+   * make the Server hold an unbounded amount of memory. By default it is 16
+   * M characters. It only applies to the Clients that connect afterwards.
+   *
+   * @param maxClientMessageLength The maximum length of a message (0 for no
+   * limit).
+   */
+  public void setMaxClientMessageLength(int maxClientMessageLength) {
+    this.maxClientMessageLength = maxClientMessageLength;
+  }
+
+  /**
+   * Gets the pool of the buffers used to read from the Clients. Its counters
+   * show the memory used to read.
+   *
+   * @return The pool of buffers.
+   */
+  public INDIBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  /**
+   * Sets the pool of the buffers used to read from the Clients. By default
+   * the shared <code>INDIBufferPool.getDefault()</code> is used. It must be
+   * set before any Client connects.
+   *
+   * @param bufferPool The pool of buffers.
+   */
+  public void setBufferPool(INDIBufferPool bufferPool) {
+    this.bufferPool = bufferPool;
+  }
+
+  /**
+   * Checks if the <code>getProperties</code> messages of the Clients are
+   * answered with the last definitions and values sent by the Devices.
+   *
+   * @return <code>true</code> if the snapshots of the Devices are used.
+   */
+  public boolean isPropertySnapshotsEnabled() {
+    return propertySnapshotsEnabled;
+  }
+
+  /**
+   * Sets if the <code>getProperties</code> messages of the Clients must be
+   * answered with the last definitions and values sent by the Devices (the
+   * default) or forwarded to the Devices, which will send their Properties
+   * to all the listening Clients.
+   *
+   * @param propertySnapshotsEnabled <code>true</code> to use the snapshots of
+   * the Devices.
+   */
+  public void setPropertySnapshotsEnabled(boolean propertySnapshotsEnabled) {
+    this.propertySnapshotsEnabled = propertySnapshotsEnabled;
+  }
+
+  /**
+   * Starts listening to an additional port for Clients (or other Servers, see
+   * <code>loadNetworkDriver(String, int, boolean)</code>) that use a
+   * compressed stream: both directions of the connection are a single
+   * deflate stream, flushed at the end of each message. As the stream is
+   * never reset, the repeated names and tags of the INDI messages are very
+   * cheaply encoded, which is useful on slow links. The Clients of the
+   * normal port are not affected.
+   *
+   * @param port The port for the compressed connections.
+   * @throws IOException if the port can not be listened.
+   */
+  public void listenCompressed(int port) throws IOException {
+    listenExtraPort(port, true, false);
+  }
+
+  /**
+   * Starts listening to an additional port for Clients that use the binary
+   * protocol of <code>INDIBinaryEncoder</code>: the same messages as length
+   * prefixed frames, with the names interned to small integers and the
+   * numbers sent as raw doubles, which are much cheaper to parse and format
+   * than XML. The messages of those Clients are translated to XML only if
+   * they are sent to Devices or to XML Clients. The Clients of the normal
+   * port are not affected.
+   *
+   * @param port The port for the binary connections.
+   * @throws IOException if the port can not be listened.
+   */
+  public void listenBinary(int port) throws IOException {
+    listenExtraPort(port, false, true);
+  }
+
+  /**
+   * Starts listening to an additional port.
+   *
+   * @param port The port.
+   * @param compressed <code>true</code> if the connections use a compressed
+   * stream.
+   * @param binary <code>true</code> if the connections use the binary
+   * protocol.
+   * @throws IOException if the port can not be listened.
+   */
+  private void listenExtraPort(int port, boolean compressed, boolean binary) throws IOException {
+    ServerSocketChannel channel = ServerSocketChannel.open();
+    channel.socket().bind(new InetSocketAddress(port));
+    channel.configureBlocking(false);
+
+    addExtraPort(new ExtraPort(channel, compressed, binary, null));
+  }
+
+  /**
+   * Starts listening to a Unix domain socket for local Clients. They are
+   * served as the TCP ones (by the same selector and <code>INDIClient</code>
+   * code) but their messages do not go through the TCP loopback stack. As
+   * they are local, <code>acceptClient</code> is not called for them: access
+   * is controlled by the permissions of the socket file. A previous socket
+   * file at the same path is replaced and the file is deleted when the Server
+   * stops. It requires a Java runtime with Unix domain socket channels (Java
+   * 16 or later).
+   *
+   * @param path The path of the socket file.
+   * @throws IOException if the socket can not be listened (or if the Java
+   * runtime does not support Unix domain sockets).
+   */
+  public void listenUnixSocket(String path) throws IOException {
+    File file = new File(path);
+
+    if (file.exists() && (!file.isFile()) && (!file.isDirectory())) {
+      file.delete();  // The socket of a previous run
+    }
+
+    ServerSocketChannel channel;
+
+    try {  // By reflection, so that the Server still runs on older Java runtimes
+      SocketAddress address = (SocketAddress)Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class).invoke(null, path);
+      ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+
+      channel = (ServerSocketChannel)ServerSocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+      channel.bind(address);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException)e.getCause();
+      }
+
+      throw new IOException("Could not open the Unix domain socket " + path, e.getCause());
+    } catch (ReflectiveOperationException e) {
+      throw new IOException("Unix domain sockets are not supported by this Java runtime");
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Unix domain sockets are not supported by this Java runtime");
+    }
+
+    channel.configureBlocking(false);
+
+    addExtraPort(new ExtraPort(channel, false, false, path));
+  }
+
+  /**
+   * Adds an additional listening channel, to be registered by the selector
+   * thread.
+   *
+   * @param extra The additional port.
+   */
+  private void addExtraPort(ExtraPort extra) {
+    extraPorts.add(extra);
+    pendingExtraPorts.add(extra);
+
+    Selector sel = selector;
+
+    if (sel != null) {
+      sel.wakeup();
+    }
+  }
+
+  /**
+   * Registers in the selector the additional listening channels added since
+   * the last call. Called by the selector thread.
+   */
+  private void registerExtraPorts() {
+    ExtraPort extra;
+
+    while ((extra = pendingExtraPorts.poll()) != null) {
+      try {
+        extra.channel.register(selector, SelectionKey.OP_ACCEPT, extra);
+
+        if (extra.unixPath != null) {
+          System.err.println("Listening to Unix socket " + extra.unixPath);
+        } else {
+          System.err.println("Listening to port " + extra.channel.socket().getLocalPort() + (extra.compressed ? " (compressed)" : "") + (extra.binary ? " (binary)" : ""));
+        }
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  /**
+   * Asks the selector thread to tell a Client when its channel accepts more
+   * bytes.
+   *
+   * @param client The Client with bytes waiting to be written.
+   */
+  void requestWriteInterest(INDIClient client) {
+    writeInterests.add(client);
+
+    Selector sel = selector;
+
+    if (sel != null) {
+      sel.wakeup();
+    }
+  }
+
+  /**
+   * The thread listens to the server socket and serves all the Clients with a
+   * single selector: when a client connects, it is added to the list of
+   * clients, and the bytes of all the clients are read and written without
+   * blocking.
    */
   @Override
   public void run() {
     try {
-      socket = new ServerSocket(listeningPort);
+      selector = Selector.open();
+      socket = ServerSocketChannel.open();
+      socket.socket().bind(new InetSocketAddress(listeningPort));
+      socket.configureBlocking(false);
+      socket.register(selector, SelectionKey.OP_ACCEPT);
     } catch (IOException e) {
       System.err.println("Could not listen on port: " + listeningPort + " (maybe busy)");
       return; // The thread will stop
@@ -140,32 +493,113 @@ public abstract class AbstractINDIServer implements Runnable {
     mainThreadRunning = true;
 
     while (mainThreadRunning) {
-      Socket clientSocket;
+      registerExtraPorts();
 
       try {
-        clientSocket = socket.accept();
+        selector.select();
       } catch (IOException e) {
-//   This is usually the escape point of the thread when the server is stopped.
-        System.err.println("Server has stopped listening to new Client connections");
-        mainThreadRunning = false;
-        return; // The thread will stop
+        break;
       }
 
-      if (clientSocket != null) {
-        if (acceptClient(clientSocket)) {
-          INDIClient client = new INDIClient(clientSocket, this);
+      INDIClient waiting;
 
-          clients.add(client);
+      while ((waiting = writeInterests.poll()) != null) {
+        SelectionKey key = waiting.getSelectionKey();
 
-          connectionWithClientEstablished(client);
+        if ((key != null) && key.isValid()) {
+          key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+      }
+
+      Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+
+      while (it.hasNext()) {
+        SelectionKey key = it.next();
+        it.remove();
+
+        if (!key.isValid()) {
+          continue;
+        }
+
+        if (key.isAcceptable()) {
+          acceptNewClient((ServerSocketChannel)key.channel(), (ExtraPort)key.attachment());
         } else {
+          INDIClient client = (INDIClient)key.attachment();
+
           try {
-            clientSocket.close();
-          } catch (IOException e) {
+            if (key.isWritable()) {
+              client.writeReady();
+            }
+
+            if (key.isValid() && key.isReadable()) {
+              client.readReady();
+            }
+          } catch (RuntimeException e) {  // Only this Client is lost, not the Server
+            System.err.println("Error serving Client " + client.getInetAddress() + ": " + e);
+
+            client.disconnect();
           }
+        }
+      }
+    }
+
+    // This is usually the escape point of the thread when the server is stopped.
+    System.err.println("Server has stopped listening to new Client connections");
+    mainThreadRunning = false;
 
-          // System.err.println("Client " + clientSocket.getInetAddress() + " rejected");
+    try {
+      selector.close();
+    } catch (IOException e) {
+    }
+  }
+
+  /**
+   * Accepts a pending connection from a Client (if it is accepted by
+   * <code>acceptClient</code>).
+   *
+   * @param listeningChannel The channel with the pending connection.
+   * @param extra The additional port of the channel (<code>null</code> for
+   * the main one).
+   */
+  private void acceptNewClient(ServerSocketChannel listeningChannel, ExtraPort extra) {
+    boolean local = (extra != null) && (extra.unixPath != null);
+    SocketChannel clientChannel;
+
+    try {
+      clientChannel = listeningChannel.accept();
+    } catch (IOException e) {
+      return;
+    }
+
+    if (clientChannel != null) {
+      if (local || acceptClient(clientChannel.socket())) {
+        try {
+          clientChannel.configureBlocking(false);
+
+          if (!local) {
+            clientChannel.socket().setTcpNoDelay(true);
+          }
+
+          INDIClient client = new INDIClient(clientChannel, this, (extra != null) && extra.compressed, (extra != null) && extra.binary);
+
+          client.setSelectionKey(clientChannel.register(selector, SelectionKey.OP_READ, client));
+
+          clients.addListener(client);
+
+          connectionWithClientEstablished(client);
+        } catch (IOException e) {
+          try {
+            clientChannel.close();
+          } catch (IOException ee) {
+          }
+        }
+      } else {
+        try {
+          clientChannel.close();
+        } catch (IOException e) {
         }
+
+        // System.err.println("Client " + clientSocket.getInetAddress() + " rejected");
       }
     }
   }
@@ -192,9 +626,28 @@ public abstract class AbstractINDIServer implements Runnable {
     } catch (IOException e) {
     }
 
-    for (int i = 0 ; i < clients.size() ; i++) {
-      if (clients.get(i) instanceof INDIClient) {
-        ((INDIClient) clients.get(i)).disconnect();
+    for (ExtraPort extra : extraPorts) {
+      try {
+        extra.channel.close();
+      } catch (IOException e) {
+      }
+
+      if (extra.unixPath != null) {
+        new File(extra.unixPath).delete();
+      }
+    }
+
+    extraPorts.clear();
+
+    if (selector != null) {
+      selector.wakeup();
+    }
+
+    INDIDeviceListener[] list = clients.getListeners();  // Disconnected clients are removed from the list
+
+    for (int i = 0 ; i < list.length ; i++) {
+      if (list[i] instanceof INDIClient) {
+        ((INDIClient) list[i]).disconnect();
       }
     }
   }
@@ -247,7 +700,7 @@ public abstract class AbstractINDIServer implements Runnable {
    *
    * @return The list of loaded Devices.
    */
-  protected ArrayList<INDIDevice> getDevices() {
+  protected List<INDIDevice> getDevices() {
     return devices;
   }
 
@@ -306,6 +759,19 @@ public abstract class AbstractINDIServer implements Runnable {
    * @throws INDIException if there is any problem with the connection.
    */
   public synchronized void loadNetworkDriver(String host, int port) throws INDIException {
+    loadNetworkDriver(host, port, false);
+  }
+
+  /**
+   * Loads a Network Driver, optionally using a compressed stream (the other
+   * Server must listen to that port with <code>listenCompressed</code>).
+   *
+   * @param host The host of the Network Driver.
+   * @param port The port of the Network Driver.
+   * @param compressed <code>true</code> to use a compressed stream.
+   * @throws INDIException if there is any problem with the connection.
+   */
+  public synchronized void loadNetworkDriver(String host, int port, boolean compressed) throws INDIException {
     String networkName = host + ":" + port;
 
     if (isAlreadyLoaded(networkName)) {
@@ -316,7 +782,7 @@ public abstract class AbstractINDIServer implements Runnable {
 
     INDINetworkDevice newDevice;
 
-    newDevice = new INDINetworkDevice(this, host, port);
+    newDevice = new INDINetworkDevice(this, host, port, compressed);
 
     addDevice(newDevice);
   }
@@ -372,7 +838,7 @@ public abstract class AbstractINDIServer implements Runnable {
    */
   private void addDevice(INDIDevice device) {
     devices.add(device);
-    clients.add(device);
+    clients.addListener(device);
 
     device.startReading();
 
@@ -455,7 +921,7 @@ public abstract class AbstractINDIServer implements Runnable {
     String[] names = device.getNames();
 
     devices.remove(device);
-    clients.remove(device);
+    clients.removeListener(device);
 
     notifyClientsDeviceRemoved(names);
 
@@ -475,20 +941,16 @@ public abstract class AbstractINDIServer implements Runnable {
 
       String message = "<delProperty device=\"" + deviceName + "\" />";
 
-      ArrayList<INDIDeviceListener> list = this.getClientsListeningToDevice(deviceName);
+      INDIDeviceListener[] list = clients.getListeningToDevice(deviceName);
 
-      for (int i = 0 ; i < list.size() ; i++) {
-        INDIDeviceListener c = list.get(i);
-
-        c.sendXMLMessage(message);
+      for (int i = 0 ; i < list.length ; i++) {
+        list[i].sendXMLMessage(message);
       }
 
-      ArrayList<INDIDeviceListener> list2 = this.getClientsListeningToSingleProperties(deviceName);
-
-      for (int i = 0 ; i < list2.size() ; i++) {
-        INDIDeviceListener c = list2.get(i);
+      INDIDeviceListener[] list2 = clients.getListeningToSingleProperties(deviceName);
 
-        c.sendXMLMessage(message);
+      for (int i = 0 ; i < list2.length ; i++) {
+        list2[i].sendXMLMessage(message);
       }
     }
   }
@@ -500,7 +962,7 @@ public abstract class AbstractINDIServer implements Runnable {
    * @param client The Client to remove.
    */
   protected void removeClient(INDIClient client) {
-    clients.remove(client);
+    clients.removeListener(client);
 
     connectionWithClientBroken(client);
   }
@@ -594,7 +1056,7 @@ if (INDINotLoadableDriver.class.isAssignableFrom(c)) {
    *
    * @param xml The message to send.
    */
-  protected void sendXMLMessageToAllDevices(Element xml) {
+  protected void sendXMLMessageToAllDevices(INDIMessage xml) {
     for (int i = 0 ; i < devices.size() ; i++) {
       INDIDevice d = devices.get(i);
 
@@ -607,9 +1069,11 @@ if (INDINotLoadableDriver.class.isAssignableFrom(c)) {
    *
    * @param xml The message to send.
    */
-  protected void sendXMLMessageToAllClients(Element xml) {
-    for (int i = 0 ; i < clients.size() ; i++) {
-      INDIDeviceListener c = clients.get(i);
+  protected void sendXMLMessageToAllClients(INDIMessage xml) {
+    INDIDeviceListener[] list = clients.getListeners();
+
+    for (int i = 0 ; i < list.length ; i++) {
+      INDIDeviceListener c = list[i];
 
       if (c instanceof INDIClient) {
         c.sendXMLMessage(xml);
@@ -622,20 +1086,11 @@ if (INDINotLoadableDriver.class.isAssignableFrom(c)) {
    *
    * @param deviceName The name of the Device of the Property.
    * @param propertyName The name of the Property.
-   * @return A list of Clients that listen to a Property.
+   * @return A list of Clients that listen to a Property (it cannot be
+   * modified).
    */
-  protected ArrayList<INDIDeviceListener> getClientsListeningToProperty(String deviceName, String propertyName) {
-    ArrayList<INDIDeviceListener> list = new ArrayList<INDIDeviceListener>();
-
-    for (int i = 0 ; i < clients.size() ; i++) {
-      INDIDeviceListener c = clients.get(i);
-
-      if (c.listensToProperty(deviceName, propertyName)) {
-        list.add(c);
-      }
-    }
-
-    return list;
+  protected List<INDIDeviceListener> getClientsListeningToProperty(String deviceName, String propertyName) {
+    return Collections.unmodifiableList(Arrays.asList(clients.getListeningToProperty(deviceName, propertyName)));
   }
 
   /**
@@ -644,28 +1099,11 @@ if (INDINotLoadableDriver.class.isAssignableFrom(c)) {
    * @param deviceName The name of the Device of the Property.
    * @param propertyName The name of the Property.
    * @param isBLOB If the Property is a BLOB one.
-   * @return A list of Clients that listen to a Property.
+   * @return A list of Clients that listen to a Property (it cannot be
+   * modified).
    */
-  protected ArrayList<INDIDeviceListener> getClientsListeningToPropertyUpdates(String deviceName, String propertyName, boolean isBLOB) {
-    ArrayList<INDIDeviceListener> list = new ArrayList<INDIDeviceListener>();
-
-    for (int i = 0 ; i < clients.size() ; i++) {
-      INDIDeviceListener c = clients.get(i);
-
-      if (c.listensToProperty(deviceName, propertyName)) {
-        if (isBLOB) {
-          if (c.isBLOBAccepted(deviceName, propertyName))  {
-            list.add(c);
-          }
-        } else {
-          if (c.areNonBLOBsAccepted(deviceName)) {
-            list.add(c);
-          }
-        }
-      }
-    }
-
-    return list;
+  protected List<INDIDeviceListener> getClientsListeningToPropertyUpdates(String deviceName, String propertyName, boolean isBLOB) {
+    return Collections.unmodifiableList(Arrays.asList(clients.getListeningToPropertyUpdates(deviceName, propertyName, isBLOB)));
   }
 
   /**
@@ -673,40 +1111,21 @@ if (INDINotLoadableDriver.class.isAssignableFrom(c)) {
    *
    * @param deviceName The name of the Device.
    * @return A list of Clients that specifically listen to a Property of a
-   * Device.
+   * Device (it cannot be modified).
    */
-  protected ArrayList<INDIDeviceListener> getClientsListeningToSingleProperties(String deviceName) {
-    ArrayList<INDIDeviceListener> list = new ArrayList<INDIDeviceListener>();
-
-    for (int i = 0 ; i < clients.size() ; i++) {
-      INDIDeviceListener c = clients.get(i);
-
-      if (c.listensToSingleProperty(deviceName)) {
-        list.add(c);
-      }
-    }
-
-    return list;
+  protected List<INDIDeviceListener> getClientsListeningToSingleProperties(String deviceName) {
+    return Collections.unmodifiableList(Arrays.asList(clients.getListeningToSingleProperties(deviceName)));
   }
 
   /**
    * Gets a list of Clients that listen to a Device.
    *
    * @param deviceName The name of the Device.
-   * @return A list of Clients that specifically listen to a Device.
+   * @return A list of Clients that specifically listen to a Device (it cannot
+   * be modified).
    */
-  protected ArrayList<INDIDeviceListener> getClientsListeningToDevice(String deviceName) {
-    ArrayList<INDIDeviceListener> list = new ArrayList<INDIDeviceListener>();
-
-    for (int i = 0 ; i < clients.size() ; i++) {
-      INDIDeviceListener c = clients.get(i);
-
-      if (c.listensToDevice(deviceName)) {
-        list.add(c);
-      }
-    }
-
-    return list;
+  protected List<INDIDeviceListener> getClientsListeningToDevice(String deviceName) {
+    return Collections.unmodifiableList(Arrays.asList(clients.getListeningToDevice(deviceName)));
   }
 
   /**
@@ -728,7 +1147,7 @@ if (INDINotLoadableDriver.class.isAssignableFrom(c)) {
    * @param device The Device sending the message.
    * @param xml The message.
    */
-  protected abstract void notifyDeviceListenersDefXXXVector(INDIDevice device, Element xml);
+  protected abstract void notifyDeviceListenersDefXXXVector(INDIDevice device, INDIMessage xml);
 
   /**
    * Notifies Clients of a
@@ -737,7 +1156,7 @@ if (INDINotLoadableDriver.class.isAssignableFrom(c)) {
    * @param device The Device sending the message.
    * @param xml The message.
    */
-  protected abstract void notifyDeviceListenersSetXXXVector(INDIDevice device, Element xml);
+  protected abstract void notifyDeviceListenersSetXXXVector(INDIDevice device, INDIMessage xml);
 
   /**
    * Notifies Clients of a
@@ -746,7 +1165,7 @@ if (INDINotLoadableDriver.class.isAssignableFrom(c)) {
    * @param device The Device sending the message.
    * @param xml The message.
    */
-  protected abstract void notifyDeviceListenersMessage(INDIDevice device, Element xml);
+  protected abstract void notifyDeviceListenersMessage(INDIDevice device, INDIMessage xml);
 
   /**
    * Notifies Clients of a
@@ -755,7 +1174,7 @@ if (INDINotLoadableDriver.class.isAssignableFrom(c)) {
    * @param device The Device sending the message.
    * @param xml The message.
    */
-  protected abstract void notifyDeviceListenersDelProperty(INDIDevice device, Element xml);
+  protected abstract void notifyDeviceListenersDelProperty(INDIDevice device, INDIMessage xml);
 
   /**
    * Notifies Devices of a
@@ -764,7 +1183,7 @@ if (INDINotLoadableDriver.class.isAssignableFrom(c)) {
    * @param client The Client sending the message.
    * @param xml The message.
    */
-  protected abstract void notifyClientListenersGetProperties(INDIDeviceListener client, Element xml);
+  protected abstract void notifyClientListenersGetProperties(INDIDeviceListener client, INDIMessage xml);
 
   /**
    * Notifies Devices of a
@@ -773,7 +1192,7 @@ if (INDINotLoadableDriver.class.isAssignableFrom(c)) {
    * @param client The Client sending the message.
    * @param xml The message.
    */
-  protected abstract void notifyClientListenersNewXXXVector(INDIClient client, Element xml);
+  protected abstract void notifyClientListenersNewXXXVector(INDIClient client, INDIMessage xml);
 
   /**
    * Notifies Devices of a
@@ -784,7 +1203,7 @@ if (INDINotLoadableDriver.class.isAssignableFrom(c)) {
    * @param client The Client sending the message.
    * @param xml The message.
    */
-  protected abstract void notifyClientListenersEnableBLOB(INDIClient client, Element xml);
+  protected abstract void notifyClientListenersEnableBLOB(INDIClient client, INDIMessage xml);
 
   /**
    * Used to notify extending Servers that a Client connection has been broken.
@@ -809,4 +1228,46 @@ if (INDINotLoadableDriver.class.isAssignableFrom(c)) {
    * @param deviceNames The name of the devices that are no longer available.
    */
   protected abstract void driverDisconnected(String driverIdentifier, String[] deviceNames);
+
+  /**
+   * An additional port to which the Server listens.
+   */
+  private static class ExtraPort {
+
+    /**
+     * The listening channel.
+     */
+    private ServerSocketChannel channel;
+    /**
+     * <code>true</code> if the connections use a compressed stream.
+     */
+    private boolean compressed;
+    /**
+     * <code>true</code> if the connections use the binary protocol.
+     */
+    private boolean binary;
+    /**
+     * The path of the socket file if it is a Unix domain socket
+     * (<code>null</code> for TCP ports).
+     */
+    private String unixPath;
+
+    /**
+     * Constructs an additional port.
+     *
+     * @param channel The listening channel.
+     * @param compressed <code>true</code> if the connections use a compressed
+     * stream.
+     * @param binary <code>true</code> if the connections use the binary
+     * protocol.
+     * @param unixPath The path of the socket file if it is a Unix domain
+     * socket (<code>null</code> for TCP ports).
+     */
+    ExtraPort(ServerSocketChannel channel, boolean compressed, boolean binary, String unixPath) {
+      this.channel = channel;
+      this.compressed = compressed;
+      this.binary = binary;
+      this.unixPath = unixPath;
+    }
+  }
 }
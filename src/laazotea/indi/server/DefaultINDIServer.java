@@ -18,8 +18,8 @@
 package laazotea.indi.server;
 
 import java.net.Socket;
-import java.util.ArrayList;
-import org.w3c.dom.Element;
+import java.util.List;
+import laazotea.indi.INDIMessage;
 
 /**
  * A class representing a default implementation of an INDI Server. It
@@ -29,7 +29,7 @@ import org.w3c.dom.Element;
  * restrictions may extend this class instead of the AbstractINDIServer.
  *
  * @author S. Alonso (Zerjillo) [zerjioi at ugr.es]
- * @version 1.31, April 12, 2012
+ * @version 1.36, October 17, 2026
  * @see AbstractINDIServer
  */
 public class DefaultINDIServer extends AbstractINDIServer {
@@ -58,11 +58,11 @@ public class DefaultINDIServer extends AbstractINDIServer {
    * @param xml The message
    */
   @Override
-  protected void notifyDeviceListenersDefXXXVector(INDIDevice device, Element xml) {
-    String deviceName = xml.getAttribute("device").trim();
-    String propertyName = xml.getAttribute("name").trim();
+  protected void notifyDeviceListenersDefXXXVector(INDIDevice device, INDIMessage xml) {
+    String deviceName = xml.getDevice();
+    String propertyName = xml.getName();
 
-    ArrayList<INDIDeviceListener> list = getClientsListeningToProperty(deviceName, propertyName);
+    List<INDIDeviceListener> list = getClientsListeningToProperty(deviceName, propertyName);
 
     for (int i = 0 ; i < list.size() ; i++) {
       INDIDeviceListener c = list.get(i);
@@ -79,18 +79,13 @@ public class DefaultINDIServer extends AbstractINDIServer {
    * @param xml The message
    */
   @Override
-  protected void notifyDeviceListenersSetXXXVector(INDIDevice device, Element xml) {
-    String deviceName = xml.getAttribute("device").trim();
-    String propertyName = xml.getAttribute("name").trim();
-
-    String messageType = xml.getTagName();
-    boolean isBLOB = false;
-    
-    if (messageType.equals("setBLOBVector")) {
-      isBLOB = true;
-    }
+  protected void notifyDeviceListenersSetXXXVector(INDIDevice device, INDIMessage xml) {
+    String deviceName = xml.getDevice();
+    String propertyName = xml.getName();
+
+    boolean isBLOB = xml.getKind() == INDIMessage.Kind.SET_BLOB_VECTOR;
      
-    ArrayList<INDIDeviceListener> list = getClientsListeningToPropertyUpdates(deviceName, propertyName, isBLOB);
+    List<INDIDeviceListener> list = getClientsListeningToPropertyUpdates(deviceName, propertyName, isBLOB);
 
     for (int i = 0 ; i < list.size() ; i++) {
       INDIDeviceListener c = list.get(i);
@@ -107,13 +102,13 @@ public class DefaultINDIServer extends AbstractINDIServer {
    * @param xml The message
    */
   @Override
-  protected void notifyDeviceListenersMessage(INDIDevice device, Element xml) {
-    String deviceName = xml.getAttribute("device").trim();
+  protected void notifyDeviceListenersMessage(INDIDevice device, INDIMessage xml) {
+    String deviceName = xml.getDevice();
 
     if (deviceName.length() == 0) {
       sendXMLMessageToAllClients(xml);
     } else {
-      ArrayList<INDIDeviceListener> list = getClientsListeningToDevice(deviceName);
+      List<INDIDeviceListener> list = getClientsListeningToDevice(deviceName);
 
       for (int i = 0 ; i < list.size() ; i++) {
         INDIDeviceListener c = list.get(i);
@@ -131,10 +126,10 @@ public class DefaultINDIServer extends AbstractINDIServer {
    * @param xml The message
    */
   @Override
-  protected void notifyDeviceListenersDelProperty(INDIDevice device, Element xml) {
-    String deviceName = xml.getAttribute("device").trim();
+  protected void notifyDeviceListenersDelProperty(INDIDevice device, INDIMessage xml) {
+    String deviceName = xml.getDevice();
    
-    ArrayList<INDIDeviceListener> list = getClientsListeningToDevice(deviceName);
+    List<INDIDeviceListener> list = getClientsListeningToDevice(deviceName);
           
     for (int i = 0 ; i < list.size() ; i++) {
       INDIDeviceListener c = list.get(i);
@@ -144,24 +139,40 @@ public class DefaultINDIServer extends AbstractINDIServer {
   }
 
   /**
-   * Sends the
-   * <code>getProperties</code> message to the appropriate Devices.
+   * Answers a
+   * <code>getProperties</code> message with the snapshots of the appropriate
+   * Devices, or sends it to them if the snapshots are disabled or the Device
+   * is unknown.
    *
    * @param client The Client sending the message.
    * @param xml The message
    */
   @Override
-  protected void notifyClientListenersGetProperties(INDIDeviceListener client, Element xml) {
+  protected void notifyClientListenersGetProperties(INDIDeviceListener client, INDIMessage xml) {
 //    System.err.println("CLIENT ASKED FOR PROPERTIES");
 
-    String device = xml.getAttribute("device").trim();
+    String device = xml.getDevice();
 
     INDIDevice d = this.getDevice(device);
 
     if (d == null) {
-      sendXMLMessageToAllDevices(xml);
+      if ((device.length() == 0) && isPropertySnapshotsEnabled()) {
+        List<INDIDevice> devices = getDevices();
+
+        for (int i = 0 ; i < devices.size() ; i++) {
+          if (devices.get(i) != client) {
+            devices.get(i).sendSnapshot(client, null, null);
+          }
+        }
+      } else {
+        sendXMLMessageToAllDevices(xml);
+      }
     } else {
-      d.sendXMLMessage(xml);
+      if (isPropertySnapshotsEnabled()) {
+        d.sendSnapshot(client, device, xml.getName());
+      } else {
+        d.sendXMLMessage(xml);
+      }
     }
   }
 
@@ -173,8 +184,8 @@ public class DefaultINDIServer extends AbstractINDIServer {
    * @param xml The message
    */
   @Override
-  protected void notifyClientListenersNewXXXVector(INDIClient client, Element xml) {
-    String device = xml.getAttribute("device").trim();
+  protected void notifyClientListenersNewXXXVector(INDIClient client, INDIMessage xml) {
+    String device = xml.getDevice();
     INDIDevice d = this.getDevice(device);
 
     if (d != null) {
@@ -191,9 +202,9 @@ public class DefaultINDIServer extends AbstractINDIServer {
    * @param xml The message
    */
   @Override
-  protected void notifyClientListenersEnableBLOB(INDIClient client, Element xml) {
+  protected void notifyClientListenersEnableBLOB(INDIClient client, INDIMessage xml) {
     /*
-     * String device = xml.getAttribute("device").trim(); INDIDevice d =
+     * String device = xml.getDevice(); INDIDevice d =
      * this.getDevice(device);
      *
      * if (d != null) { d.sendXMLMessage(xml);
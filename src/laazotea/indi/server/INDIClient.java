@@ -20,132 +20,733 @@ package laazotea.indi.server;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 import laazotea.indi.Constants;
 import laazotea.indi.Constants.BLOBEnables;
+import laazotea.indi.INDIBinaryDecoder;
+import laazotea.indi.INDIBinaryEncoder;
+import laazotea.indi.INDIBufferPool;
+import laazotea.indi.INDIMessage;
+import laazotea.indi.INDIMessageDecoder;
 import laazotea.indi.INDIProtocolParser;
-import laazotea.indi.INDIProtocolReader;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import laazotea.indi.INDIXMLEncoder;
 
 /**
- * A class to represent a Client that connects to the Server.
+ * A class to represent a Client that connects to the Server. The connection is
+ * non blocking and it is served by the selector thread of the Server: no
+ * thread is devoted to each Client. The messages to the Client are queued (the
+ * arrays are shared with other Clients, not copied) and written as the
+ * connection accepts them, so a slow Client never blocks the Devices. If the
+ * queued bytes exceed the high water mark of the Server the Client is
+ * disconnected. The connection may use a compressed stream and the binary
+ * protocol of <code>INDIBinaryEncoder</code> instead of XML.
  *
  * @author S. Alonso (Zerjillo) [zerjioi at ugr.es]
- * @version 1.31, April 12, 2012
+ * @version 1.36, October 17, 2026
  */
 public class INDIClient extends INDIDeviceListener implements INDIProtocolParser {
 
   /**
-   * The socket to communicate with the Client.
+   * The maximum number of bytes of an incomplete UTF-8 sequence.
    */
-  private Socket socket;
+  private static final int MAX_LEFTOVER = 8;
+  /**
+   * The maximum size of the slices in which long messages are queued.
+   */
+  private static final int WRITE_SLICE_SIZE = 65536;
+  /**
+   * The maximum number of bytes passed to a single gathering write. The
+   * channel copies the heap buffers it writes into temporary direct ones, so
+   * bounding the write keeps those copies small.
+   */
+  private static final int MAX_GATHER_BYTES = 262144;
+  /**
+   * The size of the buffers used to compress and decompress the stream.
+   */
+  private static final int COMPRESSION_BUFFER_SIZE = 8192;
+  /**
+   * The channel to communicate with the Client.
+   */
+  private SocketChannel channel;
+  /**
+   * The key of the channel in the selector of the Server.
+   */
+  private SelectionKey key;
   /**
    * The Server to which the Client is connected.
    */
   private AbstractINDIServer server;
   /**
-   * The reader.
+   * The decoder of the incoming messages.
+   */
+  private INDIMessageDecoder decoder;
+  /**
+   * The bytes of an incomplete UTF-8 sequence at the end of the last read.
+   */
+  private byte[] leftover;
+  /**
+   * The number of bytes in <code>leftover</code>.
+   */
+  private int leftoverLength;
+  /**
+   * Held while the queues of the Client are used.
+   */
+  private final Object outboundLock;
+  /**
+   * The control messages (all but BLOB values) waiting to be written to the
+   * Client.
+   */
+  private Lane control;
+  /**
+   * The <code>setBLOBVector</code> messages waiting to be written to the
+   * Client.
+   */
+  private Lane blobs;
+  /**
+   * The number of bytes waiting to be written to the Client.
+   */
+  private long queuedBytes;
+  /**
+   * The number of BLOB messages dropped because a newer one of the same
+   * Property arrived before they were sent (see the "latest" BLOB policy).
+   */
+  private long droppedBLOBCount;
+  /**
+   * <code>true</code> if the selector has been asked to tell when the Client
+   * accepts more bytes.
    */
-  private INDIProtocolReader reader;
+  private boolean waitingForWrite;
+  /**
+   * <code>true</code> once the Client has been disconnected.
+   */
+  private volatile boolean closed;
+  /**
+   * A String representation of the host and port of the Client.
+   */
+  private String inetAddress;
+  /**
+   * <code>true</code> if the connection uses a compressed stream.
+   */
+  private boolean compressed;
+  /**
+   * <code>true</code> if the connection uses the binary protocol.
+   */
+  private boolean binary;
+  /**
+   * The decoder of the incoming binary frames (<code>null</code> if the
+   * connection uses XML).
+   */
+  private INDIBinaryDecoder binaryDecoder;
+  /**
+   * The encoder of the outgoing binary frames (<code>null</code> if the
+   * connection uses XML).
+   */
+  private INDIBinaryEncoder binaryEncoder;
+  /**
+   * Compresses the messages sent to the Client (<code>null</code> if the
+   * stream is not compressed).
+   */
+  private Deflater deflater;
+  /**
+   * The compressed bytes of a message.
+   */
+  private INDIXMLEncoder compressedOut;
+  /**
+   * Used to get the compressed output of the deflater.
+   */
+  private byte[] deflated;
+  /**
+   * Decompresses the bytes read from the Client (<code>null</code> if the
+   * stream is not compressed).
+   */
+  private Inflater inflater;
+  /**
+   * The compressed bytes read from the Client.
+   */
+  private byte[] compressedIn;
+  /**
+   * The decompressed bytes read from the Client.
+   */
+  private ByteBuffer inflated;
+  /**
+   * The number of bytes of the messages compressed before being sent.
+   */
+  private long uncompressedBytes;
+  /**
+   * The number of bytes of those messages once compressed.
+   */
+  private long compressedBytes;
 
   /**
-   * Constructs a new INDIClient that connects to the server and starts
-   * listening to it.
+   * Constructs a new INDIClient. The Server must register the channel in its
+   * selector.
    *
-   * @param socket The socket to communicate with the Client.
+   * @param channel The channel to communicate with the Client (in non blocking
+   * mode).
    * @param server The Server to which the Client is connected.
    */
-  public INDIClient(Socket socket, AbstractINDIServer server) {
-    this.socket = socket;
+  public INDIClient(SocketChannel channel, AbstractINDIServer server) {
+    this(channel, server, false);
+  }
+
+  /**
+   * Constructs a new INDIClient. The Server must register the channel in its
+   * selector.
+   *
+   * @param channel The channel to communicate with the Client (in non blocking
+   * mode).
+   * @param server The Server to which the Client is connected.
+   * @param compressed <code>true</code> if both directions of the connection
+   * are a deflate stream (flushed at the end of each message).
+   */
+  public INDIClient(SocketChannel channel, AbstractINDIServer server, boolean compressed) {
+    this(channel, server, compressed, false);
+  }
+
+  /**
+   * Constructs a new INDIClient. The Server must register the channel in its
+   * selector.
+   *
+   * @param channel The channel to communicate with the Client (in non blocking
+   * mode).
+   * @param server The Server to which the Client is connected.
+   * @param compressed <code>true</code> if both directions of the connection
+   * are a deflate stream (flushed at the end of each message).
+   * @param binary <code>true</code> if the messages are the binary frames of
+   * <code>INDIBinaryEncoder</code> instead of XML.
+   */
+  public INDIClient(SocketChannel channel, AbstractINDIServer server, boolean compressed, boolean binary) {
+    this.channel = channel;
+    this.compressed = compressed;
+    this.binary = binary;
     this.server = server;
 
-    reader = new INDIProtocolReader(this);
-    reader.start();
+    inetAddress = getAddress(channel);
+
+    decoder = new INDIMessageDecoder(this, true);
+    decoder.setMaxMessageLength(server.getMaxClientMessageLength());
+    decoder.setKeepBLOBText(false);  // BLOBs are just relayed
+
+    if (binary) {
+      binaryDecoder = new INDIBinaryDecoder(this);
+      binaryDecoder.setMaxMessageLength(server.getMaxClientMessageLength());
+      binaryDecoder.setKeepBLOBText(false);
+      binaryEncoder = new INDIBinaryEncoder();
+    }
+    leftover = new byte[MAX_LEFTOVER];
+    leftoverLength = 0;
+    outboundLock = new Object();
+    control = new Lane();
+    blobs = new Lane();
+    queuedBytes = 0;
+    waitingForWrite = false;
+    closed = false;
+
+    if (compressed) {
+      deflater = new Deflater();
+      compressedOut = new INDIXMLEncoder(COMPRESSION_BUFFER_SIZE);
+      deflated = new byte[COMPRESSION_BUFFER_SIZE];
+      inflater = new Inflater();
+      compressedIn = new byte[COMPRESSION_BUFFER_SIZE];
+      inflated = ByteBuffer.allocate(COMPRESSION_BUFFER_SIZE + MAX_LEFTOVER);
+    }
   }
 
   /**
-   * Explicitly disconnects the Client.
+   * Gets a String representation of the address of the other end of a
+   * channel: its host and port or, for Unix domain sockets (which have no
+   * <code>Socket</code>), the path of the socket.
+   *
+   * @param channel The channel.
+   * @return The address.
    */
-  protected void disconnect() {
-    if (socket != null) {
+  private static String getAddress(SocketChannel channel) {
+    try {
+      Socket socket = channel.socket();
+
+      return socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+    } catch (UnsupportedOperationException e) {
       try {
-        reader.setStop(true);
+        return "local:" + channel.getLocalAddress();
+      } catch (IOException ee) {
+        return "local";
+      }
+    }
+  }
 
-        socket.shutdownInput();
-        socket.getInputStream().close();
-        socket.getOutputStream().close();
-        socket.close();
+  /**
+   * Sets the key of the channel in the selector of the Server.
+   *
+   * @param key The key.
+   */
+  void setSelectionKey(SelectionKey key) {
+    this.key = key;
+  }
 
-        socket = null;
+  /**
+   * Gets the key of the channel in the selector of the Server.
+   *
+   * @return The key.
+   */
+  SelectionKey getSelectionKey() {
+    return key;
+  }
+
+  /**
+   * Reads the available bytes from the Client and parses the complete
+   * messages. Called by the selector thread of the Server. The buffer is taken
+   * from the pool of the Server just for this read, so idle Clients do not
+   * hold any.
+   */
+  void readReady() {
+    INDIBufferPool pool = server.getBufferPool();
+    ByteBuffer buffer = pool.acquire();
+    int nReaded;
+
+    try {
+      buffer.put(leftover, 0, leftoverLength);
+
+      try {
+        nReaded = channel.read(buffer);
       } catch (IOException e) {
+        nReaded = -1;
+      }
+
+      if (nReaded != -1) {
+        buffer.flip();
+
+        if (compressed) {
+          feedCompressed(buffer);
+        } else {
+          feedDecoder(buffer);
+        }
+
+        leftoverLength = Math.min(buffer.remaining(), MAX_LEFTOVER);
+        buffer.get(leftover, 0, leftoverLength);
       }
+    } catch (DataFormatException e) {
+      nReaded = -1;  // Not a correct compressed stream
+    } finally {
+      pool.release(buffer);
+    }
+
+    if ((nReaded == -1) || isOverflowed()) {
+      disconnect();
     }
   }
 
-  @Override
-  public void finishReader() {
-    server.removeClient(this);
+  /**
+   * Feeds some bytes to the decoder of the protocol used by the Client.
+   *
+   * @param bytes The bytes (between its position and its limit).
+   */
+  private void feedDecoder(ByteBuffer bytes) {
+    if (binary) {
+      binaryDecoder.feed(bytes);
+    } else {
+      decoder.feed(bytes);
+    }
   }
 
   /**
-   * Gets a String representation of the host and port of the Client.
+   * Checks if the Client has sent a too long (or, in the binary protocol, a
+   * not correct) message.
    *
-   * @return A String representation of the host and port of the Client.
+   * @return <code>true</code> if the decoder has overflowed.
    */
-  public String getInetAddress() {
-    return socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+  private boolean isOverflowed() {
+    if (binary) {
+      return binaryDecoder.isOverflowed();
+    }
+
+    return decoder.isOverflowed();
   }
 
-  @Override
-  public void parseXML(Document doc) {
-    Element el = doc.getDocumentElement();
+  /**
+   * Decompresses the bytes read from the Client and feeds them to the decoder.
+   * All the bytes of the buffer are consumed.
+   *
+   * The lock of the inflater is held, so that it is not ended by
+   * <code>disconnect</code> while it is being used.
+   *
+   * @param buffer The compressed bytes.
+   * @throws DataFormatException if the bytes are not a correct compressed
+   * stream.
+   */
+  private void feedCompressed(ByteBuffer buffer) throws DataFormatException {
+    synchronized (inflater) {
+      if (closed) {  // The inflater has been ended
+        return;
+      }
+
+      while (buffer.hasRemaining()) {
+        int n = Math.min(buffer.remaining(), compressedIn.length);
+        buffer.get(compressedIn, 0, n);
+
+        inflater.setInput(compressedIn, 0, n);
+
+        while (true) {
+          int m = inflater.inflate(inflated.array(), inflated.position(), inflated.remaining());
+
+          if (m == 0) {
+            if (inflater.needsInput() || inflater.finished() || inflater.needsDictionary()) {
+              break;
+            }
+          }
+
+          inflated.position(inflated.position() + m);
+          inflated.flip();
+          feedDecoder(inflated);
+          inflated.compact();
+        }
+      }
+    }
+  }
 
-    if (el.getNodeName().compareTo("INDI") != 0) {
+  /**
+   * Compresses the first message of a lane, if it has not been compressed
+   * yet. Must be called with the lock of the queues held, just before the
+   * message begins to be written (the compressed messages must be written in
+   * the same order in which they are compressed).
+   *
+   * @param lane The lane.
+   */
+  private void compressFirst(Lane lane) {
+    if (lane.isEmpty() || lane.isInProgress()) {
       return;
     }
 
-    NodeList nodes = el.getChildNodes();
+    compressedOut.reset();
 
-    for (int i = 0 ; i < nodes.getLength() ; i++) {
-      Node n = nodes.item(i);
+    long before = 0;
+    Iterator<Slice> it = lane.slices.iterator();
+    Slice s;
 
-      if (n instanceof Element) {
-        Element child = (Element) n;
+    do {
+      s = it.next();
+      ByteBuffer b = s.buffer;
 
-        String name = child.getNodeName();
+      deflater.setInput(b.array(), b.arrayOffset() + b.position(), b.remaining());
+      before += b.remaining();
 
-        if (name.equals("getProperties")) {
-          processGetProperties(child);
-        } else if (name.equals("newTextVector")) {
-          processNewXXXVector(child);
-        } else if (name.equals("newNumberVector")) {
-          processNewXXXVector(child);
-        } else if (name.equals("newSwitchVector")) {
-          processNewXXXVector(child);
-        } else if (name.equals("newBLOBVector")) {
-          processNewXXXVector(child);
-        } else if (name.equals("enableBLOB")) {
-          processEnableBLOB(child);
+      while (!deflater.needsInput()) {
+        int n = deflater.deflate(deflated, 0, deflated.length, Deflater.NO_FLUSH);
+        compressedOut.raw(deflated, 0, n);
+      }
+    } while (!s.last);
+
+    int n;
+
+    do {  // Ends the message in a byte boundary, so the Client can read it whole
+      n = deflater.deflate(deflated, 0, deflated.length, Deflater.SYNC_FLUSH);
+      compressedOut.raw(deflated, 0, n);
+    } while (n == deflated.length);
+
+    long after = lane.replaceFirst(compressedOut.toByteArray());
+
+    uncompressedBytes += before;
+    compressedBytes += after;
+    queuedBytes += after - before;
+    server.addQueuedBytes(after - before);
+  }
+
+  /**
+   * Writes the queued bytes that the Client accepts. Called by the selector
+   * thread of the Server.
+   */
+  void writeReady() {
+    boolean broken = false;
+
+    synchronized (outboundLock) {
+      try {
+        writeQueued();
+
+        if (control.isEmpty() && blobs.isEmpty() && key.isValid()) {
+          key.interestOps(SelectionKey.OP_READ);
+          waitingForWrite = false;
         }
+      } catch (IOException e) {
+        broken = true;
+      }
+    }
+
+    if (broken) {
+      disconnect();
+    }
+  }
+
+  /**
+   * Writes as many queued bytes as the channel accepts without blocking. Must
+   * be called with the lock of the queues held. The control messages go
+   * before the BLOB ones, but a BLOB message that has begun to be written is
+   * always finished first (the messages can not be split in the stream). So
+   * a control message waits at most for the rest of one BLOB message, instead
+   * of for every BLOB queued before it.
+   *
+   * @throws IOException if the connection is broken.
+   */
+  private void writeQueued() throws IOException {
+    while (true) {
+      Lane lane;
+
+      if (blobs.isInProgress() || control.isEmpty()) {
+        lane = blobs;
+      } else {
+        lane = control;
+      }
+
+      if (lane.isEmpty()) {
+        return;
+      }
+
+      if (compressed) {
+        compressFirst(lane);
+      }
+
+      ByteBuffer[] buffers = lane.getGatherBuffers(compressed || (lane == blobs));
+
+      long written = channel.write(buffers);
+
+      queuedBytes -= written;
+      server.addQueuedBytes(-written);
+
+      lane.removeWritten();
+
+      if (written == 0) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Gets the number of bytes waiting to be written to the Client.
+   *
+   * @return The number of bytes waiting to be written.
+   */
+  public long getQueuedBytes() {
+    synchronized (outboundLock) {
+      return queuedBytes;
+    }
+  }
+
+  /**
+   * Gets the number of BLOB messages that have not been sent to the Client
+   * because a newer one of the same Property arrived before (see the
+   * "latest" BLOB policy in <code>processEnableBLOB</code>).
+   *
+   * @return The number of dropped BLOB messages.
+   */
+  public long getDroppedBLOBCount() {
+    synchronized (outboundLock) {
+      return droppedBLOBCount;
+    }
+  }
+
+  /**
+   * Checks if the connection uses the binary protocol.
+   *
+   * @return <code>true</code> if the messages are binary frames.
+   */
+  public boolean isBinary() {
+    return binary;
+  }
+
+  /**
+   * Checks if the connection uses a compressed stream.
+   *
+   * @return <code>true</code> if the stream is compressed.
+   */
+  public boolean isCompressed() {
+    return compressed;
+  }
+
+  /**
+   * Gets the number of bytes of the messages that have been compressed to be
+   * sent to the Client (before compression).
+   *
+   * @return The number of uncompressed bytes.
+   */
+  public long getUncompressedBytes() {
+    synchronized (outboundLock) {
+      return uncompressedBytes;
+    }
+  }
+
+  /**
+   * Gets the number of bytes of the messages that have been compressed to be
+   * sent to the Client (after compression).
+   *
+   * @return The number of compressed bytes.
+   */
+  public long getCompressedBytes() {
+    synchronized (outboundLock) {
+      return compressedBytes;
+    }
+  }
+
+  /**
+   * Gets the number of control messages (all but BLOB values) written to the
+   * Client.
+   *
+   * @return The number of control messages written.
+   */
+  public long getControlMessageCount() {
+    synchronized (outboundLock) {
+      return control.messageCount;
+    }
+  }
+
+  /**
+   * Gets the average time that the control messages (all but BLOB values)
+   * waited until they were completely written to the Client.
+   *
+   * @return The average latency of the control messages in nanoseconds.
+   */
+  public long getAverageControlLatency() {
+    synchronized (outboundLock) {
+      return control.getAverageLatency();
+    }
+  }
+
+  /**
+   * Gets the maximum time that a control message (all but BLOB values) waited
+   * until it was completely written to the Client.
+   *
+   * @return The maximum latency of the control messages in nanoseconds.
+   */
+  public long getMaxControlLatency() {
+    synchronized (outboundLock) {
+      return control.maxLatency;
+    }
+  }
+
+  /**
+   * Gets the number of BLOB messages written to the Client.
+   *
+   * @return The number of BLOB messages written.
+   */
+  public long getBLOBMessageCount() {
+    synchronized (outboundLock) {
+      return blobs.messageCount;
+    }
+  }
+
+  /**
+   * Gets the average time that the BLOB messages waited until they were
+   * completely written to the Client.
+   *
+   * @return The average latency of the BLOB messages in nanoseconds.
+   */
+  public long getAverageBLOBLatency() {
+    synchronized (outboundLock) {
+      return blobs.getAverageLatency();
+    }
+  }
+
+  /**
+   * Gets the maximum time that a BLOB message waited until it was completely
+   * written to the Client.
+   *
+   * @return The maximum latency of the BLOB messages in nanoseconds.
+   */
+  public long getMaxBLOBLatency() {
+    synchronized (outboundLock) {
+      return blobs.maxLatency;
+    }
+  }
+
+  /**
+   * Explicitly disconnects the Client.
+   */
+  protected void disconnect() {
+    synchronized (outboundLock) {
+      if (closed) {
+        return;
       }
+
+      closed = true;
+
+      control.clear();
+      blobs.clear();
+
+      if (compressed) {
+        deflater.end();
+      }
+      server.addQueuedBytes(-queuedBytes);
+      queuedBytes = 0;
     }
+
+    if (compressed) {
+      synchronized (inflater) {
+        inflater.end();
+      }
+    }
+
+    try {
+      channel.close();
+    } catch (IOException e) {
+    }
+
+    finishReader();
+  }
+
+  @Override
+  public void finishReader() {
+    server.removeClient(this);
   }
 
   /**
-   * Adds the appropriate BLOB Enable rules.
+   * Gets a String representation of the host and port of the Client.
+   *
+   * @return A String representation of the host and port of the Client.
+   */
+  public String getInetAddress() {
+    return inetAddress;
+  }
+
+  @Override
+  public void parseMessage(INDIMessage message) {
+    switch (message.getKind()) {
+      case GET_PROPERTIES:
+        processGetProperties(message);
+        break;
+      case NEW_TEXT_VECTOR:
+      case NEW_NUMBER_VECTOR:
+      case NEW_SWITCH_VECTOR:
+      case NEW_BLOB_VECTOR:
+        processNewXXXVector(message);
+        break;
+      case ENABLE_BLOB:
+        processEnableBLOB(message);
+        break;
+      default:
+    }
+  }
+
+  /**
+   * Adds the appropriate BLOB Enable rules. Besides the standard values, the
+   * message may have a <code>policy="latest"</code> attribute: then, if the
+   * Client does not keep up, only the newest pending BLOB of each Property is
+   * kept and the older ones are dropped, so that the delay of live views does
+   * not grow with time.
    * @param xml 
    */
-  private void processEnableBLOB(Element xml) {
-    String device = xml.getAttribute("device").trim();
+  private void processEnableBLOB(INDIMessage xml) {
+    String device = xml.getDevice();
     if (device.length() == 0) {
       return;
     }
 
-    String property = xml.getAttribute("name").trim();
+    String property = xml.getName();
 
-    String rule = xml.getTextContent();
+    String rule = xml.getText();
     BLOBEnables enable;
 
     try {
@@ -154,26 +755,28 @@ public class INDIClient extends INDIDeviceListener implements INDIProtocolParser
       return;
     }
 
+    boolean latestOnly = xml.getAttribute("policy").equalsIgnoreCase("latest");
+
     if (property.length() == 0) {
       if (this.listensToDevice(device)) {
-        this.addBLOBEnableRule(device, enable);
+        this.addBLOBEnableRule(device, enable, latestOnly);
         server.notifyClientListenersEnableBLOB(this, xml);
       }
     } else {
       if (this.listensToProperty(device, property)) {
-        this.addBLOBEnableRule(device, property, enable);
+        this.addBLOBEnableRule(device, property, enable, latestOnly);
         server.notifyClientListenersEnableBLOB(this, xml);
       }
     }
   }
 
-  private void processNewXXXVector(Element xml) {
-    String device = xml.getAttribute("device").trim();
+  private void processNewXXXVector(INDIMessage xml) {
+    String device = xml.getDevice();
     if (device.length() == 0) {
       return;
     }
 
-    String property = xml.getAttribute("name").trim();
+    String property = xml.getName();
     if (property.length() == 0) {
       return;
     }
@@ -183,15 +786,15 @@ public class INDIClient extends INDIDeviceListener implements INDIProtocolParser
     }
   }
 
-  private void processGetProperties(Element xml) {
-    String version = xml.getAttribute("version").trim();
+  private void processGetProperties(INDIMessage xml) {
+    String version = xml.getAttribute("version");
 
     if (version.length() == 0) { // Some conditions to ignore the messages
       return;
     }
 
-    String device = xml.getAttribute("device").trim();
-    String property = xml.getAttribute("name").trim();
+    String device = xml.getDevice();
+    String property = xml.getName();
 
     if (device.length() == 0) {
       setListenToAllDevices(true);
@@ -206,22 +809,422 @@ public class INDIClient extends INDIDeviceListener implements INDIProtocolParser
     server.notifyClientListenersGetProperties(this, xml);
   }
 
+  /**
+   * Sends a message to the Client. BLOB values are queued apart from the rest
+   * of the messages, so that they do not delay them (see
+   * <code>writeQueued</code>). If the Client uses the binary protocol the
+   * message is not serialized to XML, except for BLOB values (which are sent
+   * as the shared XML bytes in a XML frame) and the messages nested too
+   * deeply for an element frame.
+   *
+   * @param xml The message to be sent.
+   */
+  @Override
+  public void sendXMLMessage(INDIMessage xml) {
+    if (xml.getKind() == INDIMessage.Kind.SET_BLOB_VECTOR) {
+      String supersedeKey = null;
+
+      if (isBLOBLatestOnly(xml.getDevice(), xml.getName())) {
+        supersedeKey = xml.getDevice() + '\0' + xml.getName();
+      }
+
+      queueMessage(null, xml.getBytes(), true, supersedeKey);
+    } else if (binary && INDIBinaryEncoder.canEncode(xml)) {
+      queueMessage(xml, null, false, null);
+    } else {
+      queueMessage(null, xml.getBytes(), false, null);
+    }
+  }
+
+  /**
+   * Queues some bytes to be sent to the Client as a control message.
+   *
+   * @param xml The bytes to be sent.
+   */
   @Override
-  protected void sendXMLMessage(String xml) {
-    try {
-      socket.getOutputStream().write(xml.getBytes());
-      socket.getOutputStream().flush();
-    } catch (IOException e) {
+  protected void sendXMLMessage(byte[] xml) {
+    queueMessage(null, xml, false, null);
+  }
+
+  /**
+   * Queues some bytes to be sent to the Client and writes as many of them as
+   * the connection accepts without blocking. The array is not copied (long
+   * messages are queued as slices of it, so the same bytes can be shared by
+   * all the Clients to which they are sent). If the
+   * queued bytes exceed the high water mark of the Server, or if the Client
+   * already has bytes waiting and the global outbound budget of the Server is
+   * exhausted, the Client is disconnected.
+   * <p>
+   * If the Client uses the binary protocol the message is encoded here, with
+   * the lock of the queues held, so that the Strings interned by the encoder
+   * are defined in the stream before they are used. XML bytes are preceded by
+   * the header of a XML frame.
+   *
+   * @param message The message to be sent in binary form (<code>null</code>
+   * to send <code>xml</code>).
+   * @param xml The XML bytes to be sent.
+   * @param isBLOB <code>true</code> if the message is a BLOB value.
+   * @param supersedeKey If not <code>null</code>, a BLOB message queued with
+   * the same key that has not begun to be written is dropped.
+   */
+  private void queueMessage(INDIMessage message, byte[] xml, boolean isBLOB, String supersedeKey) {
+    boolean broken = false;
+
+    synchronized (outboundLock) {
+      if (closed) {
+        return;
+      }
+
+      byte[] header = null;
+
+      if (message != null) {
+        xml = binaryEncoder.encode(message);
+      } else if (binary) {
+        header = INDIBinaryEncoder.getXMLFrameHeader(xml.length);
+      }
+
+      if (supersedeKey != null) {
+        long removed = blobs.removePending(supersedeKey);
+
+        if (removed >= 0) {
+          queuedBytes -= removed;
+          server.addQueuedBytes(-removed);
+          droppedBLOBCount++;
+        }
+      }
+
+      int length = xml.length;
+
+      if (header != null) {
+        length += header.length;
+      }
+
+      if (queuedBytes + length > server.getClientHighWaterMark()) {
+        broken = true;  // The Client does not keep up
+      } else if ((queuedBytes > 0) && (server.getQueuedBytesTotal() + length > server.getGlobalOutboundBudget())) {
+        broken = true;  // The Client does not keep up and the Server is short of memory
+      } else {
+        if (isBLOB) {
+          blobs.add(header, xml, supersedeKey);
+        } else {
+          control.add(header, xml, null);
+        }
+
+        queuedBytes += length;
+        server.addQueuedBytes(length);
+
+        if (!waitingForWrite) {
+          try {
+            writeQueued();
+
+            if ((!control.isEmpty()) || (!blobs.isEmpty())) {
+              waitingForWrite = true;
+              server.requestWriteInterest(this);
+            }
+          } catch (IOException e) {
+            broken = true;
+          }
+        }
+      }
+    }
+
+    if (broken) {
       disconnect();
     }
   }
 
+  /**
+   * Does nothing: the Client is non blocking and its bytes are fed by the
+   * Server.
+   *
+   * @return <code>null</code>
+   */
   @Override
   public InputStream getInputStream() {
-    try {
-      return socket.getInputStream();
-    } catch (IOException e) {
-      return null;
+    return null;
+  }
+
+  /**
+   * A queue of messages waiting to be written to the Client, with the
+   * statistics of their latency.
+   */
+  private static class Lane {
+
+    /**
+     * The slices of the queued messages.
+     */
+    private ArrayDeque<Slice> slices;
+    /**
+     * The number of messages completely written.
+     */
+    private long messageCount;
+    /**
+     * The sum of the time (in nanoseconds) that the written messages waited.
+     */
+    private long totalLatency;
+    /**
+     * The maximum time (in nanoseconds) that a written message waited.
+     */
+    private long maxLatency;
+
+    /**
+     * Constructs an empty lane.
+     */
+    Lane() {
+      slices = new ArrayDeque<Slice>();
+    }
+
+    /**
+     * Queues a message, split in slices of at most
+     * <code>WRITE_SLICE_SIZE</code> bytes.
+     *
+     * @param header Some bytes to be sent before the message, in their own
+     * slice (<code>null</code> if none).
+     * @param xml The bytes of the message.
+     * @param key The key of the message (<code>null</code> if it can not be
+     * superseded).
+     */
+    void add(byte[] header, byte[] xml, String key) {
+      long now = System.nanoTime();
+
+      if (header != null) {
+        slices.addLast(new Slice(ByteBuffer.wrap(header), now, key, true, xml.length == 0));
+      }
+
+      for (int off = 0 ; off < xml.length ; off += WRITE_SLICE_SIZE) {
+        int len = Math.min(WRITE_SLICE_SIZE, xml.length - off);
+
+        slices.addLast(new Slice(ByteBuffer.wrap(xml, off, len), now, key, (header == null) && (off == 0), off + len == xml.length));
+      }
+    }
+
+    /**
+     * Replaces the first message of the lane by its compressed bytes. The new
+     * slices are marked as encoded, so the message is considered in progress
+     * from now on.
+     *
+     * @param encodedXML The compressed bytes of the message.
+     * @return The number of compressed bytes.
+     */
+    long replaceFirst(byte[] encodedXML) {
+      Slice s = slices.removeFirst();
+
+      while (!s.last) {
+        s = slices.removeFirst();
+      }
+
+      ArrayDeque<Slice> encodedSlices = new ArrayDeque<Slice>();
+
+      for (int off = 0 ; (off < encodedXML.length) || (off == 0) ; off += WRITE_SLICE_SIZE) {
+        int len = Math.min(WRITE_SLICE_SIZE, encodedXML.length - off);
+
+        Slice e = new Slice(ByteBuffer.wrap(encodedXML, off, len), s.queuedAt, s.key, off == 0, off + len == encodedXML.length);
+        e.encoded = true;
+
+        encodedSlices.addFirst(e);
+      }
+
+      for (Slice e : encodedSlices) {
+        slices.addFirst(e);
+      }
+
+      return encodedXML.length;
+    }
+
+    /**
+     * Removes the queued message with a particular key, unless it has begun
+     * to be written.
+     *
+     * @param key The key of the message.
+     * @return The number of bytes removed, or -1 if there was no such
+     * message.
+     */
+    long removePending(String key) {
+      boolean removing = false;
+      long removed = -1;
+      Iterator<Slice> it = slices.iterator();
+
+      if (isInProgress() && it.hasNext()) {  // Never remove the message being written
+        Slice s = it.next();
+
+        while ((!s.last) && it.hasNext()) {
+          s = it.next();
+        }
+      }
+
+      while (it.hasNext()) {
+        Slice s = it.next();
+
+        if (s.first && key.equals(s.key)) {
+          removing = true;
+          removed = 0;
+        }
+
+        if (removing) {
+          removed += s.buffer.remaining();
+          it.remove();
+
+          if (s.last) {
+            return removed;
+          }
+        }
+      }
+
+      return removed;
+    }
+
+    /**
+     * Checks if there are no queued messages.
+     *
+     * @return <code>true</code> if there are no queued messages.
+     */
+    boolean isEmpty() {
+      return slices.isEmpty();
+    }
+
+    /**
+     * Checks if the first queued message has been partially written.
+     *
+     * @return <code>true</code> if the first message has been partially
+     * written.
+     */
+    boolean isInProgress() {
+      Slice s = slices.peekFirst();
+
+      return (s != null) && ((!s.first) || s.encoded || (s.buffer.position() != s.start));
+    }
+
+    /**
+     * Gets the first queued buffers, up to <code>MAX_GATHER_BYTES</code> (at
+     * least one buffer).
+     *
+     * @param oneMessage If <code>true</code> only the buffers of the first
+     * message are returned.
+     * @return The buffers to be written.
+     */
+    ByteBuffer[] getGatherBuffers(boolean oneMessage) {
+      int count = 0;
+      int total = 0;
+
+      for (Slice s : slices) {
+        if ((count > 0) && (total + s.buffer.remaining() > MAX_GATHER_BYTES)) {
+          break;
+        }
+
+        count++;
+        total += s.buffer.remaining();
+
+        if (oneMessage && s.last) {
+          break;
+        }
+      }
+
+      ByteBuffer[] buffers = new ByteBuffer[count];
+      Iterator<Slice> it = slices.iterator();
+
+      for (int i = 0 ; i < count ; i++) {
+        buffers[i] = it.next().buffer;
+      }
+
+      return buffers;
+    }
+
+    /**
+     * Removes the slices that have been completely written, updating the
+     * statistics of the messages that have been completed.
+     */
+    void removeWritten() {
+      long now = System.nanoTime();
+
+      while ((!slices.isEmpty()) && (!slices.peekFirst().buffer.hasRemaining())) {
+        Slice s = slices.removeFirst();
+
+        if (s.last) {
+          long latency = now - s.queuedAt;
+
+          messageCount++;
+          totalLatency += latency;
+
+          if (latency > maxLatency) {
+            maxLatency = latency;
+          }
+        }
+      }
+    }
+
+    /**
+     * Discards the queued messages.
+     */
+    void clear() {
+      slices.clear();
+    }
+
+    /**
+     * Gets the average time that the written messages waited.
+     *
+     * @return The average latency in nanoseconds.
+     */
+    long getAverageLatency() {
+      if (messageCount == 0) {
+        return 0;
+      }
+
+      return totalLatency / messageCount;
+    }
+  }
+
+  /**
+   * A part of a queued message.
+   */
+  private static class Slice {
+
+    /**
+     * The bytes of the slice.
+     */
+    private ByteBuffer buffer;
+    /**
+     * The position of the first byte of the slice in the buffer.
+     */
+    private int start;
+    /**
+     * The moment (<code>System.nanoTime()</code>) in which the message was
+     * queued.
+     */
+    private long queuedAt;
+    /**
+     * The key of the message (<code>null</code> if it can not be superseded).
+     */
+    private String key;
+    /**
+     * <code>true</code> if it is the first slice of the message.
+     */
+    private boolean first;
+    /**
+     * <code>true</code> if it is the last slice of the message.
+     */
+    private boolean last;
+    /**
+     * <code>true</code> if the slice has been compressed.
+     */
+    private boolean encoded;
+
+    /**
+     * Constructs a slice.
+     *
+     * @param buffer The bytes of the slice.
+     * @param queuedAt The moment in which the message was queued.
+     * @param key The key of the message.
+     * @param first <code>true</code> if it is the first slice of the message.
+     * @param last <code>true</code> if it is the last slice of the message.
+     */
+    Slice(ByteBuffer buffer, long queuedAt, String key, boolean first, boolean last) {
+      this.buffer = buffer;
+      this.queuedAt = queuedAt;
+      this.key = key;
+      this.first = first;
+      this.last = last;
+
+      start = buffer.position();
     }
   }
 }
@@ -20,21 +20,20 @@ package laazotea.indi.server;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 import laazotea.indi.Constants;
+import laazotea.indi.INDIBatchingWriter;
 import laazotea.indi.INDIException;
+import laazotea.indi.INDIMessage;
 import laazotea.indi.INDIProtocolParser;
 import laazotea.indi.INDIProtocolReader;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
  * A class that represents a generic INDI Device to which the server connects
  * and parses its messages.
  *
  * @author S. Alonso (Zerjillo) [zerjioi at ugr.es]
- * @version 1.32, January 13, 2013
+ * @version 1.36, October 17, 2026
  */
 public abstract class INDIDevice extends INDIDeviceListener implements INDIProtocolParser {
 
@@ -46,6 +45,15 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
    * The reader that reads from the Device.
    */
   private INDIProtocolReader reader;
+  /**
+   * The current definitions and values of the Properties of the Device.
+   */
+  private INDIPropertySnapshot snapshot;
+  /**
+   * The thread that writes the messages to the Device (created when first
+   * needed), so that the thread of the Server never waits for it.
+   */
+  private INDIBatchingWriter writer;
 
   /**
    * Constructs a new
@@ -57,6 +65,26 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
    */
   protected INDIDevice(AbstractINDIServer server) throws INDIException {
     this.server = server;
+    this.snapshot = new INDIPropertySnapshot();
+  }
+
+  /**
+   * Sends to a listener the current definitions and values of some
+   * Properties of the Device, as known from the messages previously sent by
+   * the Device. The Device is not asked about them.
+   *
+   * @param listener The listener to which the messages are sent.
+   * @param device The Device name (<code>null</code> or empty for all the
+   * names of the Device).
+   * @param property The Property name (<code>null</code> or empty for all the
+   * Properties).
+   */
+  protected void sendSnapshot(INDIDeviceListener listener, String device, String property) {
+    List<INDIMessage> messages = snapshot.getMessages(listener, device, property);
+
+    for (int i = 0 ; i < messages.size() ; i++) {
+      listener.sendXMLMessage(messages.get(i));
+    }
   }
 
   /**
@@ -64,61 +92,39 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
    * implementations.
    */
   protected void startReading() {
-    reader = new INDIProtocolReader(this);
+    reader = new INDIProtocolReader(this, true);
+    reader.setKeepBLOBText(false);  // BLOBs are just relayed
     reader.start();
   }
 
   @Override
-  public void parseXML(Document doc) {
-    Element el = doc.getDocumentElement();
-
-    if (el.getNodeName().compareTo("INDI") != 0) {
-      return;
-    }
-
-    NodeList nodes = el.getChildNodes();
-
-    for (int i = 0; i < nodes.getLength(); i++) {
-      Node n = nodes.item(i);
-
-      if (n instanceof Element) {
-        Element child = (Element) n;
-
-        String nodeName = child.getNodeName();
-        
-        if (nodeName.equals("getProperties")) {
-          processGetProperties(child);
-        } else if (nodeName.equals("defTextVector")) {
-          checkName(child);
-          processDefXXXVector(child);
-        } else if (nodeName.equals("defNumberVector")) {
-          checkName(child);
-          processDefXXXVector(child);
-        } else if (nodeName.equals("defSwitchVector")) {
-          checkName(child);
-          processDefXXXVector(child);
-        } else if (nodeName.equals("defLightVector")) {
-          checkName(child);
-          processDefXXXVector(child);
-        } else if (nodeName.equals("defBLOBVector")) {
-          checkName(child);
-          processDefXXXVector(child);
-        } else if (nodeName.equals("setTextVector")) {
-          processSetXXXVector(child);
-        } else if (nodeName.equals("setNumberVector")) {
-          processSetXXXVector(child);
-        } else if (nodeName.equals("setSwitchVector")) {
-          processSetXXXVector(child);
-        } else if (nodeName.equals("setLightVector")) {
-          processSetXXXVector(child);
-        } else if (nodeName.equals("setBLOBVector")) {
-          processSetXXXVector(child);
-        } else if (nodeName.equals("message")) {
-          processMessage(child);
-        } else if (nodeName.equals("delProperty")) {
-          processDelProperty(child);
-        }
-      }
+  public void parseMessage(INDIMessage message) {
+    switch (message.getKind()) {
+      case GET_PROPERTIES:
+        processGetProperties(message);
+        break;
+      case DEF_TEXT_VECTOR:
+      case DEF_NUMBER_VECTOR:
+      case DEF_SWITCH_VECTOR:
+      case DEF_LIGHT_VECTOR:
+      case DEF_BLOB_VECTOR:
+        checkName(message);
+        processDefXXXVector(message);
+        break;
+      case SET_TEXT_VECTOR:
+      case SET_NUMBER_VECTOR:
+      case SET_SWITCH_VECTOR:
+      case SET_LIGHT_VECTOR:
+      case SET_BLOB_VECTOR:
+        processSetXXXVector(message);
+        break;
+      case MESSAGE:
+        processMessage(message);
+        break;
+      case DEL_PROPERTY:
+        processDelProperty(message);
+        break;
+      default:
     }
   }
 
@@ -127,8 +133,8 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
    *
    * @param elem The XML element from which to extract the name of the Device.
    */
-  private void checkName(Element elem) {
-    String newName = elem.getAttribute("device").trim();
+  private void checkName(INDIMessage elem) {
+    String newName = elem.getDevice();
 
     if (!(newName.length() == 0)) {
       dealWithPossibleNewDeviceName(newName);
@@ -162,9 +168,9 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
    * @param xml The
    * <code>getProperties</code> XML message
    */
-  private void processGetProperties(Element xml) {
-    String device = xml.getAttribute("device").trim();
-    String property = xml.getAttribute("name").trim();
+  private void processGetProperties(INDIMessage xml) {
+    String device = xml.getDevice();
+    String property = xml.getName();
 
     if (device.length() == 0) {
       setListenToAllDevices(true);
@@ -186,25 +192,27 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
    * @param xml The
    * <code>defXXXVector</code> XML message
    */
-  private void processDefXXXVector(Element xml) {
-    String device = xml.getAttribute("device");
+  private void processDefXXXVector(INDIMessage xml) {
+    String device = xml.getDevice();
 
     if (device.length() == 0) {
       return;
     }
     
-    String property = xml.getAttribute("name").trim();
+    String property = xml.getName();
 
     if (property.length() == 0) {
       return;
     }
 
-    String state = xml.getAttribute("state").trim();
+    String state = xml.getAttribute("state");
 
     if (!Constants.isValidPropertyState(state)) {
       return;
     }
 
+    snapshot.define(xml);
+
     server.notifyDeviceListenersDefXXXVector(this, xml);
   }
 
@@ -215,19 +223,21 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
    * @param xml The
    * <code>setXXXVector</code> XML message
    */
-  private void processSetXXXVector(Element xml) {
-    String device = xml.getAttribute("device");
+  private void processSetXXXVector(INDIMessage xml) {
+    String device = xml.getDevice();
 
     if (!hasName(device)) { // Some conditions to ignore the messages
       return;
     }
 
-    String property = xml.getAttribute("name").trim();
+    String property = xml.getName();
 
     if (property.length() == 0) {
       return;
     }
 
+    snapshot.update(xml);
+
     server.notifyDeviceListenersSetXXXVector(this, xml);
   }
 
@@ -238,7 +248,7 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
    * @param xml The
    * <code>message</code> XML message
    */
-  private void processMessage(Element xml) {
+  private void processMessage(INDIMessage xml) {
     server.notifyDeviceListenersMessage(this, xml);
   }
 
@@ -249,13 +259,15 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
    * @param xml The
    * <code>delProperty</code> XML message
    */
-  private void processDelProperty(Element xml) {
-    String device = xml.getAttribute("device");
+  private void processDelProperty(INDIMessage xml) {
+    String device = xml.getDevice();
 
     if (!hasName(device)) { // Some conditions to ignore the messages
       return;
     }
 
+    snapshot.delete(xml);
+
     server.notifyDeviceListenersDelProperty(this, xml);
   }
 
@@ -267,6 +279,12 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
     
     reader.setStop(true);
 
+    synchronized (this) {
+      if (writer != null) {
+        writer.finish();
+      }
+    }
+
     closeConnections();
   }
 
@@ -280,15 +298,38 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIProto
    */
   public abstract void closeConnections();
 
+  /**
+   * Queues some XML to be written to the Device by its writer. If it can not
+   * be written the Device is destroyed.
+   *
+   * @param xml The bytes to be sent.
+   */
   @Override
-  protected void sendXMLMessage(String xml) {
+  protected void sendXMLMessage(byte[] xml) {
 //    System.err.println(xml);
-    try {
-      getOutputStream().write(xml.getBytes());
-      getOutputStream().flush();
-    } catch (IOException e) {
-      destroy();
+    getWriter().write(xml, 0, xml.length);
+  }
+
+  /**
+   * Gets the writer of the Device, starting it if it has not been started.
+   *
+   * @return The writer of the Device.
+   */
+  private synchronized INDIBatchingWriter getWriter() {
+    if (writer == null) {
+      writer = new INDIBatchingWriter(getOutputStream(), "INDI Device writer " + getDeviceIdentifier()) {
+        @Override
+        protected void writeFailed(IOException e) {
+          finish();
+
+          destroy();
+        }
+      };
+
+      writer.start();
     }
+
+    return writer;
   }
 
   @Override
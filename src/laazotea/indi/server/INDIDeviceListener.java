@@ -17,10 +17,12 @@
  */
 package laazotea.indi.server;
 
-import java.util.ArrayList;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import laazotea.indi.Constants.BLOBEnables;
-import laazotea.indi.XMLToString;
-import org.w3c.dom.Element;
+import laazotea.indi.INDIMessage;
 
 /**
  * A class that represents a listener to devices. It is used to include both
@@ -28,26 +30,50 @@ import org.w3c.dom.Element;
  * Devices according to the INDI protocol.
  *
  * @author S. Alonso (Zerjillo) [zerjioi at ugr.es]
- * @version 1.31, April 12, 2012
+ * @version 1.36, October 17, 2026
  */
 public abstract class INDIDeviceListener {
 
+  /**
+   * The encoding of the XML messages.
+   */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
   /**
    * Determines if the object listens to all devices.
    */
-  private boolean listenToAllDevices;
+  private volatile boolean listenToAllDevices;
+  /**
+   * The devices that are listened.
+   */
+  private Set<String> devicesToListen;
   /**
-   * A list of devices that are listened.
+   * The properties that are listened (grouped by device).
    */
-  private ArrayList<DevicePropertyBLOBEnableTuple> devicesToListen;
+  private ConcurrentHashMap<String, Set<String>> propertiesToListen;
   /**
-   * A list of properties that are listened.
+   * The BLOBEnable rules for whole devices.
    */
-  private ArrayList<DevicePropertyBLOBEnableTuple> propertiesToListen;
+  private ConcurrentHashMap<String, BLOBEnables> deviceBLOBEnableRules;
   /**
-   * A list of BLOBEnable rules
+   * The BLOBEnable rules for particular properties (grouped by device).
    */
-  private ArrayList<DevicePropertyBLOBEnableTuple> BLOBEnableRules;
+  private ConcurrentHashMap<String, ConcurrentHashMap<String, BLOBEnables>> propertyBLOBEnableRules;
+  /**
+   * The devices whose BLOBs are delivered with the "latest" policy (only the
+   * newest pending BLOB of each Property is kept).
+   */
+  private Set<String> deviceBLOBLatestOnly;
+  /**
+   * The "latest" policy of the properties with particular BLOBEnable rules
+   * (grouped by device).
+   */
+  private ConcurrentHashMap<String, ConcurrentHashMap<String, Boolean>> propertyBLOBLatestOnly;
+  /**
+   * The routing table of the server in which the listener is registered (if
+   * any). It is told about every change in what the listener listens to.
+   */
+  private volatile INDIRoutingTable routingTable;
 
   /**
    * Constructs a new
@@ -56,9 +82,62 @@ public abstract class INDIDeviceListener {
   protected INDIDeviceListener() {
     listenToAllDevices = false;
 
-    devicesToListen = new ArrayList<DevicePropertyBLOBEnableTuple>();
-    propertiesToListen = new ArrayList<DevicePropertyBLOBEnableTuple>();
-    BLOBEnableRules = new ArrayList<DevicePropertyBLOBEnableTuple>();
+    devicesToListen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    propertiesToListen = new ConcurrentHashMap<String, Set<String>>();
+    deviceBLOBEnableRules = new ConcurrentHashMap<String, BLOBEnables>();
+    propertyBLOBEnableRules = new ConcurrentHashMap<String, ConcurrentHashMap<String, BLOBEnables>>();
+    deviceBLOBLatestOnly = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    propertyBLOBLatestOnly = new ConcurrentHashMap<String, ConcurrentHashMap<String, Boolean>>();
+  }
+
+  /**
+   * Sets the routing table of the server in which the listener is registered.
+   *
+   * @param routingTable The routing table.
+   */
+  void setRoutingTable(INDIRoutingTable routingTable) {
+    this.routingTable = routingTable;
+  }
+
+  /**
+   * Tells the routing table (if any) that what the listener listens to has
+   * changed.
+   */
+  private void routesChanged() {
+    INDIRoutingTable table = routingTable;
+
+    if (table != null) {
+      table.routesChanged();
+    }
+  }
+
+  /**
+   * Tells the routing table (if any) that what the listener listens to of a
+   * Device has changed.
+   *
+   * @param deviceName The Device name.
+   */
+  private void routesChanged(String deviceName) {
+    INDIRoutingTable table = routingTable;
+
+    if (table != null) {
+      table.routesChanged(deviceName);
+    }
+  }
+
+  /**
+   * Tells the routing table (if any) that what the listener listens to of a
+   * Property has changed.
+   *
+   * @param deviceName The Device name.
+   * @param propertyName The Property name.
+   */
+  private void routesChanged(String deviceName, String propertyName) {
+    INDIRoutingTable table = routingTable;
+
+    if (table != null) {
+      table.routesChanged(deviceName, propertyName);
+    }
   }
 
   /**
@@ -68,13 +147,29 @@ public abstract class INDIDeviceListener {
    * @param enable The rule
    */
   protected void addBLOBEnableRule(String deviceName, BLOBEnables enable) {
-    DevicePropertyBLOBEnableTuple aux = getBLOBEnableRule(deviceName);
+    addBLOBEnableRule(deviceName, enable, false);
+  }
+
+  /**
+   * Add a new BLOB Enable rule for a whole Device, with a delivery policy.
+   *
+   * @param deviceName The Device name
+   * @param enable The rule
+   * @param latestOnly <code>true</code> if only the newest pending BLOB of
+   * each Property must be kept (older ones not sent yet are dropped).
+   */
+  protected void addBLOBEnableRule(String deviceName, BLOBEnables enable, boolean latestOnly) {
+    BLOBEnables old = deviceBLOBEnableRules.put(deviceName, enable);
 
-    if (aux != null) {
-      BLOBEnableRules.remove(aux);
+    if (latestOnly) {
+      deviceBLOBLatestOnly.add(deviceName);
+    } else {
+      deviceBLOBLatestOnly.remove(deviceName);
     }
 
-    BLOBEnableRules.add(new DevicePropertyBLOBEnableTuple(deviceName, enable));
+    if (old != enable) {  // The delivery policy does not change the routes
+      routesChanged(deviceName);
+    }
   }
 
   /**
@@ -85,13 +180,72 @@ public abstract class INDIDeviceListener {
    * @param enable The rule
    */
   protected void addBLOBEnableRule(String deviceName, String propertyName, BLOBEnables enable) {
-    DevicePropertyBLOBEnableTuple aux = getBLOBEnableRule(deviceName, propertyName);
+    addBLOBEnableRule(deviceName, propertyName, enable, false);
+  }
+
+  /**
+   * Add a new BLOB Enable rule for a particular BLOB Property, with a delivery
+   * policy.
+   *
+   * @param deviceName The Device name
+   * @param propertyName The Property name
+   * @param enable The rule
+   * @param latestOnly <code>true</code> if only the newest pending BLOB of
+   * the Property must be kept (older ones not sent yet are dropped).
+   */
+  protected void addBLOBEnableRule(String deviceName, String propertyName, BLOBEnables enable, boolean latestOnly) {
+    ConcurrentHashMap<String, Boolean> policies = propertyBLOBLatestOnly.get(deviceName);
+
+    if (policies == null) {
+      ConcurrentHashMap<String, Boolean> newPolicies = new ConcurrentHashMap<String, Boolean>();
 
-    if (aux != null) {
-      BLOBEnableRules.remove(aux);
+      policies = propertyBLOBLatestOnly.putIfAbsent(deviceName, newPolicies);
+
+      if (policies == null) {
+        policies = newPolicies;
+      }
+    }
+
+    policies.put(propertyName, latestOnly);
+
+    ConcurrentHashMap<String, BLOBEnables> rules = propertyBLOBEnableRules.get(deviceName);
+
+    if (rules == null) {
+      ConcurrentHashMap<String, BLOBEnables> newRules = new ConcurrentHashMap<String, BLOBEnables>();
+
+      rules = propertyBLOBEnableRules.putIfAbsent(deviceName, newRules);
+
+      if (rules == null) {
+        rules = newRules;
+      }
     }
 
-    BLOBEnableRules.add(new DevicePropertyBLOBEnableTuple(deviceName, propertyName, enable));
+    if (rules.put(propertyName, enable) != enable) {
+      routesChanged(deviceName, propertyName);
+    }
+  }
+
+  /**
+   * Checks if only the newest pending BLOB of a Property must be kept,
+   * according to the BLOB Enable rules.
+   *
+   * @param deviceName The Device name
+   * @param propertyName The Property name
+   * @return <code>true</code> if older pending BLOBs of the Property may be
+   * dropped.
+   */
+  protected boolean isBLOBLatestOnly(String deviceName, String propertyName) {
+    ConcurrentHashMap<String, Boolean> policies = propertyBLOBLatestOnly.get(deviceName);
+
+    if (policies != null) {
+      Boolean latestOnly = policies.get(propertyName);
+
+      if (latestOnly != null) {
+        return latestOnly;
+      }
+    }
+
+    return deviceBLOBLatestOnly.contains(deviceName);
   }
 
   /**
@@ -100,17 +254,7 @@ public abstract class INDIDeviceListener {
    * @return <code>true</code> if non BLOBs are accepted. <code>false</code> otherwise.
    */
   protected boolean areNonBLOBsAccepted(String deviceName) {
-    DevicePropertyBLOBEnableTuple aux = getBLOBEnableRule(deviceName);
-    
-    if (aux == null) {
-      return true; 
-    }
-    
-    if (aux.getBLOBEnable() == BLOBEnables.ONLY) {
-      return false; 
-    }
-    
-    return true;
+    return deviceBLOBEnableRules.get(deviceName) != BLOBEnables.ONLY;
   }
   
   /**
@@ -120,24 +264,20 @@ public abstract class INDIDeviceListener {
    * @return <code>true</code> if the BLOB is accepted. <code>false</code> otherwise.
    */
   protected boolean isBLOBAccepted(String deviceName, String propertyName) {
-    DevicePropertyBLOBEnableTuple aux = getBLOBEnableRule(deviceName, propertyName);
-    
-    if (aux != null) {
-      if (aux.getBLOBEnable() == BLOBEnables.NEVER) {
-        return false; 
-      } else {
-        return true; 
-      }
+    ConcurrentHashMap<String, BLOBEnables> rules = propertyBLOBEnableRules.get(deviceName);
+
+    BLOBEnables enable = null;
+
+    if (rules != null) {
+      enable = rules.get(propertyName);
     }
-    
-    aux = getBLOBEnableRule(deviceName);
-    
-    if (aux == null) {
-      return false;
+
+    if (enable == null) {
+      enable = deviceBLOBEnableRules.get(deviceName);
     }
     
-    if (aux.getBLOBEnable() == BLOBEnables.NEVER) {
-      return false; 
+    if ((enable == null) || (enable == BLOBEnables.NEVER)) {
+      return false;
     }
     
     return true;
@@ -159,7 +299,9 @@ public abstract class INDIDeviceListener {
    * @param deviceName The Device name to be listened.
    */
   protected void addDeviceToListen(String deviceName) {
-    devicesToListen.add(new DevicePropertyBLOBEnableTuple(deviceName));
+    if (devicesToListen.add(deviceName)) {
+      routesChanged(deviceName);
+    }
   }
 
   /**
@@ -169,36 +311,21 @@ public abstract class INDIDeviceListener {
    * @param propertyName The Property name to be listened.
    */
   protected void addPropertyToListen(String deviceName, String propertyName) {
-    propertiesToListen.add(new DevicePropertyBLOBEnableTuple(deviceName, propertyName));
-  }
+    Set<String> properties = propertiesToListen.get(deviceName);
 
-  /**
-   * Gets the BLOB Enable rule for a Property (if it exists).
-   *
-   * @param deviceName The Device name.
-   * @param propertyName The Property name.
-   * @return The BLOB Enable rule.
-   */
-  private DevicePropertyBLOBEnableTuple getBLOBEnableRule(String deviceName, String propertyName) {
-    for (int i = 0 ; i < BLOBEnableRules.size() ; i++) {
-      DevicePropertyBLOBEnableTuple aux = BLOBEnableRules.get(i);
+    if (properties == null) {
+      Set<String> newProperties = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-      if (aux.isProperty(deviceName, propertyName)) {
-        return aux;
+      properties = propertiesToListen.putIfAbsent(deviceName, newProperties);
+
+      if (properties == null) {
+        properties = newProperties;
       }
     }
 
-    return null;
-  }
-
-  /**
-   * Gets the BLOB Enable rule for a Device (if it exists).
-   *
-   * @param deviceName The Device name.
-   * @return The BLOB Enable rule.
-   */
-  private DevicePropertyBLOBEnableTuple getBLOBEnableRule(String deviceName) {
-    return getBLOBEnableRule(deviceName, null);
+    if (properties.add(propertyName)) {
+      routesChanged(deviceName);  // Its single Properties listeners may change too
+    }
   }
 
   /**
@@ -207,7 +334,11 @@ public abstract class INDIDeviceListener {
    * @param listenToAllDevices The new value of the flag.
    */
   protected void setListenToAllDevices(boolean listenToAllDevices) {
-    this.listenToAllDevices = listenToAllDevices;
+    if (this.listenToAllDevices != listenToAllDevices) {
+      this.listenToAllDevices = listenToAllDevices;
+
+      routesChanged();
+    }
   }
 
   /**
@@ -223,29 +354,7 @@ public abstract class INDIDeviceListener {
       return true;
     }
 
-    if (listensToParticularDevice(deviceName)) {
-      return true;
-    }
-
-    return false;
-  }
-
-  /**
-   * Checks if it is specifically listening to a particular Device.
-   *
-   * @param deviceName The Device name.
-   * @return
-   * <code>true</code> if the listener specifically listens to the Device.
-   * <code>false</code> otherwise.
-   */
-  private boolean listensToParticularDevice(String deviceName) {
-    for (int i = 0 ; i < devicesToListen.size() ; i++) {
-      if (devicesToListen.get(i).isDevice(deviceName)) {
-        return true;
-      }
-    }
-
-    return false;
+    return devicesToListen.contains(deviceName);
   }
 
   /**
@@ -262,31 +371,9 @@ public abstract class INDIDeviceListener {
       return true;
     }
 
-    if (listensToParticularProperty(deviceName, propertyName)) {
-      return true;
-    }
-
-    return false;
-  }
-
-  /**
-   * Checks if it is specifically listening to a particular Property of a
-   * Device.
-   *
-   * @param deviceName The Device name.
-   * @return
-   * <code>true</code> if the listener specifically listens to the Property of a
-   * Device.
-   * <code>false</code> otherwise.
-   */
-  private boolean listensToParticularProperty(String deviceName, String propertyName) {
-    for (int i = 0 ; i < propertiesToListen.size() ; i++) {
-      if (propertiesToListen.get(i).isProperty(deviceName, propertyName)) {
-        return true;
-      }
-    }
+    Set<String> properties = propertiesToListen.get(deviceName);
 
-    return false;
+    return (properties != null) && properties.contains(propertyName);
   }
 
   /**
@@ -300,24 +387,20 @@ public abstract class INDIDeviceListener {
    * <code>false</code> otherwise.
    */
   protected boolean listensToSingleProperty(String deviceName) {
-    for (int i = 0 ; i < propertiesToListen.size() ; i++) {
-      if (propertiesToListen.get(i).isDevice(deviceName)) {
-        return true;
-      }
-    }
+    Set<String> properties = propertiesToListen.get(deviceName);
 
-    return false;
+    return (properties != null) && (!properties.isEmpty());
   }
 
   /**
-   * Sends a XML message to the listener.
+   * Sends a XML message to the listener. The bytes of the message are sent as
+   * they were read (or serialized just once), so relaying a message to many
+   * listeners does not serialize it again for each one.
    *
    * @param xml The message to be sent.
    */
-  public void sendXMLMessage(Element xml) {
-    String message = XMLToString.transform(xml);
-
-    sendXMLMessage(message);
+  public void sendXMLMessage(INDIMessage xml) {
+    sendXMLMessage(xml.getBytes());
   }
 
   /**
@@ -325,5 +408,15 @@ public abstract class INDIDeviceListener {
    *
    * @param xml The string to be sent.
    */
-  protected abstract void sendXMLMessage(String xml);
+  protected void sendXMLMessage(String xml) {
+    sendXMLMessage(xml.getBytes(UTF8));
+  }
+
+  /**
+   * Sends some UTF-8 encoded XML to the listener. The array must not be
+   * modified, as it may be shared by several listeners.
+   *
+   * @param xml The bytes to be sent.
+   */
+  protected abstract void sendXMLMessage(byte[] xml);
 }
@@ -23,20 +23,31 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
 import laazotea.indi.INDIException;
+import laazotea.indi.INDIMessage;
+import laazotea.indi.INDIMessageQueue;
 import laazotea.indi.driver.INDIDriver;
 
 /**
  * A class that represent a Java Device (created with the INDI Driver library).
  *
  * @author S. Alonso (Zerjillo) [zerjioi at ugr.es]
- * @version 1.32, July 23, 2013
+ * @version 1.36, October 17, 2026
  *
  * @see laazotea.indi.driver
  */
 public class INDIJavaDevice extends INDIDevice {
 
+  /**
+   * The size of the buffer to get information from the Driver (only used by
+   * its subdrivers, as the Driver uses the queue).
+   */
+  private static final int FROM_DRIVER_BUFFER_SIZE = 1024 * 1024;
+  /**
+   * The maximum number of messages in the queue of the Driver.
+   */
+  private static final int DRIVER_QUEUE_CAPACITY = 256;
   /**
    * The Driver
    */
@@ -54,6 +65,10 @@ public class INDIJavaDevice extends INDIDevice {
    * A buffer to get information from the Driver.
    */
   private CircularByteBuffer fromDriver;
+  /**
+   * The queue through which the Driver sends its messages.
+   */
+  private INDIMessageQueue driverQueue;
   /**
    * The class of the Driver.
    */
@@ -66,7 +81,7 @@ public class INDIJavaDevice extends INDIDevice {
   /**
    * A list of names of the Device (it may be more than one)
    */
-  private ArrayList<String> names;
+  private CopyOnWriteArrayList<String> names;
 
   /**
    * Constructs a new Java Device and starts listening to its messages.
@@ -80,12 +95,13 @@ public class INDIJavaDevice extends INDIDevice {
     super(server);
 
     //name = null;
-    names = new ArrayList<String>();
+    names = new CopyOnWriteArrayList<String>();
     this.identifier = identifier;
     this.driverClass = driverClass;
 
     toDriver = new CircularByteBuffer(CircularByteBuffer.INFINITE_SIZE);
-    fromDriver = new CircularByteBuffer(CircularByteBuffer.INFINITE_SIZE);
+    fromDriver = new CircularByteBuffer(FROM_DRIVER_BUFFER_SIZE, true);
+    driverQueue = new INDIMessageQueue(DRIVER_QUEUE_CAPACITY);
 
     try {
       Constructor c = driverClass.getConstructor(InputStream.class, OutputStream.class);
@@ -102,9 +118,34 @@ public class INDIJavaDevice extends INDIDevice {
       throw new INDIException("Problem instantiating driver (not an INDI for Java Driver?) - ClassCastException");
     }
 
+    driver.setMessageQueue(driverQueue);
     driver.startListening();
   }
 
+  /**
+   * Starts the readers: one for the messages that the Driver puts in its
+   * queue and another one for the stream used by its subdrivers.
+   */
+  @Override
+  protected void startReading() {
+    super.startReading();
+
+    DriverQueueReader queueReader = new DriverQueueReader();
+    queueReader.start();
+  }
+
+  /**
+   * Puts a message read from the stream used by the subdrivers in the queue
+   * of the Driver, so that all the messages are processed by the queue reader
+   * in the order they arrive.
+   *
+   * @param message The message.
+   */
+  @Override
+  public void parseMessage(INDIMessage message) {
+    driverQueue.put(message, null);
+  }
+
   /**
    * Gets the identifier of the Device (probablythe name of the JAR file that
    * includes it).
@@ -134,9 +175,7 @@ public class INDIJavaDevice extends INDIDevice {
    */
   @Override
   protected void dealWithPossibleNewDeviceName(String possibleNewName) {
-    if (!names.contains(possibleNewName)) {
-      names.add(possibleNewName);
-    }
+    names.addIfAbsent(possibleNewName);
   }
 
   /**
@@ -180,6 +219,8 @@ public class INDIJavaDevice extends INDIDevice {
 
   @Override
   public void closeConnections() {
+    driverQueue.close();
+
     try {
       toDriver.getInputStream().close();
     } catch (IOException e) {
@@ -254,4 +295,30 @@ public class INDIJavaDevice extends INDIDevice {
   public void isBeingDestroyed() {
     driver.isBeingDestroyed();
   }
+
+  /**
+   * Takes the messages of the queue and processes them. The messages of the
+   * Driver come with the tree built by its encoder and the bytes it encoded,
+   * which are sent to the Clients as they are, so they are never parsed.
+   */
+  private class DriverQueueReader extends Thread {
+
+    /**
+     * Constructs the reader.
+     */
+    DriverQueueReader() {
+      super("INDI Java Device queue reader");
+
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      INDIMessage message;
+
+      while ((message = driverQueue.take()) != null) {
+        INDIJavaDevice.super.parseMessage(message);
+      }
+    }
+  }
 }
@@ -23,13 +23,17 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import laazotea.indi.INDIException;
 
 /**
  * A class that represent a Network Device (another INDI server).
  *
  * @author S. Alonso (Zerjillo) [zerjioi at ugr.es]
- * @version 1.32, January 19, 2013
+ * @version 1.36, October 17, 2026
  */
 public class INDINetworkDevice extends INDIDevice {
 
@@ -49,6 +53,14 @@ public class INDINetworkDevice extends INDIDevice {
    * A list of names of the Device (it may be more than one)
    */
   private ArrayList<String> names;
+  /**
+   * The stream to read from the INDI Server.
+   */
+  private InputStream in;
+  /**
+   * The stream to write to the INDI Server.
+   */
+  private OutputStream out;
 
   /**
    * Constructs a new Network Device and connects to it.
@@ -58,6 +70,19 @@ public class INDINetworkDevice extends INDIDevice {
    * @throws INDIException if there is any problem with the connection.
    */
   protected INDINetworkDevice(AbstractINDIServer server, String host, int port) throws INDIException {
+    this(server, host, port, false);
+  }
+
+  /**
+   * Constructs a new Network Device and connects to it.
+   * @param server The server which listens to this Device.
+   * @param host The host to connect for the Device.
+   * @param port The port to connect for the Device.
+   * @param compressed <code>true</code> if the connection uses a compressed
+   * stream (see <code>AbstractINDIServer.listenCompressed</code>).
+   * @throws INDIException if there is any problem with the connection.
+   */
+  protected INDINetworkDevice(AbstractINDIServer server, String host, int port, boolean compressed) throws INDIException {
     super(server);
 
     names = new ArrayList<String>();
@@ -69,6 +94,15 @@ public class INDINetworkDevice extends INDIDevice {
       socket = new Socket();
 
       socket.connect(new InetSocketAddress(host, port), 20000);
+      socket.setTcpNoDelay(true);
+
+      if (compressed) {  // Each flush ends a block, so every message is sent as soon as it is written
+        in = new InflaterInputStream(socket.getInputStream(), new Inflater(), 8192);
+        out = new DeflaterOutputStream(socket.getOutputStream(), new Deflater(), 8192, true);
+      } else {
+        in = socket.getInputStream();
+        out = socket.getOutputStream();
+      }
     } catch (IOException e) {
       throw new INDIException("Problem connecting to " + host + ":" + port);
     }
@@ -122,22 +156,12 @@ public class INDINetworkDevice extends INDIDevice {
 
   @Override
   public InputStream getInputStream() {
-    try {
-      return socket.getInputStream();
-    } catch (IOException e) {
-    }
-
-    return null;
+    return in;
   }
 
   @Override
   public OutputStream getOutputStream() {
-    try {
-      return socket.getOutputStream();
-    } catch (IOException e) {
-    }
-
-    return null;
+    return out;
   }
 
   @Override
@@ -0,0 +1,246 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import laazotea.indi.INDIMessage;
+
+/**
+ * A mirror of the current definition and values of the Properties of a
+ * Device, built from the <code>defXXXVector</code>, <code>setXXXVector</code>
+ * and <code>delProperty</code> messages that the Device sends. It is used to
+ * answer the <code>getProperties</code> messages of the Clients without asking
+ * the Device. For each Property the last definition is kept along with the
+ * last value of each of its Elements, which are sent as a single
+ * <code>setXXXVector</code> message. BLOB values are not kept.
+ *
+ * @version 1.36, October 17, 2026
+ */
+class INDIPropertySnapshot {
+
+  /**
+   * The Properties of each Device name (in definition order).
+   */
+  private LinkedHashMap<String, LinkedHashMap<String, PropertySnapshot>> devices;
+
+  /**
+   * Constructs an empty snapshot.
+   */
+  INDIPropertySnapshot() {
+    devices = new LinkedHashMap<String, LinkedHashMap<String, PropertySnapshot>>();
+  }
+
+  /**
+   * Records a <code>defXXXVector</code> message. Any previous definition and
+   * values of the Property are forgotten.
+   *
+   * @param xml The message.
+   */
+  synchronized void define(INDIMessage xml) {
+    String device = xml.getDevice();
+
+    LinkedHashMap<String, PropertySnapshot> properties = devices.get(device);
+
+    if (properties == null) {
+      properties = new LinkedHashMap<String, PropertySnapshot>();
+
+      devices.put(device, properties);
+    }
+
+    properties.put(xml.getName(), new PropertySnapshot(xml));
+  }
+
+  /**
+   * Records a <code>setXXXVector</code> message. Messages for not defined
+   * Properties and BLOB ones are ignored.
+   *
+   * @param xml The message.
+   */
+  synchronized void update(INDIMessage xml) {
+    if (xml.getKind() == INDIMessage.Kind.SET_BLOB_VECTOR) {
+      return;
+    }
+
+    LinkedHashMap<String, PropertySnapshot> properties = devices.get(xml.getDevice());
+
+    if (properties == null) {
+      return;
+    }
+
+    PropertySnapshot p = properties.get(xml.getName());
+
+    if (p != null) {
+      p.update(xml);
+    }
+  }
+
+  /**
+   * Records a <code>delProperty</code> message: the Property (or all the
+   * Properties of the Device if no Property name is specified) is forgotten.
+   *
+   * @param xml The message.
+   */
+  synchronized void delete(INDIMessage xml) {
+    String property = xml.getName();
+
+    if (property.length() == 0) {
+      devices.remove(xml.getDevice());
+    } else {
+      LinkedHashMap<String, PropertySnapshot> properties = devices.get(xml.getDevice());
+
+      if (properties != null) {
+        properties.remove(property);
+      }
+    }
+  }
+
+  /**
+   * Gets the messages that describe the current state of some Properties: the
+   * definition of each Property followed by its last values (if any).
+   *
+   * @param listener The listener to which the messages will be sent. Its BLOB
+   * Enable rules are considered.
+   * @param device The Device name (<code>null</code> or empty for all the
+   * Devices).
+   * @param property The Property name (<code>null</code> or empty for all the
+   * Properties of the Device).
+   * @return The messages.
+   */
+  synchronized List<INDIMessage> getMessages(INDIDeviceListener listener, String device, String property) {
+    ArrayList<INDIMessage> messages = new ArrayList<INDIMessage>();
+
+    Iterator<String> it = devices.keySet().iterator();
+
+    while (it.hasNext()) {
+      String deviceName = it.next();
+
+      if ((device != null) && (device.length() > 0) && (!device.equals(deviceName))) {
+        continue;
+      }
+
+      boolean nonBLOBsAccepted = listener.areNonBLOBsAccepted(deviceName);
+
+      for (PropertySnapshot p : devices.get(deviceName).values()) {
+        if ((property != null) && (property.length() > 0) && (!property.equals(p.definition.getName()))) {
+          continue;
+        }
+
+        messages.add(p.definition);
+
+        if (nonBLOBsAccepted) {
+          INDIMessage set = p.getSetMessage();
+
+          if (set != null) {
+            messages.add(set);
+          }
+        }
+      }
+    }
+
+    return messages;
+  }
+
+  /**
+   * The definition and last values of a Property.
+   */
+  private static class PropertySnapshot {
+
+    /**
+     * The <code>defXXXVector</code> message.
+     */
+    private INDIMessage definition;
+    /**
+     * The last <code>setXXXVector</code> message (<code>null</code> if none).
+     */
+    private INDIMessage lastSet;
+    /**
+     * The last <code>oneXXX</code> child of each Element.
+     */
+    private LinkedHashMap<String, INDIMessage> values;
+    /**
+     * The <code>setXXXVector</code> message with the last values of all the
+     * Elements (built when needed).
+     */
+    private INDIMessage merged;
+
+    /**
+     * Constructs the snapshot of a Property.
+     *
+     * @param definition The <code>defXXXVector</code> message.
+     */
+    PropertySnapshot(INDIMessage definition) {
+      this.definition = definition;
+
+      values = new LinkedHashMap<String, INDIMessage>();
+    }
+
+    /**
+     * Records the values of a <code>setXXXVector</code> message.
+     *
+     * @param xml The message.
+     */
+    void update(INDIMessage xml) {
+      lastSet = xml;
+
+      INDIMessage[] children = xml.getChildren();
+
+      for (int i = 0 ; i < children.length ; i++) {
+        values.put(children[i].getName(), children[i]);
+      }
+
+      merged = null;
+    }
+
+    /**
+     * Gets a <code>setXXXVector</code> message with the last State and the
+     * last value of every Element (without the <code>message</code>
+     * attribute).
+     *
+     * @return The message (<code>null</code> if no values have been set since
+     * the definition).
+     */
+    INDIMessage getSetMessage() {
+      if (lastSet == null) {
+        return null;
+      }
+
+      if (merged == null) {
+        int n = lastSet.getAttributeCount();
+        String[] names = new String[n];
+        String[] attributeValues = new String[n];
+        int count = 0;
+
+        for (int i = 0 ; i < n ; i++) {
+          if (!lastSet.getAttributeName(i).equals("message")) {
+            names[count] = lastSet.getAttributeName(i);
+            attributeValues[count] = lastSet.getAttributeValue(i);
+            count++;
+          }
+        }
+
+        merged = new INDIMessage(lastSet.getTagName(), names, attributeValues, count);
+        merged.setChildren(values.values().toArray(new INDIMessage[values.size()]));
+      }
+
+      return merged;
+    }
+  }
+}
@@ -0,0 +1,348 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The listeners (Clients and snooping Devices) connected to a Server and the
+ * precomputed lists of listeners to which each kind of message of each Device
+ * and Property is routed. The lists are computed the first time they are
+ * needed and kept until they may change: all of them when a listener connects,
+ * disconnects or starts listening to all the Devices, and only the ones of a
+ * Device or a Property when a listener starts listening to it or changes its
+ * BLOB Enable rules (with a <code>getProperties</code> or
+ * <code>enableBLOB</code> message that changes something). Routing a message
+ * just costs a couple of hash lookups (the Device
+ * and Property names are usually shared <code>String</code> instances, see
+ * <code>INDIStringCache</code>). It is safe to use from any thread.
+ *
+ * @version 1.36, October 17, 2026
+ */
+class INDIRoutingTable {
+
+  /**
+   * An empty list of listeners.
+   */
+  private static final INDIDeviceListener[] NO_LISTENERS = new INDIDeviceListener[0];
+  /**
+   * The registered listeners.
+   */
+  private CopyOnWriteArrayList<INDIDeviceListener> listeners;
+  /**
+   * The routes of each Device.
+   */
+  private ConcurrentHashMap<String, DeviceRoutes> routes;
+  /**
+   * Incremented each time that some routes change. Routes that were being
+   * computed while it changed are not kept, as they may have been computed
+   * with the old rules.
+   */
+  private AtomicInteger generation;
+
+  /**
+   * Constructs an empty routing table.
+   */
+  INDIRoutingTable() {
+    listeners = new CopyOnWriteArrayList<INDIDeviceListener>();
+    routes = new ConcurrentHashMap<String, DeviceRoutes>();
+    generation = new AtomicInteger();
+  }
+
+  /**
+   * Registers a listener.
+   *
+   * @param listener The listener.
+   */
+  void addListener(INDIDeviceListener listener) {
+    listeners.add(listener);
+    listener.setRoutingTable(this);
+
+    routesChanged();
+  }
+
+  /**
+   * Unregisters a listener.
+   *
+   * @param listener The listener.
+   */
+  void removeListener(INDIDeviceListener listener) {
+    if (listeners.remove(listener)) {
+      listener.setRoutingTable(null);
+
+      routesChanged();
+    }
+  }
+
+  /**
+   * Gets the registered listeners.
+   *
+   * @return A snapshot of the registered listeners.
+   */
+  INDIDeviceListener[] getListeners() {
+    return listeners.toArray(NO_LISTENERS);
+  }
+
+  /**
+   * Discards all the computed routes. Called when a listener connects,
+   * disconnects or starts listening to all the Devices.
+   */
+  void routesChanged() {
+    generation.incrementAndGet();
+
+    routes.clear();
+  }
+
+  /**
+   * Discards the computed routes of a Device. Called when a listener starts
+   * listening to the Device (or to one of its Properties) or changes the BLOB
+   * Enable rule of the Device.
+   *
+   * @param deviceName The name of the Device.
+   */
+  void routesChanged(String deviceName) {
+    generation.incrementAndGet();
+
+    routes.remove(deviceName);
+  }
+
+  /**
+   * Discards the computed routes of a Property. Called when a listener
+   * changes the BLOB Enable rule of the Property.
+   *
+   * @param deviceName The name of the Device.
+   * @param propertyName The name of the Property.
+   */
+  void routesChanged(String deviceName, String propertyName) {
+    generation.incrementAndGet();
+
+    DeviceRoutes r = routes.get(deviceName);
+
+    if (r != null) {
+      r.properties.remove(propertyName);
+    }
+  }
+
+  /**
+   * Gets the listeners that listen to a Device.
+   *
+   * @param deviceName The name of the Device.
+   * @return The listeners (the array must not be modified).
+   */
+  INDIDeviceListener[] getListeningToDevice(String deviceName) {
+    return getDeviceRoutes(deviceName).device;
+  }
+
+  /**
+   * Gets the listeners that specifically listen to some Property of a Device.
+   *
+   * @param deviceName The name of the Device.
+   * @return The listeners (the array must not be modified).
+   */
+  INDIDeviceListener[] getListeningToSingleProperties(String deviceName) {
+    return getDeviceRoutes(deviceName).singleProperties;
+  }
+
+  /**
+   * Gets the listeners that listen to a Property.
+   *
+   * @param deviceName The name of the Device.
+   * @param propertyName The name of the Property.
+   * @return The listeners (the array must not be modified).
+   */
+  INDIDeviceListener[] getListeningToProperty(String deviceName, String propertyName) {
+    return getDeviceRoutes(deviceName).getPropertyRoutes(deviceName, propertyName).property;
+  }
+
+  /**
+   * Gets the listeners that accept the updates of a Property according to
+   * their BLOB Enable rules.
+   *
+   * @param deviceName The name of the Device.
+   * @param propertyName The name of the Property.
+   * @param isBLOB If the Property is a BLOB one.
+   * @return The listeners (the array must not be modified).
+   */
+  INDIDeviceListener[] getListeningToPropertyUpdates(String deviceName, String propertyName, boolean isBLOB) {
+    PropertyRoutes r = getDeviceRoutes(deviceName).getPropertyRoutes(deviceName, propertyName);
+
+    if (isBLOB) {
+      return r.blobUpdates;
+    }
+
+    return r.updates;
+  }
+
+  /**
+   * Gets the (up to date) routes of a Device, computing them if needed.
+   *
+   * @param deviceName The name of the Device.
+   * @return The routes of the Device.
+   */
+  private DeviceRoutes getDeviceRoutes(String deviceName) {
+    DeviceRoutes r = routes.get(deviceName);
+
+    if (r == null) {
+      int g = generation.get();
+
+      r = new DeviceRoutes(deviceName);
+
+      routes.put(deviceName, r);
+
+      if (generation.get() != g) {  // They may be out of date: used just this time
+        routes.remove(deviceName, r);
+      }
+    }
+
+    return r;
+  }
+
+  /**
+   * Converts a list of listeners into an array.
+   *
+   * @param list The list.
+   * @return The array.
+   */
+  private static INDIDeviceListener[] toArray(ArrayList<INDIDeviceListener> list) {
+    if (list.isEmpty()) {
+      return NO_LISTENERS;
+    }
+
+    return list.toArray(new INDIDeviceListener[list.size()]);
+  }
+
+  /**
+   * The routes of a Device.
+   */
+  private class DeviceRoutes {
+
+    /**
+     * The listeners that listen to the Device.
+     */
+    private INDIDeviceListener[] device;
+    /**
+     * The listeners that specifically listen to some Property of the Device.
+     */
+    private INDIDeviceListener[] singleProperties;
+    /**
+     * The routes of the Properties of the Device (computed when needed).
+     */
+    private ConcurrentHashMap<String, PropertyRoutes> properties;
+
+    /**
+     * Computes the routes of a Device.
+     *
+     * @param deviceName The name of the Device.
+     */
+    DeviceRoutes(String deviceName) {
+      ArrayList<INDIDeviceListener> deviceList = new ArrayList<INDIDeviceListener>();
+      ArrayList<INDIDeviceListener> singleList = new ArrayList<INDIDeviceListener>();
+
+      for (INDIDeviceListener l : listeners) {
+        if (l.listensToDevice(deviceName)) {
+          deviceList.add(l);
+        }
+
+        if (l.listensToSingleProperty(deviceName)) {
+          singleList.add(l);
+        }
+      }
+
+      device = toArray(deviceList);
+      singleProperties = toArray(singleList);
+      properties = new ConcurrentHashMap<String, PropertyRoutes>();
+    }
+
+    /**
+     * Gets the routes of a Property of the Device, computing them if needed.
+     *
+     * @param deviceName The name of the Device.
+     * @param propertyName The name of the Property.
+     * @return The routes of the Property.
+     */
+    PropertyRoutes getPropertyRoutes(String deviceName, String propertyName) {
+      PropertyRoutes r = properties.get(propertyName);
+
+      if (r == null) {
+        int g = generation.get();
+
+        r = new PropertyRoutes(deviceName, propertyName);
+
+        properties.put(propertyName, r);
+
+        if (generation.get() != g) {  // They may be out of date: used just this time
+          properties.remove(propertyName, r);
+        }
+      }
+
+      return r;
+    }
+  }
+
+  /**
+   * The routes of a Property.
+   */
+  private class PropertyRoutes {
+
+    /**
+     * The listeners that listen to the Property.
+     */
+    private INDIDeviceListener[] property;
+    /**
+     * The listeners that accept the non BLOB updates of the Property.
+     */
+    private INDIDeviceListener[] updates;
+    /**
+     * The listeners that accept the BLOB updates of the Property.
+     */
+    private INDIDeviceListener[] blobUpdates;
+
+    /**
+     * Computes the routes of a Property.
+     *
+     * @param deviceName The name of the Device.
+     * @param propertyName The name of the Property.
+     */
+    PropertyRoutes(String deviceName, String propertyName) {
+      ArrayList<INDIDeviceListener> propertyList = new ArrayList<INDIDeviceListener>();
+      ArrayList<INDIDeviceListener> updatesList = new ArrayList<INDIDeviceListener>();
+      ArrayList<INDIDeviceListener> blobList = new ArrayList<INDIDeviceListener>();
+
+      for (INDIDeviceListener l : listeners) {
+        if (l.listensToProperty(deviceName, propertyName)) {
+          propertyList.add(l);
+
+          if (l.areNonBLOBsAccepted(deviceName)) {
+            updatesList.add(l);
+          }
+
+          if (l.isBLOBAccepted(deviceName, propertyName)) {
+            blobList.add(l);
+          }
+        }
+      }
+
+      property = toArray(propertyList);
+      updates = toArray(updatesList);
+      blobUpdates = toArray(blobList);
+    }
+  }
+}
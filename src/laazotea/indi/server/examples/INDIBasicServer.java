@@ -21,6 +21,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.List;
 import laazotea.indi.INDIException;
 import laazotea.indi.server.DefaultINDIServer;
 import laazotea.indi.server.INDIClient;
@@ -168,7 +169,7 @@ public class INDIBasicServer extends DefaultINDIServer {
    * Prints a list of the loaded devices to the Rrror stream.
    */
   public void listDevices() {
-    ArrayList<INDIDevice> devs = getDevices();
+    List<INDIDevice> devs = getDevices();
 
     System.err.println("Number of loaded Drivers: " + devs.size());
 
@@ -0,0 +1,341 @@
+package farom.astroiddriver;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of CommandPipeline with a writer that records the frames (and can be
+ * held, to let commands pile up)
+ * @author farom
+ */
+public class CommandPipelineTest {
+	private static final long GAP = 5000000L; // ns
+	private static final long TIMEOUT = 5000; // ms
+	private static final int PERMITS = 1000000; // writes allowed when the writer is not held
+
+	private List<byte[]> frames; // written frames, guarded by itself
+	private Semaphore permits; // one per write allowed
+	private volatile boolean failing; // the writer reports errors
+	private int calls; // guarded by frames
+	private volatile int entered; // calls to the writer, including the held one
+	private CommandPipeline pipeline;
+	private CmdMessage command;
+
+	@Before
+	public void setUp() {
+		frames = new ArrayList<byte[]>();
+		permits = new Semaphore(PERMITS);
+		pipeline = new CommandPipeline(new CommandPipeline.FrameWriter() {
+			@Override
+			public boolean writeFrame(byte[] frame) {
+				entered++; // only the writer thread writes it
+				permits.acquireUninterruptibly();
+				synchronized (frames) {
+					calls++;
+					if (failing) {
+						return false;
+					}
+					frames.add(frame.clone());
+				}
+				return true;
+			}
+		}, GAP);
+		command = new CmdMessage();
+	}
+
+	@After
+	public void tearDown() {
+		release();
+		pipeline.stop();
+	}
+
+	/**
+	 * Block the writer in its next write
+	 */
+	private void hold() {
+		permits.drainPermits();
+	}
+
+	/**
+	 * Let the writer go on
+	 */
+	private void release() {
+		permits.drainPermits();
+		permits.release(PERMITS);
+	}
+
+	/**
+	 * Wait until the writer has been entered a number of times (the last one may be held)
+	 */
+	private void waitEntered(int n) throws InterruptedException {
+		long end = System.currentTimeMillis() + TIMEOUT;
+		while (entered < n) {
+			if (System.currentTimeMillis() > end) {
+				fail("the writer has not been entered " + n + " times");
+			}
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * Wait until the writer has returned a number of times
+	 */
+	private void waitCalls(int n) throws InterruptedException {
+		long end = System.currentTimeMillis() + TIMEOUT;
+		while (System.currentTimeMillis() < end) {
+			synchronized (frames) {
+				if (calls >= n) {
+					return;
+				}
+			}
+			Thread.sleep(1);
+		}
+		fail("the writer has not been called " + n + " times");
+	}
+
+	/**
+	 * Wait until a pending frame has been taken by the writer (written or suppressed)
+	 */
+	private void waitIdle(long submitted) throws InterruptedException {
+		long end = System.currentTimeMillis() + TIMEOUT;
+		while (System.currentTimeMillis() < end) {
+			if (pipeline.getWritten() + pipeline.getErrors() + pipeline.getSuppressed() + pipeline.getCoalesced() >= submitted) {
+				return;
+			}
+			Thread.sleep(1);
+		}
+		fail("the pipeline is not idle");
+	}
+
+	private byte[] bytes(float speedHA) {
+		CmdMessage m = new CmdMessage();
+		m.setSpeedHA(speedHA);
+		return m.getBytes();
+	}
+
+	@Test
+	public void testEncodeMatchesGetBytes() {
+		command.setSpeedHA(1.5f);
+		command.setPowerAUX2(300);
+		command.enableBulb();
+		java.nio.ByteBuffer b = java.nio.ByteBuffer.allocate(CmdMessage.MESSAGE_SIZE);
+		command.encode(b);
+		assertArrayEquals(command.getBytes(), b.array());
+	}
+
+	@Test
+	public void testCoalescing() throws InterruptedException {
+		pipeline.start("test writer");
+		hold();
+		command.setSpeedHA(1);
+		pipeline.submit(command);
+		waitEntered(1); // the writer is held in the first write
+		for (int i = 2; i <= 10; i++) {
+			command.setSpeedHA(i);
+			pipeline.submit(command);
+		}
+		release();
+		waitCalls(2);
+		Thread.sleep(50);
+
+		synchronized (frames) {
+			assertEquals(2, frames.size());
+			assertArrayEquals(bytes(1), frames.get(0));
+			assertArrayEquals(bytes(10), frames.get(1)); // only the newest one
+		}
+		assertEquals(8, pipeline.getCoalesced());
+	}
+
+	@Test
+	public void testUnchangedFrameSuppressed() throws InterruptedException {
+		pipeline.start("test writer");
+		command.setSpeedHA(1);
+		pipeline.submit(command);
+		waitCalls(1);
+		pipeline.submit(command);
+		waitIdle(2);
+
+		synchronized (frames) {
+			assertEquals(1, frames.size());
+		}
+		assertEquals(1, pipeline.getSuppressed());
+	}
+
+	@Test
+	public void testMinimumGap() throws InterruptedException {
+		final List<Long> times = new ArrayList<Long>();
+		pipeline = new CommandPipeline(new CommandPipeline.FrameWriter() {
+			@Override
+			public boolean writeFrame(byte[] frame) {
+				synchronized (times) {
+					times.add(System.nanoTime());
+				}
+				return true;
+			}
+		}, 20000000L);
+		pipeline.start("test writer");
+		for (int i = 0; i < 5; i++) {
+			command.setSpeedHA(i);
+			pipeline.submit(command);
+			Thread.sleep(25);
+		}
+		waitIdle(5);
+
+		synchronized (times) {
+			assertEquals(5, times.size());
+			for (int i = 1; i < times.size(); i++) {
+				assertTrue(times.get(i) - times.get(i - 1) >= 20000000L);
+			}
+		}
+	}
+
+	/**
+	 * Replace the pipeline by one with a gap long enough to see which frames wait for it
+	 */
+	private void longGap() {
+		final CommandPipeline.FrameWriter writer = new CommandPipeline.FrameWriter() {
+			@Override
+			public boolean writeFrame(byte[] frame) {
+				entered++;
+				permits.acquireUninterruptibly(); // can be held too
+				synchronized (frames) {
+					calls++;
+					frames.add(frame.clone());
+				}
+				return true;
+			}
+		};
+		pipeline = new CommandPipeline(writer, 2000000000L);
+	}
+
+	@Test
+	public void testUrgentPreemptsTheGap() throws InterruptedException {
+		longGap();
+		pipeline.start("test writer");
+		command.setSpeedHA(1);
+		pipeline.submit(command);
+		waitCalls(1);
+		command.setSpeedHA(2);
+		pipeline.submit(command); // waits for the gap
+		Thread.sleep(50);
+		command.setSpeedHA(0);
+		long t0 = System.nanoTime();
+		pipeline.submit(command, CommandPipeline.Priority.URGENT);
+		waitCalls(2);
+		assertTrue(System.nanoTime() - t0 < 1000000000L); // well before the end of the gap
+		Thread.sleep(50);
+
+		synchronized (frames) {
+			assertEquals(2, frames.size()); // the NORMAL frame has been superseded
+			assertArrayEquals(bytes(0), frames.get(1));
+		}
+		assertEquals(1, pipeline.getLatencyCount(CommandPipeline.Priority.URGENT));
+		assertEquals(1, pipeline.getLatencyCount(CommandPipeline.Priority.NORMAL));
+		assertTrue(pipeline.getMaxLatency(CommandPipeline.Priority.URGENT) < 1000000000L);
+	}
+
+	@Test
+	public void testUrgentKeptBehindNormal() throws InterruptedException {
+		longGap();
+		hold(); // so that the writer does not take the URGENT frame before the NORMAL one is submitted
+		pipeline.start("test writer");
+		pipeline.submit(command);
+		waitEntered(1);
+		command.setSpeedHA(0);
+		pipeline.submit(command, CommandPipeline.Priority.URGENT);
+		command.setPowerAUX1(10);
+		pipeline.submit(command); // after the stop, still sent at once
+		release();
+		waitCalls(2);
+
+		synchronized (frames) {
+			assertEquals(2, frames.size());
+			assertArrayEquals(command.getBytes(), frames.get(1));
+		}
+		assertEquals(1, pipeline.getLatencyCount(CommandPipeline.Priority.URGENT));
+	}
+
+	@Test
+	public void testUrgentNotSuppressed() throws InterruptedException {
+		longGap();
+		pipeline.start("test writer");
+		pipeline.submit(command);
+		waitCalls(1);
+		pipeline.submit(command, CommandPipeline.Priority.URGENT); // identical, sent anyway
+		waitCalls(2);
+		assertEquals(0, pipeline.getSuppressed());
+	}
+
+	@Test
+	public void testRetryAfterFailedWrite() throws InterruptedException {
+		pipeline.start("test writer");
+		failing = true;
+		command.setSpeedHA(1);
+		pipeline.submit(command);
+		waitCalls(1);
+		assertEquals(1, pipeline.getErrors());
+		assertEquals(0, pipeline.getWritten());
+
+		failing = false;
+		pipeline.submit(command); // the same frame again
+		waitCalls(2);
+
+		synchronized (frames) {
+			assertEquals(1, frames.size());
+			assertArrayEquals(bytes(1), frames.get(0));
+		}
+		assertEquals(0, pipeline.getSuppressed());
+		assertEquals(1, pipeline.getWritten());
+	}
+
+	@Test
+	public void testRestartAfterStop() throws InterruptedException {
+		pipeline.start("test writer");
+		command.setSpeedHA(1);
+		pipeline.submit(command);
+		waitCalls(1);
+		pipeline.stop();
+
+		pipeline.submit(command); // kept until the next start, and sent even if unchanged
+		pipeline.start("test writer");
+		waitCalls(2);
+
+		synchronized (frames) {
+			assertEquals(2, frames.size());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testNoSecondWriter() {
+		pipeline.start("test writer");
+		pipeline.start("test writer");
+	}
+
+	@Test
+	public void testStopWaitsForTheWriter() throws InterruptedException {
+		pipeline.start("test writer");
+		hold();
+		pipeline.submit(command);
+		waitEntered(1); // held in writeFrame
+		Thread stopper = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				pipeline.stop();
+			}
+		});
+		stopper.start();
+		stopper.join(500);
+		assertTrue(stopper.isAlive()); // still waiting for the write to finish
+		release();
+		stopper.join(TIMEOUT);
+		assertFalse(stopper.isAlive());
+		pipeline.start("test writer"); // no writer left
+	}
+}
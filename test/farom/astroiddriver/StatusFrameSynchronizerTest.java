@@ -0,0 +1,144 @@
+package farom.astroiddriver;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of StatusFrameSynchronizer with captured-like byte streams
+ * @author farom
+ */
+public class StatusFrameSynchronizerTest {
+	private List<Integer> msCounts; // of the frames received
+	private StatusFrameSynchronizer synchronizer;
+
+	@Before
+	public void setUp() {
+		msCounts = new ArrayList<Integer>();
+		synchronizer = new StatusFrameSynchronizer(new StatusFrameSynchronizer.FrameListener() {
+			@Override
+			public void frameReceived(ByteBuffer frame) {
+				msCounts.add(frame.getInt(0));
+			}
+		});
+	}
+
+	/**
+	 * @param msCount
+	 * @return a frame with its start flag
+	 */
+	private static byte[] flagged(int msCount) {
+		byte[] f = StatusMessageTest.frame(msCount, 0x55555555, 0x5555); // start flags inside the frame
+		byte[] b = new byte[StatusFrameSynchronizer.FRAME_SIZE];
+		b[0] = StatusFrameSynchronizer.START_FLAG;
+		System.arraycopy(f, 0, b, 1, f.length);
+		return b;
+	}
+
+	private void feed(byte[] b) {
+		synchronizer.feed(b, 0, b.length);
+	}
+
+	@Test
+	public void testConsecutiveFrames() {
+		ByteArrayOutputStream s = new ByteArrayOutputStream();
+		for (int i = 0; i < 10; i++) {
+			s.write(flagged(i), 0, StatusFrameSynchronizer.FRAME_SIZE);
+		}
+		feed(s.toByteArray());
+		assertEquals(10, msCounts.size());
+		assertEquals(9, (int) msCounts.get(9));
+		assertEquals(StatusFrameSynchronizer.State.SYNCED, synchronizer.getState());
+		assertEquals(0, synchronizer.getDroppedBytes());
+	}
+
+	@Test
+	public void testFramesSplitAcrossFeeds() {
+		ByteArrayOutputStream s = new ByteArrayOutputStream();
+		for (int i = 0; i < 200; i++) {
+			s.write(flagged(i), 0, StatusFrameSynchronizer.FRAME_SIZE);
+		}
+		byte[] b = s.toByteArray();
+		Random random = new Random(1);
+		int pos = 0;
+		while (pos < b.length) {
+			int n = Math.min(1 + random.nextInt(300), b.length - pos); // from a byte to several frames
+			synchronizer.feed(b, pos, n);
+			pos += n;
+		}
+		assertEquals(200, msCounts.size());
+		for (int i = 0; i < 200; i++) {
+			assertEquals(i, (int) msCounts.get(i));
+		}
+	}
+
+	@Test
+	public void testOneByteFeeds() {
+		byte[] b = flagged(7);
+		for (int i = 0; i < b.length; i++) {
+			synchronizer.feed(b, i, 1);
+			assertEquals(i == b.length - 1 ? 1 : 0, msCounts.size());
+		}
+	}
+
+	@Test
+	public void testGarbageBeforeFirstFrame() {
+		feed(new byte[] { 1, 2, StatusFrameSynchronizer.START_FLAG, 3 });
+		feed(flagged(1));
+		assertEquals(1, msCounts.size());
+		assertEquals(4, synchronizer.getDroppedBytes());
+		assertEquals(0, synchronizer.getResyncs()); // it was not synchronized yet
+	}
+
+	@Test
+	public void testResyncAfterBadChecksum() {
+		feed(flagged(1));
+		byte[] bad = flagged(2);
+		bad[20] ^= 0x01;
+		feed(bad);
+		feed(flagged(3));
+		feed(flagged(4));
+
+		assertEquals(3, msCounts.size());
+		assertEquals(1, (int) msCounts.get(0));
+		assertEquals(3, (int) msCounts.get(1));
+		assertEquals(4, (int) msCounts.get(2));
+		assertEquals(1, synchronizer.getResyncs());
+		assertTrue(synchronizer.getBadChecksums() >= 1);
+		assertEquals(StatusFrameSynchronizer.State.SYNCED, synchronizer.getState());
+	}
+
+	@Test
+	public void testResyncAfterLostBytes() {
+		feed(flagged(1));
+		byte[] cut = flagged(2);
+		synchronizer.feed(cut, 0, 30); // the rest of the frame is lost
+		feed(flagged(3));
+		feed(flagged(4));
+
+		assertEquals(3, msCounts.size()); // frame 3 is found again inside the bytes kept
+		assertEquals(1, (int) msCounts.get(0));
+		assertEquals(3, (int) msCounts.get(1));
+		assertEquals(4, (int) msCounts.get(2));
+		assertTrue(synchronizer.getBadChecksums() >= 1);
+		assertEquals(1, synchronizer.getResyncs());
+		assertEquals(StatusFrameSynchronizer.State.SYNCED, synchronizer.getState());
+	}
+
+	@Test
+	public void testReset() {
+		byte[] b = flagged(1);
+		synchronizer.feed(b, 0, 20);
+		synchronizer.reset();
+		feed(flagged(2));
+		assertEquals(1, msCounts.size());
+		assertEquals(2, (int) msCounts.get(0));
+	}
+}
@@ -0,0 +1,122 @@
+package farom.astroiddriver;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Tests of the decoding of the status frames
+ * @author farom
+ */
+public class StatusMessageTest {
+
+	/**
+	 * Build a valid status frame (without the start flag)
+	 * @param msCount
+	 * @param stepHA
+	 * @param powerAUX1
+	 * @return the MESSAGE_SIZE bytes, ending with the checksum
+	 */
+	static byte[] frame(int msCount, int stepHA, int powerAUX1) {
+		ByteBuffer b = ByteBuffer.allocate(StatusMessage.MESSAGE_SIZE);
+		b.putInt(0, msCount);
+		b.putInt(4, stepHA);
+		b.putInt(8, -stepHA);
+		b.putFloat(12, 0.5f);
+		b.putFloat(20, 1.25f);
+		b.putFloat(28, 1f);
+		b.putShort(36, (short) powerAUX1);
+		b.put(42, (byte) 1);
+		b.putInt(43, 77);
+		b.putFloat(51, -2f);
+		byte[] array = b.array();
+		byte sum = 0;
+		for (int i = 0; i < StatusMessage.MESSAGE_SIZE - 1; i++) {
+			sum += array[i];
+		}
+		array[StatusMessage.MESSAGE_SIZE - 1] = sum;
+		return array;
+	}
+
+	@Test
+	public void testDecode() {
+		StatusMessage m = new StatusMessage();
+		m.decode(ByteBuffer.wrap(frame(1234, 5000, 65000)), 42L);
+		assertEquals(1234, m.getMsCount());
+		assertEquals(5000, m.getStepHA());
+		assertEquals(-5000, m.getStepDE());
+		assertEquals(0.5f, m.getuStepHA(), 0);
+		assertEquals(1.25f, m.getMoveSpeedHA(), 0);
+		assertEquals(65000, m.getPowerAUX1()); // unsigned
+		assertEquals(1, m.getBulbState());
+		assertEquals(77, m.getStepFOCUS());
+		assertEquals(-2f, m.getMoveSpeedFOCUS(), 0);
+		assertEquals(42L, m.getArrivalTime());
+	}
+
+	@Test
+	public void testDecodeMatchesConstructor() {
+		byte[] f = frame(1, 2, 3);
+		StatusMessage a = new StatusMessage(f);
+		StatusMessage b = new StatusMessage();
+		b.decode(ByteBuffer.wrap(f));
+		assertEquals(a.getHA(), b.getHA(), 0);
+		assertEquals(a.getDE(), b.getDE(), 0);
+		assertEquals(a.getPowerAUX1(), b.getPowerAUX1());
+		assertEquals(a.getFOCUS(), b.getFOCUS(), 0);
+	}
+
+	@Test
+	public void testCopyFrom() {
+		StatusMessage a = new StatusMessage();
+		a.decode(ByteBuffer.wrap(frame(1234, 5000, 65000)), 42L);
+		StatusMessage b = new StatusMessage();
+		b.copyFrom(a);
+		a.decode(ByteBuffer.wrap(frame(1, 2, 3)), 43L); // the copy does not change
+		assertEquals(1234, b.getMsCount());
+		assertEquals(42L, b.getArrivalTime());
+		assertEquals(5000, b.getStepHA());
+		assertEquals(-5000, b.getStepDE());
+		assertEquals(0.5f, b.getuStepHA(), 0);
+		assertEquals(1.25f, b.getMoveSpeedHA(), 0);
+		assertEquals(65000, b.getPowerAUX1());
+		assertEquals(1, b.getBulbState());
+		assertEquals(77, b.getStepFOCUS());
+		assertEquals(-2f, b.getMoveSpeedFOCUS(), 0);
+	}
+
+	@Test
+	public void testVerify() {
+		byte[] f = frame(1, 2, 3);
+		assertTrue(StatusMessage.verify(f));
+		assertTrue(StatusMessage.verify(ByteBuffer.wrap(f)));
+		f[10]++;
+		assertFalse(StatusMessage.verify(f));
+		assertFalse(StatusMessage.verify(ByteBuffer.wrap(f)));
+	}
+
+	@Test
+	public void testDecodeDoesNotAllocate() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+		ByteBuffer f = ByteBuffer.wrap(frame(1, 2, 3));
+		StatusMessage m = new StatusMessage();
+		for (int i = 0; i < 100000; i++) { // warm up
+			m.decode(f, i);
+		}
+		long id = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(id);
+		for (int i = 0; i < 100000; i++) {
+			m.decode(f, i);
+		}
+		long allocated = threads.getThreadAllocatedBytes(id) - before;
+		assertTrue("allocated " + allocated + " bytes", allocated < 100000); // less than a byte per frame
+	}
+}
@@ -0,0 +1,136 @@
+package farom.astroiddriver;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Tests of the single producer / single consumer StatusQueue
+ * @author farom
+ */
+public class StatusQueueTest {
+
+	/**
+	 * Publish a message with a given msCount
+	 * @return false if the queue was full
+	 */
+	private static boolean offer(StatusQueue queue, int msCount) {
+		StatusMessage slot = queue.claim();
+		if (slot == null) {
+			return false;
+		}
+		slot.decode(ByteBuffer.wrap(StatusMessageTest.frame(msCount, 0, 0)), msCount);
+		queue.publish();
+		return true;
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCapacityPowerOfTwo() {
+		new StatusQueue(6);
+	}
+
+	@Test
+	public void testEmpty() {
+		StatusQueue queue = new StatusQueue(4);
+		assertNull(queue.poll());
+		assertNull(queue.pollLatest());
+	}
+
+	@Test
+	public void testReservedSlot() {
+		StatusQueue queue = new StatusQueue(4);
+		assertTrue(offer(queue, 1));
+		assertTrue(offer(queue, 2));
+		assertTrue(offer(queue, 3));
+		assertFalse(offer(queue, 4)); // one slot is kept for the consumer
+
+		StatusMessage m = queue.poll();
+		assertEquals(1, m.getMsCount());
+		assertTrue(offer(queue, 4));
+		assertFalse(offer(queue, 5));
+		assertEquals(1, m.getMsCount()); // the polled message is not overwritten
+	}
+
+	@Test
+	public void testLatestIsNotOverwritten() {
+		StatusQueue queue = new StatusQueue(4);
+		offer(queue, 1);
+		offer(queue, 2);
+		StatusMessage latest = queue.pollLatest();
+		assertEquals(2, latest.getMsCount());
+		for (int i = 3; offer(queue, i); i++) {
+			assertEquals(2, latest.getMsCount());
+		}
+		assertEquals(2, latest.getMsCount());
+	}
+
+	@Test
+	public void testWrapAround() {
+		StatusQueue queue = new StatusQueue(4);
+		int next = 0;
+		int expected = 0;
+		for (int round = 0; round < 1000; round++) {
+			int n = 1 + round % 3; // 1 to capacity - 1 messages at a time
+			for (int i = 0; i < n; i++) {
+				assertTrue(offer(queue, next++));
+			}
+			for (int i = 0; i < n; i++) {
+				assertEquals(expected++, queue.poll().getMsCount());
+			}
+			assertNull(queue.poll());
+		}
+	}
+
+	@Test
+	public void testPollLatestSkipsOlder() {
+		StatusQueue queue = new StatusQueue(8);
+		for (int i = 0; i < 5; i++) {
+			offer(queue, i);
+		}
+		assertEquals(4, queue.pollLatest().getMsCount());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void testConcurrentProducer() throws InterruptedException {
+		final StatusQueue queue = new StatusQueue(16);
+		final int count = 100000;
+		final int[] dropped = new int[1];
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 1; i <= count; i++) {
+					if (!offer(queue, i)) {
+						dropped[0]++;
+					}
+					if (i % 8 == 0) {
+						Thread.yield();
+					}
+				}
+			}
+		});
+		producer.start();
+
+		int last = 0;
+		int received = 0;
+		while (true) {
+			boolean done = !producer.isAlive(); // checked before polling, so nothing is published after
+			StatusMessage m = queue.poll();
+			if (m == null) {
+				if (done) {
+					break;
+				}
+				Thread.yield();
+				continue;
+			}
+			assertTrue(m.getMsCount() > last); // in order, never torn
+			assertEquals(m.getMsCount(), m.getArrivalTime());
+			last = m.getMsCount();
+			received++;
+		}
+		producer.join();
+		assertEquals(count, received + dropped[0]);
+	}
+}
@@ -0,0 +1,341 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of <code>INDIBinaryEncoder</code> and <code>INDIBinaryDecoder</code>:
+ * the messages are encoded, fed to the decoder in chunks whose boundaries do
+ * not match the ones of the frames and decoded back.
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDIBinaryEncoderTest {
+
+  /**
+   * The UTF-8 charset.
+   */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  /**
+   * The messages decoded.
+   */
+  private ArrayList<INDIMessage> messages;
+  /**
+   * The encoder.
+   */
+  private INDIBinaryEncoder encoder;
+  /**
+   * The decoder.
+   */
+  private INDIBinaryDecoder decoder;
+
+  @Before
+  public void setUp() {
+    messages = new ArrayList<INDIMessage>();
+
+    encoder = new INDIBinaryEncoder();
+
+    decoder = new INDIBinaryDecoder(new INDIProtocolParser() {
+      @Override
+      public void parseMessage(INDIMessage message) {
+        messages.add(message);
+      }
+
+      @Override
+      public InputStream getInputStream() {
+        return null;
+      }
+
+      @Override
+      public void finishReader() {
+      }
+    });
+
+    decoder.setMaxMessageLength(100000);
+  }
+
+  /**
+   * Builds an element.
+   *
+   * @param tagName The tag name.
+   * @param text The text.
+   * @param attributes The names and values of the attributes.
+   * @return The element.
+   */
+  private static INDIMessage element(String tagName, String text, String... attributes) {
+    String[] names = new String[attributes.length / 2];
+    String[] values = new String[attributes.length / 2];
+
+    for (int i = 0 ; i < names.length ; i++) {
+      names[i] = attributes[2 * i];
+      values[i] = attributes[2 * i + 1];
+    }
+
+    INDIMessage message = new INDIMessage(tagName, names, values, names.length);
+
+    message.setText(text);
+
+    return message;
+  }
+
+  /**
+   * Builds a <code>setNumberVector</code> message.
+   *
+   * @param device The name of the Device.
+   * @param property The name of the Property.
+   * @param value The value of its Element.
+   * @return The message.
+   */
+  private static INDIMessage setNumber(String device, String property, double value) {
+    INDIMessage message = element("setNumberVector", "", "device", device, "name", property, "state", "Ok");
+
+    message.setChildren(new INDIMessage[]{element("oneNumber", Double.toString(value), "name", "VALUE")});
+
+    return message;
+  }
+
+  /**
+   * Builds an element nested some levels.
+   *
+   * @param depth The number of levels.
+   * @return The element.
+   */
+  private static INDIMessage nested(int depth) {
+    INDIMessage message = element("level" + depth, "");
+
+    if (depth > 1) {
+      message.setChildren(new INDIMessage[]{nested(depth - 1)});
+    }
+
+    return message;
+  }
+
+  /**
+   * Feeds a stream to the decoder in chunks of sizes 1, 2, ..., 7, 1, ...
+   *
+   * @param stream The stream.
+   */
+  private void feed(byte[] stream) {
+    int size = 1;
+
+    for (int i = 0 ; i < stream.length ; i += size) {
+      size = (size % 7) + 1;
+
+      decoder.feed(ByteBuffer.wrap(stream, i, Math.min(size, stream.length - i)));
+    }
+  }
+
+  /**
+   * Encodes messages into a stream.
+   *
+   * @param toEncode The messages.
+   * @return The stream.
+   */
+  private byte[] encode(INDIMessage... toEncode) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    for (int i = 0 ; i < toEncode.length ; i++) {
+      byte[] frame = encoder.encode(toEncode[i]);
+
+      out.write(frame, 0, frame.length);
+    }
+
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testRoundTrip() {
+    INDIMessage def = element("defNumberVector", "", "device", "Mount", "name", "EQUATORIAL_EOD_COORD", "label", "Eq. coordinates", "group", "Main", "state", "Idle", "perm", "rw", "timeout", "60", "timestamp", "2026-10-17T12:00:00");
+    def.setChildren(new INDIMessage[]{
+      element("defNumber", "12:30:00", "name", "RA", "label", "RA", "format", "%010.6m", "min", "0.0", "max", "24.0", "step", "0.0"),
+      element("defNumber", "-45.25", "name", "DEC", "label", "Dec", "format", "%010.6m", "min", "-90.0", "max", "90.0", "step", "1.0E-4")});
+    INDIMessage text = element("setTextVector", "", "device", "Mount", "name", "SITE_NAME", "state", "Ok");
+    text.setChildren(new INDIMessage[]{element("oneText", "Observatoire du Pic \u00e0 l'\u00e9t\u00e9 <&> \u20ac", "name", "NAME")});
+    INDIMessage message = element("message", "", "device", "Mount", "message", "Slewing \"fast\"");
+
+    INDIMessage[] original = {def, setNumber("Mount", "EQUATORIAL_EOD_COORD", 3.0E-12), text, message, setNumber("Mount", "EQUATORIAL_EOD_COORD", -123456.789)};
+
+    feed(encode(original));
+
+    assertFalse(decoder.isOverflowed());
+    assertEquals(original.length, messages.size());
+
+    for (int i = 0 ; i < original.length ; i++) {
+      assertEquals(original[i].toXML(), messages.get(i).toXML());
+      assertEquals(original[i].getKind(), messages.get(i).getKind());
+    }
+  }
+
+  @Test
+  public void testNamesInternedOnce() {
+    byte[] first = encoder.encode(setNumber("Mount", "FOCUS_POSITION", 1.5));
+    int interned = encoder.getInternedCount();
+    byte[] second = encoder.encode(setNumber("Mount", "FOCUS_POSITION", 2.5));
+
+    assertEquals(interned, encoder.getInternedCount());
+    assertTrue(second.length < first.length);
+
+    String names = new String(second, UTF8);
+
+    assertFalse(names.contains("Mount"));
+    assertFalse(names.contains("FOCUS_POSITION"));
+    assertFalse(names.contains("setNumberVector"));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(first, 0, first.length);
+    out.write(second, 0, second.length);
+
+    feed(out.toByteArray());
+
+    assertEquals(2, messages.size());
+    assertEquals("2.5", messages.get(1).getChildren()[0].getText());
+    assertEquals("FOCUS_POSITION", messages.get(1).getName());
+  }
+
+  @Test
+  public void testStringTableBounded() {
+    int count = INDIBinaryEncoder.MAX_INTERNED + 100;
+    INDIMessage[] original = new INDIMessage[count];
+
+    for (int i = 0 ; i < count ; i++) {
+      original[i] = setNumber("Mount", "P" + i, i);
+    }
+
+    char[] longName = new char[INDIBinaryEncoder.MAX_INTERNED_LENGTH + 1];
+    Arrays.fill(longName, 'n');
+
+    INDIMessage[] again = {setNumber("Mount", "P0", 0), setNumber("Mount", "P" + (count - 1), 1), setNumber("Mount", new String(longName), 2), setNumber("Mount", new String(longName), 3)};
+
+    feed(encode(original));
+
+    assertEquals(INDIBinaryEncoder.MAX_INTERNED, encoder.getInternedCount());
+
+    byte[] stream = encode(again);
+
+    assertEquals(INDIBinaryEncoder.MAX_INTERNED, encoder.getInternedCount());
+    assertTrue(new String(stream, UTF8).contains("P" + (count - 1)));  // Not interned: sent in full
+
+    feed(stream);
+
+    assertFalse(decoder.isOverflowed());
+    assertEquals(count + again.length, messages.size());
+
+    for (int i = 0 ; i < count ; i++) {
+      assertEquals(original[i].toXML(), messages.get(i).toXML());
+    }
+
+    for (int i = 0 ; i < again.length ; i++) {
+      assertEquals(again[i].toXML(), messages.get(count + i).toXML());
+    }
+  }
+
+  @Test
+  public void testDepthLimit() {
+    INDIMessage deepest = nested(INDIBinaryEncoder.MAX_DEPTH);
+    INDIMessage tooDeep = nested(INDIBinaryEncoder.MAX_DEPTH + 1);
+
+    assertTrue(INDIBinaryEncoder.canEncode(deepest));
+    assertFalse(INDIBinaryEncoder.canEncode(tooDeep));
+
+    try {
+      encoder.encode(tooDeep);
+
+      fail("Too deep message encoded");
+    } catch (IllegalArgumentException e) {
+    }
+
+    assertEquals(0, encoder.getInternedCount());  // The encoder is not modified
+
+    feed(encode(deepest));
+
+    assertEquals(1, messages.size());
+    assertEquals(deepest.toXML(), messages.get(0).toXML());
+  }
+
+  @Test
+  public void testTooDeepFrameRejected() {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    for (int i = 0 ; i <= INDIBinaryEncoder.MAX_DEPTH ; i++) {
+      body.write(0);  // Tag name defined here
+      body.write(1);
+      body.write('a');
+      body.write(0);  // No attributes
+      body.write(INDIBinaryEncoder.EMPTY_VALUE);
+      body.write(i < INDIBinaryEncoder.MAX_DEPTH ? 1 : 0);  // Children
+    }
+
+    byte[] header = new byte[INDIBinaryEncoder.HEADER_LENGTH];
+    int frameLength = body.size() + 1;
+
+    header[2] = (byte)(frameLength >>> 8);
+    header[3] = (byte)frameLength;
+    header[4] = INDIBinaryEncoder.ELEMENT_FRAME;
+
+    decoder.feed(ByteBuffer.wrap(header));
+    decoder.feed(ByteBuffer.wrap(body.toByteArray()));
+
+    assertTrue(decoder.isOverflowed());
+    assertEquals(0, messages.size());
+  }
+
+  @Test
+  public void testXMLFramesBetweenElementFrames() {
+    String xml = "<setTextVector device=\"Mount\" name=\"SITE_NAME\" state=\"Ok\"><oneText name=\"NAME\">\u00e9t\u00e9</oneText></setTextVector>"
+            + "<delProperty device=\"Mount\" name=\"SITE_NAME\" />";
+    byte[] code = xml.getBytes(UTF8);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] frame = encoder.encode(setNumber("Mount", "P", 1));
+    out.write(frame, 0, frame.length);
+    byte[] header = INDIBinaryEncoder.getXMLFrameHeader(code.length);
+    out.write(header, 0, header.length);
+    out.write(code, 0, code.length);
+    frame = encoder.encode(setNumber("Mount", "P", 2));
+    out.write(frame, 0, frame.length);
+
+    feed(out.toByteArray());
+
+    assertFalse(decoder.isOverflowed());
+    assertEquals(4, messages.size());
+    assertEquals("1.0", messages.get(0).getChildren()[0].getText());
+    assertEquals(INDIMessage.Kind.SET_TEXT_VECTOR, messages.get(1).getKind());
+    assertEquals("\u00e9t\u00e9", messages.get(1).getChildren()[0].getText());
+    assertEquals(INDIMessage.Kind.DEL_PROPERTY, messages.get(2).getKind());
+    assertEquals("2.0", messages.get(3).getChildren()[0].getText());
+  }
+
+  @Test
+  public void testTooLongFrameRejected() {
+    decoder.setMaxMessageLength(64);
+
+    feed(encode(setNumber("Mount", new String(new char[100]).replace('\0', 'x'), 1)));
+
+    assertTrue(decoder.isOverflowed());
+    assertEquals(0, messages.size());
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of <code>INDIMessageDecoder</code> fed in chunks whose boundaries do
+ * not match the ones of the messages, and of the memory that it holds for a
+ * long BLOB.
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDIMessageDecoderTest {
+
+  /**
+   * The maximum length of a message used by the tests.
+   */
+  private static final int MAX_LENGTH = 1000;
+  /**
+   * The size of the BLOB of the long BLOB tests.
+   */
+  private static final int BLOB_SIZE = 3 * 1024 * 1024;
+  /**
+   * The size of the chunks in which the BLOB messages are fed.
+   */
+  private static final int BLOB_CHUNK = 65536;
+  /**
+   * The messages decoded.
+   */
+  private ArrayList<INDIMessage> messages;
+  /**
+   * The decoder.
+   */
+  private INDIMessageDecoder decoder;
+
+  @Before
+  public void setUp() {
+    messages = new ArrayList<INDIMessage>();
+
+    decoder = new INDIMessageDecoder(new INDIProtocolParser() {
+      @Override
+      public void parseMessage(INDIMessage message) {
+        messages.add(message);
+      }
+
+      @Override
+      public InputStream getInputStream() {
+        return null;
+      }
+
+      @Override
+      public void finishReader() {
+      }
+    }, false);
+
+    decoder.setMaxMessageLength(MAX_LENGTH);
+  }
+
+  /**
+   * Builds a stream of messages.
+   *
+   * @param count The number of messages.
+   * @param valueLength The length of the value of each message.
+   * @return The stream.
+   */
+  private static char[] stream(int count, int valueLength) {
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0 ; i < count ; i++) {
+      sb.append("<setTextVector device=\"d\" name=\"p").append(i).append("\">\n  <oneText name=\"t\">");
+
+      for (int j = 0 ; j < valueLength ; j++) {
+        sb.append('x');
+      }
+
+      sb.append("</oneText>\n</setTextVector>\n");
+    }
+
+    return sb.toString().toCharArray();
+  }
+
+  /**
+   * Feeds a stream in chunks of a fixed size.
+   *
+   * @param ch The stream.
+   * @param chunkSize The size of the chunks.
+   */
+  private void feed(char[] ch, int chunkSize) {
+    for (int i = 0 ; i < ch.length ; i += chunkSize) {
+      decoder.feed(ch, i, Math.min(chunkSize, ch.length - i));
+    }
+  }
+
+  @Test
+  public void testFixedChunksAcrossMessages() {
+    char[] ch = stream(1000, 10);
+
+    feed(ch, 37);
+
+    assertFalse(decoder.isOverflowed());
+    assertEquals(1000, messages.size());
+    assertEquals("p999", messages.get(999).getName());
+  }
+
+  @Test
+  public void testRandomChunks() {
+    char[] ch = stream(2000, 500);
+    Random random = new Random(1);
+    int i = 0;
+
+    while (i < ch.length) {
+      int n = Math.min(1 + random.nextInt(3 * MAX_LENGTH), ch.length - i);
+
+      decoder.feed(ch, i, n);
+
+      i += n;
+    }
+
+    assertFalse(decoder.isOverflowed());
+    assertEquals(2000, messages.size());
+
+    for (int j = 0 ; j < messages.size() ; j++) {
+      assertEquals("p" + j, messages.get(j).getName());
+      assertEquals(500, messages.get(j).getChildren()[0].getText().length());
+    }
+  }
+
+  @Test
+  public void testSingleCharacterChunks() {
+    char[] ch = stream(50, 100);
+
+    feed(ch, 1);
+
+    assertFalse(decoder.isOverflowed());
+    assertEquals(50, messages.size());
+  }
+
+  @Test
+  public void testLongMessageSplitInChunks() {
+    char[] ch = stream(1, MAX_LENGTH);
+
+    feed(ch, 37);
+
+    assertTrue(decoder.isOverflowed());
+    assertEquals(0, messages.size());
+  }
+
+  @Test
+  public void testLongMessageInsideAChunk() {
+    char[] ok = stream(1, 10);
+    char[] tooLong = stream(1, MAX_LENGTH);
+    char[] ch = new char[ok.length + tooLong.length + ok.length];
+
+    System.arraycopy(ok, 0, ch, 0, ok.length);
+    System.arraycopy(tooLong, 0, ch, ok.length, tooLong.length);
+    System.arraycopy(ok, 0, ch, ok.length + tooLong.length, ok.length);
+
+    decoder.feed(ch, 0, ch.length);
+
+    assertTrue(decoder.isOverflowed());
+    assertEquals(1, messages.size());
+  }
+
+  /**
+   * Builds the BLOB data of the long BLOB tests.
+   *
+   * @return The data.
+   */
+  private static byte[] blobData() {
+    byte[] data = new byte[BLOB_SIZE];
+
+    new Random(2).nextBytes(data);
+
+    return data;
+  }
+
+  /**
+   * Builds a <code>setBLOBVector</code> message with a BLOB.
+   *
+   * @param data The data of the BLOB.
+   * @return The characters of the message.
+   */
+  private static char[] blobMessage(byte[] data) {
+    INDIXMLEncoder xml = new INDIXMLEncoder();
+
+    xml.startTag("setBLOBVector");
+    xml.attribute("device", "d");
+    xml.attribute("name", "b");
+    xml.closeStartTag();
+    xml.startTag("oneBLOB");
+    xml.attribute("name", "img");
+    xml.attribute("size", data.length);
+    xml.attribute("format", ".fits");
+    xml.closeStartTag();
+    xml.base64(data, 0, data.length);
+    xml.endTag("oneBLOB");
+    xml.endTag("setBLOBVector");
+
+    return xml.toString().toCharArray();
+  }
+
+  @Test
+  public void testLongBLOBDecodedInChunks() {
+    byte[] data = blobData();
+    char[] ch = blobMessage(data);
+
+    decoder.setMaxMessageLength(0);
+    decoder.setDecodeBLOBs(true);
+
+    feed(ch, BLOB_CHUNK);
+
+    assertEquals(1, messages.size());
+
+    INDIBLOBValue value = messages.get(0).getChildren()[0].getBLOBValue();
+
+    assertNotNull(value);
+    assertEquals("", messages.get(0).getChildren()[0].getText());  // Not kept
+    assertArrayEquals(data, value.getBLOBData());
+
+    value.dispose();
+  }
+
+  @Test
+  public void testLongBLOBTextNotHeldByTheTokenizer() {
+    final int[] calls = new int[1];
+    final int[] longest = new int[1];
+
+    INDIProtocolTokenizer tokenizer = new INDIProtocolTokenizer(new INDIProtocolTokenizer.Listener() {
+      @Override
+      public void startElement(String name, String[] attributeNames, String[] attributeValues, int attributeCount) {
+      }
+
+      @Override
+      public void characters(char[] ch, int start, int length) {
+        calls[0]++;
+        longest[0] = Math.max(longest[0], length);
+      }
+
+      @Override
+      public void endElement(String name) {
+      }
+    });
+
+    char[] ch = blobMessage(blobData());
+    int lastChunk = ch.length - BLOB_CHUNK;
+
+    for (int i = 0 ; i < lastChunk ; i += BLOB_CHUNK) {
+      tokenizer.feed(ch, i, Math.min(BLOB_CHUNK, lastChunk - i));
+    }
+
+    assertTrue(calls[0] >= lastChunk / BLOB_CHUNK);  // Before the end tag arrives
+    assertTrue(longest[0] <= 8192);  // So its text buffer has not grown over it
+  }
+
+  /**
+   * Builds a decoder that keeps the messages raw.
+   *
+   * @param relayed The list to which the decoded messages are added.
+   * @return The decoder.
+   */
+  private static INDIMessageDecoder rawDecoder(final ArrayList<INDIMessage> relayed) {
+    INDIMessageDecoder raw = new INDIMessageDecoder(new INDIProtocolParser() {
+      @Override
+      public void parseMessage(INDIMessage message) {
+        relayed.add(message);
+      }
+
+      @Override
+      public InputStream getInputStream() {
+        return null;
+      }
+
+      @Override
+      public void finishReader() {
+      }
+    }, true);
+
+    raw.setKeepBLOBText(false);
+
+    return raw;
+  }
+
+  @Test
+  public void testRawBytesOfCharactersSplitBetweenChunks() {
+    ArrayList<INDIMessage> relayed = new ArrayList<INDIMessage>();
+    INDIMessageDecoder raw = rawDecoder(relayed);
+    char[] ch = "<message device=\"d\" message=\"\u00e9\u20ac\ud83d\ude00!\"/>".toCharArray();
+
+    for (int i = 0 ; i < ch.length ; i++) {
+      raw.feed(ch, i, 1);
+    }
+
+    assertEquals(1, relayed.size());
+    assertTrue(Arrays.equals(new String(ch).getBytes(Charset.forName("UTF-8")), relayed.get(0).getBytes()));
+  }
+
+  @Test
+  public void testLongBLOBKeptRawOnlyOnce() {
+    ArrayList<INDIMessage> relayed = new ArrayList<INDIMessage>();
+    INDIMessageDecoder raw = rawDecoder(relayed);
+
+    char[] ch = blobMessage(blobData());
+
+    for (int i = 0 ; i < ch.length ; i += BLOB_CHUNK) {
+      raw.feed(ch, i, Math.min(BLOB_CHUNK, ch.length - i));
+    }
+
+    assertEquals(1, relayed.size());
+    assertEquals("", relayed.get(0).getChildren()[0].getText());
+    assertTrue(Arrays.equals(new String(ch).getBytes(Charset.forName("UTF-8")), relayed.get(0).getBytes()));
+  }
+}
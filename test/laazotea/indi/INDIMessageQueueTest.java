@@ -0,0 +1,258 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of <code>INDIMessageQueue</code> and of the messages built by
+ * <code>INDIXMLEncoder</code> for it.
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDIMessageQueueTest {
+
+  /**
+   * The encoder.
+   */
+  private INDIXMLEncoder xml;
+  /**
+   * The queue.
+   */
+  private INDIMessageQueue queue;
+
+  @Before
+  public void setUp() {
+    xml = new INDIXMLEncoder();
+    xml.setBuildMessages(true);
+
+    queue = new INDIMessageQueue(4);
+  }
+
+  /**
+   * Encodes a <code>setNumberVector</code> message.
+   *
+   * @param property The name of the Property.
+   * @param value The value of its Element.
+   */
+  private void encodeSet(String property, double value) {
+    xml.reset();
+    xml.startTag("setNumberVector");
+    xml.attribute("device", "Dev");
+    xml.attribute("name", property);
+    xml.attribute("state", "Ok");
+    xml.attribute("timeout", 60);
+    xml.timestampAttribute();
+    xml.closeStartTag();
+    xml.startTag("oneNumber");
+    xml.attribute("name", "VALUE");
+    xml.closeStartTag();
+    xml.number(value);
+    xml.endTag("oneNumber");
+    xml.endTag("setNumberVector");
+  }
+
+  /**
+   * Encodes a <code>message</code> message.
+   *
+   * @param text The text of the message.
+   */
+  private void encodeMessage(String text) {
+    xml.reset();
+    xml.startTag("message");
+    xml.attribute("device", "Dev");
+    xml.attribute("message", text);
+    xml.closeEmptyTag();
+  }
+
+  /**
+   * Parses the bytes of the encoder.
+   *
+   * @return The parsed message.
+   */
+  private INDIMessage parse() {
+    final ArrayList<INDIMessage> messages = new ArrayList<INDIMessage>();
+
+    INDIMessageDecoder decoder = new INDIMessageDecoder(new INDIProtocolParser() {
+      @Override
+      public void parseMessage(INDIMessage message) {
+        messages.add(message);
+      }
+
+      @Override
+      public InputStream getInputStream() {
+        return null;
+      }
+
+      @Override
+      public void finishReader() {
+      }
+    }, false);
+
+    decoder.setKeepBLOBText(false);
+    decoder.feed(ByteBuffer.wrap(xml.toByteArray()));
+
+    assertEquals(1, messages.size());
+
+    return messages.get(0);
+  }
+
+  /**
+   * Checks that two messages have the same tag, attributes, text and
+   * children.
+   *
+   * @param expected The expected message.
+   * @param actual The message.
+   */
+  private static void assertSameTree(INDIMessage expected, INDIMessage actual) {
+    assertEquals(expected.getTagName(), actual.getTagName());
+    assertEquals(expected.getAttributeCount(), actual.getAttributeCount());
+
+    for (int i = 0 ; i < expected.getAttributeCount() ; i++) {
+      assertEquals(expected.getAttributeName(i), actual.getAttributeName(i));
+      assertEquals(expected.getAttributeValue(i), actual.getAttributeValue(i));
+    }
+
+    assertEquals(expected.getText(), actual.getText());
+    assertEquals(expected.getChildren().length, actual.getChildren().length);
+
+    for (int i = 0 ; i < expected.getChildren().length ; i++) {
+      assertSameTree(expected.getChildren()[i], actual.getChildren()[i]);
+    }
+  }
+
+  @Test
+  public void testBuiltMessagesMatchTheParsedOnes() {
+    encodeSet("POS", -1.5e-7);
+    assertSameTree(parse(), xml.getMessage());
+
+    encodeMessage("a < b & \"c\" > d \u00e9");
+    assertSameTree(parse(), xml.getMessage());
+
+    xml.reset();
+    xml.startTag("defTextVector");
+    xml.attribute("device", "Dev");
+    xml.attribute("name", "TEXT");
+    xml.closeStartTag();
+    xml.startTag("defText");
+    xml.attribute("name", "T");
+    xml.closeStartTag();
+    xml.text("x < y && \"z\" \u20ac");
+    xml.endTag("defText");
+    xml.startTag("defText");
+    xml.attribute("name", "EMPTY");
+    xml.closeStartTag();
+    xml.endTag("defText");
+    xml.endTag("defTextVector");
+    assertSameTree(parse(), xml.getMessage());
+    assertEquals("x < y && \"z\" \u20ac", xml.getMessage().getChildren()[0].getText());
+  }
+
+  @Test
+  public void testIncompleteMessageNotBuilt() {
+    xml.startTag("setNumberVector");
+    xml.attribute("device", "Dev");
+    xml.closeStartTag();
+
+    assertNull(xml.getMessage());
+
+    xml.reset();
+    xml.setBuildMessages(false);
+    encodeMessage("m");
+
+    assertNull(xml.getMessage());
+  }
+
+  @Test
+  public void testQueuedWithTheEncodedBytes() {
+    encodeSet("POS", 1);
+    byte[] bytes = xml.toByteArray();
+    queue.put(xml, null);
+
+    INDIMessage m = queue.take();
+
+    assertEquals("POS", m.getName());
+    assertArrayEquals(bytes, m.getBytes());
+  }
+
+  @Test
+  public void testSupersededMessageMovedToTheEnd() {
+    Object key = new Object();
+
+    encodeSet("POS", 1);
+    queue.put(xml, key);
+    encodeMessage("after the first value");
+    queue.put(xml, null);
+    encodeSet("POS", 2);
+    queue.put(xml, key);
+
+    assertEquals(2, queue.size());
+    assertEquals(1, queue.getSupersededCount());
+    assertEquals("message", queue.take().getTagName());
+
+    INDIMessage m = queue.take();
+
+    assertEquals("2.0", m.getChildren()[0].getText());
+  }
+
+  @Test
+  public void testSupersedingDoesNotWaitWhenFull() {
+    Object key = new Object();
+
+    encodeSet("POS", 1);
+    queue.put(xml, key);
+
+    for (int i = 0 ; i < 3 ; i++) {
+      encodeMessage("m" + i);
+      queue.put(xml, null);
+    }
+
+    encodeSet("POS", 2);
+    queue.put(xml, key);  // Would wait forever if it needed room
+
+    assertEquals(4, queue.size());
+    assertEquals("m0", queue.take().getAttribute("message"));
+  }
+
+  @Test
+  public void testKeyFreedOnceTaken() {
+    Object key = new Object();
+
+    encodeSet("POS", 1);
+    queue.put(xml, key);
+    queue.take();
+    encodeSet("POS", 2);
+    queue.put(xml, key);
+
+    assertEquals(0, queue.getSupersededCount());
+    assertEquals(1, queue.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEncoderMustBuildTheMessage() {
+    xml.setBuildMessages(false);
+    encodeMessage("m");
+
+    queue.put(xml, null);
+  }
+}
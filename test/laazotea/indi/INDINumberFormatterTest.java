@@ -0,0 +1,263 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi;
+
+import java.util.Locale;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests of <code>INDINumberFormatter</code>: its output is compared to the
+ * one of <code>String.format</code> (and of the original String based
+ * sexagesimal formatting for <code>m</code> formats).
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDINumberFormatterTest {
+
+  /**
+   * The formats used by the drivers and the formatters themselves.
+   */
+  private static final String[] DRIVER_FORMATS = {"%.0f", "%02.0f", "%04.1f", "%05.2f", "%1.0f", "%3.0f", "%4.0f", "%5.2f", "%6.0f", "%7.2f", "%9.6f", "%f", "%g"};
+  /**
+   * Other formats with the flags and conversions that are directly written.
+   */
+  private static final String[] OTHER_FORMATS = {"%-8.3f", "%+7.2f", "% 7.2f", "%010.4f", "%-+10.1f", "%.12f", "%e", "%.3e", "%12.4E", "%+.2e", "%.0e", "%10.3g"};
+  /**
+   * The sexagesimal formats (all the valid fraction lengths).
+   */
+  private static final String[] SEXAGESIMAL_FORMATS = {"%010.6m", "%5.3m", "%7.5m", "%9.6m", "%10.8m", "%11.9m", "%12.6m"};
+  /**
+   * Values on the rounding boundaries of the formats and special values.
+   */
+  private static final double[] SPECIAL_VALUES = {0.0, -0.0, 0.5, 1.5, 2.5, 0.05, 0.15, 0.25, 0.45, 0.005, 0.015, 0.125, 0.0005, 9.5, 9.95, 9.995, 99.5, 99.995,
+    59.5, 59.95, 59.995, 999999.5, 0.9999995, 1e-3, 1e-4, 1e-7, 1.5e-7, 5e-7, 123456.7890125, 9999999.5, 1e7, 1.25e10, 1e15, 1e20, 1e300,
+    Double.MIN_VALUE, Double.MIN_NORMAL, Double.MAX_VALUE, 1.0 / 3, 2.0 / 3, Math.PI, 23.999999, 359.9999999, 12.0 + 59.5 / 60, 12.0 + 59.9999 / 60,
+    12.0 + 59.0 / 60 + 59.995 / 3600, 12.0 + 59.0 / 60 + 59.95 / 3600, 0.25 / 3600, 0.005 / 3600,
+    Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+  /**
+   * Checks that a number is formatted as <code>String.format</code> does.
+   *
+   * @param format The format.
+   * @param formatter The formatter for the format.
+   * @param number The number.
+   */
+  private static void assertSameAsStringFormat(String format, INDINumberFormatter formatter, double number) {
+    String expected = String.format(Locale.US, format, number);
+
+    assertEquals(format + " of " + number, expected, formatter.format(number));
+  }
+
+  /**
+   * Checks a formatter with the special values (and their opposites) and many
+   * random ones of all the magnitudes.
+   *
+   * @param format The format.
+   */
+  private static void checkFormat(String format) {
+    INDINumberFormatter formatter = new INDINumberFormatter(format);
+
+    for (int i = 0 ; i < SPECIAL_VALUES.length ; i++) {
+      assertSameAsStringFormat(format, formatter, SPECIAL_VALUES[i]);
+      assertSameAsStringFormat(format, formatter, -SPECIAL_VALUES[i]);
+    }
+
+    Random random = new Random(format.hashCode());
+
+    for (int i = 0 ; i < 20000 ; i++) {
+      double number = random.nextDouble() * Math.pow(10, random.nextInt(24) - 12);
+
+      if (random.nextBoolean()) {
+        number = -number;
+      }
+
+      assertSameAsStringFormat(format, formatter, number);
+    }
+
+    for (int i = -20000 ; i <= 20000 ; i++) {  // Halves of the last written digit
+      assertSameAsStringFormat(format, formatter, i / 1000.0 + 0.0005);
+      assertSameAsStringFormat(format, formatter, i / 200.0);
+    }
+  }
+
+  @Test
+  public void testDriverFormats() {
+    for (int i = 0 ; i < DRIVER_FORMATS.length ; i++) {
+      checkFormat(DRIVER_FORMATS[i]);
+    }
+  }
+
+  @Test
+  public void testOtherFormats() {
+    for (int i = 0 ; i < OTHER_FORMATS.length ; i++) {
+      checkFormat(OTHER_FORMATS[i]);
+    }
+  }
+
+  @Test
+  public void testAppendsToTheBuilder() {
+    INDINumberFormatter formatter = new INDINumberFormatter("%7.2f");
+    StringBuilder sb = new StringBuilder("x=");
+
+    formatter.format(-1.005, sb);
+    formatter.format(Double.NaN, sb);
+
+    assertEquals("x=" + String.format(Locale.US, "%7.2f", -1.005) + String.format(Locale.US, "%7.2f", Double.NaN), sb.toString());
+  }
+
+  @Test
+  public void testWrongFormats() {
+    String[] wrong = {"7.2f", "%", "%7.2d", "%7.2x", "%4m", "%10.7m"};
+
+    for (int i = 0 ; i < wrong.length ; i++) {
+      try {
+        new INDINumberFormatter(wrong[i]);
+
+        fail(wrong[i] + " accepted");
+      } catch (IllegalArgumentException e) {
+      }
+    }
+  }
+
+  /**
+   * Formats a number with a sexagesimal format as it was done before the
+   * formatters were precompiled (with <code>String.format</code>).
+   *
+   * @param length The length of the format.
+   * @param fractionLength The fraction length of the format.
+   * @param number The number.
+   * @return The formatted number.
+   */
+  private static String referenceSexagesimal(int length, int fractionLength, double number) {
+    int sign = 1;
+    if (number < 0) {
+      sign = -1;
+    }
+
+    number = Math.abs(number);
+
+    String fractionalPart = ":";
+
+    int integerPart = ((int)Math.floor(number));
+
+    double fractional = Math.abs(number - integerPart);
+
+    if (fractionLength < 6) {
+      double minutes = fractional * 60;
+
+      String form = "%02.0f";
+      if (fractionLength == 5) {
+        form = "%04.1f";
+      }
+
+      if (Double.parseDouble(String.format(Locale.US, form, minutes)) >= 60.0) {
+        minutes = 0.0;
+        integerPart++;
+      }
+
+      fractionalPart += String.format(Locale.US, form, minutes);
+    } else {
+      double minutes = Math.floor(fractional * 60);
+
+      double rest = fractional - ((double)minutes / 60.0);
+
+      double seconds = rest * 3600;
+
+      String form = "%02.0f";
+      if (fractionLength == 8) {
+        form = "%04.1f";
+      } else if (fractionLength == 9) {
+        form = "%05.2f";
+      }
+
+      if (Double.parseDouble(String.format(Locale.US, form, seconds)) >= 60.0) {
+        seconds = 0.0;
+        minutes++;
+      }
+
+      if (Double.parseDouble(String.format(Locale.US, "%02.0f", minutes)) >= 60.0) {
+        minutes = 0.0;
+        integerPart++;
+      }
+
+      fractionalPart += String.format(Locale.US, "%02.0f:" + form, minutes, seconds);
+    }
+
+    String res = integerPart + fractionalPart;
+
+    if (sign < 0) {
+      res = "-" + res;
+    }
+
+    while (res.length() < length) {
+      res = " " + res;
+    }
+
+    return res;
+  }
+
+  @Test
+  public void testSexagesimalFormats() {
+    for (int f = 0 ; f < SEXAGESIMAL_FORMATS.length ; f++) {
+      String format = SEXAGESIMAL_FORMATS[f];
+      String[] parts = format.substring(1, format.length() - 1).split("\\.");
+      int length = Integer.parseInt(parts[0]);
+      int fractionLength = Integer.parseInt(parts[1]);
+
+      INDINumberFormatter formatter = new INDINumberFormatter(format);
+
+      assertNotNull(formatter.getSexagesimalFormatter());
+
+      for (int i = 0 ; i < SPECIAL_VALUES.length ; i++) {
+        double number = SPECIAL_VALUES[i];
+
+        if (Double.isNaN(number) || Double.isInfinite(number) || (Math.abs(number) >= Integer.MAX_VALUE)) {
+          continue;  // Not representable in sexagesimal (checked below)
+        }
+
+        assertEquals(format + " of " + number, referenceSexagesimal(length, fractionLength, number), formatter.format(number));
+        assertEquals(format + " of " + -number, referenceSexagesimal(length, fractionLength, -number), formatter.format(-number));
+      }
+
+      Random random = new Random(format.hashCode());
+
+      for (int i = 0 ; i < 20000 ; i++) {
+        double number = (random.nextDouble() - 0.5) * 720;
+
+        assertEquals(format + " of " + number, referenceSexagesimal(length, fractionLength, number), formatter.format(number));
+      }
+
+      for (int i = 0 ; i < 3600 ; i++) {  // Halves of the last written second or minute
+        double number = 5 + (i + 0.5) / 3600 + (i % 100 + 0.5) / 360000;
+
+        assertEquals(format + " of " + number, referenceSexagesimal(length, fractionLength, number), formatter.format(number));
+      }
+    }
+  }
+
+  @Test
+  public void testSexagesimalNaNAndInfinity() {
+    INDINumberFormatter formatter = new INDINumberFormatter("%010.6m");
+
+    assertEquals(referenceSexagesimal(10, 6, Double.NaN), formatter.format(Double.NaN));
+    assertEquals(referenceSexagesimal(10, 6, Double.POSITIVE_INFINITY), formatter.format(Double.POSITIVE_INFINITY));
+    assertEquals(referenceSexagesimal(10, 6, Double.NEGATIVE_INFINITY), formatter.format(Double.NEGATIVE_INFINITY));
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import laazotea.indi.INDIMessage;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the compressed connections of <code>INDIClient</code>: a sequence
+ * of messages is compressed, sent in pieces that split the deflate stream
+ * between reads, inflated and decoded back, in both directions.
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDIClientCompressionTest {
+
+  /**
+   * The UTF-8 charset.
+   */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  /**
+   * The maximum time to wait for something to happen, in milliseconds.
+   */
+  private static final long TIMEOUT = 10000;
+
+  /**
+   * The Server.
+   */
+  private RecordingServer server;
+  /**
+   * The compressed port of the Server.
+   */
+  private int port;
+  /**
+   * The socket of the Client.
+   */
+  private Socket socket;
+
+  @Before
+  public void setUp() throws IOException {
+    ServerSocket free = new ServerSocket(0);
+    port = free.getLocalPort();
+    free.close();
+
+    server = new RecordingServer();
+    server.listenCompressed(port);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (socket != null) {
+      socket.close();
+    }
+
+    server.stop();
+  }
+
+  /**
+   * Connects a Client to the compressed port.
+   *
+   * @return The Client as seen by the Server.
+   * @throws Exception if the Client can not connect.
+   */
+  private INDIClient connect() throws Exception {
+    long end = System.currentTimeMillis() + TIMEOUT;
+
+    while (true) {  // The port is registered by the selector thread
+      try {
+        socket = new Socket();
+        socket.setReceiveBufferSize(4096);  // The Server can not write everything at once
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress("127.0.0.1", port));
+
+        break;
+      } catch (IOException e) {
+        socket.close();
+
+        if (System.currentTimeMillis() > end) {
+          throw e;
+        }
+
+        Thread.sleep(20);
+      }
+    }
+
+    INDIClient client = server.connected.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+
+    assertNotNull(client);
+    assertTrue(client.isCompressed());
+
+    return client;
+  }
+
+  /**
+   * Builds a message with a single child element.
+   *
+   * @param tagName The tag name of the message.
+   * @param childTagName The tag name of the child.
+   * @param property The name of the Property.
+   * @param text The text of the child.
+   * @return The message.
+   */
+  private static INDIMessage message(String tagName, String childTagName, String property, String text) {
+    INDIMessage message = new INDIMessage(tagName, new String[]{"device", "name"}, new String[]{"Mount", property}, 2);
+    INDIMessage child = new INDIMessage(childTagName, new String[]{"name"}, new String[]{"VALUE"}, 1);
+
+    child.setText(text);
+    message.setChildren(new INDIMessage[]{child});
+
+    return message;
+  }
+
+  /**
+   * Builds a random text that does not compress well.
+   *
+   * @param length The length of the text.
+   * @return The text.
+   */
+  private static String randomText(int length) {
+    Random random = new Random(length);
+    char[] c = new char[length];
+
+    for (int i = 0 ; i < length ; i++) {
+      c[i] = (char)('A' + random.nextInt(58));
+
+      if ((c[i] > 'Z') && (c[i] < 'a')) {
+        c[i] = '_';
+      }
+    }
+
+    return new String(c);
+  }
+
+  @Test(timeout = 30000)
+  public void testClientMessagesSplitAcrossReads() throws Exception {
+    connect();
+
+    Deflater deflater = new Deflater();
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    byte[] out = new byte[8192];
+    int count = 50;
+
+    String[] xml = new String[count + 1];
+    xml[0] = "<getProperties version=\"1.7\" />";
+
+    for (int i = 1 ; i <= count ; i++) {
+      xml[i] = "<newNumberVector device=\"Mount\" name=\"FOCUS\"><oneNumber name=\"POSITION\">" + i + "</oneNumber></newNumberVector>";
+    }
+
+    for (int i = 0 ; i <= count ; i++) {  // A single deflate stream, flushed at the end of each message
+      deflater.setInput(xml[i].getBytes(UTF8));
+
+      int n;
+
+      do {
+        n = deflater.deflate(out, 0, out.length, Deflater.SYNC_FLUSH);
+        compressed.write(out, 0, n);
+      } while (n == out.length);
+    }
+
+    deflater.end();
+
+    byte[] stream = compressed.toByteArray();
+    OutputStream os = socket.getOutputStream();
+    int size = 1;
+
+    for (int i = 0 ; i < stream.length ; i += size) {  // Pieces of 1 to 7 bytes, each one read apart
+      size = (size % 7) + 1;
+
+      os.write(stream, i, Math.min(size, stream.length - i));
+      os.flush();
+
+      Thread.sleep(1);
+    }
+
+    INDIMessage m = server.received.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+
+    assertNotNull(m);
+    assertEquals(INDIMessage.Kind.GET_PROPERTIES, m.getKind());
+
+    for (int i = 1 ; i <= count ; i++) {
+      m = server.received.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+
+      assertNotNull(m);
+      assertEquals(INDIMessage.Kind.NEW_NUMBER_VECTOR, m.getKind());
+      assertEquals(Integer.toString(i), m.getChildren()[0].getText());
+    }
+
+    assertTrue(server.disconnected.isEmpty());
+  }
+
+  @Test(timeout = 30000)
+  public void testServerMessagesInflatedInOrder() throws Exception {
+    INDIClient client = connect();
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    INDIMessage[] messages = new INDIMessage[40];
+
+    for (int i = 0 ; i < messages.length ; i++) {
+      if (i % 10 == 5) {  // Longer than a write slice even once compressed
+        messages[i] = message("setTextVector", "oneText", "LOG", randomText(200000 + i));
+      } else {
+        messages[i] = message("setNumberVector", "oneNumber", "FOCUS", Integer.toString(i));
+      }
+
+      byte[] b = messages[i].getBytes();
+
+      expected.write(b, 0, b.length);
+
+      server.sendToClients(messages[i]);
+    }
+
+    byte[] plain = expected.toByteArray();
+
+    Inflater inflater = new Inflater();
+    ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+    byte[] in = new byte[1500];
+    byte[] out = new byte[8192];
+    InputStream is = socket.getInputStream();
+
+    while (inflated.size() < plain.length) {
+      int n = is.read(in);
+
+      assertTrue("Connection closed", n > 0);
+
+      inflater.setInput(in, 0, n);
+
+      int m;
+
+      while ((m = inflater.inflate(out)) > 0) {
+        inflated.write(out, 0, m);
+      }
+    }
+
+    inflater.end();
+
+    assertEquals(new String(plain, UTF8), new String(inflated.toByteArray(), UTF8));
+    assertEquals(plain.length, client.getUncompressedBytes());
+    assertTrue(client.getCompressedBytes() < client.getUncompressedBytes());
+    assertTrue(server.disconnected.isEmpty());
+  }
+
+  @Test(timeout = 30000)
+  public void testNotCompressedStreamDisconnected() throws Exception {
+    INDIClient client = connect();
+
+    OutputStream os = socket.getOutputStream();
+
+    os.write("<getProperties version=\"1.7\" />".getBytes(UTF8));
+    os.flush();
+
+    assertSame(client, server.disconnected.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+    assertTrue(server.received.isEmpty());
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import laazotea.indi.INDIMessage;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the Unix domain socket listener of the Server. The Client side is
+ * opened by reflection, as the Server does, and the tests are skipped if the
+ * Java runtime does not support Unix domain sockets.
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDIClientUnixSocketTest {
+
+  /**
+   * The UTF-8 charset.
+   */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  /**
+   * The maximum time to wait for something to happen, in milliseconds.
+   */
+  private static final long TIMEOUT = 10000;
+  /**
+   * The Server.
+   */
+  private RecordingServer server;
+  /**
+   * The socket file.
+   */
+  private File path;
+  /**
+   * The channel of the Client.
+   */
+  private SocketChannel channel;
+
+  @Before
+  public void setUp() throws IOException {
+    Assume.assumeTrue("Unix domain sockets not supported by this Java runtime", isUnixSocketSupported());
+
+    path = File.createTempFile("indi", ".sock");
+    path.delete();
+
+    server = new RecordingServer();
+    server.listenUnixSocket(path.getPath());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+
+    if (server != null) {
+      server.stop();
+    }
+  }
+
+  /**
+   * Checks if the Java runtime has Unix domain socket channels.
+   *
+   * @return <code>true</code> if they are supported.
+   */
+  private static boolean isUnixSocketSupported() {
+    try {
+      Class.forName("java.net.UnixDomainSocketAddress");
+      StandardProtocolFamily.valueOf("UNIX");
+    } catch (ClassNotFoundException e) {
+      return false;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Connects a Client to the socket of the Server.
+   *
+   * @return The Client as seen by the Server.
+   * @throws Exception if the Client can not connect.
+   */
+  private INDIClient connect() throws Exception {
+    SocketAddress address = (SocketAddress)Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class).invoke(null, path.getPath());
+    ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+    long end = System.currentTimeMillis() + TIMEOUT;
+
+    while (true) {  // The socket is registered by the selector thread
+      channel = (SocketChannel)SocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+
+      try {
+        channel.connect(address);
+
+        break;
+      } catch (IOException e) {
+        channel.close();
+
+        if (System.currentTimeMillis() > end) {
+          throw e;
+        }
+
+        Thread.sleep(20);
+      }
+    }
+
+    INDIClient client = server.connected.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+
+    assertNotNull(client);
+    assertTrue(client.getInetAddress().startsWith("local"));
+
+    return client;
+  }
+
+  /**
+   * Writes a text to the channel of the Client.
+   *
+   * @param s The text.
+   * @throws IOException if the channel is broken.
+   */
+  private void write(String s) throws IOException {
+    ByteBuffer b = ByteBuffer.wrap(s.getBytes(UTF8));
+
+    while (b.hasRemaining()) {
+      channel.write(b);
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void testMessagesBothWays() throws Exception {
+    connect();
+
+    write("<getProperties version=\"1.7\" />\n<newNumberVector device=\"Mount\" name=\"FOCUS\">");
+    write("<oneNumber name=\"POSITION\">1200</oneNumber></newNumberVector>\n");
+
+    INDIMessage m = server.received.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+
+    assertNotNull(m);
+    assertEquals(INDIMessage.Kind.GET_PROPERTIES, m.getKind());
+
+    m = server.received.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+
+    assertNotNull(m);
+    assertEquals(INDIMessage.Kind.NEW_NUMBER_VECTOR, m.getKind());
+    assertEquals("1200", m.getChildren()[0].getText());
+
+    INDIMessage set = new INDIMessage("setNumberVector", new String[]{"device", "name"}, new String[]{"Mount", "FOCUS"}, 2);
+    INDIMessage one = new INDIMessage("oneNumber", new String[]{"name"}, new String[]{"POSITION"}, 1);
+    one.setText("1250");
+    set.setChildren(new INDIMessage[]{one});
+
+    server.sendToClients(set);
+
+    byte[] expected = set.getBytes();
+    ByteBuffer in = ByteBuffer.allocate(expected.length);
+
+    while (in.hasRemaining()) {
+      assertTrue("Connection closed", channel.read(in) > 0);
+    }
+
+    assertEquals(new String(expected, UTF8), new String(in.array(), UTF8));
+  }
+
+  @Test(timeout = 30000)
+  public void testSocketFileDeletedOnStop() throws Exception {
+    connect();
+
+    assertTrue(path.exists());
+
+    server.stop();
+
+    assertTrue(server.disconnected.poll(TIMEOUT, TimeUnit.MILLISECONDS) != null);
+    assertFalse(path.exists());
+
+    server = null;
+  }
+}
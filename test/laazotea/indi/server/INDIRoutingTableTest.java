@@ -0,0 +1,141 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import laazotea.indi.Constants.BLOBEnables;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the routes kept by <code>INDIRoutingTable</code> when the
+ * listeners change what they listen to.
+ *
+ * @version 1.36, October 17, 2026
+ */
+public class INDIRoutingTableTest {
+
+  /**
+   * The routing table.
+   */
+  private INDIRoutingTable table;
+  /**
+   * A listener registered in the table.
+   */
+  private Listener a;
+  /**
+   * Another listener registered in the table.
+   */
+  private Listener b;
+
+  @Before
+  public void setUp() {
+    table = new INDIRoutingTable();
+    a = new Listener();
+    b = new Listener();
+
+    table.addListener(a);
+    table.addListener(b);
+  }
+
+  @Test
+  public void testRepeatedRulesKeepTheRoutes() {
+    a.setListenToAllDevices(true);
+    b.addDeviceToListen("D1");
+    b.addBLOBEnableRule("D1", BLOBEnables.NEVER);
+    b.addBLOBEnableRule("D1", "P", BLOBEnables.NEVER);
+
+    INDIDeviceListener[] d1 = table.getListeningToDevice("D1");
+    INDIDeviceListener[] p1 = table.getListeningToProperty("D1", "P");
+
+    assertArrayEquals(new INDIDeviceListener[]{a, b}, d1);
+
+    a.setListenToAllDevices(true);  // As each getProperties does
+    b.addDeviceToListen("D1");
+    b.addBLOBEnableRule("D1", BLOBEnables.NEVER);
+    b.addBLOBEnableRule("D1", "P", BLOBEnables.NEVER);
+
+    assertSame(d1, table.getListeningToDevice("D1"));
+    assertSame(p1, table.getListeningToProperty("D1", "P"));
+  }
+
+  @Test
+  public void testDeviceChangeKeepsTheOtherDevices() {
+    INDIDeviceListener[] d2 = table.getListeningToDevice("D2");
+
+    assertEquals(0, table.getListeningToDevice("D1").length);
+
+    b.addDeviceToListen("D1");
+
+    assertArrayEquals(new INDIDeviceListener[]{b}, table.getListeningToDevice("D1"));
+    assertSame(d2, table.getListeningToDevice("D2"));
+
+    a.addPropertyToListen("D1", "P");
+
+    assertArrayEquals(new INDIDeviceListener[]{a}, table.getListeningToSingleProperties("D1"));
+    assertArrayEquals(new INDIDeviceListener[]{a, b}, table.getListeningToProperty("D1", "P"));
+    assertArrayEquals(new INDIDeviceListener[]{b}, table.getListeningToProperty("D1", "Q"));
+    assertSame(d2, table.getListeningToDevice("D2"));
+  }
+
+  @Test
+  public void testBLOBRulesUpdateTheirRoutes() {
+    a.addDeviceToListen("D1");
+
+    INDIDeviceListener[] q = table.getListeningToPropertyUpdates("D1", "Q", true);
+
+    assertEquals(0, table.getListeningToPropertyUpdates("D1", "P", true).length);
+
+    a.addBLOBEnableRule("D1", "P", BLOBEnables.ALSO);
+
+    assertArrayEquals(new INDIDeviceListener[]{a}, table.getListeningToPropertyUpdates("D1", "P", true));
+    assertSame(q, table.getListeningToPropertyUpdates("D1", "Q", true));
+
+    a.addBLOBEnableRule("D1", BLOBEnables.ONLY);
+
+    assertArrayEquals(new INDIDeviceListener[]{a}, table.getListeningToPropertyUpdates("D1", "Q", true));
+    assertEquals(0, table.getListeningToPropertyUpdates("D1", "Q", false).length);
+  }
+
+  @Test
+  public void testListenersChangeAllTheRoutes() {
+    a.setListenToAllDevices(true);
+
+    assertArrayEquals(new INDIDeviceListener[]{a}, table.getListeningToDevice("D1"));
+
+    Listener c = new Listener();
+    c.setListenToAllDevices(true);
+    table.addListener(c);
+
+    assertArrayEquals(new INDIDeviceListener[]{a, c}, table.getListeningToDevice("D1"));
+
+    table.removeListener(a);
+
+    assertArrayEquals(new INDIDeviceListener[]{c}, table.getListeningToDevice("D1"));
+  }
+
+  /**
+   * A listener that does not send anything.
+   */
+  private static class Listener extends INDIDeviceListener {
+
+    @Override
+    protected void sendXMLMessage(byte[] xml) {
+    }
+  }
+}
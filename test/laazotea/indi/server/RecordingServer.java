@@ -0,0 +1,120 @@
+/*
+ *  This file is part of INDI for Java.
+ *
+ *  INDI for Java is free software: you can redistribute it
+ *  and/or modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation, either version 3 of
+ *  the License, or (at your option) any later version.
+ *
+ *  INDI for Java is distributed in the hope that it will be
+ *  useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ *  of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with INDI for Java.  If not, see
+ *  <http://www.gnu.org/licenses/>.
+ */
+package laazotea.indi.server;
+
+import java.net.Socket;
+import java.util.concurrent.LinkedBlockingQueue;
+import laazotea.indi.INDIMessage;
+
+/**
+ * A Server without Devices that records what its Clients do, for the tests
+ * of the connections with the Clients.
+ *
+ * @version 1.36, October 17, 2026
+ */
+class RecordingServer extends AbstractINDIServer {
+
+  /**
+   * The messages received from the Clients.
+   */
+  LinkedBlockingQueue<INDIMessage> received;
+  /**
+   * The Clients connected.
+   */
+  LinkedBlockingQueue<INDIClient> connected;
+  /**
+   * The Clients disconnected.
+   */
+  LinkedBlockingQueue<INDIClient> disconnected;
+
+  /**
+   * Constructs a new Server listening to an ephemeral port.
+   */
+  RecordingServer() {
+    super(0);
+
+    received = new LinkedBlockingQueue<INDIMessage>();
+    connected = new LinkedBlockingQueue<INDIClient>();
+    disconnected = new LinkedBlockingQueue<INDIClient>();
+  }
+
+  /**
+   * Sends a message to all the Clients.
+   *
+   * @param xml The message.
+   */
+  void sendToClients(INDIMessage xml) {
+    sendXMLMessageToAllClients(xml);
+  }
+
+  /**
+   * Stops the Server.
+   */
+  void stop() {
+    stopServer();
+  }
+
+  @Override
+  protected boolean acceptClient(Socket socket) {
+    return true;
+  }
+
+  @Override
+  protected void notifyDeviceListenersDefXXXVector(INDIDevice device, INDIMessage xml) {
+  }
+
+  @Override
+  protected void notifyDeviceListenersSetXXXVector(INDIDevice device, INDIMessage xml) {
+  }
+
+  @Override
+  protected void notifyDeviceListenersMessage(INDIDevice device, INDIMessage xml) {
+  }
+
+  @Override
+  protected void notifyDeviceListenersDelProperty(INDIDevice device, INDIMessage xml) {
+  }
+
+  @Override
+  protected void notifyClientListenersGetProperties(INDIDeviceListener client, INDIMessage xml) {
+    received.add(xml);
+  }
+
+  @Override
+  protected void notifyClientListenersNewXXXVector(INDIClient client, INDIMessage xml) {
+    received.add(xml);
+  }
+
+  @Override
+  protected void notifyClientListenersEnableBLOB(INDIClient client, INDIMessage xml) {
+  }
+
+  @Override
+  protected void connectionWithClientBroken(INDIClient client) {
+    disconnected.add(client);
+  }
+
+  @Override
+  protected void connectionWithClientEstablished(INDIClient client) {
+    connected.add(client);
+  }
+
+  @Override
+  protected void driverDisconnected(String driverIdentifier, String[] deviceNames) {
+  }
+}